@@ -0,0 +1,42 @@
+package me.retrodaredevil.solarthing.benchmarks;
+
+import me.retrodaredevil.solarthing.packets.TimestampedPacket;
+import me.retrodaredevil.solarthing.solar.accumulation.AccumulationCalc;
+import me.retrodaredevil.solarthing.solar.accumulation.AccumulationConfig;
+import me.retrodaredevil.solarthing.solar.accumulation.AccumulationPair;
+import me.retrodaredevil.solarthing.solar.accumulation.AccumulationUtil;
+import me.retrodaredevil.solarthing.solar.accumulation.value.FloatAccumulationValue;
+import me.retrodaredevil.solarthing.solar.accumulation.value.FloatAccumulationValueFactory;
+import me.retrodaredevil.solarthing.solar.common.DailyChargeController;
+import me.retrodaredevil.solarthing.solar.outback.mx.MXStatusPacket;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class AccumulationCalcBenchmark {
+	/** The number of days, where 31 represents a month of data like the long term GraphQL queries use */
+	@Param({"1", "31"})
+	public int days;
+
+	private List<TimestampedPacket<MXStatusPacket>> packets;
+	private List<AccumulationPair<MXStatusPacket>> accumulationPairs;
+
+	@Setup
+	public void setup() {
+		// one packet every 5 minutes
+		packets = SyntheticData.createDailyMXPackets(days, 288, 0);
+		accumulationPairs = AccumulationUtil.getAccumulationPairs(packets, AccumulationConfig.createDefault(packets.get(0).getDateMillis()));
+	}
+
+	@Benchmark
+	public List<AccumulationCalc.SumNode<FloatAccumulationValue>> getTotals() {
+		return AccumulationCalc.getTotals(
+				accumulationPairs, FloatAccumulationValue.convert(DailyChargeController::getDailyKWH), packets,
+				FloatAccumulationValueFactory.getInstance()
+		);
+	}
+}
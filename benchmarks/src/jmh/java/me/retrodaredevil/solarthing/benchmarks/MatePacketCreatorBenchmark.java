@@ -0,0 +1,41 @@
+package me.retrodaredevil.solarthing.benchmarks;
+
+import me.retrodaredevil.solarthing.packets.creation.PacketCreationException;
+import me.retrodaredevil.solarthing.solar.outback.MatePacketCreator49;
+import me.retrodaredevil.solarthing.util.IgnoreCheckSum;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MatePacketCreatorBenchmark {
+	private static final int PACKET_COUNT = 100;
+
+	/** The number of characters given to the packet creator at once, similar to the amount read from a serial port at once */
+	@Param({"1", "64"})
+	public int chunkSize;
+
+	private char[][] chunks;
+
+	@Setup
+	public void setup() {
+		char[] stream = SyntheticData.createMateStream(PACKET_COUNT, 0);
+		int chunkCount = (stream.length + chunkSize - 1) / chunkSize;
+		chunks = new char[chunkCount][];
+		for (int i = 0; i < chunkCount; i++) {
+			chunks[i] = Arrays.copyOfRange(stream, i * chunkSize, Math.min(stream.length, (i + 1) * chunkSize));
+		}
+	}
+
+	@Benchmark
+	public void create(Blackhole blackhole) throws PacketCreationException {
+		MatePacketCreator49 creator = new MatePacketCreator49(IgnoreCheckSum.IGNORE_AND_USE_CALCULATED);
+		for (char[] chunk : chunks) {
+			blackhole.consume(creator.add(chunk));
+		}
+	}
+}
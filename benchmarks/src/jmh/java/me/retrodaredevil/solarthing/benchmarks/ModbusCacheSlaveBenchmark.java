@@ -0,0 +1,69 @@
+package me.retrodaredevil.solarthing.benchmarks;
+
+import me.retrodaredevil.io.modbus.ModbusMessage;
+import me.retrodaredevil.io.modbus.ModbusSlave;
+import me.retrodaredevil.io.modbus.handling.BaseReadRegisters;
+import me.retrodaredevil.io.modbus.handling.MessageHandler;
+import me.retrodaredevil.io.modbus.handling.ReadHoldingRegisters;
+import me.retrodaredevil.io.modbus.parsing.DefaultMessageParser;
+import me.retrodaredevil.io.modbus.parsing.MessageParseException;
+import me.retrodaredevil.io.modbus.parsing.MessageParser;
+import me.retrodaredevil.solarthing.program.modbus.ModbusCacheSlave;
+import me.retrodaredevil.solarthing.solar.renogy.rover.modbus.RoverModbusSlaveRead;
+import me.retrodaredevil.solarthing.solar.util.ModbusReadPlan;
+import me.retrodaredevil.solarthing.solar.util.ModbusReadPlanner;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ModbusCacheSlaveBenchmark {
+	private static final MessageParser PARSER = new DefaultMessageParser();
+
+	private ModbusCacheSlave cacheSlave;
+	private ModbusReadPlan plan;
+
+	/**
+	 * A {@link ModbusSlave} that responds to every read immediately, so that only the cost of the cache is measured
+	 */
+	private static final class ZeroModbusSlave implements ModbusSlave {
+		@Override
+		public ModbusMessage sendRequestMessage(ModbusMessage message) {
+			final MessageHandler<?> messageHandler;
+			try {
+				messageHandler = PARSER.parseRequestMessage(message);
+			} catch (MessageParseException e) {
+				throw new RuntimeException(e);
+			}
+			BaseReadRegisters read = (BaseReadRegisters) messageHandler;
+			return read.createResponse(new int[read.getNumberOfRegisters()]);
+		}
+	}
+
+	@Setup
+	public void setup() {
+		cacheSlave = new ModbusCacheSlave(new ZeroModbusSlave());
+		plan = new ModbusReadPlanner(24, 0)
+				.addDeclaredReads(RoverModbusSlaveRead.class)
+				.build();
+		cacheSlave.cache(plan);
+	}
+
+	/** Reads every register from the plan one at a time, which is what happens when a packet is created from a cached read table */
+	@Benchmark
+	public void cachedReads(Blackhole blackhole) {
+		for (ModbusReadPlan.Block block : plan.getBlocks()) {
+			for (int register = block.getStartRegister(); register <= block.getEndRegisterInclusive(); register++) {
+				blackhole.consume(cacheSlave.sendRequestMessage(new ReadHoldingRegisters(register, 1)));
+			}
+		}
+	}
+
+	@Benchmark
+	public void reloadCache() {
+		cacheSlave.cache(plan);
+	}
+}
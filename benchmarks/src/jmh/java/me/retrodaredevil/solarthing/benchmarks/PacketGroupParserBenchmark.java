@@ -0,0 +1,60 @@
+package me.retrodaredevil.solarthing.benchmarks;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import me.retrodaredevil.solarthing.packets.collection.InstancePacketGroup;
+import me.retrodaredevil.solarthing.packets.collection.PacketGroup;
+import me.retrodaredevil.solarthing.packets.collection.parsing.PacketMapperUtil;
+import me.retrodaredevil.solarthing.packets.collection.parsing.PacketParseException;
+import me.retrodaredevil.solarthing.packets.collection.parsing.PacketParsingErrorHandler;
+import me.retrodaredevil.solarthing.packets.collection.parsing.SimplePacketGroupParser;
+import me.retrodaredevil.solarthing.util.JacksonUtil;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PacketGroupParserBenchmark {
+	private static final int COUNT = 500;
+
+	private ObjectMapper mapper;
+	private SimplePacketGroupParser parser;
+	private List<String> jsonList;
+
+	@Setup
+	public void setup() throws IOException {
+		mapper = PacketMapperUtil.createStatusMapper(JacksonUtil.lenientMapper(JacksonUtil.defaultMapper()));
+		parser = new SimplePacketGroupParser(mapper, PacketParsingErrorHandler.DO_NOTHING);
+		jsonList = new ArrayList<>(COUNT);
+		for (InstancePacketGroup packetGroup : SyntheticData.createInstancePacketGroups(COUNT, 1, 0)) {
+			jsonList.add(mapper.writeValueAsString(packetGroup));
+		}
+	}
+
+	/** Parses each packet group by first reading it into a tree */
+	@Benchmark
+	public void parseTree(Blackhole blackhole) throws IOException, PacketParseException {
+		for (String json : jsonList) {
+			ObjectNode objectNode = (ObjectNode) mapper.readTree(json);
+			blackhole.consume(parser.parse(objectNode));
+		}
+	}
+
+	/** Parses each packet group directly from a {@link JsonParser} */
+	@Benchmark
+	public void parseStreaming(Blackhole blackhole) throws IOException, PacketParseException {
+		for (String json : jsonList) {
+			try (JsonParser jsonParser = mapper.getFactory().createParser(json)) {
+				PacketGroup packetGroup = parser.parse(jsonParser);
+				blackhole.consume(packetGroup);
+			}
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package me.retrodaredevil.solarthing.benchmarks;
+
+import me.retrodaredevil.solarthing.SolarThingConstants;
+import me.retrodaredevil.solarthing.packets.collection.DefaultInstanceOptions;
+import me.retrodaredevil.solarthing.packets.collection.FragmentedPacketGroup;
+import me.retrodaredevil.solarthing.packets.collection.InstancePacketGroup;
+import me.retrodaredevil.solarthing.packets.collection.PacketGroups;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PacketGroupsBenchmark {
+	/** 720 is one hour of packets from each fragment */
+	@Param({"60", "720"})
+	public int count;
+	@Param({"1", "3"})
+	public int fragmentCount;
+
+	private List<InstancePacketGroup> instancePacketGroups;
+
+	@Setup
+	public void setup() {
+		instancePacketGroups = SyntheticData.createInstancePacketGroups(count, fragmentCount, 0);
+	}
+
+	@Benchmark
+	public List<FragmentedPacketGroup> mergePackets() {
+		return PacketGroups.mergePackets(
+				instancePacketGroups,
+				SolarThingConstants.STANDARD_MAX_TIME_DISTANCE.toMillis(), SolarThingConstants.STANDARD_MASTER_ID_IGNORE_DISTANCE.toMillis()
+		);
+	}
+
+	@Benchmark
+	public Map<String, List<FragmentedPacketGroup>> sortPackets() {
+		return PacketGroups.sortPackets(
+				instancePacketGroups, DefaultInstanceOptions.REQUIRE_NO_DEFAULTS,
+				SolarThingConstants.STANDARD_MAX_TIME_DISTANCE.toMillis(), SolarThingConstants.STANDARD_MASTER_ID_IGNORE_DISTANCE.toMillis()
+		);
+	}
+}
@@ -0,0 +1,79 @@
+package me.retrodaredevil.solarthing.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.ValueNode;
+import me.retrodaredevil.solarthing.influxdb.FlattenedFieldConsumer;
+import me.retrodaredevil.solarthing.influxdb.PointUtil;
+import me.retrodaredevil.solarthing.packets.Packet;
+import me.retrodaredevil.solarthing.util.JacksonUtil;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PointUtilBenchmark {
+	private static final ObjectMapper MAPPER = JacksonUtil.defaultMapper();
+
+	private List<Packet> packets;
+	private List<ObjectNode> objectNodes;
+
+	@Setup
+	public void setup() {
+		packets = new ArrayList<>(SyntheticData.createInstancePacketGroups(1, 1, 0).get(0).getPackets());
+		objectNodes = new ArrayList<>();
+		for (Packet packet : packets) {
+			objectNodes.add(MAPPER.valueToTree(packet));
+		}
+	}
+
+	@Benchmark
+	public void flattenJsonObject(Blackhole blackhole) {
+		for (ObjectNode objectNode : objectNodes) {
+			Set<Map.Entry<String, ValueNode>> entries = PointUtil.flattenJsonObject(objectNode);
+			blackhole.consume(entries);
+		}
+	}
+
+	/** Includes the time it takes to convert each packet to JSON, which is what InfluxDB packet savers do for every packet */
+	@Benchmark
+	public void valueToTreeAndFlatten(Blackhole blackhole) {
+		for (Packet packet : packets) {
+			ObjectNode objectNode = MAPPER.valueToTree(packet);
+			blackhole.consume(PointUtil.flattenJsonObject(objectNode));
+			blackhole.consume(PointUtil.getTagKeys(packet.getClass()));
+		}
+	}
+
+	/** The replacement for {@link #valueToTreeAndFlatten(Blackhole)} that does not create a JSON tree */
+	@Benchmark
+	public void flattenValue(Blackhole blackhole) {
+		FlattenedFieldConsumer consumer = new FlattenedFieldConsumer() {
+			@Override
+			public void acceptNumber(String key, Number value) {
+				blackhole.consume(value);
+			}
+
+			@Override
+			public void acceptText(String key, String value) {
+				blackhole.consume(value);
+			}
+
+			@Override
+			public void acceptBoolean(String key, boolean value) {
+				blackhole.consume(value);
+			}
+		};
+		for (Packet packet : packets) {
+			PointUtil.flattenValue(MAPPER, packet, ".", consumer);
+			blackhole.consume(PointUtil.getTagKeys(packet.getClass()));
+		}
+	}
+}
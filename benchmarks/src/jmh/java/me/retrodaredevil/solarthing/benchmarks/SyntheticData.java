@@ -0,0 +1,128 @@
+package me.retrodaredevil.solarthing.benchmarks;
+
+import me.retrodaredevil.solarthing.annotations.UtilityClass;
+import me.retrodaredevil.solarthing.packets.Packet;
+import me.retrodaredevil.solarthing.packets.TimestampedPacket;
+import me.retrodaredevil.solarthing.packets.collection.InstancePacketGroup;
+import me.retrodaredevil.solarthing.packets.collection.PacketGroups;
+import me.retrodaredevil.solarthing.solar.outback.fx.FXStatusPackets;
+import me.retrodaredevil.solarthing.solar.outback.mx.MXStatusPacket;
+import me.retrodaredevil.solarthing.solar.outback.mx.MXStatusPackets;
+import me.retrodaredevil.solarthing.util.CheckSumException;
+import me.retrodaredevil.solarthing.util.IgnoreCheckSum;
+import me.retrodaredevil.solarthing.util.ParsePacketAsciiDecimalDigitException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates data that resembles what a real system produces. Each generator takes a seed, so each benchmark run uses the same data.
+ */
+@UtilityClass
+public final class SyntheticData {
+	private SyntheticData() { throw new UnsupportedOperationException(); }
+
+	public static final String SOURCE_ID = "default";
+	/** The amount of time between each packet collection uploaded from a single fragment */
+	public static final long PERIOD_MILLIS = 5_000;
+	private static final long DAY_MILLIS = 24 * 60 * 60 * 1000;
+
+	private static String digits(int value, int length) {
+		char[] chars = new char[length];
+		for (int i = length - 1; i >= 0; i--) {
+			chars[i] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * @return The characters for an FX status packet, as sent by an Outback MATE. The checksum is not correct, so use {@link IgnoreCheckSum#IGNORE_AND_USE_CALCULATED}
+	 */
+	public static String createFXChars(int address, int batteryVoltageTenths) {
+		return "\n" + address + ",10,10,10,100,100,10,03,000,02," + digits(batteryVoltageTenths, 3) + ",129,000,999\r";
+	}
+	/**
+	 * @return The characters for an MX/FM status packet, as sent by an Outback MATE. The checksum is not correct, so use {@link IgnoreCheckSum#IGNORE_AND_USE_CALCULATED}
+	 */
+	public static String createMXChars(int address, int dailyKWHTenths, int batteryVoltageTenths) {
+		return "\n" + (char) ('A' + address) + ",00,27,13,054," + digits(dailyKWHTenths, 3) + ",00,00,000,02," + digits(batteryVoltageTenths, 3) + ",0000,00,999\r";
+	}
+
+	/**
+	 * @return A stream of characters containing {@code packetCount} packets, similar to what is received from a MATE's serial port
+	 */
+	public static char[] createMateStream(int packetCount, long seed) {
+		Random random = new Random(seed);
+		StringBuilder builder = new StringBuilder(packetCount * 49);
+		for (int i = 0; i < packetCount; i++) {
+			if (i % 2 == 0) {
+				builder.append(createFXChars(1 + random.nextInt(4), 240 + random.nextInt(60)));
+			} else {
+				builder.append(createMXChars(random.nextInt(4), random.nextInt(300), 240 + random.nextInt(60)));
+			}
+		}
+		return builder.toString().toCharArray();
+	}
+
+	/**
+	 * @param count The number of packet groups per fragment
+	 * @param fragmentCount The number of fragments
+	 * @return Instance packet groups from multiple fragments, sorted by date
+	 */
+	public static List<InstancePacketGroup> createInstancePacketGroups(int count, int fragmentCount, long seed) {
+		Random random = new Random(seed);
+		List<InstancePacketGroup> r = new ArrayList<>(count * fragmentCount);
+		long startDateMillis = 1_600_000_000_000L;
+		for (int i = 0; i < count; i++) {
+			for (int fragmentId = 1; fragmentId <= fragmentCount; fragmentId++) {
+				// fragments don't upload at exactly the same time
+				long dateMillis = startDateMillis + i * PERIOD_MILLIS + random.nextInt(1000);
+				List<Packet> packets = Arrays.asList(
+						createFX(fragmentId, 240 + random.nextInt(60)),
+						createMX(fragmentId, random.nextInt(300), 240 + random.nextInt(60))
+				);
+				r.add(PacketGroups.createInstancePacketGroup(packets, dateMillis, SOURCE_ID, fragmentId));
+			}
+		}
+		return r;
+	}
+
+	/**
+	 * @param days The number of days to generate packets for
+	 * @param packetsPerDay The number of packets for each day
+	 * @return MX status packets whose daily kWh increases throughout the day and resets at the start of each day
+	 */
+	public static List<TimestampedPacket<MXStatusPacket>> createDailyMXPackets(int days, int packetsPerDay, long seed) {
+		Random random = new Random(seed);
+		List<TimestampedPacket<MXStatusPacket>> r = new ArrayList<>(days * packetsPerDay);
+		long startDateMillis = 1_600_000_000_000L;
+		long periodMillis = DAY_MILLIS / packetsPerDay;
+		for (int day = 0; day < days; day++) {
+			int dailyKWHTenths = 0;
+			for (int i = 0; i < packetsPerDay; i++) {
+				dailyKWHTenths = Math.min(999, dailyKWHTenths + random.nextInt(3));
+				long dateMillis = startDateMillis + day * DAY_MILLIS + i * periodMillis;
+				r.add(new TimestampedPacket<>(createMX(0, dailyKWHTenths, 240 + random.nextInt(60)), dateMillis));
+			}
+		}
+		return r;
+	}
+
+	private static Packet createFX(int address, int batteryVoltageTenths) {
+		try {
+			return FXStatusPackets.createFromChars(createFXChars(address, batteryVoltageTenths).toCharArray(), IgnoreCheckSum.IGNORE_AND_USE_CALCULATED);
+		} catch (ParsePacketAsciiDecimalDigitException | CheckSumException e) {
+			throw new AssertionError("Generated FX characters should always be valid!", e);
+		}
+	}
+	private static MXStatusPacket createMX(int address, int dailyKWHTenths, int batteryVoltageTenths) {
+		try {
+			return MXStatusPackets.createFromChars(createMXChars(address, dailyKWHTenths, batteryVoltageTenths).toCharArray(), IgnoreCheckSum.IGNORE_AND_USE_CALCULATED);
+		} catch (ParsePacketAsciiDecimalDigitException | CheckSumException e) {
+			throw new AssertionError("Generated MX characters should always be valid!", e);
+		}
+	}
+}
@@ -3,6 +3,7 @@ package me.retrodaredevil.solarthing.actions.command;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import me.retrodaredevil.solarthing.actions.environment.ActionEnvironment;
+import me.retrodaredevil.solarthing.annotations.Nullable;
 import me.retrodaredevil.solarthing.actions.environment.SourceIdEnvironment;
 import me.retrodaredevil.solarthing.actions.environment.TimeZoneEnvironment;
 import me.retrodaredevil.solarthing.commands.packets.open.CommandOpenPacket;
@@ -26,6 +27,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
 import java.security.KeyPair;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
@@ -39,27 +41,42 @@ import static java.util.Objects.requireNonNull;
 public class CommandManager {
 	private static final Logger LOGGER = LoggerFactory.getLogger(CommandManager.class);
 	private static final ObjectMapper MAPPER = JacksonUtil.defaultMapper();
-	private static final Cipher CIPHER;
-
-	static {
-		try {
-			CIPHER = Cipher.getInstance(KeyUtil.CIPHER_TRANSFORMATION);
-		} catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
-			throw new RuntimeException(e);
-		}
-	}
 
 	private final File keyDirectory;
 	private final String sender;
 
+	/** The cached key pair. This and the fields below are only accessed in synchronized methods */
+	private KeyPair keyPair = null;
+	private FileTime publicKeyModifiedTime = null;
+	private FileTime privateKeyModifiedTime = null;
+
+	private final Cipher cipher;
+	/** The key that {@link #cipher} is initialized with, or null */
+	private PrivateKey cipherKey = null;
+
 	public CommandManager(File keyDirectory, String sender) {
 		requireNonNull(this.keyDirectory = keyDirectory);
 		requireNonNull(this.sender = sender);
+		try {
+			cipher = Cipher.getInstance(KeyUtil.CIPHER_TRANSFORMATION);
+		} catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+			throw new RuntimeException(e);
+		}
 	}
 
-	public KeyPair getKeyPair() {
+	/**
+	 * Gets the key pair, creating one if it does not exist yet. The key pair is only read from disk again if the key files have been modified.
+	 */
+	public synchronized KeyPair getKeyPair() {
 		File publicKeyFile = new File(keyDirectory, ".publickey");
 		File privateKeyFile = new File(keyDirectory, ".privatekey");
+		// get the modified times before reading so that if the files are changed while we read them, they are read again next time
+		FileTime publicKeyModifiedTime = getModifiedTime(publicKeyFile);
+		FileTime privateKeyModifiedTime = getModifiedTime(privateKeyFile);
+		if (keyPair != null && publicKeyModifiedTime != null && privateKeyModifiedTime != null
+				&& publicKeyModifiedTime.equals(this.publicKeyModifiedTime) && privateKeyModifiedTime.equals(this.privateKeyModifiedTime)) {
+			return keyPair;
+		}
 		KeyPair keyPair;
 		try {
 			PublicKey publicKey = KeyUtil.decodePublicKey(Files.readAllBytes(publicKeyFile.toPath()));
@@ -80,8 +97,37 @@ public class CommandManager {
 			} catch (IOException ioException) {
 				throw new RuntimeException("Error writing keys", e);
 			}
+			publicKeyModifiedTime = getModifiedTime(publicKeyFile);
+			privateKeyModifiedTime = getModifiedTime(privateKeyFile);
+		}
+		this.keyPair = requireNonNull(keyPair);
+		this.publicKeyModifiedTime = publicKeyModifiedTime;
+		this.privateKeyModifiedTime = privateKeyModifiedTime;
+		return keyPair;
+	}
+	private static @Nullable FileTime getModifiedTime(File file) {
+		try {
+			return Files.getLastModifiedTime(file.toPath());
+		} catch (IOException e) {
+			return null;
+		}
+	}
+	private synchronized String encrypt(PrivateKey key, String dataToEncrypt) throws InvalidKeyException, EncryptException {
+		if (cipherKey != key) {
+			cipherKey = null;
+			try {
+				cipher.init(Cipher.ENCRYPT_MODE, key);
+			} catch (java.security.InvalidKeyException e) {
+				throw new InvalidKeyException(e);
+			}
+			cipherKey = key;
+		}
+		try {
+			return Encrypt.encryptInitialized(cipher, dataToEncrypt);
+		} catch (EncryptException e) {
+			cipherKey = null;
+			throw e;
 		}
-		return requireNonNull(keyPair);
 	}
 
 	public PacketCollection create(ActionEnvironment actionEnvironment, Collection<Integer> fragmentIdTargets, CommandOpenPacket commandOpenPacket) {
@@ -107,7 +153,7 @@ public class CommandManager {
 		String hashString = Long.toHexString(System.currentTimeMillis()) + "," + HashUtil.encodedHash(payload);
 		final String encrypted;
 		try {
-			encrypted = Encrypt.encrypt(CIPHER, keyPair.getPrivate(), hashString);
+			encrypted = encrypt(keyPair.getPrivate(), hashString);
 		} catch (InvalidKeyException | EncryptException e) {
 			throw new RuntimeException(e);
 		}
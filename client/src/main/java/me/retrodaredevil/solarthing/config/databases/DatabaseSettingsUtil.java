@@ -21,7 +21,8 @@ public class DatabaseSettingsUtil {
 				InfluxDb2DatabaseSettings.class,
 				LatestFileDatabaseSettings.class,
 				PostDatabaseSettings.class,
-				MqttDatabaseSettings.class
+				MqttDatabaseSettings.class,
+				LocalDatabaseSettings.class
 		);
 	}
 }
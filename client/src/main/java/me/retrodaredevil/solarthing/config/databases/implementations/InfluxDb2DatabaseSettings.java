@@ -1,9 +1,12 @@
 package me.retrodaredevil.solarthing.config.databases.implementations;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonTypeName;
 import com.fasterxml.jackson.annotation.JsonUnwrapped;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import me.retrodaredevil.influxdb.influxdb2.InfluxDb2Properties;
+import me.retrodaredevil.solarthing.annotations.Nullable;
+import me.retrodaredevil.solarthing.influxdb.infuxdb2.InfluxDb2BatchSettings;
 import me.retrodaredevil.solarthing.jackson.UnwrappedDeserializer;
 import me.retrodaredevil.okhttp3.OkHttpProperties;
 import me.retrodaredevil.solarthing.config.databases.DatabaseSettings;
@@ -19,10 +22,15 @@ public class InfluxDb2DatabaseSettings implements DatabaseSettings {
 
 	private final InfluxDb2Properties influxDbProperties;
 	private final OkHttpProperties okHttpProperties;
+	private final InfluxDb2BatchSettings batchSettings;
 
-	public InfluxDb2DatabaseSettings(InfluxDb2Properties influxDbProperties, OkHttpProperties okHttpProperties) {
+	public InfluxDb2DatabaseSettings(InfluxDb2Properties influxDbProperties, OkHttpProperties okHttpProperties, InfluxDb2BatchSettings batchSettings) {
 		requireNonNull(this.influxDbProperties = influxDbProperties);
 		requireNonNull(this.okHttpProperties = okHttpProperties);
+		this.batchSettings = batchSettings;
+	}
+	public InfluxDb2DatabaseSettings(InfluxDb2Properties influxDbProperties, OkHttpProperties okHttpProperties) {
+		this(influxDbProperties, okHttpProperties, null);
 	}
 
 	@Override
@@ -36,6 +44,14 @@ public class InfluxDb2DatabaseSettings implements DatabaseSettings {
 	public OkHttpProperties getOkHttpProperties() {
 		return okHttpProperties;
 	}
+
+	/**
+	 * Batches cannot be used with a retry queue, because points that fail to be written are not reported until after they have been handled.
+	 * @return The settings for writing status packets in batches, or null if each packet collection should be written right away
+	 */
+	public @Nullable InfluxDb2BatchSettings getBatchSettings() {
+		return batchSettings;
+	}
 	static class Deserializer extends UnwrappedDeserializer<InfluxDb2DatabaseSettings, Builder> {
 		Deserializer() {
 			super(Builder.class, Builder::build);
@@ -46,9 +62,11 @@ public class InfluxDb2DatabaseSettings implements DatabaseSettings {
 		private InfluxDb2Properties influxDbProperties;
 		@JsonUnwrapped
 		private OkHttpProperties okHttpProperties;
+		@JsonProperty("batch")
+		private InfluxDb2BatchSettings batchSettings;
 
 		public InfluxDb2DatabaseSettings build() {
-			return new InfluxDb2DatabaseSettings(influxDbProperties, okHttpProperties);
+			return new InfluxDb2DatabaseSettings(influxDbProperties, okHttpProperties, batchSettings);
 		}
 
 	}
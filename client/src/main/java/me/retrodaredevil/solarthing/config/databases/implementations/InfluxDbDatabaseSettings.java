@@ -5,6 +5,8 @@ import com.fasterxml.jackson.annotation.JsonTypeName;
 import com.fasterxml.jackson.annotation.JsonUnwrapped;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import me.retrodaredevil.influxdb.influxdb1.InfluxProperties;
+import me.retrodaredevil.solarthing.annotations.Nullable;
+import me.retrodaredevil.solarthing.influxdb.influxdb1.InfluxDbBatchSettings;
 import me.retrodaredevil.solarthing.jackson.UnwrappedDeserializer;
 import me.retrodaredevil.okhttp3.OkHttpProperties;
 import me.retrodaredevil.solarthing.config.databases.DatabaseSettings;
@@ -30,14 +32,19 @@ public final class InfluxDbDatabaseSettings implements DatabaseSettings {
 	private final List<FrequentObject<RetentionPolicySetting>> frequentStatusRetentionPolicyList;
 
 	private final RetentionPolicySetting eventRetentionPolicySetting;
+	private final InfluxDbBatchSettings batchSettings;
 
-	public InfluxDbDatabaseSettings(InfluxProperties influxProperties, OkHttpProperties okHttpProperties, String databaseName, String measurementName, Collection<FrequentObject<RetentionPolicySetting>> frequentRetentionPolicies, RetentionPolicySetting eventRetentionPolicySetting) {
+	public InfluxDbDatabaseSettings(InfluxProperties influxProperties, OkHttpProperties okHttpProperties, String databaseName, String measurementName, Collection<FrequentObject<RetentionPolicySetting>> frequentRetentionPolicies, RetentionPolicySetting eventRetentionPolicySetting, InfluxDbBatchSettings batchSettings) {
 		this.influxProperties = requireNonNull(influxProperties);
 		this.okHttpProperties = requireNonNull(okHttpProperties);
 		this.databaseName = databaseName;
 		this.measurementName = measurementName;
 		this.frequentStatusRetentionPolicyList = Collections.unmodifiableList(new ArrayList<>(frequentRetentionPolicies));
 		this.eventRetentionPolicySetting = eventRetentionPolicySetting;
+		this.batchSettings = batchSettings;
+	}
+	public InfluxDbDatabaseSettings(InfluxProperties influxProperties, OkHttpProperties okHttpProperties, String databaseName, String measurementName, Collection<FrequentObject<RetentionPolicySetting>> frequentRetentionPolicies, RetentionPolicySetting eventRetentionPolicySetting) {
+		this(influxProperties, okHttpProperties, databaseName, measurementName, frequentRetentionPolicies, eventRetentionPolicySetting, null);
 	}
 
 	@Override
@@ -63,6 +70,14 @@ public final class InfluxDbDatabaseSettings implements DatabaseSettings {
 	public RetentionPolicySetting getEventRetentionPolicy(){
 		return eventRetentionPolicySetting;
 	}
+
+	/**
+	 * Batches cannot be used with a retry queue, because points that fail to be written are not reported until after they have been handled.
+	 * @return The settings for writing status packets in batches, or null if each packet collection should be written right away
+	 */
+	public @Nullable InfluxDbBatchSettings getBatchSettings() {
+		return batchSettings;
+	}
 	static class Deserializer extends UnwrappedDeserializer<InfluxDbDatabaseSettings, Builder> {
 		Deserializer() {
 			super(Builder.class, Builder::build);
@@ -81,9 +96,11 @@ public final class InfluxDbDatabaseSettings implements DatabaseSettings {
 		private List<FrequentObject<RetentionPolicySetting>> frequentStatusRetentionPolicies;
 		@JsonProperty("event_retention_policy")
 		private RetentionPolicySetting eventRetentionPolicySetting;
+		@JsonProperty("batch")
+		private InfluxDbBatchSettings batchSettings;
 
 		public InfluxDbDatabaseSettings build() {
-			return new InfluxDbDatabaseSettings(influxProperties, okHttpProperties, databaseName, measurementName, frequentStatusRetentionPolicies, eventRetentionPolicySetting);
+			return new InfluxDbDatabaseSettings(influxProperties, okHttpProperties, databaseName, measurementName, frequentStatusRetentionPolicies, eventRetentionPolicySetting, batchSettings);
 		}
 	}
 }
@@ -0,0 +1,85 @@
+package me.retrodaredevil.solarthing.config.databases.implementations;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyDescription;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+import me.retrodaredevil.solarthing.annotations.Nullable;
+import me.retrodaredevil.solarthing.config.databases.DatabaseSettings;
+import me.retrodaredevil.solarthing.config.databases.DatabaseType;
+import me.retrodaredevil.solarthing.config.databases.SimpleDatabaseType;
+import me.retrodaredevil.solarthing.database.local.LocalMillisDatabase;
+import me.retrodaredevil.solarthing.util.queue.FsyncPolicy;
+
+import java.io.File;
+import java.time.Duration;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Settings for a database stored on the local disk, which does not need a database server
+ */
+@JsonTypeName("local")
+public final class LocalDatabaseSettings implements DatabaseSettings {
+	public static final DatabaseType TYPE = new SimpleDatabaseType("local");
+
+	private final File directory;
+	private final FsyncPolicy fsyncPolicy;
+	private final long segmentSizeBytes;
+	private final @Nullable Duration retention;
+	private final @Nullable CouchDbDatabaseSettings replicationSettings;
+
+	@JsonCreator
+	public LocalDatabaseSettings(
+			@JsonProperty(value = "directory", required = true) File directory,
+			@JsonProperty("fsync") FsyncPolicy fsyncPolicy,
+			@JsonProperty("segment_size_mb") Long segmentSizeMegabytes,
+			@JsonProperty("retention") @JsonPropertyDescription("An ISO 8601 duration such as P90D. Documents older than this are deleted once they have been replicated. If not set, documents are kept forever") String retentionString,
+			@JsonProperty("replicate_to") CouchDbDatabaseSettings replicationSettings) {
+		requireNonNull(this.directory = directory, "directory is required!");
+		this.fsyncPolicy = fsyncPolicy == null ? FsyncPolicy.EVERY_WRITE : fsyncPolicy;
+		if (segmentSizeMegabytes != null && segmentSizeMegabytes <= 0) {
+			throw new IllegalArgumentException("segment_size_mb must be positive! segment_size_mb=" + segmentSizeMegabytes);
+		}
+		segmentSizeBytes = segmentSizeMegabytes == null ? LocalMillisDatabase.DEFAULT_MAX_SEGMENT_BYTES : segmentSizeMegabytes * 1024 * 1024;
+		retention = retentionString == null ? null : Duration.parse(retentionString);
+		if (retention != null && (retention.isZero() || retention.isNegative())) {
+			throw new IllegalArgumentException("retention must be positive! retention=" + retentionString);
+		}
+		this.replicationSettings = replicationSettings;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	public FsyncPolicy getFsyncPolicy() {
+		return fsyncPolicy;
+	}
+
+	/**
+	 * @return The maximum size of each segment file of the local database
+	 */
+	public long getSegmentSizeBytes() {
+		return segmentSizeBytes;
+	}
+
+	/**
+	 * @return The age after which documents are deleted, or null if documents should be kept forever
+	 */
+	public @Nullable Duration getRetention() {
+		return retention;
+	}
+
+	/**
+	 * @return The settings of the CouchDB instance to replicate status and event packets to, or null if packets should only be stored locally
+	 */
+	public @Nullable CouchDbDatabaseSettings getReplicationSettings() {
+		return replicationSettings;
+	}
+
+	@Override
+	public DatabaseType getDatabaseType() {
+		return TYPE;
+	}
+}
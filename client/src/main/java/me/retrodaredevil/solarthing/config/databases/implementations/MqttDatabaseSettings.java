@@ -9,6 +9,7 @@ import me.retrodaredevil.solarthing.config.databases.DatabaseSettings;
 import me.retrodaredevil.solarthing.config.databases.DatabaseType;
 import me.retrodaredevil.solarthing.config.databases.SimpleDatabaseType;
 import me.retrodaredevil.solarthing.mqtt.MqttPacketSaver;
+import me.retrodaredevil.solarthing.mqtt.MqttPayloadMode;
 
 import static java.util.Objects.requireNonNull;
 
@@ -22,6 +23,10 @@ public class MqttDatabaseSettings implements DatabaseSettings {
 	private final char[] password;
 	private final String topicFormat;
 	private final boolean retain;
+	private final MqttPayloadMode payloadMode;
+	private final int collectionQos;
+	private final int packetQos;
+	private final int fieldQos;
 
 	@JsonCreator
 	public MqttDatabaseSettings(
@@ -30,13 +35,21 @@ public class MqttDatabaseSettings implements DatabaseSettings {
 			@JsonProperty(value = "username", required = true) String username,
 			@JsonProperty(value = "password", required = true) char[] password,
 			@JsonProperty("topic") String topicFormat,
-			@JsonProperty("retain") Boolean retain) {
+			@JsonProperty("retain") Boolean retain,
+			@JsonProperty("payload") MqttPayloadMode payloadMode,
+			@JsonProperty("collection_qos") Integer collectionQos,
+			@JsonProperty("packet_qos") Integer packetQos,
+			@JsonProperty("field_qos") Integer fieldQos) {
 		requireNonNull(this.broker = broker);
 		this.clientId = clientId;
 		requireNonNull(this.username = username);
 		requireNonNull(this.password = password);
 		this.topicFormat = topicFormat == null ? MqttPacketSaver.DEFAULT_TOPIC_FORMAT : topicFormat;
 		this.retain = retain == null || retain; // default to true
+		this.payloadMode = payloadMode == null ? MqttPayloadMode.FIELDS : payloadMode;
+		this.collectionQos = collectionQos == null ? MqttPacketSaver.DEFAULT_COLLECTION_QOS : collectionQos;
+		this.packetQos = packetQos == null ? MqttPacketSaver.DEFAULT_PACKET_QOS : packetQos;
+		this.fieldQos = fieldQos == null ? MqttPacketSaver.DEFAULT_FIELD_QOS : fieldQos;
 	}
 
 	@Override
@@ -67,4 +80,23 @@ public class MqttDatabaseSettings implements DatabaseSettings {
 	public boolean isRetain() {
 		return retain;
 	}
+
+	public @NotNull MqttPayloadMode getPayloadMode() {
+		return payloadMode;
+	}
+
+	/** @return The QoS used to publish the packet collection */
+	public int getCollectionQos() {
+		return collectionQos;
+	}
+
+	/** @return The QoS used to publish each packet as JSON */
+	public int getPacketQos() {
+		return packetQos;
+	}
+
+	/** @return The QoS used to publish each field of each packet */
+	public int getFieldQos() {
+		return fieldQos;
+	}
 }
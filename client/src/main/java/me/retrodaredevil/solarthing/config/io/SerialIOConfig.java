@@ -29,6 +29,13 @@ public class SerialIOConfig implements IOConfig {
 	@JsonDeserialize(as = SerialConfigBuilderJackson.class)
 	private SerialConfig serialConfig;
 
+	/**
+	 * @return The name of the serial port, such as /dev/ttyUSB0
+	 */
+	public String getPort() {
+		return port;
+	}
+
 	@Override
 	public IOBundle createIOBundle() throws Exception {
 		SerialConfig serialConfig = this.serialConfig;
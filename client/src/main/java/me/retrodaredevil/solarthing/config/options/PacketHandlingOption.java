@@ -2,9 +2,11 @@ package me.retrodaredevil.solarthing.config.options;
 
 
 import me.retrodaredevil.solarthing.annotations.NotNull;
+import me.retrodaredevil.solarthing.annotations.Nullable;
 import me.retrodaredevil.solarthing.config.request.DataRequester;
 
 import java.io.File;
+import java.time.Duration;
 import java.util.List;
 
 public interface PacketHandlingOption extends TimeZoneOption {
@@ -18,4 +20,9 @@ public interface PacketHandlingOption extends TimeZoneOption {
 	boolean isDocumentIdShort();
 
 	@NotNull List<DataRequester> getDataRequesterList();
+
+	/**
+	 * @return The period to log metrics at, or null if metrics should not be logged
+	 */
+	@Nullable Duration getMetricsLogPeriod();
 }
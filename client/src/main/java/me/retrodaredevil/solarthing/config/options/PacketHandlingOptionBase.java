@@ -7,6 +7,7 @@ import me.retrodaredevil.solarthing.annotations.Nullable;
 import me.retrodaredevil.solarthing.config.request.DataRequester;
 
 import java.io.File;
+import java.time.Duration;
 import java.util.Collections;
 import java.util.List;
 
@@ -29,6 +30,10 @@ abstract class PacketHandlingOptionBase extends TimeZoneOptionBase implements Pa
 	@JsonProperty("request")
 	private @Nullable List<DataRequester> dataRequesterList;
 
+	@JsonProperty("metrics_log_period")
+	@JsonPropertyDescription("An ISO 8601 duration such as PT5M. If set, metrics for each database are logged this often.")
+	private @Nullable String metricsLogPeriodString = null;
+
 	@Override
 	public @NotNull List<File> getDatabaseConfigurationFiles() {
 		List<File> r = databases;
@@ -66,4 +71,13 @@ abstract class PacketHandlingOptionBase extends TimeZoneOptionBase implements Pa
 		}
 		return r;
 	}
+
+	@Override
+	public @Nullable Duration getMetricsLogPeriod() {
+		String metricsLogPeriodString = this.metricsLogPeriodString;
+		if (metricsLogPeriodString == null) {
+			return null;
+		}
+		return Duration.parse(metricsLogPeriodString);
+	}
 }
@@ -1,15 +1,33 @@
 package me.retrodaredevil.solarthing.config.request;
 
 import me.retrodaredevil.solarthing.actions.command.EnvironmentUpdater;
+import me.retrodaredevil.solarthing.annotations.Nullable;
 import me.retrodaredevil.solarthing.packets.handling.PacketListReceiver;
 
+import java.time.Duration;
+
 public final class DataRequesterResult {
 	private final PacketListReceiver statusPacketListReceiver;
 	private final EnvironmentUpdater environmentUpdater;
+	private final Duration parallelTimeout;
+	private final String deviceName;
 
-	public DataRequesterResult(PacketListReceiver statusPacketListReceiver, EnvironmentUpdater environmentUpdater) {
+	/**
+	 * @param parallelTimeout If not null, {@code statusPacketListReceiver} can run on its own thread. This is the maximum amount of time to wait for it each time.
+	 * @param deviceName The name of the device that this uses, such as a serial port, or null if unknown. Must not be null if {@code parallelTimeout} is not null,
+	 *                   so that a data requester running on its own thread is not given a device that another data requester uses.
+	 */
+	public DataRequesterResult(PacketListReceiver statusPacketListReceiver, EnvironmentUpdater environmentUpdater, @Nullable Duration parallelTimeout, @Nullable String deviceName) {
 		this.statusPacketListReceiver = statusPacketListReceiver;
 		this.environmentUpdater = environmentUpdater;
+		this.parallelTimeout = parallelTimeout;
+		this.deviceName = deviceName;
+		if (parallelTimeout != null && deviceName == null) {
+			throw new IllegalArgumentException("deviceName must be known if this can run on its own thread!");
+		}
+	}
+	public DataRequesterResult(PacketListReceiver statusPacketListReceiver, EnvironmentUpdater environmentUpdater) {
+		this(statusPacketListReceiver, environmentUpdater, null, null);
 	}
 	public DataRequesterResult(PacketListReceiver packetListReceiver) {
 		this(packetListReceiver, EnvironmentUpdater.DO_NOTHING);
@@ -22,4 +40,18 @@ public final class DataRequesterResult {
 	public EnvironmentUpdater getEnvironmentUpdater() {
 		return environmentUpdater;
 	}
+
+	/**
+	 * @return The maximum amount of time to wait for {@link #getStatusPacketListReceiver()} if it can run on its own thread, or null if it cannot
+	 */
+	public @Nullable Duration getParallelTimeout() {
+		return parallelTimeout;
+	}
+
+	/**
+	 * @return The name of the device that this uses, such as a serial port, or null if unknown
+	 */
+	public @Nullable String getDeviceName() {
+		return deviceName;
+	}
 }
@@ -7,6 +7,7 @@ import me.retrodaredevil.io.modbus.*;
 import me.retrodaredevil.solarthing.actions.command.EnvironmentUpdater;
 import me.retrodaredevil.solarthing.actions.command.EnvironmentUpdaterMultiplexer;
 import me.retrodaredevil.solarthing.config.io.IOConfig;
+import me.retrodaredevil.solarthing.config.io.SerialIOConfig;
 import me.retrodaredevil.solarthing.config.request.DataRequester;
 import me.retrodaredevil.solarthing.config.request.DataRequesterResult;
 import me.retrodaredevil.solarthing.config.request.RequestObject;
@@ -14,8 +15,13 @@ import me.retrodaredevil.solarthing.io.ReloadableIOBundle;
 import me.retrodaredevil.solarthing.packets.handling.PacketListReceiver;
 import me.retrodaredevil.solarthing.packets.handling.PacketListReceiverMultiplexer;
 import me.retrodaredevil.solarthing.program.ConfigUtil;
+import me.retrodaredevil.solarthing.program.modbus.LockedModbusSlave;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -27,13 +33,26 @@ import static java.util.Objects.requireNonNull;
 public class ModbusDataRequester implements DataRequester {
 	private final File ioBundleFile;
 	private final Map<Integer, ModbusRequester> addressToModbusRequesterMap;
+	private final Duration timeout;
 
+	/**
+	 * @param timeoutSeconds If not null, this bus is polled on its own thread at the same time as other buses, and this is the maximum
+	 *                       number of seconds to wait for every device on this bus to be polled. Must be positive
+	 */
 	@JsonCreator
 	public ModbusDataRequester(
 			@JsonProperty(value = "io", required = true) File ioBundleFile,
-			@JsonProperty(value = "devices", required = true) Map<Integer, ModbusRequester> addressToModbusRequesterMap) {
+			@JsonProperty(value = "devices", required = true) Map<Integer, ModbusRequester> addressToModbusRequesterMap,
+			@JsonProperty("timeout") Float timeoutSeconds) {
 		requireNonNull(this.ioBundleFile = ioBundleFile);
 		requireNonNull(this.addressToModbusRequesterMap = addressToModbusRequesterMap);
+		if (timeoutSeconds != null && !(timeoutSeconds > 0)) {
+			throw new IllegalArgumentException("timeout must be a positive number of seconds! timeout=" + timeoutSeconds);
+		}
+		this.timeout = timeoutSeconds == null ? null : Duration.ofMillis(Math.max(1, Math.round(timeoutSeconds * 1000.0f)));
+	}
+	public ModbusDataRequester(File ioBundleFile, Map<Integer, ModbusRequester> addressToModbusRequesterMap) {
+		this(ioBundleFile, addressToModbusRequesterMap, null);
 	}
 
 	@Override
@@ -42,6 +61,8 @@ public class ModbusDataRequester implements DataRequester {
 		IOConfig ioConfig = ConfigUtil.parseIOConfig(ioBundleFile, first.getDefaultSerialConfig());
 		ReloadableIOBundle ioBundle = new ReloadableIOBundle(ioConfig::createIOBundle);
 		ModbusSlaveBus modbus = new IOModbusSlaveBus(ioBundle, new RtuDataEncoder(2000, 40, 4));
+		// Commands may use this bus from another thread, especially when this bus is polled on its own thread
+		Object busLock = new Object();
 
 		ReloadIOSuccessReporterHandler reloadIOSuccessReporterHandler = new ReloadIOSuccessReporterHandler(ioBundle::reload);
 
@@ -50,14 +71,38 @@ public class ModbusDataRequester implements DataRequester {
 		for (Map.Entry<Integer, ModbusRequester> entry : addressToModbusRequesterMap.entrySet()) {
 			int address = entry.getKey();
 			ModbusRequester modbusRequester = entry.getValue();
-			ModbusSlave slave = new ImmutableAddressModbusSlave(address, modbus);
+			ModbusSlave slave = new LockedModbusSlave(new ImmutableAddressModbusSlave(address, modbus), busLock);
 			DataRequesterResult result = modbusRequester.create(requestObject, reloadIOSuccessReporterHandler.createReporter(), slave);
 			packetListReceiverList.add(result.getStatusPacketListReceiver());
 			environmentUpdaterList.add(result.getEnvironmentUpdater());
 		}
+		PacketListReceiver packetListReceiver = new PacketListReceiverMultiplexer(packetListReceiverList);
 		return new DataRequesterResult(
-				new PacketListReceiverMultiplexer(packetListReceiverList),
-				new EnvironmentUpdaterMultiplexer(environmentUpdaterList)
+				(packets, instantType) -> {
+					// hold the lock while every device is polled, so commands don't change anything while a device is only partially read
+					synchronized (busLock) {
+						packetListReceiver.receive(packets, instantType);
+					}
+				},
+				new EnvironmentUpdaterMultiplexer(environmentUpdaterList),
+				timeout,
+				getDeviceName(ioConfig)
 		);
 	}
+
+	/**
+	 * @return The name of the serial port, or the path of the io file if it is not a serial port
+	 */
+	private String getDeviceName(IOConfig ioConfig) {
+		if (ioConfig instanceof SerialIOConfig) {
+			String port = ((SerialIOConfig) ioConfig).getPort();
+			try {
+				// different names may refer to the same port, such as /dev/serial/by-id/... and /dev/ttyUSB0
+				return Paths.get(port).toRealPath().toString();
+			} catch (IOException | InvalidPathException e) {
+				return port;
+			}
+		}
+		return ioBundleFile.getAbsoluteFile().toPath().normalize().toString();
+	}
 }
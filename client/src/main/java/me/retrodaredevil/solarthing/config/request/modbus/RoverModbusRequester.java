@@ -16,10 +16,13 @@ import me.retrodaredevil.solarthing.packets.identification.NumberedIdentifier;
 import me.retrodaredevil.solarthing.program.ModbusListUpdaterWrapper;
 import me.retrodaredevil.solarthing.program.RoverPacketListUpdater;
 import me.retrodaredevil.solarthing.program.modbus.ModbusCacheSlave;
+import me.retrodaredevil.solarthing.solar.renogy.rover.Rover;
 import me.retrodaredevil.solarthing.solar.renogy.rover.RoverReadTable;
 import me.retrodaredevil.solarthing.solar.renogy.rover.RoverWriteTable;
 import me.retrodaredevil.solarthing.solar.renogy.rover.modbus.RoverModbusSlaveRead;
 import me.retrodaredevil.solarthing.solar.renogy.rover.modbus.RoverModbusSlaveWrite;
+import me.retrodaredevil.solarthing.solar.util.ModbusReadPlan;
+import me.retrodaredevil.solarthing.solar.util.ModbusReadPlanner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -59,16 +62,28 @@ public class RoverModbusRequester implements ModbusRequester {
 		return RoverReadTable.SERIAL_CONFIG;
 	}
 
-	private static void cacheRegisters(ModbusCacheSlave modbusCacheSlave) {
-		modbusCacheSlave.cacheHoldingRangeInclusive(0x000A, 0x001A);
+	/**
+	 * The number of registers in the largest bulk read that is known to work on all Rover variants.
+	 * Although {@link me.retrodaredevil.solarthing.solar.renogy.rover.modbus.RoverModbusConstants#MAX_READ_REGISTERS} is larger, we keep bulk reads small
+	 * so that a single failed read doesn't invalidate too much data.
+	 */
+	private static final int BULK_READ_MAX_SPAN = 24;
+	private static final ModbusReadPlan BULK_READ_PLAN = createBulkReadPlan();
 
-		modbusCacheSlave.cacheHoldingRangeInclusive(0x0100, 0x0109); // skip 0x010A
-		modbusCacheSlave.cacheHoldingRangeInclusive(0x010B, 0x0122);
-
-		modbusCacheSlave.cacheHoldingRangeInclusive(0xE002, 0xE014);
-		// break here just because they're for different things
-		modbusCacheSlave.cacheHoldingRangeInclusive(0xE015, 0xE021);
-//			modbusCacheSlave.cacheRangeInclusive(0xE022, 0xE02D); these do not work when querying in bulk for some reason
+	private static ModbusReadPlan createBulkReadPlan() {
+		ModbusReadPlanner planner = new ModbusReadPlanner(BULK_READ_MAX_SPAN, 0)
+				.addDeclaredReads(RoverModbusSlaveRead.class);
+		for (Rover.OperatingSetting operatingSetting : Rover.OperatingSetting.values()) {
+			planner.addHolding(operatingSetting.getDurationHoursRegister(), 1);
+			planner.addHolding(operatingSetting.getOperatingPowerPercentageRegister(), 1);
+		}
+		return planner
+				.excludeHoldingRangeInclusive(0x001B, 0x001E) // protocol version and ID code are not supported on older Rovers
+				.excludeHoldingRangeInclusive(0x010A, 0x010A) // used as the command to turn the street light on/off
+				.excludeHoldingRangeInclusive(0xE001, 0xE001) // not supported on all Rovers
+				.excludeHoldingRangeInclusive(0xE022, 0xE02D) // these do not work when querying in bulk for some reason
+				.excludeHoldingRangeInclusive(0xE02E, 0xE02F) // not supported on all Rovers
+				.build();
 	}
 
 	@Override
@@ -78,13 +93,14 @@ public class RoverModbusRequester implements ModbusRequester {
 		if (bulkRequest) {
 			ModbusCacheSlave modbusCacheSlave = new ModbusCacheSlave(modbus);
 			read = new RoverModbusSlaveRead(modbusCacheSlave);
-			reloadCache = () -> cacheRegisters(modbusCacheSlave);
+			reloadCache = () -> modbusCacheSlave.cache(BULK_READ_PLAN);
 		} else {
 			read = new RoverModbusSlaveRead(modbus);
 			reloadCache = () -> {};
 		}
 		RoverWriteTable write = new RoverModbusSlaveWrite(modbus);
-		RoverModbusEnvironment roverModbusEnvironment = new RoverModbusEnvironment(read, write);
+		// The cache is only used by the thread that polls the device, so commands read from the device directly
+		RoverModbusEnvironment roverModbusEnvironment = new RoverModbusEnvironment(new RoverModbusSlaveRead(modbus), write);
 		final NetCatServerHandler netCatServerHandler;
 		if (configurationServerConfig == null) {
 			netCatServerHandler = null;
@@ -21,6 +21,8 @@ import me.retrodaredevil.solarthing.solar.tracer.TracerReadTable;
 import me.retrodaredevil.solarthing.solar.tracer.TracerWriteTable;
 import me.retrodaredevil.solarthing.solar.tracer.modbus.TracerModbusSlaveRead;
 import me.retrodaredevil.solarthing.solar.tracer.modbus.TracerModbusSlaveWrite;
+import me.retrodaredevil.solarthing.solar.util.ModbusReadPlan;
+import me.retrodaredevil.solarthing.solar.util.ModbusReadPlanner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -66,28 +68,11 @@ public class TracerModbusRequester implements ModbusRequester {
 	public SerialConfig getDefaultSerialConfig() {
 		return TracerReadTable.SERIAL_CONFIG;
 	}
-	private static void cacheRegisters(ModbusCacheSlave modbusCacheSlave) {
-		modbusCacheSlave.cacheInputRangeInclusive(0x3000, 0x3008);
-		modbusCacheSlave.cacheInput(0x300E, 1);
-
-		modbusCacheSlave.cacheInputRangeInclusive(0x3100, 0x3107);
-		modbusCacheSlave.cacheInputRangeInclusive(0x310C, 0x3112);
-		modbusCacheSlave.cacheInputRangeInclusive(0x311A, 0x311B);
-		modbusCacheSlave.cacheInput(0x311D, 1);
-
-		modbusCacheSlave.cacheInputRangeInclusive(0x3200, 0x3201);
-
-		modbusCacheSlave.cacheInputRangeInclusive(0x3300, 0x3315);
-		modbusCacheSlave.cacheInputRangeInclusive(0x331B, 0x331E);
-
-		modbusCacheSlave.cacheHoldingRangeInclusive(0x9000, 0x900E);
-		modbusCacheSlave.cacheHoldingRangeInclusive(0x9013, 0x9021);
-		modbusCacheSlave.cacheHoldingRangeInclusive(0x903D, 0x903F);
-		modbusCacheSlave.cacheHoldingRangeInclusive(0x9042, 0x904D);
-		modbusCacheSlave.cacheHolding(0x9065, 1);
-		modbusCacheSlave.cacheHoldingRangeInclusive(0x9069, 0x906E);
-		modbusCacheSlave.cacheHolding(0x9070, 1);
-	}
+	private static final int BULK_READ_MAX_SPAN = 32;
+	private static final ModbusReadPlan BULK_READ_PLAN = new ModbusReadPlanner(BULK_READ_MAX_SPAN, 0)
+			.addDeclaredReads(TracerModbusSlaveRead.class)
+			.excludeHoldingRangeInclusive(0x9067, 0x9067) // battery rated voltage code has always been read by itself
+			.build();
 
 	@Override
 	public DataRequesterResult create(RequestObject requestObject, SuccessReporter successReporter, ModbusSlave modbus) {
@@ -96,13 +81,14 @@ public class TracerModbusRequester implements ModbusRequester {
 		if (bulkRequest) {
 			ModbusCacheSlave modbusCacheSlave = new ModbusCacheSlave(modbus);
 			read = new TracerModbusSlaveRead(modbusCacheSlave);
-			reloadCache = () -> cacheRegisters(modbusCacheSlave);
+			reloadCache = () -> modbusCacheSlave.cache(BULK_READ_PLAN);
 		} else {
 			read = new TracerModbusSlaveRead(modbus);
 			reloadCache = () -> {};
 		}
 		TracerWriteTable write = new TracerModbusSlaveWrite(modbus);
-		TracerModbusEnvironment tracerModbusEnvironment = new TracerModbusEnvironment(read, write);
+		// The cache is only used by the thread that polls the device, so commands read from the device directly
+		TracerModbusEnvironment tracerModbusEnvironment = new TracerModbusEnvironment(new TracerModbusSlaveRead(modbus), write);
 		final NetCatServerHandler netCatServerHandler;
 		if (configurationServerConfig == null) {
 			netCatServerHandler = null;
@@ -12,44 +12,28 @@ import java.time.Duration;
 
 public class DatabaseDocumentKeyMap implements PublicKeyLookUp {
 	private static final Logger LOGGER = LoggerFactory.getLogger(DatabaseDocumentKeyMap.class);
-	private static final long UPDATE_PERIOD_NANOS = Duration.ofSeconds(30).toNanos();
+	private static final Duration UPDATE_PERIOD = Duration.ofSeconds(30);
 
-	private final SolarThingDatabase database;
-
-	private AuthorizationPacket authorizationPacket = null;
-	private UpdateToken updateToken = null;
-	private Long lastUpdateNanos = null;
+	private final VersionedPacketCache<AuthorizationPacket> authorizationCache;
 
 	public DatabaseDocumentKeyMap(SolarThingDatabase database) {
-		this.database = database;
+		authorizationCache = new VersionedPacketCache<>(database::queryAuthorized, UPDATE_PERIOD);
 	}
 
-	private void updatePacket() {
-		lastUpdateNanos = System.nanoTime();
-		final VersionedPacket<AuthorizationPacket> versionedPacket;
-		try {
-			versionedPacket = database.queryAuthorized(updateToken);
-		} catch (SolarThingDatabaseException e) {
-			LOGGER.error("Error getting authorization packet", e);
-			return;
-		}
-		if (versionedPacket == null) {
-			LOGGER.debug("Packet is the same since the last request");
-			return;
-		}
-		updateToken = versionedPacket.getUpdateToken();
-		authorizationPacket = versionedPacket.getPacket();
+	/**
+	 * Makes the next call to {@link #getKey(String)} check if the authorization packet has changed
+	 */
+	public void invalidate() {
+		authorizationCache.invalidate();
 	}
 
 	@Override
 	public PublicKey getKey(String sender) {
-		Long lastUpdateNanos = this.lastUpdateNanos;
-		if (lastUpdateNanos == null || System.nanoTime() - lastUpdateNanos >= UPDATE_PERIOD_NANOS) {
-			updatePacket();
-		}
-		AuthorizationPacket authorizationPacket = this.authorizationPacket;
-		if (authorizationPacket == null) {
-			LOGGER.debug("authorizationPacket is null");
+		final AuthorizationPacket authorizationPacket;
+		try {
+			authorizationPacket = authorizationCache.get();
+		} catch (SolarThingDatabaseException e) {
+			LOGGER.error("Error getting authorization packet", e);
 			return null;
 		}
 		PermissionObject permissionObject = authorizationPacket.getSenderPermissions().get(sender);
@@ -0,0 +1,14 @@
+package me.retrodaredevil.solarthing.influxdb;
+
+/**
+ * Receives each non-null primitive field of a flattened JSON object.
+ * @see PointUtil#flattenValue(com.fasterxml.jackson.databind.ObjectMapper, Object, String, FlattenedFieldConsumer)
+ */
+public interface FlattenedFieldConsumer {
+	void acceptNumber(String key, Number value);
+	/**
+	 * Called for strings and for binary data, which is given as a base 64 string
+	 */
+	void acceptText(String key, String value);
+	void acceptBoolean(String key, boolean value);
+}
@@ -1,8 +1,14 @@
 package me.retrodaredevil.solarthing.influxdb;
 
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.node.ValueNode;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 import me.retrodaredevil.solarthing.annotations.TagKeys;
 import me.retrodaredevil.solarthing.annotations.UtilityClass;
 import me.retrodaredevil.solarthing.packets.DocumentedPacket;
@@ -12,12 +18,18 @@ import me.retrodaredevil.solarthing.packets.identification.Identifiable;
 import me.retrodaredevil.solarthing.packets.identification.Identifier;
 import me.retrodaredevil.solarthing.packets.identification.SupplementaryIdentifier;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 @UtilityClass
 public final class PointUtil {
 	private PointUtil() { throw new UnsupportedOperationException(); }
 
+	private static final Map<Class<?>, Collection<String>> TAG_KEYS_CACHE = new ConcurrentHashMap<>();
+	/** Map of separators to a map of classes to the root of the field paths for that class*/
+	private static final Map<String, Map<Class<?>, FieldPath>> FIELD_PATH_CACHE = new ConcurrentHashMap<>();
+
 	public static Map<String, String> getTags(Packet packet) {
 		Map<String, String> r = new HashMap<>();
 		if(packet instanceof Identifiable){
@@ -35,13 +47,24 @@ public final class PointUtil {
 		}
 		return r;
 	}
+	/**
+	 * @return An unmodifiable collection of the tag keys of {@code clazz}. The result is calculated once for each class.
+	 */
 	public static Collection<String> getTagKeys(Class<?> clazz){
+		Collection<String> tagKeys = TAG_KEYS_CACHE.get(clazz);
+		if (tagKeys == null) {
+			tagKeys = Collections.unmodifiableSet(calculateTagKeys(clazz));
+			TAG_KEYS_CACHE.put(clazz, tagKeys);
+		}
+		return tagKeys;
+	}
+	private static Set<String> calculateTagKeys(Class<?> clazz){
 		/*
 		Why we have to do this: https://stackoverflow.com/questions/26910620/class-getannotations-getdeclaredannotations-returns-empty-array-for-subcla#26911089
 		 */
-		Collection<String> tagKeys = new HashSet<>();
+		Set<String> tagKeys = new HashSet<>();
 		for(Class<?> interfaceClass : clazz.getInterfaces()){
-			tagKeys.addAll(getTagKeys(interfaceClass));
+			tagKeys.addAll(calculateTagKeys(interfaceClass));
 		}
 		TagKeys[] tagKeysAnnotations = clazz.getAnnotationsByType(TagKeys.class); // since Java 8, but that's fine
 		for(TagKeys tagKeysAnnotation : tagKeysAnnotations){
@@ -70,4 +93,101 @@ public final class PointUtil {
 		}
 		return r.entrySet();
 	}
+
+	/**
+	 * Serializes {@code value} and gives each of its fields to {@code consumer} with the same keys that {@link #flattenJsonObject(ObjectNode, String)} would use.
+	 * <p>
+	 * Unlike {@code flattenJsonObject(mapper.valueToTree(value), separator)}, this does not create a {@link JsonNode} for each field,
+	 * and the key of each field is only created once for each class.
+	 * @param mapper The object mapper to serialize {@code value} with
+	 * @param value The value to serialize. Must be serialized to a JSON object
+	 * @param separator The separator between the name of an object and the name of a field inside it
+	 * @param consumer The consumer to give each non-null primitive value to. Nulls and arrays are ignored
+	 * @throws IllegalArgumentException If {@code value} could not be serialized, just like {@link ObjectMapper#valueToTree(Object)}
+	 */
+	public static void flattenValue(ObjectMapper mapper, Object value, String separator, FlattenedFieldConsumer consumer) {
+		FieldPath root = FIELD_PATH_CACHE.computeIfAbsent(separator, k -> new ConcurrentHashMap<>())
+				.computeIfAbsent(value.getClass(), k -> new FieldPath(null, null, separator));
+		TokenBuffer buffer = new TokenBuffer(mapper, false);
+		if (mapper.isEnabled(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS)) {
+			buffer = buffer.forceUseOfBigDecimal(true);
+		}
+		try {
+			mapper.writeValue(buffer, value);
+			try (JsonParser parser = buffer.asParser()) {
+				if (parser.nextToken() != JsonToken.START_OBJECT) {
+					throw new IllegalArgumentException("value: " + value + " was not serialized to a JSON object!");
+				}
+				flattenObject(parser, root, consumer);
+			}
+		} catch (IOException e) {
+			throw new IllegalArgumentException(e.getMessage(), e);
+		}
+	}
+	private static void flattenObject(JsonParser parser, FieldPath parent, FlattenedFieldConsumer consumer) throws IOException {
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			FieldPath path = parent.getChild(parser.getCurrentName());
+			JsonToken token = parser.nextToken();
+			switch (token) {
+				case START_OBJECT:
+					flattenObject(parser, path, consumer);
+					break;
+				case START_ARRAY:
+					parser.skipChildren();
+					break;
+				case VALUE_NUMBER_INT:
+				case VALUE_NUMBER_FLOAT:
+					consumer.acceptNumber(path.key, parser.getNumberValue());
+					break;
+				case VALUE_STRING:
+					consumer.acceptText(path.key, parser.getText());
+					break;
+				case VALUE_TRUE:
+				case VALUE_FALSE:
+					consumer.acceptBoolean(path.key, token == JsonToken.VALUE_TRUE);
+					break;
+				case VALUE_EMBEDDED_OBJECT:
+					Object embedded = parser.getEmbeddedObject();
+					if (embedded instanceof byte[]) {
+						consumer.acceptText(path.key, Base64Variants.getDefaultVariant().encode((byte[]) embedded, false));
+					}
+					break;
+				default: // VALUE_NULL
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Caches the key of each field so that keys of nested fields do not have to be concatenated each time
+	 */
+	private static final class FieldPath {
+		private final String key;
+		private final int depth;
+		private final String separator;
+		private final Map<String, FieldPath> children = new ConcurrentHashMap<>();
+
+		private FieldPath(FieldPath parent, String name, String separator) {
+			this.separator = separator;
+			if (parent == null) {
+				key = null;
+				depth = 0;
+			} else {
+				depth = parent.depth + 1;
+				if (depth == 1) {
+					key = name;
+				} else {
+					// flattenJsonObject() only uses separator for the outermost object, so we do the same thing
+					key = parent.key + (depth == 2 ? separator : ".") + name;
+				}
+			}
+		}
+		FieldPath getChild(String name) {
+			FieldPath child = children.get(name);
+			if (child == null) {
+				child = children.computeIfAbsent(name, k -> new FieldPath(this, name, separator));
+			}
+			return child;
+		}
+	}
 }
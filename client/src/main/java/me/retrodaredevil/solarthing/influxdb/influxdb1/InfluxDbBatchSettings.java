@@ -0,0 +1,71 @@
+package me.retrodaredevil.solarthing.influxdb.influxdb1;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonPOJOBuilder;
+import org.influxdb.BatchOptions;
+
+/**
+ * Settings for writing points to InfluxDB 1.X in batches using the client's native batching. When used, points from many packet collections
+ * are buffered and written together, rather than being written with one request per packet collection.
+ */
+@JsonDeserialize(builder = InfluxDbBatchSettings.Builder.class)
+public final class InfluxDbBatchSettings {
+	private final int flushSize;
+	private final int flushIntervalMillis;
+	private final int bufferLimit;
+
+	public InfluxDbBatchSettings(int flushSize, int flushIntervalMillis, int bufferLimit) {
+		this.flushSize = flushSize;
+		this.flushIntervalMillis = flushIntervalMillis;
+		this.bufferLimit = bufferLimit;
+		if (flushSize <= 0) {
+			throw new IllegalArgumentException("flush_size must be positive! flushSize=" + flushSize);
+		}
+		if (flushIntervalMillis <= 0) {
+			throw new IllegalArgumentException("flush_interval must be positive! flushIntervalMillis=" + flushIntervalMillis);
+		}
+		if (bufferLimit < flushSize) {
+			throw new IllegalArgumentException("buffer_limit must be at least flush_size! bufferLimit=" + bufferLimit + " flushSize=" + flushSize);
+		}
+	}
+
+	/** @return The number of points that causes the buffer to be written */
+	public int getFlushSize() {
+		return flushSize;
+	}
+
+	/** @return The maximum amount of time in milliseconds a point is buffered before it is written */
+	public int getFlushIntervalMillis() {
+		return flushIntervalMillis;
+	}
+
+	/** @return The maximum number of points that are buffered while InfluxDB is unreachable */
+	public int getBufferLimit() {
+		return bufferLimit;
+	}
+
+	/**
+	 * @return The {@link BatchOptions} without an exception handler or consistency level
+	 */
+	public BatchOptions createBatchOptions() {
+		return BatchOptions.DEFAULTS
+				.actions(flushSize)
+				.flushDuration(flushIntervalMillis)
+				.bufferLimit(bufferLimit);
+	}
+
+	@JsonPOJOBuilder
+	static class Builder {
+		@JsonProperty("flush_size")
+		private int flushSize = 1000;
+		@JsonProperty("flush_interval")
+		private float flushIntervalSeconds = 10;
+		@JsonProperty("buffer_limit")
+		private int bufferLimit = 10000;
+
+		public InfluxDbBatchSettings build() {
+			return new InfluxDbBatchSettings(flushSize, Math.round(flushIntervalSeconds * 1000), bufferLimit);
+		}
+	}
+}
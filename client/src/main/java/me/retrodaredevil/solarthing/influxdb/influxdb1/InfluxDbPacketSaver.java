@@ -1,13 +1,13 @@
 package me.retrodaredevil.solarthing.influxdb.influxdb1;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.fasterxml.jackson.databind.node.ValueNode;
 import me.retrodaredevil.influxdb.influxdb1.InfluxProperties;
 import me.retrodaredevil.okhttp3.OkHttpProperties;
 import me.retrodaredevil.okhttp3.OkHttpUtil;
 import me.retrodaredevil.solarthing.InstantType;
 import me.retrodaredevil.solarthing.SolarThingConstants;
+import me.retrodaredevil.solarthing.annotations.Nullable;
+import me.retrodaredevil.solarthing.influxdb.FlattenedFieldConsumer;
 import me.retrodaredevil.solarthing.influxdb.NameGetter;
 import me.retrodaredevil.solarthing.influxdb.PointUtil;
 import me.retrodaredevil.solarthing.influxdb.retention.RetentionPolicy;
@@ -34,7 +34,8 @@ import org.slf4j.LoggerFactory;
 
 import java.util.Collection;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import static java.util.Objects.requireNonNull;
@@ -43,145 +44,186 @@ import static java.util.Objects.requireNonNull;
  * A {@link PacketHandler} that saves packets to InfluxDB.
  * <p>
  * Note that when saving, with the current implementation, integers are not stored. Only floats are stored.
+ * <p>
+ * A single connection is used for the lifetime of this object. Each database and retention policy is only created (or altered) the first time
+ * it is written to, and is only set up again after InfluxDB tells us the database does not exist.
+ * <p>
+ * If {@link InfluxDbBatchSettings} are given, points are written asynchronously in batches. In that case, a failed write
+ * does not cause {@link #handle(PacketCollection, InstantType)} to throw a {@link PacketHandleException}, so batching should
+ * not be used for packets that must never be lost.
  */
 public class InfluxDbPacketSaver implements PacketHandler {
 	private static final Logger LOGGER = LoggerFactory.getLogger(InfluxDbPacketSaver.class);
 	private static final Logger INFLUX_LOGGER = LoggerFactory.getLogger("org.influxdb");
 	private static final ObjectMapper OBJECT_MAPPER = JacksonUtil.defaultMapper();
 
-	private final InfluxProperties properties;
-	private final OkHttpProperties okHttpProperties;
+	private final InfluxDB db;
 	private final NameGetter databaseNameGetter;
 	private final PacketPointCreator pointCreator;
 	private final RetentionPolicyGetter retentionPolicyGetter;
+	private final boolean batching;
+
+	/** Keys of each database and retention policy combination that has been set up*/
+	private final Set<String> setUpKeys = ConcurrentHashMap.newKeySet();
 
 	public InfluxDbPacketSaver(
 			InfluxProperties properties,
 			OkHttpProperties okHttpProperties,
 			NameGetter databaseNameGetter,
 			PacketPointCreator pointCreator,
-			RetentionPolicyGetter retentionPolicyGetter) {
-		this.properties = requireNonNull(properties);
-		this.okHttpProperties = requireNonNull(okHttpProperties);
+			RetentionPolicyGetter retentionPolicyGetter,
+			@Nullable InfluxDbBatchSettings batchSettings) {
+		this.db = createDatabase(requireNonNull(properties), requireNonNull(okHttpProperties));
 		this.databaseNameGetter = requireNonNull(databaseNameGetter);
 		this.pointCreator = requireNonNull(pointCreator);
 		this.retentionPolicyGetter = retentionPolicyGetter;
+		if (batchSettings == null) {
+			batching = false;
+		} else {
+			db.enableBatch(batchSettings.createBatchOptions()
+					.consistency(InfluxDB.ConsistencyLevel.ALL)
+					.precision(TimeUnit.MILLISECONDS)
+					.exceptionHandler((points, throwable) -> {
+						LOGGER.error("Could not write a batch of points", throwable);
+						if (throwable instanceof InfluxDBException.DatabaseNotFoundException) {
+							setUpKeys.clear();
+						}
+					})
+			);
+			// points are buffered in memory, so make sure they are written before the program exits
+			Runtime.getRuntime().addShutdownHook(new Thread(db::close, "influxdb-flush"));
+			batching = true;
+		}
+	}
+	public InfluxDbPacketSaver(
+			InfluxProperties properties,
+			OkHttpProperties okHttpProperties,
+			NameGetter databaseNameGetter,
+			PacketPointCreator pointCreator,
+			RetentionPolicyGetter retentionPolicyGetter) {
+		this(properties, okHttpProperties, databaseNameGetter, pointCreator, retentionPolicyGetter, null);
 	}
 
 	@Override
 	public void handle(PacketCollection packetCollection, InstantType instantType) throws PacketHandleException {
-		try(InfluxDB db = createDatabase()) {
-			final InstancePacketGroup packetGroup = PacketGroups.parseToInstancePacketGroup(packetCollection, DefaultInstanceOptions.REQUIRE_NO_DEFAULTS);
-			DefaultInstanceOptions.requireNoDefaults(packetGroup);
-			final String database = databaseNameGetter.getName(packetGroup);
+		final InstancePacketGroup packetGroup = PacketGroups.parseToInstancePacketGroup(packetCollection, DefaultInstanceOptions.REQUIRE_NO_DEFAULTS);
+		DefaultInstanceOptions.requireNoDefaults(packetGroup);
+		final String database = databaseNameGetter.getName(packetGroup);
+		final RetentionPolicySetting retentionPolicySetting = retentionPolicyGetter.getRetentionPolicySetting();
+		final String retentionPolicyName = retentionPolicySetting == null ? null : retentionPolicySetting.getName();
+
+		String setUpKey = database + "\n" + retentionPolicyName;
+		if (!setUpKeys.contains(setUpKey)) {
+			setUp(database, retentionPolicySetting);
+			setUpKeys.add(setUpKey);
+		}
+
+		final long time = packetCollection.getDateMillis();
+		final BatchPoints points = BatchPoints.database(database)
+				.tag("sourceId", packetGroup.getSourceId())
+				.tag("fragmentId", "" + packetGroup.getFragmentId())
+				.consistency(InfluxDB.ConsistencyLevel.ALL)
+				.retentionPolicy(retentionPolicyName) // may be null, but that's OK
+				.build();
+
+		int packetsWritten = 0;
+		for (Packet packet : packetGroup.getPackets()) {
+			Point.Builder pointBuilder = pointCreator.createBuilder(packet).time(time, TimeUnit.MILLISECONDS);
+
+			PointUtil.flattenValue(OBJECT_MAPPER, packet, ".", new PointFieldConsumer(pointBuilder, PointUtil.getTagKeys(packet.getClass())));
+			if (batching) {
+				// batched points are not written as BatchPoints, so each point needs the tags that the BatchPoints would have added
+				pointBuilder.tag(points.getTags());
+				db.write(database, retentionPolicyName, pointBuilder.build());
+			} else {
+				points.point(pointBuilder.build());
+			}
+			packetsWritten++;
+		}
+		if (batching) {
+			LOGGER.debug("Buffered {} packets to write to InfluxDB! database={} retention policy={}", packetsWritten, database, retentionPolicyName);
+			return;
+		}
+		try {
+			db.write(points);
+		} catch (InfluxDBException.DatabaseNotFoundException ex) {
+			// the database was deleted, so set it up again next time
+			setUpKeys.remove(setUpKey);
+			throw new PacketHandleException("The database was not found! It will be created next time.", ex);
+		} catch (InfluxDBException ex) {
+			throw new PacketHandleException("Unable to write the points to the database!", ex);
+		}
+		LOGGER.debug("Wrote {} packets to InfluxDB! database={} retention policy={}", packetsWritten, database, retentionPolicyName);
+	}
+
+	/**
+	 * Creates the database and creates or alters the retention policy
+	 */
+	private void setUp(String database, @Nullable RetentionPolicySetting retentionPolicySetting) throws PacketHandleException {
+		try {
+			QueryResult result = db.query(new Query("CREATE DATABASE " + database, null, true));
+			String error = getError(result);
+			if(error != null){
+				throw new PacketHandleException("Result got error! error: " + result);
+			}
+		} catch (InfluxDBException ex) {
+			throw new PacketHandleException("Unable to query the database!", ex);
+		}
+		if(retentionPolicySetting == null){
+			return;
+		}
+		final String retentionPolicyName = retentionPolicySetting.getName();
+		if(retentionPolicyName == null){
+			return;
+		}
+		final RetentionPolicy policy = retentionPolicySetting.getRetentionPolicy();
+		if(policy == null){
+			return;
+		}
+		final String policyString = policy.toPolicyStringInfluxDb1(retentionPolicyName, database);
+		final boolean needsAlter;
+		if(retentionPolicySetting.isTryToCreate()){
+			final QueryResult result;
+			final String query = "CREATE " + policyString;
 			try {
-				QueryResult result = db.query(new Query("CREATE DATABASE " + database, null, true));
-				String error = getError(result);
-				if(error != null){
-					throw new PacketHandleException("Result got error! error: " + result);
-				}
-			} catch (InfluxDBException ex) {
-				throw new PacketHandleException("Unable to query the database!", ex);
+				result = db.query(new Query(query, null, true));
+			} catch(InfluxDBException ex){
+				throw new PacketHandleException("Unable to query database to create retention policy: " + retentionPolicyName + " query: " + query, ex);
 			}
-			final RetentionPolicySetting retentionPolicySetting = retentionPolicyGetter.getRetentionPolicySetting();
-			final String retentionPolicyName;
-
-			// region Retention Policy Creation Logic
-			if(retentionPolicySetting != null){
-				retentionPolicyName = retentionPolicySetting.getName();
-				if(retentionPolicyName != null){
-					final RetentionPolicy policy = retentionPolicySetting.getRetentionPolicy();
-					if(policy != null){
-						final String policyString = policy.toPolicyStringInfluxDb1(retentionPolicyName, database);
-						final boolean needsAlter;
-						if(retentionPolicySetting.isTryToCreate()){
-							final QueryResult result;
-							final String query = "CREATE " + policyString;
-							try {
-								result = db.query(new Query(query, null, true));
-							} catch(InfluxDBException ex){
-								throw new PacketHandleException("Unable to query database to create retention policy: " + retentionPolicyName + " query: " + query, ex);
-							}
-							String error = getError(result);
-							if(retentionPolicySetting.isIgnoreUnsuccessfulCreate()){
-								if(error != null){
-									LOGGER.debug("We're going to ignore this error we got while trying to create a retention policy. Error: {}", error);
-								}
-								needsAlter = false;
-							} else {
-								if(error != null){
-									LOGGER.debug("Got error while trying to create! Error: " + error);
-								}
-								needsAlter = error != null;
-							}
-							if(needsAlter && !retentionPolicySetting.isAutomaticallyAlter()){
-								throw new PacketHandleException("Got error while trying to create retention policy: " + retentionPolicyName + ". Error: " + error);
-							}
-						} else {
-							needsAlter = true;
-						}
-						if (needsAlter) {
-							if (retentionPolicySetting.isAutomaticallyAlter()) {
-								final QueryResult alterResult;
-								try {
-									alterResult = db.query(new Query("ALTER " + policyString));
-									LOGGER.info(SolarThingConstants.SUMMARY_MARKER, "Successfully altered {} retention policy!", retentionPolicyName);
-								} catch (InfluxDBException ex) {
-									throw new PacketHandleException("Unable to query database to alter retention policy: " + retentionPolicyName, ex);
-								}
-								String error = getError(alterResult);
-								if (error != null) {
-									throw new PacketHandleException("Unable to alter retention policy: " + retentionPolicyName + ". Error: " + error);
-								}
-							} else {
-								throw new PacketHandleException("Retention policy: " + retentionPolicyName + " needs to be altered but automatically alter is false!");
-							}
-						}
-					}
+			String error = getError(result);
+			if(retentionPolicySetting.isIgnoreUnsuccessfulCreate()){
+				if(error != null){
+					LOGGER.debug("We're going to ignore this error we got while trying to create a retention policy. Error: {}", error);
 				}
+				needsAlter = false;
 			} else {
-				retentionPolicyName = null;
-			}
-			// endregion
-
-			final long time = packetCollection.getDateMillis();
-			final BatchPoints points = BatchPoints.database(database)
-					.tag("sourceId", packetGroup.getSourceId())
-					.tag("fragmentId", "" + packetGroup.getFragmentId())
-					.consistency(InfluxDB.ConsistencyLevel.ALL)
-					.retentionPolicy(retentionPolicyName) // may be null, but that's OK
-					.build();
-
-			int packetsWritten = 0;
-			for (Packet packet : packetGroup.getPackets()) {
-				Point.Builder pointBuilder = pointCreator.createBuilder(packet).time(time, TimeUnit.MILLISECONDS);
-
-				Collection<String> tagKeys = PointUtil.getTagKeys(packet.getClass());
-				ObjectNode json = OBJECT_MAPPER.valueToTree(packet);
-				for (Map.Entry<String, ValueNode> entry : PointUtil.flattenJsonObject(json)) {
-					String key = entry.getKey();
-					ValueNode prim = entry.getValue();
-					if(tagKeys.contains(key)){
-						pointBuilder.tag(key, prim.asText());
-					}
-					if (prim.isNumber()) {
-						// always store as float datatype
-						pointBuilder.addField(key, prim.asDouble());
-					} else if (prim.isTextual() || prim.isBinary()) {
-						pointBuilder.addField(key, prim.asText());
-					} else if (prim.isBoolean()) {
-						pointBuilder.addField(key, prim.asBoolean());
-					} else throw new AssertionError("This primitive isn't a number, string/binary or boolean! It's: " + prim + " class: " + prim.getClass() + " text=" + prim.asText());
+				if(error != null){
+					LOGGER.debug("Got error while trying to create! Error: " + error);
 				}
-				points.point(pointBuilder.build());
-				packetsWritten++;
+				needsAlter = error != null;
 			}
-			try {
-				db.write(points);
-			} catch (InfluxDBException ex) {
-				throw new PacketHandleException("We were able to query the database, but unable to write the points to it!", ex);
+			if(needsAlter && !retentionPolicySetting.isAutomaticallyAlter()){
+				throw new PacketHandleException("Got error while trying to create retention policy: " + retentionPolicyName + ". Error: " + error);
+			}
+		} else {
+			needsAlter = true;
+		}
+		if (needsAlter) {
+			if (retentionPolicySetting.isAutomaticallyAlter()) {
+				final QueryResult alterResult;
+				try {
+					alterResult = db.query(new Query("ALTER " + policyString));
+					LOGGER.info(SolarThingConstants.SUMMARY_MARKER, "Successfully altered {} retention policy!", retentionPolicyName);
+				} catch (InfluxDBException ex) {
+					throw new PacketHandleException("Unable to query database to alter retention policy: " + retentionPolicyName, ex);
+				}
+				String error = getError(alterResult);
+				if (error != null) {
+					throw new PacketHandleException("Unable to alter retention policy: " + retentionPolicyName + ". Error: " + error);
+				}
+			} else {
+				throw new PacketHandleException("Retention policy: " + retentionPolicyName + " needs to be altered but automatically alter is false!");
 			}
-			LOGGER.debug("Wrote {} packets to InfluxDB! database={} retention policy={}", packetsWritten, database, retentionPolicyName);
 		}
 	}
 	private String getError(QueryResult queryResult){
@@ -196,7 +238,41 @@ public class InfluxDbPacketSaver implements PacketHandler {
 		}
 		return null;
 	}
-	private InfluxDB createDatabase() {
+	private static final class PointFieldConsumer implements FlattenedFieldConsumer {
+		private final Point.Builder pointBuilder;
+		private final Collection<String> tagKeys;
+
+		private PointFieldConsumer(Point.Builder pointBuilder, Collection<String> tagKeys) {
+			this.pointBuilder = pointBuilder;
+			this.tagKeys = tagKeys;
+		}
+
+		@Override
+		public void acceptNumber(String key, Number value) {
+			if (tagKeys.contains(key)) {
+				pointBuilder.tag(key, value.toString());
+			}
+			// always store as float datatype
+			pointBuilder.addField(key, value.doubleValue());
+		}
+
+		@Override
+		public void acceptText(String key, String value) {
+			if (tagKeys.contains(key)) {
+				pointBuilder.tag(key, value);
+			}
+			pointBuilder.addField(key, value);
+		}
+
+		@Override
+		public void acceptBoolean(String key, boolean value) {
+			if (tagKeys.contains(key)) {
+				pointBuilder.tag(key, String.valueOf(value));
+			}
+			pointBuilder.addField(key, value);
+		}
+	}
+	private static InfluxDB createDatabase(InfluxProperties properties, OkHttpProperties okHttpProperties) {
 		return InfluxDBFactory.connect(
 				properties.getUrl(),
 				properties.getUsername(),
@@ -0,0 +1,96 @@
+package me.retrodaredevil.solarthing.influxdb.infuxdb2;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonPOJOBuilder;
+import com.influxdb.client.WriteOptions;
+import io.reactivex.BackpressureOverflowStrategy;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Settings for writing points to InfluxDB 2 in batches. When used, points from many packet collections are buffered
+ * and written together, rather than being written with one request per packet collection.
+ */
+@JsonDeserialize(builder = InfluxDb2BatchSettings.Builder.class)
+public final class InfluxDb2BatchSettings {
+	private final int flushSize;
+	private final int flushIntervalMillis;
+	private final int bufferLimit;
+	private final BackpressureOverflowStrategy backpressureStrategy;
+
+	public InfluxDb2BatchSettings(int flushSize, int flushIntervalMillis, int bufferLimit, BackpressureOverflowStrategy backpressureStrategy) {
+		this.flushSize = flushSize;
+		this.flushIntervalMillis = flushIntervalMillis;
+		this.bufferLimit = bufferLimit;
+		requireNonNull(this.backpressureStrategy = backpressureStrategy);
+		if (flushSize <= 0) {
+			throw new IllegalArgumentException("flush_size must be positive! flushSize=" + flushSize);
+		}
+		if (flushIntervalMillis <= 0) {
+			throw new IllegalArgumentException("flush_interval must be positive! flushIntervalMillis=" + flushIntervalMillis);
+		}
+		if (bufferLimit < flushSize) {
+			throw new IllegalArgumentException("buffer_limit must be at least flush_size! bufferLimit=" + bufferLimit + " flushSize=" + flushSize);
+		}
+	}
+
+	/** @return The number of points that causes the buffer to be written */
+	public int getFlushSize() {
+		return flushSize;
+	}
+
+	/** @return The maximum amount of time in milliseconds a point is buffered before it is written */
+	public int getFlushIntervalMillis() {
+		return flushIntervalMillis;
+	}
+
+	/** @return The maximum number of points that are buffered while InfluxDB is unreachable */
+	public int getBufferLimit() {
+		return bufferLimit;
+	}
+
+	/** @return What to do when the buffer is full */
+	public BackpressureOverflowStrategy getBackpressureStrategy() {
+		return backpressureStrategy;
+	}
+
+	public WriteOptions createWriteOptions() {
+		return WriteOptions.builder()
+				.batchSize(flushSize)
+				.flushInterval(flushIntervalMillis)
+				.bufferLimit(bufferLimit)
+				.backpressureStrategy(backpressureStrategy)
+				.build();
+	}
+
+	@JsonPOJOBuilder
+	static class Builder {
+		@JsonProperty("flush_size")
+		private int flushSize = 1000;
+		@JsonProperty("flush_interval")
+		private float flushIntervalSeconds = 10;
+		@JsonProperty("buffer_limit")
+		private int bufferLimit = 10000;
+		@JsonProperty("backpressure")
+		private String backpressure = "drop_oldest";
+
+		public InfluxDb2BatchSettings build() {
+			final BackpressureOverflowStrategy backpressureStrategy;
+			switch (backpressure) {
+				case "drop_oldest":
+					backpressureStrategy = BackpressureOverflowStrategy.DROP_OLDEST;
+					break;
+				case "drop_latest":
+					backpressureStrategy = BackpressureOverflowStrategy.DROP_LATEST;
+					break;
+				case "error":
+					backpressureStrategy = BackpressureOverflowStrategy.ERROR;
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown backpressure: " + backpressure + ". Must be drop_oldest, drop_latest or error");
+			}
+			return new InfluxDb2BatchSettings(flushSize, Math.round(flushIntervalSeconds * 1000), bufferLimit, backpressureStrategy);
+		}
+	}
+}
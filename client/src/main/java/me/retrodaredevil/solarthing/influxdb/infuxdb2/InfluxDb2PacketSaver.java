@@ -1,22 +1,24 @@
 package me.retrodaredevil.solarthing.influxdb.infuxdb2;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.DecimalNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.fasterxml.jackson.databind.node.ValueNode;
 import com.influxdb.LogLevel;
 import com.influxdb.client.InfluxDBClient;
 import com.influxdb.client.InfluxDBClientFactory;
 import com.influxdb.client.InfluxDBClientOptions;
+import com.influxdb.client.WriteApi;
 import com.influxdb.client.domain.Bucket;
 import com.influxdb.client.domain.Organization;
 import com.influxdb.client.domain.WritePrecision;
 import com.influxdb.client.write.Point;
+import com.influxdb.client.write.events.BackpressureEvent;
+import com.influxdb.client.write.events.WriteErrorEvent;
 import com.influxdb.exceptions.InfluxException;
 import me.retrodaredevil.influxdb.influxdb2.InfluxDb2Properties;
 import me.retrodaredevil.okhttp3.OkHttpProperties;
 import me.retrodaredevil.okhttp3.OkHttpUtil;
 import me.retrodaredevil.solarthing.InstantType;
+import me.retrodaredevil.solarthing.annotations.Nullable;
+import me.retrodaredevil.solarthing.influxdb.FlattenedFieldConsumer;
 import me.retrodaredevil.solarthing.influxdb.NameGetter;
 import me.retrodaredevil.solarthing.influxdb.PointUtil;
 import me.retrodaredevil.solarthing.packets.Packet;
@@ -31,15 +33,27 @@ import okhttp3.logging.HttpLoggingInterceptor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static java.util.Objects.requireNonNull;
 
+/**
+ * Saves packets to InfluxDB 2. The organization and buckets are looked up (or created) the first time they are needed,
+ * and are only looked up again after a write fails.
+ * <p>
+ * If {@link InfluxDb2BatchSettings} are given, points are written asynchronously in batches. In that case, a failed write
+ * does not cause {@link #handle(PacketCollection, InstantType)} to throw a {@link PacketHandleException}, so batching should
+ * not be used for packets that must never be lost.
+ * <p>
+ * The {@link InfluxDBClient} is not closed by this. Closing the client flushes any points that have not been written yet.
+ */
 public class InfluxDb2PacketSaver implements PacketHandler {
-//	private static final Logger LOGGER = LoggerFactory.getLogger(InfluxDbPacketSaver.class);
+	private static final Logger LOGGER = LoggerFactory.getLogger(InfluxDb2PacketSaver.class);
 	private static final Logger INFLUX_LOGGER = LoggerFactory.getLogger("org.influxdb");
 	private static final ObjectMapper OBJECT_MAPPER = JacksonUtil.defaultMapper();
 
@@ -49,15 +63,36 @@ public class InfluxDb2PacketSaver implements PacketHandler {
 	private final InfluxDb2Properties properties;
 	private final NameGetter bucketNameGetter;
 	private final PacketPoint2Creator pointCreator;
+	private final @Nullable WriteApi writeApi;
 
-	public InfluxDb2PacketSaver(InfluxDb2Properties properties, OkHttpProperties okHttpProperties, NameGetter bucketNameGetter, PacketPoint2Creator pointCreator) {
-		client = createClient(properties, okHttpProperties);
-		this.properties = properties;
-		this.bucketNameGetter = bucketNameGetter;
-		this.pointCreator = pointCreator;
+	private volatile @Nullable Organization organization = null;
+	private final Map<String, Bucket> bucketMap = new ConcurrentHashMap<>();
+
+	/**
+	 * @param client The client to use. This may be shared with other {@link InfluxDb2PacketSaver}s that use the same {@code properties}
+	 */
+	public InfluxDb2PacketSaver(InfluxDBClient client, InfluxDb2Properties properties, NameGetter bucketNameGetter, PacketPoint2Creator pointCreator, @Nullable InfluxDb2BatchSettings batchSettings) {
+		requireNonNull(this.client = client);
+		requireNonNull(this.properties = properties);
+		requireNonNull(this.bucketNameGetter = bucketNameGetter);
+		requireNonNull(this.pointCreator = pointCreator);
+		if (batchSettings == null) {
+			writeApi = null;
+		} else {
+			WriteApi writeApi = client.getWriteApi(batchSettings.createWriteOptions());
+			writeApi.listenEvents(WriteErrorEvent.class, event -> {
+				LOGGER.error("Could not write a batch of points", event.getThrowable());
+				invalidateCache();
+			});
+			writeApi.listenEvents(BackpressureEvent.class, event -> LOGGER.warn("The buffer of points to write is full! Some points will be dropped."));
+			this.writeApi = writeApi;
+		}
+	}
+	public InfluxDb2PacketSaver(InfluxDBClient client, InfluxDb2Properties properties, NameGetter bucketNameGetter, PacketPoint2Creator pointCreator) {
+		this(client, properties, bucketNameGetter, pointCreator, null);
 	}
 
-	private static InfluxDBClient createClient(InfluxDb2Properties properties, OkHttpProperties okHttpProperties) {
+	public static InfluxDBClient createClient(InfluxDb2Properties properties, OkHttpProperties okHttpProperties) {
 		InfluxDBClientOptions.Builder builder = new InfluxDBClientOptions.Builder();
 		builder.url(properties.getUrl());
 		char[] token = properties.getToken();
@@ -93,6 +128,26 @@ public class InfluxDb2PacketSaver implements PacketHandler {
 			throw new PacketHandleException("Couldn't create organization", ex);
 		}
 	}
+	private Organization getOrganization() throws PacketHandleException {
+		Organization organization = this.organization;
+		if (organization == null) {
+			organization = findOrCreateOrg();
+			this.organization = organization;
+		}
+		return organization;
+	}
+	private Bucket getBucket(String name) throws PacketHandleException {
+		Bucket bucket = bucketMap.get(name);
+		if (bucket == null) {
+			bucket = findOrCreateBucket(name, getOrganization());
+			bucketMap.put(name, bucket);
+		}
+		return bucket;
+	}
+	private void invalidateCache() {
+		organization = null;
+		bucketMap.clear();
+	}
 	private Bucket findOrCreateBucket(String name, Organization organization) throws PacketHandleException {
 		final Bucket r;
 		try {
@@ -114,45 +169,61 @@ public class InfluxDb2PacketSaver implements PacketHandler {
 	public void handle(PacketCollection packetCollection, InstantType instantType) throws PacketHandleException {
 		final InstancePacketGroup packetGroup = PacketGroups.parseToInstancePacketGroup(packetCollection, DefaultInstanceOptions.REQUIRE_NO_DEFAULTS);
 		DefaultInstanceOptions.requireNoDefaults(packetGroup);
-		Organization organization = findOrCreateOrg();
-		Bucket bucket = findOrCreateBucket(bucketNameGetter.getName(packetGroup), organization);
+		Bucket bucket = getBucket(bucketNameGetter.getName(packetGroup));
 
 		final long time = packetCollection.getDateMillis();
 		List<Point> points = new ArrayList<>();
 		for (Packet packet : packetGroup.getPackets()) {
 			Point point = pointCreator.createBuilder(packet).time(time, WritePrecision.MS);
 
-			Collection<String> tagKeys = PointUtil.getTagKeys(packet.getClass());
-			ObjectNode json = OBJECT_MAPPER.valueToTree(packet);
-			for (Map.Entry<String, ValueNode> entry : PointUtil.flattenJsonObject(json)) {
-				String key = entry.getKey();
-				ValueNode prim = entry.getValue();
-				if(tagKeys.contains(key)){
-					point.addTag(key, prim.asText());
-				}
-				if (prim.isNumber()) {
-					// always store as float datatype because you can never change the type from int to float easily
-					final Number value;
-					if (prim.isBigDecimal()) {
-						DecimalNode decimal = (DecimalNode) prim;
-						value = decimal.decimalValue();
-					} else {
-						value = prim.asDouble();
-					}
-					point.addField(key, value);
-				} else if (prim.isTextual() || prim.isBinary()) {
-					point.addField(key, prim.asText());
-				} else if (prim.isBoolean()) {
-					point.addField(key, prim.asBoolean());
-				} else throw new AssertionError("This primitive isn't a number, string/binary or boolean! It's: " + prim + " class: " + prim.getClass() + " text=" + prim.asText());
-			}
+			PointUtil.flattenValue(OBJECT_MAPPER, packet, ".", new PointFieldConsumer(point, PointUtil.getTagKeys(packet.getClass())));
 			points.add(point);
 		}
+		if (writeApi != null) {
+			writeApi.writePoints(bucket.getName(), bucket.getOrgID(), points);
+			return;
+		}
 		try {
 			client.getWriteApiBlocking().writePoints(bucket.getName(), bucket.getOrgID(), points);
 		} catch (InfluxException exception) {
+			// the bucket or organization may have been deleted, so look them up again next time
+			invalidateCache();
 			throw new PacketHandleException("Could not write points", exception);
 		}
 	}
 
+	private static final class PointFieldConsumer implements FlattenedFieldConsumer {
+		private final Point point;
+		private final Collection<String> tagKeys;
+
+		private PointFieldConsumer(Point point, Collection<String> tagKeys) {
+			this.point = point;
+			this.tagKeys = tagKeys;
+		}
+
+		@Override
+		public void acceptNumber(String key, Number value) {
+			if (tagKeys.contains(key)) {
+				point.addTag(key, value.toString());
+			}
+			// always store as float datatype because you can never change the type from int to float easily
+			point.addField(key, value instanceof BigDecimal ? value : value.doubleValue());
+		}
+
+		@Override
+		public void acceptText(String key, String value) {
+			if (tagKeys.contains(key)) {
+				point.addTag(key, value);
+			}
+			point.addField(key, value);
+		}
+
+		@Override
+		public void acceptBoolean(String key, boolean value) {
+			if (tagKeys.contains(key)) {
+				point.addTag(key, String.valueOf(value));
+			}
+			point.addField(key, value);
+		}
+	}
 }
@@ -0,0 +1,89 @@
+package me.retrodaredevil.solarthing.log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A preallocated buffer of the most recently logged bytes. Writers never wait for readers. Instead, the oldest bytes are overwritten,
+ * and readers are expected to check {@link #isOverwritten(long)} to see if they have fallen too far behind.
+ * <p>
+ * Positions are the total number of bytes that have been written before a given byte, so they only ever increase.
+ * <p>
+ * Only a single thread may write at a time, and only a single thread may call {@link #writeTo(WritableByteChannel, long, long)}. Neither writers nor readers lock.
+ * Writes must be serialized by the caller. The {@link org.apache.logging.log4j.core.appender.OutputStreamManager} of {@link SocketServerAppender}
+ * already synchronizes each write, so an additional lock here would only add cost to every logged message.
+ */
+final class LogRingBuffer {
+	private final byte[] buffer;
+	/** A view of {@link #buffer} that is only used by the reading thread */
+	private final ByteBuffer readView;
+
+	/** Only changed by the writing thread. The position that writes have reserved. Bytes before {@code reservePosition - capacity} may be overwritten at any time*/
+	private volatile long reservePosition = 0;
+	/** Only changed by the writing thread. The position that bytes have been written up to */
+	private volatile long writePosition = 0;
+
+	LogRingBuffer(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be > 0! capacity=" + capacity);
+		}
+		buffer = new byte[capacity];
+		readView = ByteBuffer.wrap(buffer);
+	}
+
+	int getCapacity() {
+		return buffer.length;
+	}
+
+	long getWritePosition() {
+		return writePosition;
+	}
+
+	/** Must not be called by multiple threads at the same time*/
+	void write(int b) {
+		long position = writePosition;
+		reservePosition = position + 1;
+		buffer[(int) (position % buffer.length)] = (byte) b;
+		writePosition = position + 1;
+	}
+
+	/** Must not be called by multiple threads at the same time*/
+	void write(byte[] bytes, int offset, int length) {
+		long position = writePosition;
+		reservePosition = position + length;
+		if (length > buffer.length) {
+			// only the newest bytes fit in the buffer
+			int skip = length - buffer.length;
+			position += skip;
+			offset += skip;
+			length -= skip;
+		}
+		int index = (int) (position % buffer.length);
+		int firstLength = Math.min(length, buffer.length - index);
+		System.arraycopy(bytes, offset, buffer, index, firstLength);
+		System.arraycopy(bytes, offset + firstLength, buffer, 0, length - firstLength);
+		writePosition = position + length;
+	}
+
+	/**
+	 * @return true if the byte at {@code position} may have been overwritten
+	 */
+	boolean isOverwritten(long position) {
+		return reservePosition - position > buffer.length;
+	}
+
+	/**
+	 * Writes bytes starting at {@code fromPosition} to {@code channel}. This may write fewer bytes than requested, especially if the channel is non-blocking.
+	 * <p>
+	 * After calling this, {@link #isOverwritten(long)} must be called with {@code fromPosition} to make sure the written bytes were not overwritten while they were being written.
+	 * @return The number of bytes written
+	 */
+	int writeTo(WritableByteChannel channel, long fromPosition, long toPosition) throws IOException {
+		int index = (int) (fromPosition % buffer.length);
+		int length = (int) Math.min(toPosition - fromPosition, buffer.length - index);
+		readView.limit(index + length);
+		readView.position(index);
+		return channel.write(readView);
+	}
+}
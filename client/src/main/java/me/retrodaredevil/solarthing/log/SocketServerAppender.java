@@ -14,22 +14,38 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static java.util.Objects.requireNonNull;
 
+/**
+ * An appender that sends logged bytes to every client connected to a server socket.
+ * <p>
+ * Logged bytes are put into a {@link LogRingBuffer} without waiting for clients or taking a lock. A separate thread writes to each client using non-blocking writes.
+ * That thread waits on a {@link Selector} for a client's socket to be writable again, or for more bytes to be logged. A client that falls further behind
+ * than the size of the buffer is disconnected.
+ */
 @Plugin(name = "ServerSocket", category = "Core", elementType = "appender", printObject = true)
 public class SocketServerAppender extends AbstractOutputStreamAppender<SocketServerAppender.ServerSocketManager> {
+	private static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
 
-	private final Queue<Byte> outputQueue;
-	private final List<Socket> activeSockets = new ArrayList<>();
+	private final LogRingBuffer ringBuffer;
+	private final OutputWaker outputWaker;
+	/** Clients that have been accepted, but not yet added to {@link #clients}*/
+	private final Queue<SocketChannel> newClients = new ConcurrentLinkedQueue<>();
+	/** Only accessed by {@link #outputThread}*/
+	private final List<Client> clients = new ArrayList<>();
 
 	private final String bindAddress;
 	private final int port;
@@ -37,23 +53,23 @@ public class SocketServerAppender extends AbstractOutputStreamAppender<SocketSer
 	private final Thread acceptThread = new Thread(this::runManageServerSocket);
 	private final Thread outputThread = new Thread(this::runOutputHandler);
 
-	private final ServerSocket serverSocket;
+	private final ServerSocketChannel serverSocketChannel;
 	{
 		acceptThread.setDaemon(true);
 		outputThread.setDaemon(true);
 		try {
-			serverSocket = new ServerSocket();
+			serverSocketChannel = ServerSocketChannel.open();
 		} catch (IOException e) {
-			// The default constructor should never throw an exception because it doesn't really do anything
 			throw new RuntimeException(e);
 		}
 	}
 
 	private volatile boolean stopping = false;
 
-	protected SocketServerAppender(String name, Layout<? extends Serializable> layout, Filter filter, boolean ignoreExceptions, boolean immediateFlush, Property[] properties, ServerSocketManager manager, Queue<Byte> outputQueue, String bindAddress, int port) {
+	protected SocketServerAppender(String name, Layout<? extends Serializable> layout, Filter filter, boolean ignoreExceptions, boolean immediateFlush, Property[] properties, ServerSocketManager manager, LogRingBuffer ringBuffer, OutputWaker outputWaker, String bindAddress, int port) {
 		super(name, layout, filter, ignoreExceptions, immediateFlush, properties, manager);
-		requireNonNull(this.outputQueue = outputQueue);
+		requireNonNull(this.ringBuffer = ringBuffer);
+		requireNonNull(this.outputWaker = outputWaker);
 		this.bindAddress = bindAddress;
 		this.port = port;
 	}
@@ -66,7 +82,8 @@ public class SocketServerAppender extends AbstractOutputStreamAppender<SocketSer
 			@PluginAttribute("ignoreExceptions") boolean ignoreExceptions,
 			@PluginAttribute(value = "immediateFlush", defaultBoolean = true) boolean immediateFlush,
 			@PluginAttribute("address") String bindAddress,
-			@PluginAttribute("port") String port
+			@PluginAttribute("port") String port,
+			@PluginAttribute(value = "bufferSize", defaultInt = DEFAULT_BUFFER_SIZE) int bufferSize
 	) {
 		if (layout == null) {
 			layout = PatternLayout.createDefaultLayout();
@@ -74,18 +91,30 @@ public class SocketServerAppender extends AbstractOutputStreamAppender<SocketSer
 		if (bindAddress == null) {
 			bindAddress = "localhost";
 		}
-		Queue<Byte> outputQueue = new ConcurrentLinkedDeque<>();
+		LogRingBuffer ringBuffer = new LogRingBuffer(bufferSize);
+		final OutputWaker outputWaker;
+		try {
+			outputWaker = new OutputWaker(Selector.open());
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		// The manager synchronizes writes to this, so the ring buffer only has a single writer at a time
 		OutputStream outputStream = new OutputStream() {
 			@Override
 			public void write(int i) {
-				synchronized (outputQueue) {
-					outputQueue.add((byte) i);
-				}
+				ringBuffer.write(i);
+				outputWaker.wakeUpIfWaiting();
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				ringBuffer.write(b, off, len);
+				outputWaker.wakeUpIfWaiting();
 			}
 		};
 		ServerSocketManager manager = new ServerSocketManager(outputStream, layout);
 
-		return new SocketServerAppender(name, layout, filter, ignoreExceptions, immediateFlush, new Property[]{}, manager, outputQueue, bindAddress, Integer.parseInt(port));
+		return new SocketServerAppender(name, layout, filter, ignoreExceptions, immediateFlush, new Property[]{}, manager, ringBuffer, outputWaker, bindAddress, Integer.parseInt(port));
 	}
 
 	@Override
@@ -99,7 +128,7 @@ public class SocketServerAppender extends AbstractOutputStreamAppender<SocketSer
 	protected boolean stop(long timeout, TimeUnit timeUnit, boolean changeLifeCycleState) {
 		stopping = true;
 		try {
-			serverSocket.close();
+			serverSocketChannel.close();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -126,38 +155,124 @@ public class SocketServerAppender extends AbstractOutputStreamAppender<SocketSer
 	}
 
 	private void runManageServerSocketRaw() throws IOException {
-		serverSocket.bind(new InetSocketAddress(bindAddress, port));
+		serverSocketChannel.bind(new InetSocketAddress(bindAddress, port));
 		while (!Thread.currentThread().isInterrupted()) {
-			Socket socket = serverSocket.accept();
-			synchronized (activeSockets) {
-				activeSockets.add(socket);
-			}
+			SocketChannel channel = serverSocketChannel.accept();
+			channel.configureBlocking(false);
+			newClients.add(channel);
+			outputWaker.selector.wakeup();
 		}
 	}
 	private void runOutputHandler() {
-		while (!Thread.currentThread().isInterrupted()) {
-			final byte[] b;
-			synchronized (outputQueue) {
-				b = new byte[outputQueue.size()];
-			}
-			for (int i = 0; i < b.length; i++) {
-				b[i] = requireNonNull(outputQueue.poll(), "Got null! Size must not have been " + b.length + "!");
-			}
-			synchronized (activeSockets) {
-				for (Iterator<Socket> iterator = activeSockets.iterator(); iterator.hasNext(); ) {
-					Socket socket = iterator.next();
+		Selector selector = outputWaker.selector;
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				SocketChannel newChannel;
+				while ((newChannel = newClients.poll()) != null) {
+					// new clients only get bytes logged after they connected
+					Client client = new Client(newChannel, ringBuffer.getWritePosition());
+					try {
+						client.key = newChannel.register(selector, 0);
+						clients.add(client);
+					} catch (ClosedChannelException e) {
+						client.close();
+					}
+				}
+				long writePosition = ringBuffer.getWritePosition();
+				for (Iterator<Client> iterator = clients.iterator(); iterator.hasNext(); ) {
+					Client client = iterator.next();
 					try {
-						OutputStream outputStream = socket.getOutputStream();
-						outputStream.write(b);
+						writeToClient(client, writePosition);
+						// If the client's socket buffer is full, wait for it to be writable
+						client.key.interestOps(client.position < writePosition ? SelectionKey.OP_WRITE : 0);
 					} catch (IOException e) {
+						client.close();
 						iterator.remove();
 					}
 				}
+				// Logged bytes only need to wake us up if there is a client to send them to
+				outputWaker.waiting.set(!clients.isEmpty());
+				if (ringBuffer.getWritePosition() != writePosition || !newClients.isEmpty()) {
+					// something changed before the waker could see that we are waiting
+					selector.selectNow();
+				} else {
+					selector.select();
+				}
+				outputWaker.waiting.set(false);
+				selector.selectedKeys().clear(); // every client is checked each time, so the selected keys are not needed
+			}
+		} catch (IOException e) {
+			if (!stopping) {
+				throw new RuntimeException(e);
 			}
+		} finally {
+			for (Client client : clients) {
+				client.close();
+			}
+			clients.clear();
+			try {
+				selector.close();
+			} catch (IOException ignored) {
+			}
+		}
+	}
+
+	/**
+	 * Writes as many bytes as the client can currently accept.
+	 * @throws IOException If the client should be disconnected
+	 */
+	private void writeToClient(Client client, long writePosition) throws IOException {
+		while (client.position < writePosition) {
+			if (ringBuffer.isOverwritten(client.position)) {
+				LOGGER.warn("A client of {} fell behind by more than {} bytes. Disconnecting it.", getName(), ringBuffer.getCapacity());
+				throw new IOException("Client fell behind");
+			}
+			int written = ringBuffer.writeTo(client.channel, client.position, writePosition);
+			if (ringBuffer.isOverwritten(client.position)) {
+				LOGGER.warn("A client of {} fell behind while being written to. Disconnecting it.", getName());
+				throw new IOException("Client fell behind");
+			}
+			if (written == 0) {
+				break; // the client's socket buffer is full, so try again later
+			}
+			client.position += written;
+		}
+	}
+
+	/**
+	 * Wakes up the output thread when bytes are logged while it is waiting for them.
+	 */
+	static final class OutputWaker {
+		private final Selector selector;
+		/** true while the output thread is waiting and should be woken up when bytes are logged */
+		private final AtomicBoolean waiting = new AtomicBoolean(false);
+
+		private OutputWaker(Selector selector) {
+			requireNonNull(this.selector = selector);
+		}
+
+		private void wakeUpIfWaiting() {
+			// Only the first write after the output thread starts waiting needs to wake it up
+			if (waiting.get() && waiting.compareAndSet(true, false)) {
+				selector.wakeup();
+			}
+		}
+	}
+
+	private static final class Client {
+		private final SocketChannel channel;
+		/** The position in the ring buffer of the next byte to send to this client */
+		private long position;
+		private SelectionKey key;
+
+		private Client(SocketChannel channel, long position) {
+			this.channel = channel;
+			this.position = position;
+		}
+		private void close() {
 			try {
-				Thread.sleep(5);
-			} catch (InterruptedException e) {
-				Thread.currentThread().interrupt();
+				channel.close();
+			} catch (IOException ignored) {
 			}
 		}
 	}
@@ -2,9 +2,8 @@ package me.retrodaredevil.solarthing.mqtt;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.fasterxml.jackson.databind.node.ValueNode;
 import me.retrodaredevil.solarthing.InstantType;
+import me.retrodaredevil.solarthing.influxdb.FlattenedFieldConsumer;
 import me.retrodaredevil.solarthing.influxdb.PointUtil;
 import me.retrodaredevil.solarthing.packets.Packet;
 import me.retrodaredevil.solarthing.packets.collection.*;
@@ -12,9 +11,12 @@ import me.retrodaredevil.solarthing.packets.handling.PacketHandleException;
 import me.retrodaredevil.solarthing.packets.handling.PacketHandler;
 import me.retrodaredevil.solarthing.packets.identification.Identifiable;
 import me.retrodaredevil.solarthing.util.JacksonUtil;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
 import org.eclipse.paho.client.mqttv3.MqttClient;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.eclipse.paho.client.mqttv3.MqttPersistenceException;
 import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
 import org.slf4j.Logger;
@@ -22,14 +24,30 @@ import org.slf4j.LoggerFactory;
 
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Publishes packets to an MQTT broker.
+ * <p>
+ * A single session is kept for the lifetime of this object. The first connection is made the first time a packet collection is handled,
+ * and after that, the client automatically reconnects if the connection is lost. While the client is reconnecting,
+ * {@link #handle(PacketCollection, InstantType)} throws a {@link PacketHandleException}.
+ * <p>
+ * The {@link MqttPayloadMode} determines how many messages are published for each packet collection.
+ */
 public class MqttPacketSaver implements PacketHandler {
 	private static final Logger LOGGER = LoggerFactory.getLogger(MqttPacketSaver.class);
 	private static final ObjectMapper OBJECT_MAPPER = JacksonUtil.defaultMapper();
 	private static final Charset CHARSET = StandardCharsets.UTF_8;
 	/** The default topic format. Note that the ending "/" is optional. */
 	public static final String DEFAULT_TOPIC_FORMAT = "solarthing/%source/%fragment/%identifier";
+	public static final int DEFAULT_COLLECTION_QOS = 2;
+	public static final int DEFAULT_PACKET_QOS = 2;
+	/** Individual fields use a QoS of 1 by default because we want them all to go through, but no one should be using them as "event"-like packets */
+	public static final int DEFAULT_FIELD_QOS = 1;
 
 	private final MemoryPersistence persistence = new MemoryPersistence();
 	private final MqttClient client;
@@ -38,10 +56,25 @@ public class MqttPacketSaver implements PacketHandler {
 	private final String topicFormat;
 	private final String statusTopic;
 	private final boolean retain;
+	private final MqttPayloadMode payloadMode;
+	private final int collectionQos;
+	private final int packetQos;
+	private final int fieldQos;
 
-	public MqttPacketSaver(String broker, String clientId, String username, char[] password, String topicFormat, boolean retain, String sourceId, int fragmentId) {
+	/** true if the client has successfully connected at least once. After that, the client reconnects by itself */
+	private boolean hasConnected = false;
+	/** true if the client has connected, but "online" has not been published yet */
+	private volatile boolean needsOnlineStatus = false;
+
+	public MqttPacketSaver(
+			String broker, String clientId, String username, char[] password, String topicFormat, boolean retain, String sourceId, int fragmentId,
+			MqttPayloadMode payloadMode, int collectionQos, int packetQos, int fieldQos) {
 		this.topicFormat = topicFormat;
 		this.retain = retain;
+		this.payloadMode = requireNonNull(payloadMode);
+		this.collectionQos = requireValidQos(collectionQos);
+		this.packetQos = requireValidQos(packetQos);
+		this.fieldQos = requireValidQos(fieldQos);
 
 //		org.eclipse.paho.client.mqttv3.logging.LoggerFactory.setLogger();
 		try {
@@ -51,9 +84,34 @@ public class MqttPacketSaver implements PacketHandler {
 		} catch (MqttException ex) {
 			throw new RuntimeException("I have no idea what exception this could be", ex);
 		}
+		client.setCallback(new MqttCallbackExtended() {
+			@Override
+			public void connectComplete(boolean reconnect, String serverURI) {
+				if (reconnect) {
+					LOGGER.info("Reconnected to {}", serverURI);
+				}
+				// We don't publish from this callback because publishing blocks and this is called on the client's thread
+				needsOnlineStatus = true;
+			}
+
+			@Override
+			public void connectionLost(Throwable cause) {
+				LOGGER.warn("Lost connection to MQTT broker. Will automatically reconnect.", cause);
+			}
+
+			@Override
+			public void messageArrived(String topic, MqttMessage message) {
+			}
+
+			@Override
+			public void deliveryComplete(IMqttDeliveryToken token) {
+			}
+		});
 		options = new MqttConnectOptions();
 		options.setUserName(username);
 		options.setPassword(password);
+		options.setAutomaticReconnect(true);
+		options.setCleanSession(false);
 		statusTopic = topicFormat.replace("%source", sourceId)
 				.replace("%fragment", "" + fragmentId)
 				.replace("%identifier", "status");
@@ -64,24 +122,37 @@ public class MqttPacketSaver implements PacketHandler {
 				retain
 		);
 	}
+	public MqttPacketSaver(String broker, String clientId, String username, char[] password, String topicFormat, boolean retain, String sourceId, int fragmentId) {
+		this(broker, clientId, username, password, topicFormat, retain, sourceId, fragmentId, MqttPayloadMode.FIELDS, DEFAULT_COLLECTION_QOS, DEFAULT_PACKET_QOS, DEFAULT_FIELD_QOS);
+	}
+	private static int requireValidQos(int qos) {
+		if (qos < 0 || qos > 2) {
+			throw new IllegalArgumentException("QoS must be 0, 1, or 2! qos=" + qos);
+		}
+		return qos;
+	}
 
 	@Override
 	public void handle(PacketCollection packetCollection, InstantType instantType) throws PacketHandleException {
 		InstancePacketGroup instancePacketGroup = PacketGroups.parseToInstancePacketGroup(packetCollection, DefaultInstanceOptions.REQUIRE_NO_DEFAULTS);
 		try {
+			connectIfNeeded();
 			handle(instancePacketGroup, packetCollection);
 		} catch (MqttException e) {
 			throw new PacketHandleException("MQTT Exception", e);
-		} finally {
-			if (client.isConnected()) {
-				try {
-					client.disconnect();
-				} catch (MqttException e) {
-					LOGGER.error("We shouldn't get an exception while disconnecting... (Can't throw in finally)", e);
-				}
-			}
 		}
 	}
+	private void connectIfNeeded() throws MqttException, PacketHandleException {
+		if (client.isConnected()) {
+			return;
+		}
+		if (hasConnected) {
+			throw new PacketHandleException("Not connected to the MQTT broker. Waiting to reconnect.");
+		}
+		// automatic reconnect only starts working after the first successful connection
+		client.connect(options);
+		hasConnected = true;
+	}
 	private void handle(InstancePacketGroup instancePacketGroup, PacketCollection entirePacketCollection) throws MqttException {
 		DefaultInstanceOptions.requireNoDefaults(instancePacketGroup);
 		long dateMillis = instancePacketGroup.getDateMillis();
@@ -89,8 +160,11 @@ public class MqttPacketSaver implements PacketHandler {
 				.replace("%source", instancePacketGroup.getSourceId())
 				.replace("%fragment", "" + instancePacketGroup.getFragmentId());
 
-		client.connect(options);
-		{ // block for entire packet collection
+		if (needsOnlineStatus) {
+			client.publish(statusTopic, "online".getBytes(CHARSET), 1, retain);
+			needsOnlineStatus = false;
+		}
+		if (payloadMode != MqttPayloadMode.PACKET) { // block for entire packet collection
 			final String collectionJson;
 			try {
 				collectionJson = OBJECT_MAPPER.writeValueAsString(entirePacketCollection);
@@ -100,34 +174,61 @@ public class MqttPacketSaver implements PacketHandler {
 			client.publish(
 					partiallyFormattedTopic.replace("%identifier", "packetCollection"),
 					collectionJson.getBytes(CHARSET),
-					2,
+					collectionQos,
 					retain
 			);
 		}
-		client.publish(statusTopic, "online".getBytes(CHARSET), 1, retain);
+		if (payloadMode == MqttPayloadMode.COLLECTION) {
+			return;
+		}
 
 		for (Packet packet : instancePacketGroup.getPackets()) {
 			if (packet instanceof Identifiable) {
 				Identifiable identifiable = (Identifiable) packet;
 				String topic = partiallyFormattedTopic.replace("%identifier", identifiable.getIdentifier().getRepresentation()) + "/";
 
-
 				final String rawJson;
 				try {
 					rawJson = OBJECT_MAPPER.writeValueAsString(packet);
 				} catch (JsonProcessingException e) {
 					throw new RuntimeException("We should be able to serialize this to JSON!", e);
 				}
-				client.publish(topic + "dateMillis", ("" + dateMillis).getBytes(CHARSET), 2, retain);
-				client.publish(topic + "json", rawJson.getBytes(CHARSET), 2, retain);
-				ObjectNode json = OBJECT_MAPPER.valueToTree(packet);
-				for (Map.Entry<String, ValueNode> entry : PointUtil.flattenJsonObject(json, "/")) {
-					String key = entry.getKey();
-					ValueNode prim = entry.getValue();
-					// Make individual fields use QoS of 1 because we want them all to go through, but no one should be using them as "event"-like packets
-					client.publish(topic + "packet/" + key, prim.asText().getBytes(CHARSET), 1, retain);
+				client.publish(topic + "dateMillis", ("" + dateMillis).getBytes(CHARSET), packetQos, retain);
+				client.publish(topic + "json", rawJson.getBytes(CHARSET), packetQos, retain);
+				if (payloadMode == MqttPayloadMode.FIELDS) {
+					TextFieldCollector fields = new TextFieldCollector();
+					PointUtil.flattenValue(OBJECT_MAPPER, packet, "/", fields);
+					for (int i = 0; i < fields.keys.size(); i++) {
+						client.publish(topic + "packet/" + fields.keys.get(i), fields.values.get(i).getBytes(CHARSET), fieldQos, retain);
+					}
 				}
 			}
 		}
 	}
+
+	/**
+	 * Collects fields so that they can be published outside of {@link PointUtil#flattenValue(ObjectMapper, Object, String, FlattenedFieldConsumer)}
+	 */
+	private static final class TextFieldCollector implements FlattenedFieldConsumer {
+		private final List<String> keys = new ArrayList<>();
+		private final List<String> values = new ArrayList<>();
+
+		@Override
+		public void acceptNumber(String key, Number value) {
+			keys.add(key);
+			values.add(value.toString());
+		}
+
+		@Override
+		public void acceptText(String key, String value) {
+			keys.add(key);
+			values.add(value);
+		}
+
+		@Override
+		public void acceptBoolean(String key, boolean value) {
+			keys.add(key);
+			values.add(String.valueOf(value));
+		}
+	}
 }
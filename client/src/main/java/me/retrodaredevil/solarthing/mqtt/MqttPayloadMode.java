@@ -0,0 +1,37 @@
+package me.retrodaredevil.solarthing.mqtt;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+/**
+ * Determines which messages a {@link MqttPacketSaver} publishes for each packet collection
+ */
+public enum MqttPayloadMode {
+	/** Publish the packet collection, each packet as JSON, and each field of each packet as its own topic */
+	FIELDS("fields"),
+	/** Publish each packet as JSON along with its date. Individual fields and the packet collection are not published */
+	PACKET("packet"),
+	/** Only publish the packet collection as JSON */
+	COLLECTION("collection"),
+	;
+	private final String shortName;
+
+	MqttPayloadMode(String shortName) {
+		this.shortName = shortName;
+	}
+
+	@JsonValue
+	public String getShortName() {
+		return shortName;
+	}
+
+	@JsonCreator
+	public static MqttPayloadMode forValue(String shortName) {
+		for (MqttPayloadMode mode : values()) {
+			if (mode.shortName.equals(shortName)) {
+				return mode;
+			}
+		}
+		throw new IllegalArgumentException("shortName=" + shortName + " is not valid!");
+	}
+}
@@ -0,0 +1,184 @@
+package me.retrodaredevil.solarthing.netcat;
+
+import me.retrodaredevil.solarthing.annotations.NotNull;
+import me.retrodaredevil.solarthing.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A connection that is read from by the {@link NetCatServerHandler}'s selector thread. Lines are split as soon as they are read,
+ * and wait in a queue until {@link #pollLine()} is called.
+ * <p>
+ * The amount of memory used by each connection is bounded: A line may be at most {@link #MAX_LINE_LENGTH} bytes,
+ * no more than {@link #MAX_QUEUED_LINES} lines are read before {@link #pollLine()} is called, and if more than {@link #MAX_PENDING_OUTPUT}
+ * bytes are waiting to be sent, the connection is closed.
+ */
+class ChannelSimpleConnection implements SimpleConnection {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ChannelSimpleConnection.class);
+	private static final Charset CHARSET = StandardCharsets.UTF_8;
+	static final int MAX_LINE_LENGTH = 1024;
+	static final int MAX_QUEUED_LINES = 32;
+	static final int MAX_PENDING_OUTPUT = 64 * 1024;
+
+	private final NetCatServerHandler server;
+	private final SocketChannel channel;
+	/** Only accessed by the selector thread */
+	private final ByteBuffer readBuffer = ByteBuffer.allocate(MAX_LINE_LENGTH);
+
+	/** The lock for {@link #lines}, {@link #readPaused} and {@link #closed}*/
+	private final Object lock = new Object();
+	private final Queue<String> lines = new ArrayDeque<>();
+	private boolean readPaused = false;
+	private boolean closed = false;
+
+	/** Bytes waiting to be sent. Guarded by itself */
+	private final ByteBuffer writeBuffer = ByteBuffer.allocate(MAX_PENDING_OUTPUT);
+
+	ChannelSimpleConnection(NetCatServerHandler server, SocketChannel channel) {
+		this.server = server;
+		this.channel = channel;
+		writeBuffer.flip(); // nothing to write yet
+	}
+
+	SocketChannel getChannel() {
+		return channel;
+	}
+
+	/**
+	 * Called by the selector thread when the channel is readable
+	 * @return false if no more lines should be read until {@link #pollLine()} is called
+	 */
+	boolean onReadable() throws IOException {
+		int read = channel.read(readBuffer);
+		if (read == -1) {
+			throw new EOFException();
+		}
+		return parseLines();
+	}
+
+	/**
+	 * Called by the selector thread to move complete lines from the read buffer to the queue. This is also called when reading resumes,
+	 * since lines may have been left in the read buffer when it was paused.
+	 * @return false if no more lines should be read until {@link #pollLine()} is called
+	 */
+	boolean parseLines() throws IOException {
+		readBuffer.flip();
+		int lineStart = 0;
+		boolean canReadMore = true;
+		for (int i = readBuffer.position(); i < readBuffer.limit(); i++) {
+			if (readBuffer.get(i) == '\n') {
+				int end = i;
+				if (end > lineStart && readBuffer.get(end - 1) == '\r') {
+					end--;
+				}
+				String line = new String(readBuffer.array(), lineStart, end - lineStart, CHARSET);
+				lineStart = i + 1;
+				synchronized (lock) {
+					lines.add(line);
+					if (lines.size() >= MAX_QUEUED_LINES) {
+						readPaused = true;
+						canReadMore = false;
+					}
+				}
+				if (!canReadMore) {
+					break;
+				}
+			}
+		}
+		readBuffer.position(lineStart);
+		readBuffer.compact();
+		if (canReadMore && !readBuffer.hasRemaining()) {
+			throw new IOException("Line is longer than " + MAX_LINE_LENGTH + " bytes!");
+		}
+		return canReadMore;
+	}
+
+	/**
+	 * Called by the selector thread when the channel is writable
+	 * @return true if there is still data left to write
+	 */
+	boolean onWritable() throws IOException {
+		synchronized (writeBuffer) {
+			channel.write(writeBuffer);
+			return writeBuffer.hasRemaining();
+		}
+	}
+
+	/**
+	 * Called by the selector thread after the channel has been closed
+	 */
+	void onClosed() {
+		synchronized (lock) {
+			closed = true;
+		}
+	}
+
+	@Override
+	public @Nullable String pollLine() throws EOFException {
+		final String line;
+		final boolean resume;
+		synchronized (lock) {
+			line = lines.poll();
+			if (line == null && closed) {
+				throw new EOFException("Connection is closed!");
+			}
+			resume = readPaused && lines.size() < MAX_QUEUED_LINES;
+			if (resume) {
+				readPaused = false;
+			}
+		}
+		if (resume) {
+			server.requestRead(this);
+		}
+		return line;
+	}
+
+	@Override
+	public void send(@NotNull String line) throws EOFException {
+		requireNonNull(line);
+		synchronized (lock) {
+			if (closed) {
+				throw new EOFException("Connection is closed!");
+			}
+		}
+		byte[] bytes = (line + "\n").getBytes(CHARSET);
+		final boolean hasRemaining;
+		synchronized (writeBuffer) {
+			writeBuffer.compact();
+			if (writeBuffer.remaining() < bytes.length) {
+				writeBuffer.flip();
+				LOGGER.info("Client is not reading what we send. Closing connection.");
+				server.requestClose(this);
+				throw new EOFException("Too much data waiting to be sent!");
+			}
+			writeBuffer.put(bytes);
+			writeBuffer.flip();
+			try {
+				channel.write(writeBuffer);
+			} catch (IOException e) {
+				server.requestClose(this);
+				throw new EOFException("Error while writing");
+			}
+			hasRemaining = writeBuffer.hasRemaining();
+		}
+		if (hasRemaining) {
+			server.requestWrite(this);
+		}
+	}
+
+	@Override
+	public void close() {
+		server.requestClose(this);
+	}
+}
@@ -2,6 +2,8 @@ package me.retrodaredevil.solarthing.netcat;
 
 import me.retrodaredevil.solarthing.annotations.NotNull;
 import me.retrodaredevil.solarthing.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.EOFException;
 import java.util.ArrayList;
@@ -10,6 +12,7 @@ import java.util.List;
 import java.util.function.Function;
 
 public class ConnectionHandler {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionHandler.class);
 	private final NetCatServerHandler netCatServerHandler;
 	private final List<SimpleConnection> connections = new ArrayList<>();
 
@@ -31,6 +34,7 @@ public class ConnectionHandler {
 					line = connection.pollLine();
 				} catch (EOFException e) {
 					it.remove();
+					close(connection);
 					break;
 				}
 				if (line == null) {
@@ -43,9 +47,17 @@ public class ConnectionHandler {
 					}
 				} catch (EOFException e) {
 					it.remove();
+					close(connection);
 					break;
 				}
 			}
 		}
 	}
+	private static void close(SimpleConnection connection) {
+		try {
+			connection.close();
+		} catch (Exception e) {
+			LOGGER.debug("Error closing connection", e);
+		}
+	}
 }
@@ -6,40 +6,190 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
 import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedDeque;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
-public class NetCatServerHandler {
+/**
+ * Accepts connections and reads from all of them using a single thread with a {@link Selector}.
+ * Lines are read from each connection as soon as they arrive, and wait in that connection until {@link SimpleConnection#pollLine()} is called.
+ */
+public class NetCatServerHandler implements AutoCloseable {
 	private static final Logger LOGGER = LoggerFactory.getLogger(NetCatServerHandler.class);
-	private final ServerSocket serverSocket;
-	private final Queue<SimpleConnection> connectionQueue = new ConcurrentLinkedDeque<>();
+	private final Selector selector;
+	private final ServerSocketChannel serverChannel;
+	private final Queue<SimpleConnection> connectionQueue = new ConcurrentLinkedQueue<>();
+
+	/** Changes to interest ops requested by other threads. These are only applied on the selector thread.*/
+	private final Queue<PendingChange> pendingChanges = new ConcurrentLinkedQueue<>();
+	private volatile boolean closed = false;
 
 	public NetCatServerHandler(String bindAddress, int port) throws IOException {
-		serverSocket = new ServerSocket();
-		serverSocket.bind(new InetSocketAddress(bindAddress, port));
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		try {
+			serverChannel.bind(new InetSocketAddress(bindAddress, port));
+			serverChannel.configureBlocking(false);
+			serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			serverChannel.close();
+			selector.close();
+			throw e;
+		}
 
-		Executors.newSingleThreadExecutor().execute(this::startLoop);
+		Thread thread = new Thread(this::startLoop, "netcat-server-" + port);
+		thread.setDaemon(true);
+		thread.start();
 	}
 	private void startLoop() {
-		while (!Thread.currentThread().isInterrupted()) {
+		try {
+			while (!closed) {
+				selector.select();
+				applyPendingChanges();
+				for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext(); ) {
+					SelectionKey key = it.next();
+					it.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept();
+					} else {
+						handleKey(key);
+					}
+				}
+			}
+		} catch (IOException e) {
+			LOGGER.error("Error with selector. No longer accepting connections.", e);
+		} finally {
+			for (SelectionKey key : selector.keys()) {
+				Object attachment = key.attachment();
+				if (attachment instanceof ChannelSimpleConnection) {
+					closeConnection((ChannelSimpleConnection) attachment);
+				}
+			}
 			try {
-				Socket socket = serverSocket.accept();
-				connectionQueue.add(new SocketSimpleConnection(socket));
-				LOGGER.info("Accepted connection");
+				serverChannel.close();
+				selector.close();
 			} catch (IOException e) {
-				LOGGER.error("Couldn't accept a connection", e);
+				LOGGER.debug("Error closing server", e);
+			}
+		}
+	}
+	private void accept() {
+		final SocketChannel channel;
+		try {
+			channel = serverChannel.accept();
+			if (channel == null) {
+				return;
+			}
+		} catch (IOException e) {
+			LOGGER.error("Couldn't accept a connection", e);
+			return;
+		}
+		ChannelSimpleConnection connection = new ChannelSimpleConnection(this, channel);
+		try {
+			channel.configureBlocking(false);
+			channel.register(selector, SelectionKey.OP_READ, connection);
+		} catch (IOException e) {
+			LOGGER.error("Couldn't register a connection", e);
+			closeConnection(connection);
+			return;
+		}
+		connectionQueue.add(connection);
+		LOGGER.info("Accepted connection");
+	}
+	private void handleKey(SelectionKey key) {
+		ChannelSimpleConnection connection = (ChannelSimpleConnection) key.attachment();
+		try {
+			if (key.isReadable()) {
+				if (!connection.onReadable()) {
+					key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+				}
+			}
+			if (key.isValid() && key.isWritable()) {
+				if (!connection.onWritable()) {
+					key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+				}
+			}
+		} catch (IOException e) {
+			closeConnection(connection);
+		}
+	}
+	private void applyPendingChanges() {
+		PendingChange change;
+		while ((change = pendingChanges.poll()) != null) {
+			ChannelSimpleConnection connection = change.connection;
+			SelectionKey key = connection.getChannel().keyFor(selector);
+			if (key == null || !key.isValid()) {
+				continue;
 			}
 			try {
-				Thread.sleep(100);
-			} catch (InterruptedException ex) {
-				Thread.currentThread().interrupt();
+				switch (change.type) {
+					case READ:
+						if (connection.parseLines()) {
+							key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+						}
+						break;
+					case WRITE:
+						key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+						break;
+					case CLOSE:
+						closeConnection(connection);
+						break;
+				}
+			} catch (IOException e) {
+				closeConnection(connection);
 			}
 		}
 	}
+	private void closeConnection(ChannelSimpleConnection connection) {
+		connection.onClosed();
+		try {
+			connection.getChannel().close();
+		} catch (IOException e) {
+			LOGGER.debug("Error closing connection", e);
+		}
+	}
+	private void request(ChannelSimpleConnection connection, PendingChange.Type type) {
+		pendingChanges.add(new PendingChange(connection, type));
+		selector.wakeup();
+	}
+	void requestRead(ChannelSimpleConnection connection) {
+		request(connection, PendingChange.Type.READ);
+	}
+	void requestWrite(ChannelSimpleConnection connection) {
+		request(connection, PendingChange.Type.WRITE);
+	}
+	void requestClose(ChannelSimpleConnection connection) {
+		request(connection, PendingChange.Type.CLOSE);
+	}
+
 	public @Nullable SimpleConnection poll() {
 		return connectionQueue.poll();
 	}
+
+	/**
+	 * Stops accepting connections and closes every connection
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		selector.wakeup();
+	}
+
+	private static final class PendingChange {
+		private enum Type {READ, WRITE, CLOSE}
+		private final ChannelSimpleConnection connection;
+		private final Type type;
+
+		private PendingChange(ChannelSimpleConnection connection, Type type) {
+			this.connection = connection;
+			this.type = type;
+		}
+	}
 }
@@ -3,7 +3,6 @@ package me.retrodaredevil.solarthing.program;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import me.retrodaredevil.action.ActionMultiplexer;
 import me.retrodaredevil.action.Actions;
-import me.retrodaredevil.couchdb.CouchDbUtil;
 import me.retrodaredevil.solarthing.SolarThingConstants;
 import me.retrodaredevil.solarthing.actions.ActionNode;
 import me.retrodaredevil.solarthing.actions.environment.*;
@@ -11,12 +10,16 @@ import me.retrodaredevil.solarthing.annotations.UtilityClass;
 import me.retrodaredevil.solarthing.config.databases.implementations.CouchDbDatabaseSettings;
 import me.retrodaredevil.solarthing.config.options.AutomationProgramOptions;
 import me.retrodaredevil.solarthing.config.options.DatabaseTimeZoneOptionBase;
+import me.retrodaredevil.solarthing.database.ChangesFeed;
+import me.retrodaredevil.solarthing.database.ChangesSubscriber;
 import me.retrodaredevil.solarthing.database.MillisQueryBuilder;
 import me.retrodaredevil.solarthing.database.SolarThingDatabase;
 import me.retrodaredevil.solarthing.database.couchdb.CouchDbSolarThingDatabase;
 import me.retrodaredevil.solarthing.database.exception.SolarThingDatabaseException;
 import me.retrodaredevil.solarthing.packets.collection.FragmentedPacketGroup;
+import me.retrodaredevil.solarthing.packets.collection.InstancePacketGroup;
 import me.retrodaredevil.solarthing.packets.collection.PacketGroup;
+import me.retrodaredevil.solarthing.packets.collection.PacketGroups;
 import me.retrodaredevil.solarthing.util.JacksonUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -24,7 +27,12 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import static java.util.Objects.requireNonNull;
 
@@ -34,6 +42,7 @@ public final class AutomationMain {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(AutomationMain.class);
 	private static final ObjectMapper CONFIG_MAPPER = JacksonUtil.defaultMapper();
+	private static final long WINDOW_MILLIS = 5 * 60 * 1000;
 
 	public static int startAutomation(AutomationProgramOptions options) throws IOException {
 		List<ActionNode> actionNodes = new ArrayList<>();
@@ -45,7 +54,7 @@ public final class AutomationMain {
 	public static int startAutomation(List<ActionNode> actionNodes, DatabaseTimeZoneOptionBase options, long periodMillis) {
 		LOGGER.info(SolarThingConstants.SUMMARY_MARKER, "Starting automation program.");
 		CouchDbDatabaseSettings couchSettings = ConfigUtil.expectCouchDbDatabaseSettings(options);
-		SolarThingDatabase database = CouchDbSolarThingDatabase.create(CouchDbUtil.createInstance(couchSettings.getCouchProperties(), couchSettings.getOkHttpProperties()));
+		SolarThingDatabase database = CouchDbSolarThingDatabase.create(couchSettings.getCouchProperties(), couchSettings.getOkHttpProperties());
 
 		VariableEnvironment variableEnvironment = new VariableEnvironment();
 
@@ -58,36 +67,24 @@ public final class AutomationMain {
 				.add(new LatestPacketGroupEnvironment(() -> requireNonNull(latestPacketGroupReference[0])))
 				.build();
 
-		ActionMultiplexer multiplexer = new Actions.ActionMultiplexerBuilder().build();
+		// New status packets are pushed to us, so we only have to query the database once to get the packets that were uploaded before we started
+		ChangesFeed changesFeed = requireNonNull(database.getStatusDatabase().getChangesFeed(), "The database was created with CouchProperties, so it should have a changes feed!");
+		Map<PacketGroupKey, PacketGroup> packetGroupWindow = new HashMap<>();
+		String since = null;
 		while (!Thread.currentThread().isInterrupted()) {
-			List<PacketGroup> rawPacketGroups = null;
 			try {
+				// We get the sequence before we query so that packets uploaded while we query are not missed. Those that we get twice replace themselves in the window
+				since = changesFeed.getCurrentSequence();
 				long now = System.currentTimeMillis();
-				rawPacketGroups = database.getStatusDatabase().query(new MillisQueryBuilder()
-						.startKey(now - 5 * 60 * 1000)
+				addToWindow(packetGroupWindow, options, database.getStatusDatabase().query(new MillisQueryBuilder()
+						.startKey(now - WINDOW_MILLIS)
 						.endKey(now)
-						.build());
-				LOGGER.debug("Got packets");
+						.build()));
+				LOGGER.debug("Got initial packets");
+				break;
 			} catch (SolarThingDatabaseException e) {
 				LOGGER.error("Couldn't get status packets", e);
 			}
-			if(rawPacketGroups != null) {
-				List<FragmentedPacketGroup> packetGroups = PacketUtil.getPacketGroups(options.getSourceId(), options.getDefaultInstanceOptions(), rawPacketGroups);
-				if (packetGroups != null) {
-					FragmentedPacketGroup packetGroup = packetGroups.get(packetGroups.size() - 1);
-					latestPacketGroupReference[0] = packetGroup;
-					if (last != null && last.getDateMillis() >= packetGroup.getDateMillis()) {
-						LOGGER.debug("No new packets! last date=" + last.getDateMillis() + " current packet date=" + packetGroup.getDateMillis());
-					} else {
-						for (ActionNode actionNode : actionNodes) {
-							multiplexer.add(actionNode.createAction(new ActionEnvironment(variableEnvironment, new VariableEnvironment(), injectEnvironment)));
-						}
-						multiplexer.update();
-						LOGGER.debug("There are " + multiplexer.getActiveActions().size() + " active actions");
-					}
-					last = packetGroup;
-				}
-			}
 			try {
 				Thread.sleep(periodMillis);
 			} catch (InterruptedException ex) {
@@ -95,7 +92,83 @@ public final class AutomationMain {
 				throw new RuntimeException(ex);
 			}
 		}
+
+		Queue<PacketGroup> newPacketGroups = new ConcurrentLinkedQueue<>();
+		try (ChangesSubscriber subscriber = new ChangesSubscriber(changesFeed, since, newPacketGroups::addAll, "automation-status")) {
+			subscriber.start();
+			ActionMultiplexer multiplexer = new Actions.ActionMultiplexerBuilder().build();
+			while (!Thread.currentThread().isInterrupted()) {
+				List<PacketGroup> newPacketGroupList = new ArrayList<>();
+				PacketGroup newPacketGroup;
+				while ((newPacketGroup = newPacketGroups.poll()) != null) {
+					newPacketGroupList.add(newPacketGroup);
+				}
+				addToWindow(packetGroupWindow, options, newPacketGroupList);
+				long minDateMillis = System.currentTimeMillis() - WINDOW_MILLIS;
+				packetGroupWindow.values().removeIf(packetGroup -> packetGroup.getDateMillis() < minDateMillis);
+				List<PacketGroup> rawPacketGroups = packetGroupWindow.isEmpty() ? null : new ArrayList<>(packetGroupWindow.values());
+				if(rawPacketGroups != null) {
+					List<FragmentedPacketGroup> packetGroups = PacketUtil.getPacketGroups(options.getSourceId(), options.getDefaultInstanceOptions(), rawPacketGroups);
+					if (packetGroups != null) {
+						FragmentedPacketGroup packetGroup = packetGroups.get(packetGroups.size() - 1);
+						latestPacketGroupReference[0] = packetGroup;
+						if (last != null && last.getDateMillis() >= packetGroup.getDateMillis()) {
+							LOGGER.debug("No new packets! last date=" + last.getDateMillis() + " current packet date=" + packetGroup.getDateMillis());
+						} else {
+							for (ActionNode actionNode : actionNodes) {
+								multiplexer.add(actionNode.createAction(new ActionEnvironment(variableEnvironment, new VariableEnvironment(), injectEnvironment)));
+							}
+							multiplexer.update();
+							LOGGER.debug("There are " + multiplexer.getActiveActions().size() + " active actions");
+						}
+						last = packetGroup;
+					}
+				}
+				try {
+					Thread.sleep(periodMillis);
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException(ex);
+				}
+			}
+		}
 		return 0;
 	}
 
+	/**
+	 * Adds packet groups to the window. A packet group from the same source and fragment with the same date replaces the one already in the window,
+	 * so a packet group that is both queried and received from the changes feed, or that is updated, is only in the window once.
+	 */
+	private static void addToWindow(Map<PacketGroupKey, PacketGroup> packetGroupWindow, DatabaseTimeZoneOptionBase options, List<PacketGroup> packetGroups) {
+		for (PacketGroup packetGroup : packetGroups) {
+			InstancePacketGroup instancePacketGroup = PacketGroups.parseToInstancePacketGroup(packetGroup, options.getDefaultInstanceOptions());
+			packetGroupWindow.put(new PacketGroupKey(instancePacketGroup.getSourceId(), instancePacketGroup.getFragmentId(), packetGroup.getDateMillis()), packetGroup);
+		}
+	}
+
+	private static final class PacketGroupKey {
+		private final String sourceId;
+		private final int fragmentId;
+		private final long dateMillis;
+
+		private PacketGroupKey(String sourceId, int fragmentId, long dateMillis) {
+			this.sourceId = sourceId;
+			this.fragmentId = fragmentId;
+			this.dateMillis = dateMillis;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+			PacketGroupKey that = (PacketGroupKey) o;
+			return fragmentId == that.fragmentId && dateMillis == that.dateMillis && sourceId.equals(that.sourceId);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(sourceId, fragmentId, dateMillis);
+		}
+	}
+
 }
@@ -1,68 +1,112 @@
 package me.retrodaredevil.solarthing.program;
 
-import me.retrodaredevil.couchdb.CouchDbUtil;
-import me.retrodaredevil.couchdbjava.CouchDbInstance;
-import me.retrodaredevil.solarthing.InstantType;
 import me.retrodaredevil.solarthing.PacketGroupReceiver;
+import me.retrodaredevil.solarthing.SolarThingConstants;
+import me.retrodaredevil.solarthing.closed.authorization.AuthorizationPacket;
 import me.retrodaredevil.solarthing.commands.packets.open.CommandOpenPacket;
 import me.retrodaredevil.solarthing.config.databases.IndividualSettings;
 import me.retrodaredevil.solarthing.config.databases.implementations.CouchDbDatabaseSettings;
 import me.retrodaredevil.solarthing.config.options.PacketHandlingOption;
+import me.retrodaredevil.solarthing.database.ChangesFeed;
+import me.retrodaredevil.solarthing.database.ChangesSubscriber;
 import me.retrodaredevil.solarthing.database.DatabaseDocumentKeyMap;
 import me.retrodaredevil.solarthing.database.MillisQueryBuilder;
 import me.retrodaredevil.solarthing.database.SolarThingDatabase;
+import me.retrodaredevil.solarthing.database.couchdb.CouchDbDocumentWatcher;
 import me.retrodaredevil.solarthing.database.couchdb.CouchDbSolarThingDatabase;
 import me.retrodaredevil.solarthing.database.exception.SolarThingDatabaseException;
-import me.retrodaredevil.solarthing.packets.collection.PacketCollection;
 import me.retrodaredevil.solarthing.packets.collection.PacketGroup;
-import me.retrodaredevil.solarthing.packets.handling.*;
+import me.retrodaredevil.solarthing.packets.handling.AsyncPacketHandlerWrapper;
+import me.retrodaredevil.solarthing.packets.handling.FrequencySettings;
+import me.retrodaredevil.solarthing.packets.handling.PacketHandleException;
+import me.retrodaredevil.solarthing.packets.handling.PacketHandler;
+import me.retrodaredevil.solarthing.packets.handling.PrintPacketHandleExceptionWrapper;
+import me.retrodaredevil.solarthing.packets.handling.ThrottleFactorPacketHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import static java.util.Objects.requireNonNull;
+
 public class CommandUtil {
+	private static final Logger LOGGER = LoggerFactory.getLogger(CommandUtil.class);
 
 	/**
 	 * Gets packet handlers that will download requested commands
 	 * @param databaseConfigs The list of database configs
 	 * @param packetGroupReceiver Receives data that has been downloaded. Note that this may be called in a separate thread, so make sure it is thread safe
 	 * @param options The options object
-	 * @return A list of packet handlers that, when called, will possibly download commands and then forward those commands to {@code packetGroupReceiver}
+	 * @return A list of packet handlers that, when called, will possibly download commands and then forward those commands to {@code packetGroupReceiver}.
+	 * 			By default, CouchDB databases push commands as soon as they are uploaded, so they only add a packet handler to this list that retries commands that could not be verified.
+	 * 			If a database has settings for {@link Constants#DATABASE_COMMAND_DOWNLOAD_ID}, it is queried for commands at that frequency instead.
 	 */
 	public static List<PacketHandler> getCommandRequesterHandlerList(List<DatabaseConfig> databaseConfigs, PacketGroupReceiver packetGroupReceiver, PacketHandlingOption options) {
 		final List<PacketHandler> commandRequesterHandlerList = new ArrayList<>(); // Handlers to request and get new commands to send (This may block the current thread). (This doesn't actually handle packets)
 		for(DatabaseConfig config : databaseConfigs){
 			if(CouchDbDatabaseSettings.TYPE.equals(config.getType())){
 				CouchDbDatabaseSettings settings = (CouchDbDatabaseSettings) config.getSettings();
-				CouchDbInstance instance = CouchDbUtil.createInstance(settings.getCouchProperties(), settings.getOkHttpProperties());
-				SolarThingDatabase database = CouchDbSolarThingDatabase.create(instance);
+				SolarThingDatabase database = CouchDbSolarThingDatabase.create(settings.getCouchProperties(), settings.getOkHttpProperties());
 
+				DatabaseDocumentKeyMap keyMap = new DatabaseDocumentKeyMap(database);
+				CouchDbDocumentWatcher authorizationWatcher = new CouchDbDocumentWatcher(
+						settings.getCouchProperties(), settings.getOkHttpProperties(), SolarThingConstants.CLOSED_DATABASE,
+						Collections.singleton(AuthorizationPacket.DOCUMENT_ID), documentId -> keyMap.invalidate(), "authorization-changes"
+				);
+				authorizationWatcher.start();
+				closeOnShutdown(authorizationWatcher, "authorization-changes-close");
 				IndividualSettings individualSettings = config.getIndividualSettingsOrDefault(Constants.DATABASE_COMMAND_DOWNLOAD_ID, null);
-				FrequencySettings frequencySettings = individualSettings != null ? individualSettings.getFrequencySettings() : FrequencySettings.NORMAL_SETTINGS;
-				PacketHandler packetHandler = new PacketHandler() {
-					private final SecurityPacketReceiver securityPacketReceiver = new SecurityPacketReceiver(
-							new DatabaseDocumentKeyMap(database),
-							packetGroupReceiver,
-							options.getSourceId(), options.getFragmentId(),
-							Collections.singleton(CommandOpenPacket.class)
+				SecurityPacketReceiver securityPacketReceiver = new SecurityPacketReceiver(
+						keyMap,
+						packetGroupReceiver,
+						options.getSourceId(), options.getFragmentId(),
+						Collections.singleton(CommandOpenPacket.class),
+						individualSettings == null // commands from the changes feed are only received once, so they need to be retried if they can't be verified
+				);
+				if (individualSettings != null) {
+					FrequencySettings frequencySettings = individualSettings.getFrequencySettings();
+					LOGGER.info(SolarThingConstants.SUMMARY_MARKER, "Querying for commands using the settings for " + Constants.DATABASE_COMMAND_DOWNLOAD_ID + ". Remove them to receive commands as soon as they are uploaded.");
+					AsyncPacketHandlerWrapper queryPacketHandler = new AsyncPacketHandlerWrapper(new PrintPacketHandleExceptionWrapper(
+							createQueryPacketHandler(database, securityPacketReceiver)
+					));
+					queryPacketHandler.start();
+					commandRequesterHandlerList.add(new ThrottleFactorPacketHandler(queryPacketHandler, frequencySettings, true));
+				} else {
+					ChangesFeed changesFeed = requireNonNull(database.getOpenDatabase().getChangesFeed(), "The database was created with CouchProperties, so it should have a changes feed!");
+					ChangesSubscriber subscriber = new ChangesSubscriber(changesFeed, null, securityPacketReceiver::receivePacketGroups, "command-download");
+					subscriber.start();
+					closeOnShutdown(subscriber, "command-download-close");
+					// A command that could not be verified when it was received (such as when the authorization packet could not be retrieved) is tried again until it expires
+					AsyncPacketHandlerWrapper retryPacketHandler = new AsyncPacketHandlerWrapper(
+							(packetCollection, instantType) -> securityPacketReceiver.retryUnverified()
 					);
-					@Override
-					public void handle(PacketCollection packetCollection, InstantType instantType) throws PacketHandleException {
-						final List<PacketGroup> packetGroups;
-						try {
-							packetGroups = database.getOpenDatabase().query(new MillisQueryBuilder().startKey(System.currentTimeMillis() - 5 * 60 * 1000).build());
-						} catch (SolarThingDatabaseException e) {
-							throw new PacketHandleException(e);
-						}
-						securityPacketReceiver.receivePacketGroups(packetGroups);
-					}
-				};
-				commandRequesterHandlerList.add(new ThrottleFactorPacketHandler(new AsyncPacketHandlerWrapper(new PrintPacketHandleExceptionWrapper(
-						packetHandler
-				)), frequencySettings, true));
+					retryPacketHandler.start();
+					commandRequesterHandlerList.add(retryPacketHandler);
+				}
 			}
 		}
 		return commandRequesterHandlerList;
 	}
+	private static PacketHandler createQueryPacketHandler(SolarThingDatabase database, SecurityPacketReceiver securityPacketReceiver) {
+		return (packetCollection, instantType) -> {
+			final List<PacketGroup> packetGroups;
+			try {
+				packetGroups = database.getOpenDatabase().query(new MillisQueryBuilder().startKey(System.currentTimeMillis() - 5 * 60 * 1000).build());
+			} catch (SolarThingDatabaseException e) {
+				throw new PacketHandleException(e);
+			}
+			securityPacketReceiver.receivePacketGroups(packetGroups);
+		};
+	}
+	private static void closeOnShutdown(AutoCloseable closeable, String name) {
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			try {
+				closeable.close();
+			} catch (Exception e) {
+				LOGGER.error("Could not close " + closeable, e);
+			}
+		}, name));
+	}
 }
@@ -1,7 +1,9 @@
 package me.retrodaredevil.solarthing.program;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.influxdb.client.InfluxDBClient;
 import me.retrodaredevil.couchdb.CouchDbUtil;
+import me.retrodaredevil.couchdbjava.CouchDbDatabase;
 import me.retrodaredevil.couchdbjava.CouchDbInstance;
 import me.retrodaredevil.solarthing.SolarThingConstants;
 import me.retrodaredevil.solarthing.actions.ActionNode;
@@ -10,10 +12,15 @@ import me.retrodaredevil.solarthing.actions.environment.LatestPacketGroupEnviron
 import me.retrodaredevil.solarthing.actions.environment.TimeZoneEnvironment;
 import me.retrodaredevil.solarthing.annotations.UtilityClass;
 import me.retrodaredevil.solarthing.config.databases.IndividualSettings;
+import me.retrodaredevil.solarthing.config.databases.RetryQueueSettings;
 import me.retrodaredevil.solarthing.config.databases.implementations.*;
 import me.retrodaredevil.solarthing.config.options.CommandOption;
 import me.retrodaredevil.solarthing.config.options.PacketHandlingOption;
 import me.retrodaredevil.solarthing.couchdb.CouchDbPacketSaver;
+import me.retrodaredevil.solarthing.database.MillisDatabasePacketSaver;
+import me.retrodaredevil.solarthing.database.couchdb.CouchDbReplicator;
+import me.retrodaredevil.solarthing.database.local.LocalMillisDatabase;
+import me.retrodaredevil.solarthing.database.local.LocalSolarThingDatabase;
 import me.retrodaredevil.solarthing.influxdb.ConstantNameGetter;
 import me.retrodaredevil.solarthing.influxdb.influxdb1.ConstantMeasurementPacketPointCreator;
 import me.retrodaredevil.solarthing.influxdb.influxdb1.DocumentedMeasurementPacketPointCreator;
@@ -22,22 +29,32 @@ import me.retrodaredevil.solarthing.influxdb.infuxdb2.DocumentedMeasurementPacke
 import me.retrodaredevil.solarthing.influxdb.infuxdb2.InfluxDb2PacketSaver;
 import me.retrodaredevil.solarthing.influxdb.retention.ConstantRetentionPolicyGetter;
 import me.retrodaredevil.solarthing.influxdb.retention.FrequentRetentionPolicyGetter;
+import me.retrodaredevil.solarthing.metrics.MetricsLogger;
+import me.retrodaredevil.solarthing.metrics.MetricsRegistry;
 import me.retrodaredevil.solarthing.mqtt.MqttPacketSaver;
+import me.retrodaredevil.solarthing.packets.collection.parsing.PacketMapperUtil;
+import me.retrodaredevil.solarthing.packets.collection.parsing.PacketParsingErrorHandler;
 import me.retrodaredevil.solarthing.packets.handling.*;
 import me.retrodaredevil.solarthing.packets.handling.implementations.FileWritePacketHandler;
 import me.retrodaredevil.solarthing.packets.handling.implementations.JacksonStringPacketHandler;
 import me.retrodaredevil.solarthing.packets.handling.implementations.PostPacketHandler;
+import me.retrodaredevil.solarthing.util.AdaptiveBatchSize;
 import me.retrodaredevil.solarthing.util.JacksonUtil;
 import me.retrodaredevil.solarthing.util.frequency.FrequentHandler;
+import me.retrodaredevil.solarthing.util.queue.SegmentedFileQueue;
 import okhttp3.MediaType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.Supplier;
 
 @UtilityClass
@@ -47,11 +64,24 @@ public class PacketHandlerInit {
 	private static final Logger LOGGER = LoggerFactory.getLogger(PacketHandlerInit.class);
 	private static final ObjectMapper MAPPER = JacksonUtil.defaultMapper();
 	private static final ObjectMapper CONFIG_MAPPER = JacksonUtil.defaultMapper();
+	private static final ObjectMapper RETRY_QUEUE_MAPPER = JacksonUtil.lenientMapper(JacksonUtil.defaultMapper());
+	private static final int REPLICATION_MIN_BATCH_SIZE = 10;
+	private static final int REPLICATION_INITIAL_BATCH_SIZE = 100;
+	private static final int REPLICATION_MAX_BATCH_SIZE = 2000;
+	private static final long REPLICATION_TARGET_LATENCY_MILLIS = 5 * 1000;
+	private static final long REPLICATION_IDLE_DELAY_MILLIS = 5 * 1000;
 
 	public static PacketHandlerBundle getPacketHandlerBundle(List<DatabaseConfig> configs, String uniqueStatusName, String uniqueEventName, String sourceId, int fragmentId){
 		List<PacketHandler> statusPacketHandlers = new ArrayList<>();
 		List<PacketHandler> eventPacketHandlers = new ArrayList<>();
+		Set<String> usedMetricsNames = new HashSet<>();
 		for(DatabaseConfig config : configs) {
+			String metricsName = config.getType().getName();
+			for (int i = 2; !usedMetricsNames.add(metricsName); i++) { // the same type of database may be configured more than once
+				metricsName = config.getType().getName() + "-" + i;
+			}
+			String statusMetricsName = metricsName + "." + uniqueStatusName;
+			String eventMetricsName = metricsName + "." + uniqueEventName;
 			IndividualSettings statusIndividualSettings = config.getIndividualSettingsOrDefault(Constants.DATABASE_UPLOAD_ID, null);
 			FrequencySettings statusFrequencySettings = statusIndividualSettings != null ? statusIndividualSettings.getFrequencySettings() : FrequencySettings.NORMAL_SETTINGS;
 			IndividualSettings eventIndividualSettings = config.getIndividualSettingsOrDefault(Constants.DATABASE_UPLOAD_EVENT_ID, null);
@@ -64,21 +94,25 @@ public class PacketHandlerInit {
 				CouchDbDatabaseSettings settings = (CouchDbDatabaseSettings) config.getSettings();
 				CouchDbInstance instance = CouchDbUtil.createInstance(settings.getCouchProperties(), settings.getOkHttpProperties());
 				statusPacketHandlers.add(new ThrottleFactorPacketHandler(
-						new AsyncPacketHandlerWrapper(new PrintPacketHandleExceptionWrapper(new CouchDbPacketSaver(instance.getDatabase(uniqueStatusName)))),
+						asyncStatus(config, wrapStatus(config, new CouchDbPacketSaver(instance.getDatabase(uniqueStatusName)), statusMetricsName), statusMetricsName),
 						statusFrequencySettings,
 						true
 				));
 				// TODO We should use Constants.DATABASE_UPLOAD_EVENT_ID and its FrequencySettings to stop this from doing stuff too frequently.
 				// The reason we aren't going to use a ThrottleFactorPacketHandler is all "event" packets are important. We do not want to
 				// miss adding a single event packet to a database
-				eventPacketHandlers.add(new AsyncPacketHandlerWrapper(new RetryFailedPacketHandler(new CouchDbPacketSaver(instance.getDatabase(uniqueEventName)), 7)));
+				eventPacketHandlers.add(asyncEvent(config, wrapEvent(config, new CouchDbPacketSaver(instance.getDatabase(uniqueEventName)), 7, eventMetricsName), eventMetricsName));
 			} else if(InfluxDbDatabaseSettings.TYPE.equals(config.getType())) {
 				LOGGER.info(SolarThingConstants.SUMMARY_MARKER, "You are using InfluxDB 1.X! It is recommended that you switch to 2.0, but is not required.");
 				InfluxDbDatabaseSettings settings = (InfluxDbDatabaseSettings) config.getSettings();
+				if (settings.getBatchSettings() != null && config.getRetryQueueSettings() != null) {
+					// failed batches are only reported asynchronously, so they would never make it to the retry queue
+					throw new IllegalArgumentException("batch cannot be used with retry_queue! config=" + config);
+				}
 				String databaseName = settings.getDatabaseName();
 				String measurementName = settings.getMeasurementName();
 				statusPacketHandlers.add(new ThrottleFactorPacketHandler(
-						new AsyncPacketHandlerWrapper(new PrintPacketHandleExceptionWrapper(new InfluxDbPacketSaver(
+						asyncStatus(config, wrapStatus(config, new InfluxDbPacketSaver(
 								settings.getInfluxProperties(),
 								settings.getOkHttpProperties(),
 								new ConstantNameGetter(databaseName != null ? databaseName : uniqueStatusName),
@@ -88,12 +122,13 @@ public class PacketHandlerInit {
 												? new ConstantMeasurementPacketPointCreator(uniqueStatusName)
 												: DocumentedMeasurementPacketPointCreator.INSTANCE
 										),
-								new FrequentRetentionPolicyGetter(new FrequentHandler<>(settings.getFrequentStatusRetentionPolicyList()))
-						))),
+								new FrequentRetentionPolicyGetter(new FrequentHandler<>(settings.getFrequentStatusRetentionPolicyList())),
+								settings.getBatchSettings()
+						), statusMetricsName), statusMetricsName),
 						statusFrequencySettings,
 						true
 				));
-				eventPacketHandlers.add(new AsyncPacketHandlerWrapper(new RetryFailedPacketHandler(new InfluxDbPacketSaver(
+				eventPacketHandlers.add(asyncEvent(config, wrapEvent(config, new InfluxDbPacketSaver(
 						settings.getInfluxProperties(),
 						settings.getOkHttpProperties(),
 						new ConstantNameGetter(databaseName != null ? databaseName : uniqueEventName),
@@ -104,30 +139,38 @@ public class PacketHandlerInit {
 										: DocumentedMeasurementPacketPointCreator.INSTANCE
 								),
 						new ConstantRetentionPolicyGetter(settings.getEventRetentionPolicy())
-				), 5)));
+				), 5, eventMetricsName), eventMetricsName));
 			} else if(InfluxDb2DatabaseSettings.TYPE.equals(config.getType())) {
 				InfluxDb2DatabaseSettings settings = (InfluxDb2DatabaseSettings) config.getSettings();
+				if (settings.getBatchSettings() != null && config.getRetryQueueSettings() != null) {
+					// failed batches are only reported asynchronously, so they would never make it to the retry queue
+					throw new IllegalArgumentException("batch cannot be used with retry_queue! config=" + config);
+				}
+				InfluxDBClient client = InfluxDb2PacketSaver.createClient(settings.getInfluxDbProperties(), settings.getOkHttpProperties());
+				// closing the client also flushes points that are waiting to be written in a batch
+				Runtime.getRuntime().addShutdownHook(new Thread(client::close, "influxdb2-close"));
 				statusPacketHandlers.add(new ThrottleFactorPacketHandler(
-						new AsyncPacketHandlerWrapper(new PrintPacketHandleExceptionWrapper(new InfluxDb2PacketSaver(
+						asyncStatus(config, wrapStatus(config, new InfluxDb2PacketSaver(
+								client,
 								settings.getInfluxDbProperties(),
-								settings.getOkHttpProperties(),
 								new ConstantNameGetter(uniqueStatusName),
-								DocumentedMeasurementPacketPoint2Creator.INSTANCE
-						))),
+								DocumentedMeasurementPacketPoint2Creator.INSTANCE,
+								settings.getBatchSettings()
+						), statusMetricsName), statusMetricsName),
 						statusFrequencySettings,
 						true
 				));
-				eventPacketHandlers.add(new AsyncPacketHandlerWrapper(new RetryFailedPacketHandler(new InfluxDb2PacketSaver(
+				eventPacketHandlers.add(asyncEvent(config, wrapEvent(config, new InfluxDb2PacketSaver(
+						client,
 						settings.getInfluxDbProperties(),
-						settings.getOkHttpProperties(),
 						new ConstantNameGetter(uniqueEventName),
 						DocumentedMeasurementPacketPoint2Creator.INSTANCE
-				), 5)));
+				), 5, eventMetricsName), eventMetricsName));
 			} else if (LatestFileDatabaseSettings.TYPE.equals(config.getType())){
 				LatestFileDatabaseSettings settings = (LatestFileDatabaseSettings) config.getSettings();
 				LOGGER.info(SolarThingConstants.SUMMARY_MARKER, "Adding latest file 'database'. This currently only saves 'status' packets");
 				statusPacketHandlers.add(new ThrottleFactorPacketHandler(
-						new FileWritePacketHandler(settings.getFile(), new JacksonStringPacketHandler(MAPPER), false),
+						instrument(new FileWritePacketHandler(settings.getFile(), new JacksonStringPacketHandler(MAPPER), false), statusMetricsName),
 						statusFrequencySettings,
 						false
 				));
@@ -135,7 +178,7 @@ public class PacketHandlerInit {
 				PostDatabaseSettings settings = (PostDatabaseSettings) config.getSettings();
 
 				statusPacketHandlers.add(new ThrottleFactorPacketHandler(
-						new AsyncPacketHandlerWrapper(new PostPacketHandler(settings.getUrl(), new JacksonStringPacketHandler(MAPPER), MediaType.get("application/json"))),
+						asyncStatus(config, instrument(new PostPacketHandler(settings.getUrl(), new JacksonStringPacketHandler(MAPPER), MediaType.get("application/json")), statusMetricsName), statusMetricsName),
 						statusFrequencySettings,
 						false
 				));
@@ -148,17 +191,137 @@ public class PacketHandlerInit {
 				}
 
 				statusPacketHandlers.add(new ThrottleFactorPacketHandler(
-						new AsyncPacketHandlerWrapper(new MqttPacketSaver(settings.getBroker(), client, settings.getUsername(), settings.getPassword(), settings.getTopicFormat(), settings.isRetain(), sourceId, fragmentId)),
+						asyncStatus(config, instrument(new MqttPacketSaver(settings.getBroker(), client, settings.getUsername(), settings.getPassword(), settings.getTopicFormat(), settings.isRetain(), sourceId, fragmentId, settings.getPayloadMode(), settings.getCollectionQos(), settings.getPacketQos(), settings.getFieldQos()), statusMetricsName), statusMetricsName),
+						statusFrequencySettings,
+						true
+				));
+			} else if (LocalDatabaseSettings.TYPE.equals(config.getType())) {
+				LocalDatabaseSettings settings = (LocalDatabaseSettings) config.getSettings();
+				LocalSolarThingDatabase database = createLocalDatabase(settings);
+				statusPacketHandlers.add(new ThrottleFactorPacketHandler(
+						asyncStatus(config, wrapStatus(config, new MillisDatabasePacketSaver(database.getStatusDatabase()), statusMetricsName), statusMetricsName),
 						statusFrequencySettings,
 						true
 				));
+				eventPacketHandlers.add(asyncEvent(config, wrapEvent(config, new MillisDatabasePacketSaver(database.getEventDatabase()), 7, eventMetricsName), eventMetricsName));
+				CouchDbDatabaseSettings replicationSettings = settings.getReplicationSettings();
+				if (replicationSettings != null) {
+					CouchDbInstance instance = CouchDbUtil.createInstance(replicationSettings.getCouchProperties(), replicationSettings.getOkHttpProperties());
+					Path replicationDirectory = settings.getDirectory().toPath().resolve("replication");
+					startReplicator(database.getLocalStatusDatabase(), instance.getDatabase(uniqueStatusName), replicationDirectory.resolve(uniqueStatusName + ".checkpoint"), statusMetricsName);
+					startReplicator(database.getLocalEventDatabase(), instance.getDatabase(uniqueEventName), replicationDirectory.resolve(uniqueEventName + ".checkpoint"), eventMetricsName);
+				}
+				database.maintain(); // the replicators have added their retention holds, so expired documents can be deleted
 			}
 		}
 		return new PacketHandlerBundle(statusPacketHandlers, eventPacketHandlers);
 	}
+	private static PacketHandler instrument(PacketHandler packetHandler, String metricsName) {
+		return new InstrumentedPacketHandler(packetHandler, MetricsRegistry.GLOBAL, metricsName);
+	}
+	private static PacketHandler asyncStatus(DatabaseConfig config, PacketHandler packetHandler, String metricsName) {
+		return async(config, packetHandler, config.getAsyncSettings().getStatusOverflowPolicy(), PacketMapperUtil.createStatusMapper(RETRY_QUEUE_MAPPER), metricsName);
+	}
+	private static PacketHandler asyncEvent(DatabaseConfig config, PacketHandler packetHandler, String metricsName) {
+		return async(config, packetHandler, config.getAsyncSettings().getEventOverflowPolicy(), PacketMapperUtil.createEventMapper(RETRY_QUEUE_MAPPER), metricsName);
+	}
+	private static PacketHandler async(DatabaseConfig config, PacketHandler packetHandler, AsyncOverflowPolicy overflowPolicy, ObjectMapper mapper, String metricsName) {
+		int capacity = config.getAsyncSettings().getCapacity();
+		final AsyncPacketHandlerWrapper r;
+		if (overflowPolicy == AsyncOverflowPolicy.SPILL) {
+			RetryQueueSettings retryQueueSettings = config.getRetryQueueSettings();
+			if (retryQueueSettings == null) {
+				throw new IllegalArgumentException("The spill overflow policy requires retry_queue to be configured! config=" + config);
+			}
+			r = new AsyncPacketHandlerWrapper(packetHandler, capacity, createQueue(retryQueueSettings, metricsName + "-overflow"), mapper);
+			MetricsRegistry.GLOBAL.gauge(metricsName + ".async_spilled_bytes", r::getSpilledBytes);
+		} else {
+			r = new AsyncPacketHandlerWrapper(packetHandler, capacity, overflowPolicy);
+		}
+		MetricsRegistry.GLOBAL.gauge(metricsName + ".async_queue_size", r::getQueueSize);
+		MetricsRegistry.GLOBAL.gauge(metricsName + ".async_dropped", r::getDroppedCount);
+		r.start();
+		return r;
+	}
+	private static PacketHandler durable(PacketHandler saver, RetryQueueSettings retryQueueSettings, ObjectMapper mapper, String metricsName) {
+		DurableRetryPacketHandler r = new DurableRetryPacketHandler(instrument(saver, metricsName), createQueue(retryQueueSettings, metricsName), mapper);
+		MetricsRegistry.GLOBAL.gauge(metricsName + ".retry_queue_bytes", r::getQueueBytes);
+		MetricsRegistry.GLOBAL.gauge(metricsName + ".retry_queue_dropped_bytes", r::getDroppedBytes);
+		MetricsRegistry.GLOBAL.gauge(metricsName + ".spilled", r::getSpillCount);
+		MetricsRegistry.GLOBAL.gauge(metricsName + ".replayed", r::getReplayCount);
+		r.start();
+		return r;
+	}
+	private static PacketHandler wrapStatus(DatabaseConfig config, PacketHandler saver, String metricsName) {
+		RetryQueueSettings retryQueueSettings = config.getRetryQueueSettings();
+		if (retryQueueSettings == null) {
+			return new PrintPacketHandleExceptionWrapper(instrument(saver, metricsName));
+		}
+		return durable(saver, retryQueueSettings, PacketMapperUtil.createStatusMapper(RETRY_QUEUE_MAPPER), metricsName);
+	}
+	private static PacketHandler wrapEvent(DatabaseConfig config, PacketHandler saver, int maxRetries, String metricsName) {
+		RetryQueueSettings retryQueueSettings = config.getRetryQueueSettings();
+		if (retryQueueSettings == null) {
+			RetryFailedPacketHandler r = new RetryFailedPacketHandler(instrument(saver, metricsName), maxRetries);
+			MetricsRegistry.GLOBAL.gauge(metricsName + ".retry_pending", r::getPendingCount);
+			MetricsRegistry.GLOBAL.gauge(metricsName + ".retried", r::getRetryCount);
+			MetricsRegistry.GLOBAL.gauge(metricsName + ".dropped", r::getDropCount);
+			return r;
+		}
+		return durable(saver, retryQueueSettings, PacketMapperUtil.createEventMapper(RETRY_QUEUE_MAPPER), metricsName);
+	}
+	/**
+	 * @param queueName The name of the directory to store the queue in. Must be unique for each queue
+	 */
+	private static SegmentedFileQueue createQueue(RetryQueueSettings retryQueueSettings, String queueName) {
+		Path directory = retryQueueSettings.getDirectory().toPath().resolve(queueName);
+		try {
+			return new SegmentedFileQueue(directory, retryQueueSettings.getSegmentSizeBytes(), retryQueueSettings.getMaxSizeBytes(), retryQueueSettings.getFsyncPolicy());
+		} catch (IOException e) {
+			throw new RuntimeException("Could not open retry queue at " + directory, e);
+		}
+	}
+	private static LocalSolarThingDatabase createLocalDatabase(LocalDatabaseSettings settings) {
+		Path directory = settings.getDirectory().toPath();
+		final LocalSolarThingDatabase database;
+		try {
+			database = new LocalSolarThingDatabase(directory, PacketParsingErrorHandler.DO_NOTHING, RETRY_QUEUE_MAPPER, settings.getFsyncPolicy(), settings.getSegmentSizeBytes(), settings.getRetention());
+		} catch (IOException e) {
+			throw new RuntimeException("Could not open local database at " + directory, e);
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			try {
+				database.close();
+			} catch (IOException e) {
+				LOGGER.error("Could not close local database at " + directory, e);
+			}
+		}, "local-database-close"));
+		return database;
+	}
+	private static void startReplicator(LocalMillisDatabase source, CouchDbDatabase target, Path checkpointPath, String metricsName) {
+		final CouchDbReplicator replicator;
+		try {
+			replicator = new CouchDbReplicator(
+					source, target, checkpointPath,
+					new AdaptiveBatchSize(REPLICATION_MIN_BATCH_SIZE, REPLICATION_INITIAL_BATCH_SIZE, REPLICATION_MAX_BATCH_SIZE, REPLICATION_TARGET_LATENCY_MILLIS),
+					REPLICATION_IDLE_DELAY_MILLIS, "replicator-" + metricsName
+			);
+		} catch (IOException e) {
+			throw new RuntimeException("Could not read replication checkpoint at " + checkpointPath, e);
+		}
+		MetricsRegistry.GLOBAL.gauge(metricsName + ".replicated", replicator::getReplicatedCount);
+		MetricsRegistry.GLOBAL.gauge(metricsName + ".replication_batch_size", replicator::getBatchSize);
+		MetricsRegistry.GLOBAL.gauge(metricsName + ".replication_lag", () -> source.getUpdateSequence() - replicator.getCheckpoint());
+		replicator.start();
+	}
 
 	public static <T extends PacketHandlingOption & CommandOption> Result initHandlers(T options, Supplier<? extends EnvironmentUpdater> environmentUpdaterSupplier, Collection<? extends PacketHandler> additionalPacketHandlers) throws IOException {
 		List<DatabaseConfig> databaseConfigs = ConfigUtil.getDatabaseConfigs(options);
+		Duration metricsLogPeriod = options.getMetricsLogPeriod();
+		if (metricsLogPeriod != null) {
+			LOGGER.info("Metrics will be logged every " + metricsLogPeriod);
+			new MetricsLogger(MetricsRegistry.GLOBAL, metricsLogPeriod).start();
+		}
 		PacketHandlerBundle packetHandlerBundle = PacketHandlerInit.getPacketHandlerBundle(databaseConfigs, SolarThingConstants.STATUS_DATABASE, SolarThingConstants.EVENT_DATABASE, options.getSourceId(), options.getFragmentId());
 		List<PacketHandler> statusPacketHandlers = new ArrayList<>();
 
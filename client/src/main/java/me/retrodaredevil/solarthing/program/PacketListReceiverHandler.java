@@ -46,7 +46,12 @@ public class PacketListReceiverHandler {
 	public PacketListReceiver getPacketListReceiverAccepter(){
 		return receiver;
 	}
-	private final PacketListReceiver receiver = (packets, instantType) -> packetList.addAll(packets);
+	private final PacketListReceiver receiver = (packets, instantType) -> {
+		// data requesters may run on separate threads, so this may be called from multiple threads at once
+		synchronized (packetList) {
+			packetList.addAll(packets);
+		}
+	};
 
 	/**
 	 * NOTE: This does not do anything with the packets passed to {@link PacketListReceiver#receive(List, InstantType)}.
@@ -67,13 +72,15 @@ public class PacketListReceiverHandler {
 	private final PacketListReceiver handler = (packets, instantType) -> handle(instantType);
 
 	public void pack(InstantType instantType){
-		if(packetList.isEmpty()){
-			return;
+		synchronized (packetList) {
+			if (packetList.isEmpty()) {
+				return;
+			}
+			packetListReceiver.receive(packetList, instantType);
+			PacketCollection packetCollection = PacketCollections.createFromPackets(packetList, idGenerator, zoneId);
+			packetList.clear();
+			packetCollectionList.add(packetCollection);
 		}
-		packetListReceiver.receive(packetList, instantType);
-		PacketCollection packetCollection = PacketCollections.createFromPackets(packetList, idGenerator, zoneId);
-		packetList.clear();
-		packetCollectionList.add(packetCollection);
 	}
 
 	public void handle(InstantType instantType) {
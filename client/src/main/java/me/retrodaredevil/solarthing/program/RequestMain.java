@@ -18,6 +18,7 @@ import me.retrodaredevil.solarthing.misc.common.DataIdentifiablePacketListChecke
 import me.retrodaredevil.solarthing.packets.Packet;
 import me.retrodaredevil.solarthing.packets.handling.PacketListReceiver;
 import me.retrodaredevil.solarthing.packets.handling.PacketListReceiverMultiplexer;
+import me.retrodaredevil.solarthing.packets.handling.ParallelPacketListReceiver;
 import me.retrodaredevil.solarthing.solar.DaySummaryLogListReceiver;
 import me.retrodaredevil.solarthing.util.TimeUtil;
 import org.slf4j.Logger;
@@ -27,7 +28,9 @@ import java.io.File;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class RequestMain {
 	private static final Logger LOGGER = LoggerFactory.getLogger(RequestMain.class);
@@ -50,11 +53,37 @@ public class RequestMain {
 
 		List<PacketListReceiver> packetListReceiverList = new ArrayList<>();
 		List<EnvironmentUpdater> environmentUpdaters = new ArrayList<>();
-		for (DataRequester dataRequester : dataRequesterList) {
+		List<ParallelPacketListReceiver.Entry> parallelEntries = new ArrayList<>();
+		int parallelIndex = -1;
+		Map<String, DataRequesterResult> deviceNameMap = new HashMap<>();
+		for (int i = 0; i < dataRequesterList.size(); i++) {
+			DataRequester dataRequester = dataRequesterList.get(i);
 			DataRequesterResult result = dataRequester.create(new RequestObject(bundle.getEventHandler().getPacketListReceiverAccepter()));
-			packetListReceiverList.add(result.getStatusPacketListReceiver());
+			Duration parallelTimeout = result.getParallelTimeout();
+			String deviceName = result.getDeviceName();
+			if (deviceName != null) {
+				DataRequesterResult other = deviceNameMap.putIfAbsent(deviceName, result);
+				if (other != null && (parallelTimeout != null || other.getParallelTimeout() != null)) {
+					throw new IllegalArgumentException("More than one data requester uses " + deviceName + ", so they cannot run in parallel! Remove \"timeout\" from those data requesters.");
+				}
+			}
+			if (parallelTimeout != null) {
+				if (parallelEntries.isEmpty()) {
+					parallelIndex = packetListReceiverList.size();
+				}
+				parallelEntries.add(new ParallelPacketListReceiver.Entry("requester-" + i, result.getStatusPacketListReceiver(), parallelTimeout));
+			} else {
+				packetListReceiverList.add(result.getStatusPacketListReceiver());
+			}
 			environmentUpdaters.add(result.getEnvironmentUpdater());
 		}
+		if (!parallelEntries.isEmpty()) {
+			LOGGER.info(SolarThingConstants.SUMMARY_MARKER, "Requesting data from {} data requesters in parallel", parallelEntries.size());
+			ParallelPacketListReceiver parallelPacketListReceiver = new ParallelPacketListReceiver(parallelEntries);
+			Runtime.getRuntime().addShutdownHook(new Thread(parallelPacketListReceiver::close, "parallel-receiver-close"));
+			// the packets from data requesters that run in parallel are put where the first one would have been
+			packetListReceiverList.add(parallelIndex, parallelPacketListReceiver);
+		}
 		if (options.hasCommands()) {
 			packetListReceiverList.add(new AvailableCommandsListUpdater(options.getCommandInfoList(), false));
 		}
@@ -23,9 +23,6 @@ import me.retrodaredevil.solarthing.util.JacksonUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.crypto.Cipher;
-import javax.crypto.NoSuchPaddingException;
-import java.security.NoSuchAlgorithmException;
 import java.util.*;
 
 public class SecurityPacketReceiver {
@@ -33,27 +30,33 @@ public class SecurityPacketReceiver {
 	private static final ObjectMapper MAPPER = JacksonUtil.defaultMapper();
 
 
-	private final PublicKeyLookUp publicKeyLookUp;
 	private final PacketGroupReceiver packetGroupReceiver;
 	private final String sourceId;
 	private final int fragmentId;
 
 	private final SimplePacketGroupParser integrityParser;
 
-	private final Cipher cipher;
+	private final SenderCipherCache cipherCache;
 
 	private final Map<String, Long> senderLastCommandMap = new HashMap<>();
 
 	private final long listenStartTime;
 
+	private final boolean retryUnverified;
+	/** Packet groups that have a message that could not be verified. Only used if {@link #retryUnverified} is true*/
+	private final List<PacketGroup> unverifiedPacketGroups = new ArrayList<>();
+	/** Set to true when a message in the packet group currently being received could not be verified*/
+	private boolean currentUnverified = false;
+
 	/**
 	 * @param publicKeyLookUp The {@link PublicKeyLookUp} to get the PublicKey for a received {@link IntegrityPacket}
 	 * @param packetGroupReceiver Receives successfully decrypted messages
 	 * @param sourceId The source ID being used. Only accept from this source ID
 	 * @param fragmentId The fragment ID being used. Only accept from this fragment ID
+	 * @param retryUnverified true if packet groups with messages that could not be verified should be kept so they can be given again by {@link #retryUnverified()}.
+	 *                        This should be true if each packet group is only received once.
 	 */
-	public SecurityPacketReceiver(PublicKeyLookUp publicKeyLookUp, PacketGroupReceiver packetGroupReceiver, String sourceId, int fragmentId, Collection<? extends Class<? extends DocumentedPacket>> packetClasses) {
-		this.publicKeyLookUp = publicKeyLookUp;
+	public SecurityPacketReceiver(PublicKeyLookUp publicKeyLookUp, PacketGroupReceiver packetGroupReceiver, String sourceId, int fragmentId, Collection<? extends Class<? extends DocumentedPacket>> packetClasses, boolean retryUnverified) {
 		this.packetGroupReceiver = packetGroupReceiver;
 		this.sourceId = sourceId;
 		this.fragmentId = fragmentId;
@@ -64,16 +67,32 @@ public class SecurityPacketReceiver {
 		integrityMapper.getSubtypeResolver().registerSubtypes(Collections.unmodifiableList(classList));
 		integrityParser = new SimplePacketGroupParser(integrityMapper, PacketParsingErrorHandler.DO_NOTHING);
 
-		try {
-			cipher = Cipher.getInstance(KeyUtil.CIPHER_TRANSFORMATION);
-		} catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
-			throw new RuntimeException(e);
-		}
+		cipherCache = new SenderCipherCache(publicKeyLookUp);
 		listenStartTime = System.currentTimeMillis();
+		this.retryUnverified = retryUnverified;
+	}
+	public SecurityPacketReceiver(PublicKeyLookUp publicKeyLookUp, PacketGroupReceiver packetGroupReceiver, String sourceId, int fragmentId, Collection<? extends Class<? extends DocumentedPacket>> packetClasses) {
+		this(publicKeyLookUp, packetGroupReceiver, sourceId, fragmentId, packetClasses, false);
 	}
 
-	public void receivePacketGroups(List<PacketGroup> packetGroups) {
+	/**
+	 * Gives packet groups that had a message that could not be verified to {@link #receivePacketGroups(List)} again.
+	 * A message may not be verified because the authorization packet could not be retrieved or was outdated.
+	 * Packet groups are retried until their messages are accepted or they become too old.
+	 */
+	public synchronized void retryUnverified() {
+		if (unverifiedPacketGroups.isEmpty()) {
+			return;
+		}
+		List<PacketGroup> packetGroups = new ArrayList<>(unverifiedPacketGroups);
+		unverifiedPacketGroups.clear();
+		LOGGER.debug("Retrying " + packetGroups.size() + " unverified packet group(s)");
+		receivePacketGroups(packetGroups);
+	}
+
+	public synchronized void receivePacketGroups(List<PacketGroup> packetGroups) {
 		LOGGER.debug("received packets! size: " + packetGroups.size());
+		List<PacketGroup> originalPacketGroups = new ArrayList<>(packetGroups.size());
 		List<TargetPacketGroup> packets = new ArrayList<>(packetGroups.size());
 		long minTime = System.currentTimeMillis() - 5 * 60 * 1000; // last 5 minutes allowed
 		for(PacketGroup packetGroup : packetGroups){
@@ -88,6 +107,7 @@ public class SecurityPacketReceiver {
 			} else if(!targetPacketGroup.isTarget(fragmentId)) {
 				LOGGER.debug("Received packet wasn't for fragmentId: " + fragmentId + ". It was for these: " + targetPacketGroup.getTargetFragmentIds());
 			} else {
+				originalPacketGroups.add(packetGroup);
 				packets.add(targetPacketGroup);
 			}
 		}
@@ -96,7 +116,9 @@ public class SecurityPacketReceiver {
 		 * which we want to allow. If we just updated senderLastCommandMap directly, this would not be allowed.
 		 */
 		Map<String, Long> lastCommands = new HashMap<>();
-		for(TargetPacketGroup packetGroup : packets){
+		for (int i = 0; i < packets.size(); i++) {
+			TargetPacketGroup packetGroup = packets.get(i);
+			currentUnverified = false;
 			for(Packet packet : packetGroup.getPackets()){
 				SecurityPacket securityPacket = (SecurityPacket) packet;
 				SecurityPacketType packetType = securityPacket.getPacketType();
@@ -139,13 +161,16 @@ public class SecurityPacketReceiver {
 					}
 				}
 			}
+			if (currentUnverified && retryUnverified) {
+				unverifiedPacketGroups.add(originalPacketGroups.get(i));
+			}
 		}
 		senderLastCommandMap.putAll(lastCommands);
 	}
 
 	private String decryptData(long minTime, Map<String, Long> lastCommands, String sender, String base64EncodedData) {
 		try {
-			String data = Decrypt.decrypt(cipher, publicKeyLookUp, sender, base64EncodedData);
+			String data = cipherCache.decrypt(sender, base64EncodedData);
 			final String[] split = data.split(",", 2);
 			LOGGER.debug("decrypted data: " + data);
 			if(split.length != 2){
@@ -179,10 +204,12 @@ public class SecurityPacketReceiver {
 			}
 		} catch (DecryptException e) {
 			LOGGER.warn(SolarThingConstants.SUMMARY_MARKER, "Someone tried to impersonate " + sender + "! Or that person has a new public key.", e);
+			currentUnverified = true;
 		} catch (InvalidKeyException e) {
 			throw new RuntimeException("If there is a saved key, it should be valid! sender: " + sender, e);
 		} catch (NotAuthorizedException e) {
 			LOGGER.info(SolarThingConstants.SUMMARY_MARKER, sender + " is not authorized!", e);
+			currentUnverified = true;
 		}
 		return null;
 	}
@@ -48,23 +48,28 @@ public final class SolarMain {
 
 	public static int initReader(InputStream in, Runnable reloadIO, TextPacketCreator packetCreator, RawPacketReceiver rawPacketReceiver) {
 		SolarReader solarReader = new SolarReader(in, packetCreator, rawPacketReceiver);
+		solarReader.start();
 		try {
 			while (!Thread.currentThread().isInterrupted()) {
 				try {
-					solarReader.update();
+					solarReader.update(); // waits for data, so we don't need to sleep
 				} catch (EOFException e) {
 					return 0;
 				} catch (IOException e) {
 					LOGGER.error("Got IOException!", e);
+					solarReader.close();
 					Thread.sleep(500);
 					reloadIO.run();
 					LOGGER.debug("Reloaded IO bundle");
 					Thread.sleep(1000);
+					solarReader = new SolarReader(in, packetCreator, rawPacketReceiver);
+					solarReader.start();
 				}
-				Thread.sleep(5);
 			}
 		} catch (InterruptedException e) {
 			Thread.currentThread().interrupt();
+		} finally {
+			solarReader.close();
 		}
 		return SolarThingConstants.EXIT_CODE_INTERRUPTED;
 	}
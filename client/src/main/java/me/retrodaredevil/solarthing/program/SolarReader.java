@@ -4,6 +4,7 @@ import me.retrodaredevil.solarthing.packets.Packet;
 import me.retrodaredevil.solarthing.packets.creation.PacketCreationException;
 import me.retrodaredevil.solarthing.packets.creation.TextPacketCreator;
 import me.retrodaredevil.solarthing.packets.handling.RawPacketReceiver;
+import me.retrodaredevil.solarthing.util.ByteRingBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -14,14 +15,28 @@ import java.util.Collection;
 
 import static java.util.Objects.requireNonNull;
 
-public class SolarReader {
+/**
+ * Reads from an {@link InputStream} on a separate thread using blocking reads. The read bytes are put into a {@link ByteRingBuffer}
+ * and given to a {@link TextPacketCreator} on the thread that calls {@link #update()}.
+ * <p>
+ * No buffers are allocated after this is created, and {@link #update()} waits for data instead of polling.
+ */
+public class SolarReader implements AutoCloseable {
 	private static final Logger LOGGER = LoggerFactory.getLogger(SolarReader.class);
+	/** The maximum amount of time {@link #update()} waits for data before calling {@link RawPacketReceiver#updateNoNewData()}*/
+	private static final long NO_DATA_TIMEOUT_MILLIS = 50;
+	/** The amount of time to wait if the stream doesn't block when no data is available*/
+	private static final long NON_BLOCKING_SLEEP_MILLIS = 10;
+	private static final int BUFFER_SIZE = 1024;
 
 	private final InputStream in;
 	private final TextPacketCreator creator;
 	private final RawPacketReceiver rawPacketReceiver;
 
-	private final byte[] buffer = new byte[1024];
+	private final ByteRingBuffer ringBuffer = new ByteRingBuffer(4 * BUFFER_SIZE);
+	private final byte[] readBuffer = new byte[BUFFER_SIZE];
+	private final char[] chars = new char[BUFFER_SIZE];
+	private final Thread thread;
 
 	/**
 	 * @param in The InputStream to read directly from
@@ -31,50 +46,70 @@ public class SolarReader {
 		this.in = requireNonNull(in);
 		this.creator = requireNonNull(packetCreator);
 		this.rawPacketReceiver = requireNonNull(rawPacketReceiver);
+		thread = new Thread(this::readLoop, "solar-reader");
+		thread.setDaemon(true);
 	}
 
-	private boolean readData() throws IOException {
-		// As of 2019.10.13, we can now detect EOF
-		// stackoverflow: https://stackoverflow.com/q/53291868/5434860
-		// (maybe) thanks to this solution: https://stackoverflow.com/questions/804951/is-it-possible-to-read-from-a-inputstream-with-a-timeout
-		// As of <some time later>: I actually haven't tested this, so I don't know if this fixed the problem. However, this only matters while testing.
-
-		int available = in.available();
-
-		// JSerial implementation ends up returning -1 when disconnected, which isn't part of the contract of InputStream, but we'll deal with it anyway
-		if(available < 0) throw new IOException("available is " + available + ". (Stream has closed)");
+	/**
+	 * Starts the thread that reads from the InputStream. Must be called before {@link #update()}
+	 */
+	public void start() {
+		thread.start();
+	}
 
-		final int len;
-		if(available == 0){ // if nothing is available, we want to try to see if we've reached the end of the file
-			boolean isEOF = in.read(buffer, 0, 0) == -1;
-			if(isEOF) {
-				throw new EOFException();
+	private void readLoop() {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				int len = in.read(readBuffer);
+				if (len == -1) {
+					ringBuffer.finish(null);
+					return;
+				}
+				if (len == 0) {
+					// JSerial implementation ends up returning -1 from available() when disconnected, which isn't part of the contract of InputStream, but we'll deal with it anyway
+					int available = in.available();
+					if (available < 0) {
+						throw new IOException("available is " + available + ". (Stream has closed)");
+					}
+					// The stream was configured to be non-blocking or it timed out, so wait a bit before trying again
+					Thread.sleep(NON_BLOCKING_SLEEP_MILLIS);
+					continue;
+				}
+				ringBuffer.write(readBuffer, 0, len);
 			}
+		} catch (IOException e) {
+			ringBuffer.finish(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Should be called continuously. This waits a short amount of time for data if none is available.
+	 * @throws EOFException If the end of the stream has been reached
+	 * @throws IOException If reading from the stream failed. A new {@link SolarReader} must be created after this is thrown.
+	 */
+	public void update() throws IOException, InterruptedException {
+		int len = ringBuffer.readChars(chars, 0, chars.length, NO_DATA_TIMEOUT_MILLIS);
+		if (len == 0) {
 			rawPacketReceiver.updateNoNewData();
-			return false;
-		} else {
-			len = in.read(buffer); // read as much as possible
-			if(len == -1) throw new AssertionError("Because we call in.available(), len should never be -1. Did we change the code?");
+			return;
 		}
-		String s = new String(buffer, 0, len);
 		final Collection<? extends Packet> newPackets;
 		try {
-			newPackets = creator.add(s.toCharArray());
+			newPackets = creator.add(chars, 0, len);
 		} catch (PacketCreationException e) {
-			String debugString = s.replaceAll("\n", "\\\\n").replaceAll("\r", "\\\\r");
+			String debugString = new String(chars, 0, len).replaceAll("\n", "\\\\n").replaceAll("\r", "\\\\r");
 			LOGGER.warn("Got a garbled packet! got: '" + debugString + "'", e);
 			rawPacketReceiver.updateGarbledData();
-			return true;
+			return;
 		}
 
 		rawPacketReceiver.update(newPackets);
-		return true;
 	}
 
-	/**
-	 * Should be called continuously
-	 */
-	public void update() throws IOException {
-		readData();
+	@Override
+	public void close() {
+		thread.interrupt();
 	}
 }
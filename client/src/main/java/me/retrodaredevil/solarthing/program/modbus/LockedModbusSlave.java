@@ -0,0 +1,29 @@
+package me.retrodaredevil.solarthing.program.modbus;
+
+import me.retrodaredevil.io.modbus.ModbusMessage;
+import me.retrodaredevil.io.modbus.ModbusSlave;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A {@link ModbusSlave} that holds a lock while sending each message. Every slave on a bus should share the same lock,
+ * so that messages sent from different threads, such as by commands while the bus is being polled on its own thread, are not sent at the same time.
+ * <p>
+ * Something that sends many messages can hold the lock the entire time to keep other threads from sending messages in between.
+ */
+public class LockedModbusSlave implements ModbusSlave {
+	private final ModbusSlave modbusSlave;
+	private final Object lock;
+
+	public LockedModbusSlave(ModbusSlave modbusSlave, Object lock) {
+		requireNonNull(this.modbusSlave = modbusSlave);
+		requireNonNull(this.lock = lock);
+	}
+
+	@Override
+	public ModbusMessage sendRequestMessage(ModbusMessage message) {
+		synchronized (lock) {
+			return modbusSlave.sendRequestMessage(message);
+		}
+	}
+}
@@ -3,12 +3,14 @@ package me.retrodaredevil.solarthing.program.modbus;
 import me.retrodaredevil.io.modbus.ModbusMessage;
 import me.retrodaredevil.io.modbus.ModbusSlave;
 import me.retrodaredevil.io.modbus.handling.BaseReadRegisters;
+import me.retrodaredevil.io.modbus.handling.ErrorCodeException;
 import me.retrodaredevil.io.modbus.handling.MessageHandler;
 import me.retrodaredevil.io.modbus.handling.ReadHoldingRegisters;
 import me.retrodaredevil.io.modbus.handling.ReadInputRegisters;
 import me.retrodaredevil.io.modbus.parsing.DefaultMessageParser;
 import me.retrodaredevil.io.modbus.parsing.MessageParseException;
 import me.retrodaredevil.io.modbus.parsing.MessageParser;
+import me.retrodaredevil.solarthing.solar.util.ModbusReadPlan;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -57,6 +59,38 @@ public class ModbusCacheSlave implements ModbusSlave {
 		cacheInput(startRegister, endRegister - startRegister + 1);
 	}
 
+	/**
+	 * Caches every block in the given plan. If the device responds to a block with an error code, the registers in that block
+	 * are removed from the cache so that reads of those registers are sent to the device individually.
+	 * @param plan The plan to cache
+	 */
+	public void cache(ModbusReadPlan plan) {
+		for (ModbusReadPlan.Block block : plan.getBlocks()) {
+			final Map<Integer, Integer> map;
+			final BiFunction<Integer, Integer, MessageHandler<int[]>> messageHandlerCreator;
+			switch (block.getRegisterType()) {
+				case HOLDING:
+					map = holdingRegisterCache;
+					messageHandlerCreator = ReadHoldingRegisters::new;
+					break;
+				case INPUT:
+					map = inputRegisterCache;
+					messageHandlerCreator = ReadInputRegisters::new;
+					break;
+				default:
+					throw new AssertionError("Unknown register type: " + block.getRegisterType());
+			}
+			try {
+				cache(block.getStartRegister(), block.getNumberOfRegisters(), map, messageHandlerCreator);
+			} catch (ErrorCodeException e) {
+				LOGGER.debug("Could not read block: " + block + " in bulk. Registers from this block will be read individually.", e);
+				for (int register = block.getStartRegister(); register <= block.getEndRegisterInclusive(); register++) {
+					map.remove(register);
+				}
+			}
+		}
+	}
+
 	@Override
 	public ModbusMessage sendRequestMessage(ModbusMessage message) {
 		final MessageHandler<?> messageHandler;
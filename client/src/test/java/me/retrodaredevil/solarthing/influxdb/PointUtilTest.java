@@ -0,0 +1,67 @@
+package me.retrodaredevil.solarthing.influxdb;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ValueNode;
+import me.retrodaredevil.solarthing.util.JacksonUtil;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PointUtilTest {
+	private static final ObjectMapper MAPPER = JacksonUtil.defaultMapper();
+
+	private static Map<String, Object> createValue() {
+		Map<String, Object> deepest = new LinkedHashMap<>();
+		deepest.put("flag", false);
+		Map<String, Object> inner = new LinkedHashMap<>();
+		inner.put("float", 2.5f);
+		inner.put("deepest", deepest);
+		Map<String, Object> value = new LinkedHashMap<>();
+		value.put("int", 5);
+		value.put("double", 1.25);
+		value.put("text", "hello");
+		value.put("bool", true);
+		value.put("null", null);
+		value.put("array", Arrays.asList(1, 2, 3));
+		value.put("inner", inner);
+		return value;
+	}
+
+	@Test
+	void testFlattenValueMatchesFlattenJsonObject() {
+		for (String separator : Arrays.asList(".", "/")) {
+			Map<String, String> expected = new LinkedHashMap<>();
+			for (Map.Entry<String, ValueNode> entry : PointUtil.flattenJsonObject(MAPPER.valueToTree(createValue()), separator)) {
+				expected.put(entry.getKey(), entry.getValue().asText());
+			}
+			Map<String, String> actual = new LinkedHashMap<>();
+			PointUtil.flattenValue(MAPPER, createValue(), separator, new FlattenedFieldConsumer() {
+				@Override
+				public void acceptNumber(String key, Number value) {
+					actual.put(key, value.toString());
+				}
+
+				@Override
+				public void acceptText(String key, String value) {
+					actual.put(key, value);
+				}
+
+				@Override
+				public void acceptBoolean(String key, boolean value) {
+					actual.put(key, String.valueOf(value));
+				}
+			});
+			assertEquals(expected, actual);
+			assertEquals(Arrays.asList(expected.keySet().toArray()), Arrays.asList(actual.keySet().toArray()));
+		}
+	}
+
+	@Test
+	void testTagKeysCached() {
+		assertSame(PointUtil.getTagKeys(PointUtilTest.class), PointUtil.getTagKeys(PointUtilTest.class));
+	}
+}
@@ -0,0 +1,80 @@
+package me.retrodaredevil.solarthing.config.databases;
+
+import com.fasterxml.jackson.annotation.JsonSetter;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonPOJOBuilder;
+import me.retrodaredevil.solarthing.packets.handling.AsyncOverflowPolicy;
+import me.retrodaredevil.solarthing.packets.handling.AsyncPacketHandlerWrapper;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Settings for the queue of packet collections that are waiting to be uploaded to a database
+ */
+@JsonDeserialize(builder = AsyncSettings.Builder.class)
+public final class AsyncSettings {
+	public static final AsyncSettings DEFAULT = new AsyncSettings(AsyncPacketHandlerWrapper.DEFAULT_CAPACITY, AsyncOverflowPolicy.DROP_OLDEST, AsyncOverflowPolicy.BLOCK);
+
+	private final int capacity;
+	private final AsyncOverflowPolicy statusOverflowPolicy;
+	private final AsyncOverflowPolicy eventOverflowPolicy;
+
+	public AsyncSettings(int capacity, AsyncOverflowPolicy statusOverflowPolicy, AsyncOverflowPolicy eventOverflowPolicy) {
+		this.capacity = capacity;
+		requireNonNull(this.statusOverflowPolicy = statusOverflowPolicy);
+		requireNonNull(this.eventOverflowPolicy = eventOverflowPolicy);
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be > 0! capacity=" + capacity);
+		}
+	}
+
+	/**
+	 * @return The maximum number of packet collections that can wait to be uploaded in memory
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public AsyncOverflowPolicy getStatusOverflowPolicy() {
+		return statusOverflowPolicy;
+	}
+
+	public AsyncOverflowPolicy getEventOverflowPolicy() {
+		return eventOverflowPolicy;
+	}
+
+	@Override
+	public String toString() {
+		return "AsyncSettings(" +
+				"capacity=" + capacity +
+				", statusOverflowPolicy=" + statusOverflowPolicy +
+				", eventOverflowPolicy=" + eventOverflowPolicy +
+				')';
+	}
+
+	@JsonPOJOBuilder
+	static class Builder {
+		private int capacity = DEFAULT.capacity;
+		private AsyncOverflowPolicy statusOverflowPolicy = DEFAULT.statusOverflowPolicy;
+		private AsyncOverflowPolicy eventOverflowPolicy = DEFAULT.eventOverflowPolicy;
+
+		@JsonSetter("capacity")
+		public void setCapacity(int capacity) {
+			this.capacity = capacity;
+		}
+
+		@JsonSetter("status_overflow")
+		public void setStatusOverflowPolicy(AsyncOverflowPolicy statusOverflowPolicy) {
+			this.statusOverflowPolicy = statusOverflowPolicy;
+		}
+
+		@JsonSetter("event_overflow")
+		public void setEventOverflowPolicy(AsyncOverflowPolicy eventOverflowPolicy) {
+			this.eventOverflowPolicy = eventOverflowPolicy;
+		}
+
+		public AsyncSettings build() {
+			return new AsyncSettings(capacity, statusOverflowPolicy, eventOverflowPolicy);
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package me.retrodaredevil.solarthing.config.databases;
+
+import com.fasterxml.jackson.annotation.JsonSetter;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonPOJOBuilder;
+import me.retrodaredevil.solarthing.util.queue.FsyncPolicy;
+
+import java.io.File;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Settings for storing packet collections on disk when they fail to upload to a database
+ */
+@JsonDeserialize(builder = RetryQueueSettings.Builder.class)
+public final class RetryQueueSettings {
+	private static final long BYTES_PER_MEGABYTE = 1024 * 1024;
+
+	private final File directory;
+	private final long maxSizeBytes;
+	private final long segmentSizeBytes;
+	private final FsyncPolicy fsyncPolicy;
+
+	public RetryQueueSettings(File directory, long maxSizeBytes, long segmentSizeBytes, FsyncPolicy fsyncPolicy) {
+		requireNonNull(this.directory = directory, "directory is required!");
+		this.maxSizeBytes = maxSizeBytes;
+		this.segmentSizeBytes = segmentSizeBytes;
+		requireNonNull(this.fsyncPolicy = fsyncPolicy);
+		if (maxSizeBytes < 2 * segmentSizeBytes) {
+			throw new IllegalArgumentException("max_size_mb must be at least double segment_size_mb!");
+		}
+	}
+
+	/**
+	 * @return The directory to store queues in. Each type of packet will have a subdirectory
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+	public long getMaxSizeBytes() {
+		return maxSizeBytes;
+	}
+
+	public long getSegmentSizeBytes() {
+		return segmentSizeBytes;
+	}
+
+	public FsyncPolicy getFsyncPolicy() {
+		return fsyncPolicy;
+	}
+
+	@JsonPOJOBuilder
+	static class Builder {
+		private File directory;
+		private double maxSizeMegabytes = 64;
+		private double segmentSizeMegabytes = 1;
+		private FsyncPolicy fsyncPolicy = FsyncPolicy.SEGMENT;
+
+		@JsonSetter("directory")
+		public void setDirectory(File directory) {
+			this.directory = directory;
+		}
+
+		@JsonSetter("max_size_mb")
+		public void setMaxSizeMegabytes(double maxSizeMegabytes) {
+			this.maxSizeMegabytes = maxSizeMegabytes;
+		}
+
+		@JsonSetter("segment_size_mb")
+		public void setSegmentSizeMegabytes(double segmentSizeMegabytes) {
+			this.segmentSizeMegabytes = segmentSizeMegabytes;
+		}
+
+		@JsonSetter("fsync")
+		public void setFsyncPolicy(FsyncPolicy fsyncPolicy) {
+			this.fsyncPolicy = fsyncPolicy;
+		}
+
+		public RetryQueueSettings build() {
+			return new RetryQueueSettings(directory, (long) (maxSizeMegabytes * BYTES_PER_MEGABYTE), (long) (segmentSizeMegabytes * BYTES_PER_MEGABYTE), fsyncPolicy);
+		}
+	}
+}
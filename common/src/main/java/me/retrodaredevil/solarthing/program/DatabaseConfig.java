@@ -3,9 +3,12 @@ package me.retrodaredevil.solarthing.program;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import me.retrodaredevil.solarthing.annotations.JsonExplicit;
+import me.retrodaredevil.solarthing.annotations.Nullable;
+import me.retrodaredevil.solarthing.config.databases.AsyncSettings;
 import me.retrodaredevil.solarthing.config.databases.DatabaseSettings;
 import me.retrodaredevil.solarthing.config.databases.DatabaseType;
 import me.retrodaredevil.solarthing.config.databases.IndividualSettings;
+import me.retrodaredevil.solarthing.config.databases.RetryQueueSettings;
 
 import java.util.Collections;
 import java.util.HashMap;
@@ -24,19 +27,33 @@ public final class DatabaseConfig {
 	private final DatabaseSettings settings;
 	@JsonProperty("settings")
 	private final Map<String, IndividualSettings> individualSettingsMap;
+	@JsonProperty("retry_queue")
+	private final RetryQueueSettings retryQueueSettings;
+	@JsonProperty("async")
+	private final AsyncSettings asyncSettings;
 
 	private DatabaseConfig(){
 		// Jackson will call this constructor and then serialize fields
 		type = null;
 		settings = null;
 		individualSettingsMap = Collections.emptyMap();
+		retryQueueSettings = null;
+		asyncSettings = null;
 	}
 
-	public DatabaseConfig(DatabaseSettings settings, Map<String, IndividualSettings> frequencySettingsMap) {
+	public DatabaseConfig(DatabaseSettings settings, Map<String, IndividualSettings> frequencySettingsMap, RetryQueueSettings retryQueueSettings, AsyncSettings asyncSettings) {
 		this.settings = settings;
 		this.individualSettingsMap = Collections.unmodifiableMap(new HashMap<>(frequencySettingsMap));
+		this.retryQueueSettings = retryQueueSettings;
+		this.asyncSettings = asyncSettings;
 		type = settings.getDatabaseType().getName();
 	}
+	public DatabaseConfig(DatabaseSettings settings, Map<String, IndividualSettings> frequencySettingsMap, RetryQueueSettings retryQueueSettings) {
+		this(settings, frequencySettingsMap, retryQueueSettings, null);
+	}
+	public DatabaseConfig(DatabaseSettings settings, Map<String, IndividualSettings> frequencySettingsMap) {
+		this(settings, frequencySettingsMap, null);
+	}
 
 	/**
 	 * @return The {@link DatabaseType}. This determines what type {@link #getSettings()} will return
@@ -52,6 +69,22 @@ public final class DatabaseConfig {
 	public Map<String, IndividualSettings> getIndividualSettingsMap() {
 		return individualSettingsMap;
 	}
+	/**
+	 * @return The settings for storing packets on disk when they fail to upload, or null if packets should not be stored on disk
+	 */
+	public @Nullable RetryQueueSettings getRetryQueueSettings() {
+		return retryQueueSettings;
+	}
+	/**
+	 * @return The settings for the queue of packet collections waiting to be uploaded
+	 */
+	public AsyncSettings getAsyncSettings() {
+		AsyncSettings r = asyncSettings;
+		if (r == null) {
+			return AsyncSettings.DEFAULT;
+		}
+		return r;
+	}
 	public IndividualSettings getIndividualSettingsOrDefault(String key, IndividualSettings defaultSettings){
 		IndividualSettings r = individualSettingsMap.get(key);
 		if(r == null){
@@ -66,6 +99,8 @@ public final class DatabaseConfig {
 				"type='" + type + '\'' +
 				", settings=" + settings +
 				", individualSettingsMap=" + individualSettingsMap +
+				", retryQueueSettings=" + retryQueueSettings +
+				", asyncSettings=" + asyncSettings +
 				')';
 	}
 }
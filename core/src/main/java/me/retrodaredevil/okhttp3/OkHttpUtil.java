@@ -1,6 +1,8 @@
 package me.retrodaredevil.okhttp3;
 
 import me.retrodaredevil.solarthing.annotations.UtilityClass;
+import me.retrodaredevil.solarthing.metrics.MetricsInterceptor;
+import me.retrodaredevil.solarthing.metrics.MetricsRegistry;
 import okhttp3.OkHttpClient;
 
 import java.util.concurrent.TimeUnit;
@@ -16,6 +18,7 @@ public final class OkHttpUtil {
 				.connectTimeout(okHttpProperties.getConnectTimeoutMillis(), TimeUnit.MILLISECONDS)
 				.readTimeout(okHttpProperties.getReadTimeoutMillis(), TimeUnit.MILLISECONDS)
 				.writeTimeout(okHttpProperties.getWriteTimeoutMillis(), TimeUnit.MILLISECONDS)
-				.pingInterval(okHttpProperties.getPingIntervalMillis(), TimeUnit.MILLISECONDS);
+				.pingInterval(okHttpProperties.getPingIntervalMillis(), TimeUnit.MILLISECONDS)
+				.addNetworkInterceptor(new MetricsInterceptor(MetricsRegistry.GLOBAL));
 	}
 }
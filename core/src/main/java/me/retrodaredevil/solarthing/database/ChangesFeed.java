@@ -0,0 +1,27 @@
+package me.retrodaredevil.solarthing.database;
+
+import me.retrodaredevil.solarthing.annotations.Nullable;
+import me.retrodaredevil.solarthing.database.exception.SolarThingDatabaseException;
+
+/**
+ * Represents a way to be told about packet groups as they are added to a {@link MillisDatabase}, instead of repeatedly querying it.
+ */
+public interface ChangesFeed {
+	/**
+	 * Waits for packet groups that were added or updated after {@code since}. This returns as soon as there are changes,
+	 * or after {@code timeoutMillis} if there are none.
+	 * @param since The sequence returned by {@link ChangesResult#getLastSequence()} or {@link #getCurrentSequence()}, or null to only get changes that happen after this is called
+	 * @param timeoutMillis The maximum amount of time to wait for changes
+	 * @return The changes, which may be empty
+	 * @throws SolarThingDatabaseException Thrown if the changes could not be retrieved
+	 */
+	ChangesResult waitForChanges(@Nullable String since, long timeoutMillis) throws SolarThingDatabaseException;
+
+	/**
+	 * Gets the sequence of the most recent change. This should be called before querying a database so that changes that happen
+	 * while querying are not missed when {@link #waitForChanges(String, long)} is called with the returned sequence.
+	 * @return The sequence of the most recent change
+	 * @throws SolarThingDatabaseException Thrown if the sequence could not be retrieved
+	 */
+	String getCurrentSequence() throws SolarThingDatabaseException;
+}
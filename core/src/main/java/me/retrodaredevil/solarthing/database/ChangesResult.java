@@ -0,0 +1,44 @@
+package me.retrodaredevil.solarthing.database;
+
+import me.retrodaredevil.solarthing.packets.collection.PacketGroup;
+
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+public final class ChangesResult {
+	private final List<PacketGroup> packetGroups;
+	private final List<String> documentIds;
+	private final String lastSequence;
+
+	public ChangesResult(List<PacketGroup> packetGroups, List<String> documentIds, String lastSequence) {
+		requireNonNull(this.packetGroups = packetGroups);
+		requireNonNull(this.documentIds = documentIds);
+		requireNonNull(this.lastSequence = lastSequence);
+	}
+	public ChangesResult(List<PacketGroup> packetGroups, String lastSequence) {
+		this(packetGroups, Collections.emptyList(), lastSequence);
+	}
+
+	/**
+	 * @return The packet groups that were added or updated, in the order they were added
+	 */
+	public List<PacketGroup> getPacketGroups() {
+		return packetGroups;
+	}
+
+	/**
+	 * @return The IDs of the documents that were added, updated or deleted, or an empty list if the {@link ChangesFeed} does not have document IDs
+	 */
+	public List<String> getDocumentIds() {
+		return documentIds;
+	}
+
+	/**
+	 * @return The sequence that should be passed to the next call to {@link ChangesFeed#waitForChanges(String, long)}
+	 */
+	public String getLastSequence() {
+		return lastSequence;
+	}
+}
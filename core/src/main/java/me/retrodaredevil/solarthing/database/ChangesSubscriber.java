@@ -0,0 +1,114 @@
+package me.retrodaredevil.solarthing.database;
+
+import me.retrodaredevil.solarthing.SolarThingConstants;
+import me.retrodaredevil.solarthing.annotations.Nullable;
+import me.retrodaredevil.solarthing.database.exception.SolarThingDatabaseException;
+import me.retrodaredevil.solarthing.packets.collection.PacketGroup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Uses a {@link ChangesFeed} on a separate thread to give new packet groups to a listener as soon as they are added.
+ * <p>
+ * The sequence of the last changes that were received is remembered, so if the connection is lost, no changes are missed once it reconnects.
+ * If no sequence is given to start at, the current sequence is retrieved before waiting for changes, so changes are not missed if the first request fails.
+ */
+public class ChangesSubscriber implements AutoCloseable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ChangesSubscriber.class);
+	private static final long TIMEOUT_MILLIS = 60 * 1000;
+	private static final long MIN_RETRY_DELAY_MILLIS = 1000;
+	private static final long MAX_RETRY_DELAY_MILLIS = 60 * 1000;
+
+	private final ChangesFeed changesFeed;
+	private final Consumer<ChangesResult> listener;
+	private final Thread thread;
+
+	private volatile @Nullable String lastSequence;
+
+	/**
+	 * @param changesFeed The changes feed
+	 * @param since The sequence to start at, usually from {@link ChangesFeed#getCurrentSequence()}, or null to only receive packet groups that are added after this is started
+	 * @param listener The listener that receives packet groups. This is called on a separate thread
+	 * @param name The name of the thread
+	 */
+	public ChangesSubscriber(ChangesFeed changesFeed, @Nullable String since, Consumer<List<PacketGroup>> listener, String name) {
+		this(changesFeed, since, name, result -> {
+			List<PacketGroup> packetGroups = result.getPacketGroups();
+			if (!packetGroups.isEmpty()) {
+				LOGGER.debug("Got " + packetGroups.size() + " new packet group(s)");
+				listener.accept(packetGroups);
+			}
+		});
+	}
+	private ChangesSubscriber(ChangesFeed changesFeed, @Nullable String since, String name, Consumer<ChangesResult> listener) {
+		requireNonNull(this.changesFeed = changesFeed);
+		requireNonNull(this.listener = listener);
+		lastSequence = since;
+		thread = new Thread(this::run, name);
+		thread.setDaemon(true);
+	}
+
+	/**
+	 * Creates a subscriber whose listener is given every {@link ChangesResult} that has changes, including results that only have {@link ChangesResult#getDocumentIds()}
+	 * @param changesFeed The changes feed
+	 * @param since The sequence to start at, or null to only receive changes that happen after this is started
+	 * @param listener The listener that receives changes. This is called on a separate thread
+	 * @param name The name of the thread
+	 */
+	public static ChangesSubscriber createResultSubscriber(ChangesFeed changesFeed, @Nullable String since, Consumer<ChangesResult> listener, String name) {
+		return new ChangesSubscriber(changesFeed, since, name, listener);
+	}
+
+	public void start() {
+		thread.start();
+	}
+
+	/**
+	 * @return The sequence of the last changes that were given to the listener. This can be stored and given to a new {@link ChangesSubscriber} later.
+	 */
+	public @Nullable String getLastSequence() {
+		return lastSequence;
+	}
+
+	private void run() {
+		long retryDelayMillis = MIN_RETRY_DELAY_MILLIS;
+		while (!Thread.currentThread().isInterrupted()) {
+			final ChangesResult result;
+			try {
+				if (lastSequence == null) {
+					lastSequence = changesFeed.getCurrentSequence();
+				}
+				result = changesFeed.waitForChanges(lastSequence, TIMEOUT_MILLIS);
+			} catch (SolarThingDatabaseException e) {
+				LOGGER.error("Could not get changes. Will try again in " + retryDelayMillis + "ms", e);
+				try {
+					Thread.sleep(retryDelayMillis);
+				} catch (InterruptedException ex) {
+					break;
+				}
+				retryDelayMillis = Math.min(retryDelayMillis * 2, MAX_RETRY_DELAY_MILLIS);
+				continue;
+			}
+			retryDelayMillis = MIN_RETRY_DELAY_MILLIS;
+			if (!result.getPacketGroups().isEmpty() || !result.getDocumentIds().isEmpty()) {
+				try {
+					listener.accept(result);
+				} catch (RuntimeException e) {
+					// If we let this propagate, this thread would stop and no more changes would ever be given to the listener
+					LOGGER.error(SolarThingConstants.SUMMARY_MARKER, "Listener threw an exception while handling changes. Continuing with the next changes.", e);
+				}
+			}
+			lastSequence = result.getLastSequence();
+		}
+	}
+
+	@Override
+	public void close() {
+		thread.interrupt();
+	}
+}
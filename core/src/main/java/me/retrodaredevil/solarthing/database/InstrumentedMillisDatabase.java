@@ -0,0 +1,80 @@
+package me.retrodaredevil.solarthing.database;
+
+import me.retrodaredevil.solarthing.annotations.Nullable;
+import me.retrodaredevil.solarthing.database.exception.SolarThingDatabaseException;
+import me.retrodaredevil.solarthing.metrics.Counter;
+import me.retrodaredevil.solarthing.metrics.MetricsRegistry;
+import me.retrodaredevil.solarthing.metrics.Timer;
+import me.retrodaredevil.solarthing.packets.collection.PacketCollection;
+import me.retrodaredevil.solarthing.packets.collection.PacketGroup;
+
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Wraps a {@link MillisDatabase} and records the round trip time of each method, how many packet groups are queried, and how many times each method fails.
+ */
+public class InstrumentedMillisDatabase implements MillisDatabase {
+	private final MillisDatabase database;
+	private final Timer queryTimer;
+	private final Timer uploadTimer;
+	private final Timer updateTokenTimer;
+	private final Counter queriedCounter;
+	private final Counter failureCounter;
+
+	public InstrumentedMillisDatabase(MillisDatabase database, MetricsRegistry registry, String name) {
+		requireNonNull(this.database = database);
+		queryTimer = registry.timer(name + ".query");
+		uploadTimer = registry.timer(name + ".upload");
+		updateTokenTimer = registry.timer(name + ".update_token");
+		queriedCounter = registry.counter(name + ".queried");
+		failureCounter = registry.counter(name + ".failures");
+	}
+
+	@Override
+	public List<PacketGroup> query(MillisQuery query) throws SolarThingDatabaseException {
+		long startNanos = System.nanoTime();
+		try {
+			List<PacketGroup> r = database.query(query);
+			queriedCounter.add(r.size());
+			return r;
+		} catch (SolarThingDatabaseException | RuntimeException e) {
+			failureCounter.increment();
+			throw e;
+		} finally {
+			queryTimer.recordSince(startNanos);
+		}
+	}
+
+	@Override
+	public UpdateToken uploadPacketCollection(PacketCollection packetCollection, UpdateToken updateToken) throws SolarThingDatabaseException {
+		long startNanos = System.nanoTime();
+		try {
+			return database.uploadPacketCollection(packetCollection, updateToken);
+		} catch (SolarThingDatabaseException | RuntimeException e) {
+			failureCounter.increment();
+			throw e;
+		} finally {
+			uploadTimer.recordSince(startNanos);
+		}
+	}
+
+	@Override
+	public UpdateToken getCurrentUpdateToken(String documentId) throws SolarThingDatabaseException {
+		long startNanos = System.nanoTime();
+		try {
+			return database.getCurrentUpdateToken(documentId);
+		} catch (SolarThingDatabaseException | RuntimeException e) {
+			failureCounter.increment();
+			throw e;
+		} finally {
+			updateTokenTimer.recordSince(startNanos);
+		}
+	}
+
+	@Override
+	public @Nullable ChangesFeed getChangesFeed() {
+		return database.getChangesFeed();
+	}
+}
@@ -1,5 +1,6 @@
 package me.retrodaredevil.solarthing.database;
 
+import me.retrodaredevil.solarthing.annotations.Nullable;
 import me.retrodaredevil.solarthing.database.exception.SolarThingDatabaseException;
 import me.retrodaredevil.solarthing.packets.collection.PacketCollection;
 import me.retrodaredevil.solarthing.packets.collection.PacketGroup;
@@ -11,4 +12,11 @@ public interface MillisDatabase {
 
 	UpdateToken uploadPacketCollection(PacketCollection packetCollection, UpdateToken updateToken) throws SolarThingDatabaseException;
 	UpdateToken getCurrentUpdateToken(String documentId) throws SolarThingDatabaseException;
+
+	/**
+	 * @return A {@link ChangesFeed} for the packet groups in this database, or null if this database does not support one
+	 */
+	default @Nullable ChangesFeed getChangesFeed() {
+		return null;
+	}
 }
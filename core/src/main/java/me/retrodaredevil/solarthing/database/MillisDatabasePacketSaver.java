@@ -0,0 +1,49 @@
+package me.retrodaredevil.solarthing.database;
+
+import me.retrodaredevil.solarthing.InstantType;
+import me.retrodaredevil.solarthing.database.exception.SolarThingDatabaseException;
+import me.retrodaredevil.solarthing.packets.collection.PacketCollection;
+import me.retrodaredevil.solarthing.packets.handling.PacketHandleException;
+import me.retrodaredevil.solarthing.packets.handling.PacketHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Saves packet collections to any {@link MillisDatabase}, keeping track of the {@link UpdateToken} of the most recent document so it can be updated.
+ */
+public class MillisDatabasePacketSaver implements PacketHandler {
+	private static final Logger LOGGER = LoggerFactory.getLogger(MillisDatabasePacketSaver.class);
+
+	/** A map of document IDs to the current update token of that document */
+	private final Map<String, UpdateToken> updateTokenMap = new HashMap<>();
+	private final MillisDatabase database;
+
+	public MillisDatabasePacketSaver(MillisDatabase database) {
+		requireNonNull(this.database = database);
+	}
+
+	@Override
+	public void handle(PacketCollection packetCollection, InstantType instantType) throws PacketHandleException {
+		String id = packetCollection.getDbId();
+		UpdateToken updateToken = updateTokenMap.get(id);
+		try {
+			UpdateToken newUpdateToken = database.uploadPacketCollection(packetCollection, updateToken);
+			updateTokenMap.clear(); // if we have a new document ID, we never need an older document ID again
+			updateTokenMap.put(id, newUpdateToken);
+		} catch (SolarThingDatabaseException ex) {
+			try {
+				UpdateToken actualUpdateToken = database.getCurrentUpdateToken(id);
+				updateTokenMap.put(id, actualUpdateToken);
+				LOGGER.debug("We were able to get the actual update token for id=" + id + " actual=" + actualUpdateToken);
+			} catch (SolarThingDatabaseException updateTokenEx) {
+				LOGGER.debug("Unable to get the actual update token for id=" + id, updateTokenEx);
+			}
+			throw new PacketHandleException("Could not save packet collection. id=" + id + " updateToken=" + updateToken, ex);
+		}
+	}
+}
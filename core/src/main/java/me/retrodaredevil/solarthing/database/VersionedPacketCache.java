@@ -0,0 +1,148 @@
+package me.retrodaredevil.solarthing.database;
+
+import me.retrodaredevil.solarthing.annotations.NotNull;
+import me.retrodaredevil.solarthing.annotations.Nullable;
+import me.retrodaredevil.solarthing.database.exception.NotFoundSolarThingDatabaseException;
+import me.retrodaredevil.solarthing.database.exception.SolarThingDatabaseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Caches a document that can be queried with an {@link UpdateToken}, such as {@link SolarThingDatabase#queryMetadata(UpdateToken)}.
+ * <p>
+ * Once the revalidate period has passed, or after {@link #invalidate()} is called, the next call to {@link #get()} checks if the document has changed
+ * by passing the last {@link UpdateToken} to the query. Only one thread revalidates at a time. While a thread is revalidating, other threads are given the
+ * cached value instead of waiting. Threads only wait when there is no cached value yet.
+ * <p>
+ * If a query fails, the cached value continues to be used until the next revalidate period. If there is no cached value,
+ * the same exception is thrown until the next revalidate period, so a missing document does not cause a query for every call.
+ * <p>
+ * If the query throws {@link NotFoundSolarThingDatabaseException}, such as when the document is deleted, the cached value is dropped.
+ * Until the document exists again, {@link #get()} returns the missing value if one was given, or throws that exception otherwise.
+ * @param <T> The type of the cached value
+ */
+public class VersionedPacketCache<T> {
+	private static final Logger LOGGER = LoggerFactory.getLogger(VersionedPacketCache.class);
+
+	private final Querier<T> querier;
+	private final long revalidatePeriodNanos;
+	private final @Nullable T missingValue;
+	private final ReentrantLock refreshLock = new ReentrantLock();
+
+	private volatile @Nullable VersionedPacket<T> versionedPacket = null;
+	private volatile @Nullable SolarThingDatabaseException lastException = null;
+	private volatile long lastQueryNanos;
+	private volatile boolean needsQuery = true;
+
+	/**
+	 * @param querier Queries the document
+	 * @param revalidatePeriod The amount of time before the cached value is checked for changes, even if {@link #invalidate()} is not called
+	 * @param missingValue The value to use when the document does not exist, or null to throw {@link NotFoundSolarThingDatabaseException} from {@link #get()}
+	 */
+	public VersionedPacketCache(Querier<T> querier, Duration revalidatePeriod, @Nullable T missingValue) {
+		requireNonNull(this.querier = querier);
+		revalidatePeriodNanos = revalidatePeriod.toNanos();
+		this.missingValue = missingValue;
+	}
+	public VersionedPacketCache(Querier<T> querier, Duration revalidatePeriod) {
+		this(querier, revalidatePeriod, null);
+	}
+
+	/**
+	 * Makes the next call to {@link #get()} check if the document has changed. This is usually called when a changes feed says the document has changed.
+	 */
+	public void invalidate() {
+		needsQuery = true;
+	}
+
+	private boolean isStale() {
+		return needsQuery || System.nanoTime() - lastQueryNanos >= revalidatePeriodNanos;
+	}
+
+	/**
+	 * @return The cached value, which is revalidated first if needed
+	 * @throws SolarThingDatabaseException Thrown if there is no cached value and it could not be queried, or if the document does not exist and there is no missing value
+	 */
+	public @NotNull T get() throws SolarThingDatabaseException {
+		VersionedPacket<T> versionedPacket = this.versionedPacket;
+		if (versionedPacket != null) {
+			if (isStale() && refreshLock.tryLock()) {
+				try {
+					if (isStale()) {
+						refresh();
+					}
+				} finally {
+					refreshLock.unlock();
+				}
+				versionedPacket = this.versionedPacket;
+			}
+			if (versionedPacket != null) {
+				return versionedPacket.getPacket();
+			}
+			// the document was deleted
+		}
+		refreshLock.lock();
+		try {
+			if (this.versionedPacket == null && isStale()) {
+				refresh();
+			}
+			versionedPacket = this.versionedPacket;
+			if (versionedPacket == null) {
+				SolarThingDatabaseException lastException = requireNonNull(this.lastException);
+				if (missingValue != null && lastException instanceof NotFoundSolarThingDatabaseException) {
+					return missingValue;
+				}
+				throw lastException;
+			}
+			return versionedPacket.getPacket();
+		} finally {
+			refreshLock.unlock();
+		}
+	}
+
+	private void refresh() {
+		VersionedPacket<T> current = this.versionedPacket;
+		needsQuery = false;
+		lastQueryNanos = System.nanoTime();
+		final VersionedPacket<T> result;
+		try {
+			result = querier.query(current == null ? null : current.getUpdateToken());
+		} catch (NotFoundSolarThingDatabaseException e) {
+			if (current != null) {
+				LOGGER.info("Cached document no longer exists", e);
+			}
+			this.versionedPacket = null;
+			lastException = e;
+			return;
+		} catch (SolarThingDatabaseException e) {
+			if (current != null) {
+				LOGGER.warn("Could not revalidate cached document. Using the cached one for now.", e);
+			}
+			lastException = e;
+			return;
+		}
+		if (result == null) {
+			if (current == null) {
+				lastException = new SolarThingDatabaseException("The query returned null without an update token!");
+			}
+			// otherwise the document has not changed
+			return;
+		}
+		this.versionedPacket = result;
+		lastException = null;
+	}
+
+	@FunctionalInterface
+	public interface Querier<T> {
+		/**
+		 * @param updateToken The update token of the cached value or null
+		 * @return The queried document, or null if {@code updateToken} is not null and the document has not changed
+		 */
+		@Nullable VersionedPacket<T> query(@Nullable UpdateToken updateToken) throws SolarThingDatabaseException;
+	}
+}
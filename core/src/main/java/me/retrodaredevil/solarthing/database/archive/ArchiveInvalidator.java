@@ -0,0 +1,124 @@
+package me.retrodaredevil.solarthing.database.archive;
+
+import me.retrodaredevil.solarthing.annotations.Nullable;
+import me.retrodaredevil.solarthing.database.ChangesFeed;
+import me.retrodaredevil.solarthing.database.ChangesResult;
+import me.retrodaredevil.solarthing.database.ChangesSubscriber;
+import me.retrodaredevil.solarthing.database.exception.SolarThingDatabaseException;
+import me.retrodaredevil.solarthing.packets.collection.PacketGroup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.LongSupplier;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Uses a {@link ChangesFeed} to invalidate the days of a {@link ColumnarDayArchive} that packets are uploaded to after those days may have been archived.
+ * <p>
+ * The sequence of the changes feed is stored in the archive, so changes that happen while this is not running are seen once it is started again.
+ * If no sequence has been stored, the archive is cleared, since it is not known which days are outdated.
+ */
+public class ArchiveInvalidator implements AutoCloseable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ArchiveInvalidator.class);
+	private static final long DAY_MILLIS = Duration.ofDays(1).toMillis();
+	/** If nothing is invalidated, the sequence is stored at most this often*/
+	private static final long SEQUENCE_SAVE_PERIOD_MILLIS = 60 * 1000;
+
+	private final ColumnarDayArchive archive;
+	private final ChangesFeed changesFeed;
+	private final long hotWindowMillis;
+	private final LongSupplier currentTimeMillis;
+	private final String name;
+
+	private @Nullable ChangesSubscriber subscriber = null;
+	/** Only accessed by the subscriber's thread*/
+	private long lastSequenceSaveMillis = 0;
+
+	/**
+	 * @param archive The archive to invalidate days of
+	 * @param changesFeed The changes feed of the database that is archived
+	 * @param hotWindow The hot window of the {@link ArchivedMillisDatabase}s that use {@code archive}
+	 * @param currentTimeMillis Gives the current time
+	 * @param name The name of the thread
+	 */
+	public ArchiveInvalidator(ColumnarDayArchive archive, ChangesFeed changesFeed, Duration hotWindow, LongSupplier currentTimeMillis, String name) {
+		requireNonNull(this.archive = archive);
+		requireNonNull(this.changesFeed = changesFeed);
+		hotWindowMillis = hotWindow.toMillis();
+		requireNonNull(this.currentTimeMillis = currentTimeMillis);
+		requireNonNull(this.name = name);
+	}
+	public ArchiveInvalidator(ColumnarDayArchive archive, ChangesFeed changesFeed, Duration hotWindow, String name) {
+		this(archive, changesFeed, hotWindow, System::currentTimeMillis, name);
+	}
+
+	/**
+	 * Starts watching for changes. This should be called before the archive is used, so that days archived before the changes feed is watched are not outdated.
+	 * @throws IOException Thrown if the stored sequence could not be read or the archive could not be cleared
+	 */
+	public void start() throws IOException {
+		if (subscriber != null) {
+			throw new IllegalStateException("Already started!");
+		}
+		String since = archive.readSequence();
+		if (since == null) {
+			LOGGER.info("No stored sequence for the archive, so it is being cleared");
+			archive.clear();
+			try {
+				since = changesFeed.getCurrentSequence();
+				archive.writeSequence(since);
+			} catch (SolarThingDatabaseException e) {
+				LOGGER.warn("Could not get the current sequence. Will try again on another thread.", e);
+			}
+		}
+		ChangesSubscriber subscriber = ChangesSubscriber.createResultSubscriber(changesFeed, since, this::onChanges, name);
+		this.subscriber = subscriber;
+		subscriber.start();
+	}
+
+	private void onChanges(ChangesResult result) {
+		long now = currentTimeMillis.getAsLong();
+		// days that end before this may have been archived
+		long closedEnd = Math.floorDiv(now - hotWindowMillis, DAY_MILLIS) * DAY_MILLIS;
+		Set<Long> days = new TreeSet<>();
+		for (PacketGroup packetGroup : result.getPacketGroups()) {
+			if (packetGroup.getDateMillis() < closedEnd) {
+				days.add(Math.floorDiv(packetGroup.getDateMillis(), DAY_MILLIS));
+			}
+		}
+		for (long day : days) {
+			LOGGER.debug("Invalidating archived day: " + day);
+			try {
+				archive.invalidate(day);
+			} catch (IOException e) {
+				// If we stored the sequence, this day would stay outdated after a restart
+				LOGGER.error("Could not invalidate archived day: " + day, e);
+				return;
+			}
+		}
+		if (!days.isEmpty() || now - lastSequenceSaveMillis >= SEQUENCE_SAVE_PERIOD_MILLIS) {
+			saveSequence(result.getLastSequence());
+			lastSequenceSaveMillis = now;
+		}
+	}
+	private void saveSequence(String sequence) {
+		try {
+			archive.writeSequence(sequence);
+		} catch (IOException e) {
+			LOGGER.error("Could not store the sequence of the archive", e);
+		}
+	}
+
+	@Override
+	public void close() {
+		ChangesSubscriber subscriber = this.subscriber;
+		if (subscriber != null) {
+			subscriber.close();
+		}
+	}
+}
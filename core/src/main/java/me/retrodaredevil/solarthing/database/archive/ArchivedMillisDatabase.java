@@ -0,0 +1,193 @@
+package me.retrodaredevil.solarthing.database.archive;
+
+import me.retrodaredevil.solarthing.annotations.Nullable;
+import me.retrodaredevil.solarthing.database.ChangesFeed;
+import me.retrodaredevil.solarthing.database.MillisDatabase;
+import me.retrodaredevil.solarthing.database.MillisQuery;
+import me.retrodaredevil.solarthing.database.MillisQueryBuilder;
+import me.retrodaredevil.solarthing.database.UpdateToken;
+import me.retrodaredevil.solarthing.database.exception.SolarThingDatabaseException;
+import me.retrodaredevil.solarthing.packets.collection.PacketCollection;
+import me.retrodaredevil.solarthing.packets.collection.PacketGroup;
+import me.retrodaredevil.solarthing.packets.collection.parsing.PacketParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Wraps a {@link MillisDatabase} and answers queries for closed days from a {@link ColumnarDayArchive}.
+ * <p>
+ * A day is closed once it ended longer ago than the hot window. The first time a closed day is queried, the whole day is queried from the wrapped database
+ * and archived, so each closed day is only queried from the wrapped database once. Consecutive days that are not archived yet are queried together.
+ * The part of a query that is in the hot window is always given to the wrapped database.
+ * <p>
+ * Queries that have a limit or are descending are usually for the most recent packets, so they are always given to the wrapped database.
+ * Uploads are also given to the wrapped database. Packets uploaded for a day that has already been archived are only seen
+ * once that day is invalidated, usually by an {@link ArchiveInvalidator}.
+ */
+public class ArchivedMillisDatabase implements MillisDatabase {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ArchivedMillisDatabase.class);
+	private static final long DAY_MILLIS = Duration.ofDays(1).toMillis();
+	/** Queries that span more days than this go straight to the wrapped database, so a query starting at 0 does not archive decades of empty days*/
+	private static final long MAX_DAYS_PER_QUERY = 5 * 366;
+	public static final Duration DEFAULT_HOT_WINDOW = Duration.ofDays(2);
+
+	private final MillisDatabase database;
+	private final ColumnarDayArchive archive;
+	private final long hotWindowMillis;
+	private final LongSupplier currentTimeMillis;
+
+	/**
+	 * @param database The database to wrap
+	 * @param archive The archive to store closed days in
+	 * @param hotWindow The amount of time after the end of a day until that day can be archived
+	 * @param currentTimeMillis Gives the current time
+	 */
+	public ArchivedMillisDatabase(MillisDatabase database, ColumnarDayArchive archive, Duration hotWindow, LongSupplier currentTimeMillis) {
+		requireNonNull(this.database = database);
+		requireNonNull(this.archive = archive);
+		hotWindowMillis = hotWindow.toMillis();
+		requireNonNull(this.currentTimeMillis = currentTimeMillis);
+		if (hotWindowMillis < 0) {
+			throw new IllegalArgumentException("hotWindow cannot be negative! hotWindow=" + hotWindow);
+		}
+	}
+	public ArchivedMillisDatabase(MillisDatabase database, ColumnarDayArchive archive) {
+		this(database, archive, DEFAULT_HOT_WINDOW, System::currentTimeMillis);
+	}
+
+	@Override
+	public List<PacketGroup> query(MillisQuery query) throws SolarThingDatabaseException {
+		Long startKey = query.getStartKey();
+		if (startKey == null || query.getLimit() != null || query.isDescending()) {
+			return database.query(query);
+		}
+		// every day before this is closed
+		long closedEnd = Math.floorDiv(currentTimeMillis.getAsLong() - hotWindowMillis, DAY_MILLIS) * DAY_MILLIS;
+		Long endKey = query.getEndKey();
+		@Nullable Long exclusiveEnd = endKey == null || (query.isInclusiveEnd() && endKey == Long.MAX_VALUE)
+				? null
+				: (query.isInclusiveEnd() ? endKey + 1 : endKey);
+		long archiveEnd = exclusiveEnd == null ? closedEnd : Math.min(closedEnd, exclusiveEnd);
+		if (startKey >= archiveEnd || Math.floorDiv(archiveEnd - 1, DAY_MILLIS) - Math.floorDiv(startKey, DAY_MILLIS) >= MAX_DAYS_PER_QUERY) {
+			return database.query(query);
+		}
+		List<PacketGroup> r = queryClosed(startKey, archiveEnd);
+		if (exclusiveEnd == null || exclusiveEnd > closedEnd) {
+			r.addAll(database.query(new MillisQueryBuilder()
+					.startKey(closedEnd)
+					.endKey(endKey)
+					.inclusiveEnd(query.isInclusiveEnd())
+					.build()));
+		}
+		return r;
+	}
+
+	/**
+	 * @param from The date millis from (inclusive)
+	 * @param to The date millis to (exclusive). This must not be after the end of the last closed day
+	 * @return The packet groups in order
+	 */
+	private List<PacketGroup> queryClosed(long from, long to) throws SolarThingDatabaseException {
+		long firstDay = Math.floorDiv(from, DAY_MILLIS);
+		long lastDay = Math.floorDiv(to - 1, DAY_MILLIS);
+		List<PacketGroup> r = new ArrayList<>();
+		@Nullable Long missingStartDay = null;
+		for (long day = firstDay; day <= lastDay; day++) {
+			List<PacketGroup> archived = readDay(day);
+			if (archived == null) {
+				if (missingStartDay == null) {
+					missingStartDay = day;
+				}
+				continue;
+			}
+			if (missingStartDay != null) {
+				addInRange(r, queryAndArchive(missingStartDay, day), from, to);
+				missingStartDay = null;
+			}
+			addInRange(r, archived, from, to);
+		}
+		if (missingStartDay != null) {
+			addInRange(r, queryAndArchive(missingStartDay, lastDay + 1), from, to);
+		}
+		return r;
+	}
+
+	private @Nullable List<PacketGroup> readDay(long day) {
+		try {
+			return archive.read(day);
+		} catch (IOException | PacketParseException e) {
+			LOGGER.warn("Could not read archived day: " + day + ". Will query it again.", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Queries days from the wrapped database and archives each of them.
+	 * @param startDay The first day (inclusive)
+	 * @param endDay The last day (exclusive)
+	 * @return All the packet groups in those days
+	 */
+	private List<PacketGroup> queryAndArchive(long startDay, long endDay) throws SolarThingDatabaseException {
+		long invalidationCount = archive.getInvalidationCount();
+		List<PacketGroup> packetGroups = database.query(new MillisQueryBuilder()
+				.startKey(startDay * DAY_MILLIS)
+				.endKey(endDay * DAY_MILLIS)
+				.inclusiveEnd(false)
+				.build());
+		List<List<PacketGroup>> days = new ArrayList<>();
+		for (long day = startDay; day < endDay; day++) {
+			days.add(new ArrayList<>());
+		}
+		for (PacketGroup packetGroup : packetGroups) {
+			long day = Math.floorDiv(packetGroup.getDateMillis(), DAY_MILLIS);
+			if (day < startDay || day >= endDay) {
+				throw new SolarThingDatabaseException("The database gave a packet outside of the range we asked for! dateMillis=" + packetGroup.getDateMillis());
+			}
+			days.get((int) (day - startDay)).add(packetGroup);
+		}
+		for (int i = 0; i < days.size(); i++) {
+			long day = startDay + i;
+			try {
+				if (!archive.write(day, days.get(i), invalidationCount)) {
+					LOGGER.debug("Not archiving day: " + day + " because a day was invalidated while it was being queried");
+					break;
+				}
+			} catch (IOException e) {
+				LOGGER.warn("Could not archive day: " + day, e);
+			}
+		}
+		return packetGroups;
+	}
+
+	private static void addInRange(List<PacketGroup> packetGroupsOut, List<PacketGroup> packetGroups, long from, long to) {
+		for (PacketGroup packetGroup : packetGroups) {
+			long dateMillis = packetGroup.getDateMillis();
+			if (dateMillis >= from && dateMillis < to) {
+				packetGroupsOut.add(packetGroup);
+			}
+		}
+	}
+
+	@Override
+	public UpdateToken uploadPacketCollection(PacketCollection packetCollection, UpdateToken updateToken) throws SolarThingDatabaseException {
+		return database.uploadPacketCollection(packetCollection, updateToken);
+	}
+
+	@Override
+	public UpdateToken getCurrentUpdateToken(String documentId) throws SolarThingDatabaseException {
+		return database.getCurrentUpdateToken(documentId);
+	}
+
+	@Override
+	public @Nullable ChangesFeed getChangesFeed() {
+		return database.getChangesFeed();
+	}
+}
@@ -0,0 +1,449 @@
+package me.retrodaredevil.solarthing.database.archive;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.DoubleNode;
+import com.fasterxml.jackson.databind.node.LongNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import me.retrodaredevil.solarthing.annotations.Nullable;
+import me.retrodaredevil.solarthing.packets.Packet;
+import me.retrodaredevil.solarthing.packets.collection.PacketGroup;
+import me.retrodaredevil.solarthing.packets.collection.parsing.PacketParseException;
+import me.retrodaredevil.solarthing.packets.collection.parsing.PacketParsingErrorHandler;
+import me.retrodaredevil.solarthing.packets.collection.parsing.SimplePacketGroupParser;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Stores packet groups in a directory on disk, with one compressed file for each day.
+ * <p>
+ * Each file is columnar. Packets that have the same fields with the same kinds of values are put in the same series, and each field of a series is stored as a column.
+ * Integer fields are stored as the difference from the previous value and floating point fields are stored as doubles, so no precision is lost.
+ * Other fields are stored as an index into a dictionary of JSON values, since they rarely change from one packet to the next.
+ * Because of this, a day of packets is much smaller than the JSON documents, and reading it does not require parsing any JSON text other than the dictionaries.
+ * <p>
+ * Packets are serialized with the given {@link ObjectMapper}, so they must be able to be deserialized in the same way that they are when they are stored in a database.
+ * <p>
+ * Days are represented as the number of days since the epoch in UTC. This class does not decide when a day can be archived.
+ * <p>
+ * A day that may be outdated can be removed with {@link #invalidate(long)}. So that a day that was being queried while it was invalidated is not archived,
+ * {@link #write(long, List, long)} only writes a day if nothing has been invalidated since {@link #getInvalidationCount()} was called.
+ */
+public class ColumnarDayArchive {
+	private static final int MAGIC = 0x53544341;
+	/** Version 1 widened columns with both integers and floating point numbers to doubles, so those files are not read*/
+	private static final int VERSION = 2;
+	private static final String FILE_SUFFIX = ".columns.gz";
+	private static final String SEQUENCE_FILE_NAME = "changes_sequence";
+
+	private static final byte KIND_LONG = 0;
+	private static final byte KIND_DOUBLE = 1;
+	private static final byte KIND_VALUE = 2;
+
+	private final Path directory;
+	private final ObjectMapper mapper;
+	private final SimplePacketGroupParser parser;
+
+	/** Guarded by this*/
+	private long invalidationCount = 0;
+
+	/**
+	 * @param directory The directory to store files in. This is created if it does not exist
+	 * @param mapper The mapper to serialize and deserialize packets. This should be able to deserialize {@link me.retrodaredevil.solarthing.packets.DocumentedPacket}s
+	 * @param errorHandler Handles packets that cannot be deserialized
+	 */
+	public ColumnarDayArchive(Path directory, ObjectMapper mapper, PacketParsingErrorHandler errorHandler) {
+		requireNonNull(this.directory = directory);
+		requireNonNull(this.mapper = mapper);
+		parser = new SimplePacketGroupParser(mapper, errorHandler);
+	}
+
+	private Path getPath(long epochDay) {
+		return directory.resolve(LocalDate.ofEpochDay(epochDay) + FILE_SUFFIX);
+	}
+
+	/**
+	 * @param epochDay The day
+	 * @return The packet groups of that day, or null if that day has not been archived
+	 * @throws IOException Thrown if the file could not be read or is not valid
+	 * @throws PacketParseException Thrown if a packet group is not valid or if thrown by the error handler
+	 */
+	public @Nullable List<PacketGroup> read(long epochDay) throws IOException, PacketParseException {
+		final InputStream fileInputStream;
+		try {
+			fileInputStream = Files.newInputStream(getPath(epochDay));
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(new GZIPInputStream(fileInputStream)))) {
+			return read(input);
+		}
+	}
+
+	/**
+	 * Archives the packet groups of a day, replacing any that were already archived for that day.
+	 * <p>
+	 * The file is written to a temporary file first, so other threads never read a partially written file.
+	 * @param epochDay The day
+	 * @param packetGroups The packet groups of that day in the order they should be read
+	 * @throws IOException Thrown if the file could not be written
+	 */
+	public void write(long epochDay, List<? extends PacketGroup> packetGroups) throws IOException {
+		writeDay(epochDay, packetGroups, null);
+	}
+
+	/**
+	 * Archives the packet groups of a day like {@link #write(long, List)}, unless a day has been invalidated since {@code invalidationCount} was retrieved.
+	 * @param epochDay The day
+	 * @param packetGroups The packet groups of that day in the order they should be read
+	 * @param invalidationCount The value of {@link #getInvalidationCount()} from before {@code packetGroups} were queried
+	 * @return true if the day was archived, false if a day has been invalidated since then
+	 * @throws IOException Thrown if the file could not be written
+	 */
+	public boolean write(long epochDay, List<? extends PacketGroup> packetGroups, long invalidationCount) throws IOException {
+		return writeDay(epochDay, packetGroups, invalidationCount);
+	}
+
+	private boolean writeDay(long epochDay, List<? extends PacketGroup> packetGroups, @Nullable Long invalidationCount) throws IOException {
+		Files.createDirectories(directory);
+		Path path = getPath(epochDay);
+		Path temporaryPath = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+		try {
+			try (OutputStream fileOutputStream = Files.newOutputStream(temporaryPath);
+				 DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(fileOutputStream)))) {
+				write(output, packetGroups);
+			}
+			synchronized (this) {
+				if (invalidationCount != null && invalidationCount != this.invalidationCount) {
+					return false;
+				}
+				Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			return true;
+		} finally {
+			Files.deleteIfExists(temporaryPath);
+		}
+	}
+
+	/**
+	 * @return A number that changes each time {@link #invalidate(long)} or {@link #clear()} is called
+	 */
+	public synchronized long getInvalidationCount() {
+		return invalidationCount;
+	}
+
+	/**
+	 * Removes a day from the archive because it may be outdated
+	 * @param epochDay The day
+	 * @throws IOException Thrown if the file could not be deleted
+	 */
+	public void invalidate(long epochDay) throws IOException {
+		synchronized (this) {
+			invalidationCount++;
+			Files.deleteIfExists(getPath(epochDay));
+		}
+	}
+
+	/**
+	 * Removes every day from the archive and the stored sequence
+	 * @throws IOException Thrown if a file could not be deleted
+	 */
+	public void clear() throws IOException {
+		synchronized (this) {
+			invalidationCount++;
+			Files.deleteIfExists(directory.resolve(SEQUENCE_FILE_NAME));
+			if (!Files.isDirectory(directory)) {
+				return;
+			}
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + FILE_SUFFIX)) {
+				for (Path path : stream) {
+					Files.delete(path);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The sequence of the changes feed that archived days are up to date with, or null if it has not been stored
+	 * @throws IOException Thrown if the file could not be read
+	 */
+	public @Nullable String readSequence() throws IOException {
+		try {
+			return new String(Files.readAllBytes(directory.resolve(SEQUENCE_FILE_NAME)), StandardCharsets.UTF_8);
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the sequence of the changes feed that archived days are up to date with, so that changes are not missed after a restart
+	 * @param sequence The sequence, usually from {@link me.retrodaredevil.solarthing.database.ChangesResult#getLastSequence()}
+	 * @throws IOException Thrown if the file could not be written
+	 */
+	public void writeSequence(String sequence) throws IOException {
+		Files.createDirectories(directory);
+		Path path = directory.resolve(SEQUENCE_FILE_NAME);
+		Path temporaryPath = Files.createTempFile(directory, SEQUENCE_FILE_NAME, ".tmp");
+		try {
+			Files.write(temporaryPath, sequence.getBytes(StandardCharsets.UTF_8));
+			Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temporaryPath);
+		}
+	}
+
+	private void write(DataOutputStream output, List<? extends PacketGroup> packetGroups) throws IOException {
+		Map<List<String>, List<ObjectNode>> seriesMap = new LinkedHashMap<>();
+		Map<List<String>, Integer> seriesIndexMap = new LinkedHashMap<>();
+		int[][] layout = new int[packetGroups.size()][];
+		for (int i = 0; i < packetGroups.size(); i++) {
+			List<? extends Packet> packets = packetGroups.get(i).getPackets();
+			layout[i] = new int[packets.size()];
+			for (int j = 0; j < packets.size(); j++) {
+				ObjectNode packetNode = mapper.valueToTree(packets.get(j));
+				List<String> key = createSeriesKey(packetNode);
+				seriesMap.computeIfAbsent(key, _key -> new ArrayList<>()).add(packetNode);
+				layout[i][j] = seriesIndexMap.computeIfAbsent(key, _key -> seriesIndexMap.size());
+			}
+		}
+		output.writeInt(MAGIC);
+		output.writeInt(VERSION);
+
+		writeVarLong(output, packetGroups.size());
+		long previousDateMillis = 0;
+		for (PacketGroup packetGroup : packetGroups) {
+			writeVarLong(output, zigZag(packetGroup.getDateMillis() - previousDateMillis));
+			previousDateMillis = packetGroup.getDateMillis();
+		}
+		for (int[] packetSeriesIndices : layout) {
+			writeVarLong(output, packetSeriesIndices.length);
+			for (int seriesIndex : packetSeriesIndices) {
+				writeVarLong(output, seriesIndex);
+			}
+		}
+
+		writeVarLong(output, seriesMap.size());
+		for (Map.Entry<List<String>, List<ObjectNode>> entry : seriesMap.entrySet()) {
+			List<String> key = entry.getKey();
+			List<ObjectNode> rows = entry.getValue();
+			writeVarLong(output, rows.size());
+			writeVarLong(output, key.size());
+			for (String fieldKey : key) {
+				String fieldName = fieldKey.substring(1);
+				output.writeUTF(fieldName);
+				switch (fieldKey.charAt(0)) {
+					case 'l':
+						writeLongColumn(output, fieldName, rows);
+						break;
+					case 'd':
+						writeDoubleColumn(output, fieldName, rows);
+						break;
+					default:
+						writeValueColumn(output, fieldName, rows);
+						break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return A list of each field name prefixed with 'l' if the field is stored as a long, 'd' if the field is stored as a double, or 'v' otherwise.
+	 * Packets with the same key are in the same series, so every value in a column is the same kind.
+	 */
+	private static List<String> createSeriesKey(ObjectNode packetNode) {
+		List<String> r = new ArrayList<>(packetNode.size());
+		Iterator<Map.Entry<String, JsonNode>> iterator = packetNode.fields();
+		while (iterator.hasNext()) {
+			Map.Entry<String, JsonNode> entry = iterator.next();
+			JsonNode node = entry.getValue();
+			final String prefix;
+			if (node.isIntegralNumber() && node.canConvertToLong()) {
+				prefix = "l";
+			} else if (node.isFloat() || node.isDouble()) {
+				prefix = "d";
+			} else {
+				prefix = "v";
+			}
+			r.add(prefix + entry.getKey());
+		}
+		return r;
+	}
+	private static void writeLongColumn(DataOutputStream output, String fieldName, List<ObjectNode> rows) throws IOException {
+		output.writeByte(KIND_LONG);
+		long previous = 0;
+		for (ObjectNode row : rows) {
+			long value = row.get(fieldName).longValue();
+			writeVarLong(output, zigZag(value - previous));
+			previous = value;
+		}
+	}
+	private static void writeDoubleColumn(DataOutputStream output, String fieldName, List<ObjectNode> rows) throws IOException {
+		output.writeByte(KIND_DOUBLE);
+		for (ObjectNode row : rows) {
+			output.writeDouble(row.get(fieldName).doubleValue());
+		}
+	}
+	private void writeValueColumn(DataOutputStream output, String fieldName, List<ObjectNode> rows) throws IOException {
+		output.writeByte(KIND_VALUE);
+		Map<String, Integer> dictionary = new LinkedHashMap<>();
+		int[] indices = new int[rows.size()];
+		for (int i = 0; i < rows.size(); i++) {
+			String json = mapper.writeValueAsString(rows.get(i).get(fieldName));
+			indices[i] = dictionary.computeIfAbsent(json, _json -> dictionary.size());
+		}
+		writeVarLong(output, dictionary.size());
+		for (String json : dictionary.keySet()) {
+			byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+			writeVarLong(output, bytes.length);
+			output.write(bytes);
+		}
+		for (int index : indices) {
+			writeVarLong(output, index);
+		}
+	}
+
+	private List<PacketGroup> read(DataInputStream input) throws IOException, PacketParseException {
+		if (input.readInt() != MAGIC) {
+			throw new IOException("Not an archive file!");
+		}
+		int version = input.readInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported archive version: " + version);
+		}
+		int packetGroupCount = readSize(input);
+		long[] dateMillisArray = new long[packetGroupCount];
+		long previousDateMillis = 0;
+		for (int i = 0; i < packetGroupCount; i++) {
+			previousDateMillis += unZigZag(readVarLong(input));
+			dateMillisArray[i] = previousDateMillis;
+		}
+		int[][] layout = new int[packetGroupCount][];
+		for (int i = 0; i < packetGroupCount; i++) {
+			layout[i] = new int[readSize(input)];
+			for (int j = 0; j < layout[i].length; j++) {
+				layout[i][j] = readSize(input);
+			}
+		}
+
+		ObjectNode[][] seriesRows = new ObjectNode[readSize(input)][];
+		for (int i = 0; i < seriesRows.length; i++) {
+			ObjectNode[] rows = new ObjectNode[readSize(input)];
+			for (int j = 0; j < rows.length; j++) {
+				rows[j] = mapper.createObjectNode();
+			}
+			int fieldCount = readSize(input);
+			for (int j = 0; j < fieldCount; j++) {
+				readColumn(input, input.readUTF(), rows);
+			}
+			seriesRows[i] = rows;
+		}
+
+		List<PacketGroup> r = new ArrayList<>(packetGroupCount);
+		int[] seriesPositions = new int[seriesRows.length];
+		for (int i = 0; i < packetGroupCount; i++) {
+			ObjectNode packetGroupNode = mapper.createObjectNode();
+			packetGroupNode.put("dateMillis", dateMillisArray[i]);
+			ArrayNode packetsNode = packetGroupNode.putArray("packets");
+			for (int seriesIndex : layout[i]) {
+				if (seriesIndex >= seriesRows.length || seriesPositions[seriesIndex] >= seriesRows[seriesIndex].length) {
+					throw new IOException("The layout of packet group " + i + " is not valid!");
+				}
+				packetsNode.add(seriesRows[seriesIndex][seriesPositions[seriesIndex]++]);
+			}
+			r.add(parser.parse(packetGroupNode));
+		}
+		return r;
+	}
+	private void readColumn(DataInputStream input, String fieldName, ObjectNode[] rows) throws IOException {
+		byte kind = input.readByte();
+		switch (kind) {
+			case KIND_LONG: {
+				long previous = 0;
+				for (ObjectNode row : rows) {
+					previous += unZigZag(readVarLong(input));
+					row.set(fieldName, LongNode.valueOf(previous));
+				}
+				break;
+			}
+			case KIND_DOUBLE:
+				for (ObjectNode row : rows) {
+					row.set(fieldName, DoubleNode.valueOf(input.readDouble()));
+				}
+				break;
+			case KIND_VALUE: {
+				JsonNode[] dictionary = new JsonNode[readSize(input)];
+				for (int i = 0; i < dictionary.length; i++) {
+					byte[] bytes = new byte[readSize(input)];
+					input.readFully(bytes);
+					dictionary[i] = mapper.readTree(bytes);
+				}
+				for (ObjectNode row : rows) {
+					int index = readSize(input);
+					if (index >= dictionary.length) {
+						throw new IOException("Dictionary index out of bounds for field: " + fieldName);
+					}
+					// The same node is shared between rows. This is fine because nodes are not altered when they are deserialized
+					row.set(fieldName, dictionary[index]);
+				}
+				break;
+			}
+			default:
+				throw new IOException("Unknown column kind: " + kind + " for field: " + fieldName);
+		}
+	}
+
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+	private static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+	private static void writeVarLong(DataOutputStream output, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			output.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		output.writeByte((int) value);
+	}
+	private static long readVarLong(DataInputStream input) throws IOException {
+		long r = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = input.readUnsignedByte();
+			r |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return r;
+			}
+		}
+		throw new IOException("Variable length number is too long!");
+	}
+	private static int readSize(DataInputStream input) throws IOException {
+		long size = readVarLong(input);
+		if (size < 0 || size > Integer.MAX_VALUE) {
+			throw new IOException("Invalid size: " + size);
+		}
+		return (int) size;
+	}
+}
@@ -0,0 +1,197 @@
+package me.retrodaredevil.solarthing.database.couchdb;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import me.retrodaredevil.couchdb.CouchProperties;
+import me.retrodaredevil.okhttp3.OkHttpProperties;
+import me.retrodaredevil.okhttp3.OkHttpUtil;
+import me.retrodaredevil.solarthing.annotations.Nullable;
+import me.retrodaredevil.solarthing.database.ChangesFeed;
+import me.retrodaredevil.solarthing.database.ChangesResult;
+import me.retrodaredevil.solarthing.database.exception.SolarThingDatabaseException;
+import me.retrodaredevil.solarthing.packets.collection.PacketGroup;
+import me.retrodaredevil.solarthing.packets.collection.parsing.PacketParseException;
+import me.retrodaredevil.solarthing.packets.collection.parsing.PacketParsingErrorHandler;
+import me.retrodaredevil.solarthing.packets.collection.parsing.SimplePacketGroupParser;
+import okhttp3.Credentials;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A {@link ChangesFeed} that uses CouchDB's longpoll {@code _changes} feed.
+ * <p>
+ * couchdb-java does not support the changes feed, so this makes requests using OkHttp directly.
+ */
+public class CouchDbChangesFeed implements ChangesFeed {
+	/** How much longer than the longpoll timeout we wait for CouchDB to respond */
+	private static final long READ_TIMEOUT_MARGIN_MILLIS = 15 * 1000;
+	/** The maximum number of changes in a single response, so catching up after a long time does not download the whole database at once*/
+	private static final int CHANGES_LIMIT = 1000;
+
+	private final OkHttpClient client;
+	private final HttpUrl databaseUrl;
+	private final HttpUrl changesUrl;
+	private final @Nullable String authorization;
+	private final ObjectMapper mapper;
+	private final PacketParsingErrorHandler errorHandler;
+	private final SimplePacketGroupParser parser;
+	private final @Nullable String documentIdsJson;
+
+	/**
+	 * @param documentIds The IDs of the only documents to get changes for, or null to get changes for all documents.
+	 *                    If not null, documents are not downloaded, so {@link ChangesResult#getPacketGroups()} is always empty and only {@link ChangesResult#getDocumentIds()} should be used.
+	 */
+	public CouchDbChangesFeed(OkHttpClient client, HttpUrl databaseUrl, @Nullable String authorization, ObjectMapper mapper, PacketParsingErrorHandler errorHandler, @Nullable Collection<String> documentIds) {
+		requireNonNull(this.client = client);
+		requireNonNull(this.databaseUrl = databaseUrl);
+		changesUrl = databaseUrl.newBuilder().addPathSegment("_changes").build();
+		this.authorization = authorization;
+		requireNonNull(this.mapper = mapper);
+		requireNonNull(this.errorHandler = errorHandler);
+		parser = new SimplePacketGroupParser(mapper, errorHandler);
+		documentIdsJson = documentIds == null ? null : mapper.valueToTree(documentIds).toString();
+	}
+	public CouchDbChangesFeed(OkHttpClient client, HttpUrl databaseUrl, @Nullable String authorization, ObjectMapper mapper, PacketParsingErrorHandler errorHandler) {
+		this(client, databaseUrl, authorization, mapper, errorHandler, null);
+	}
+
+	/**
+	 * @param couchProperties The properties of the CouchDB instance
+	 * @param okHttpProperties The properties for OkHttp. Note that the call timeout is ignored and the read timeout is changed for each request, since requests wait for changes
+	 * @param databaseName The name of the database, such as {@link me.retrodaredevil.solarthing.SolarThingConstants#OPEN_DATABASE}
+	 * @param mapper The object mapper that is able to deserialize the packets in the database. Usually created with {@link me.retrodaredevil.solarthing.packets.collection.parsing.PacketMapperUtil}
+	 * @param errorHandler The error handler for packets that could not be parsed
+	 */
+	public static CouchDbChangesFeed create(CouchProperties couchProperties, OkHttpProperties okHttpProperties, String databaseName, ObjectMapper mapper, PacketParsingErrorHandler errorHandler) {
+		return new CouchDbChangesFeed(createClient(okHttpProperties), createDatabaseUrl(couchProperties, databaseName), createAuthorization(couchProperties), mapper, errorHandler);
+	}
+
+	/**
+	 * Creates a changes feed that only tells you the IDs of {@code documentIds} when they change. This is useful for invalidating a cache of those documents.
+	 * @param couchProperties The properties of the CouchDB instance
+	 * @param okHttpProperties The properties for OkHttp
+	 * @param databaseName The name of the database, such as {@link me.retrodaredevil.solarthing.SolarThingConstants#CLOSED_DATABASE}
+	 * @param documentIds The IDs of the documents to get changes for
+	 */
+	public static CouchDbChangesFeed createDocumentFeed(CouchProperties couchProperties, OkHttpProperties okHttpProperties, String databaseName, Collection<String> documentIds) {
+		return new CouchDbChangesFeed(
+				createClient(okHttpProperties), createDatabaseUrl(couchProperties, databaseName), createAuthorization(couchProperties),
+				new ObjectMapper(), PacketParsingErrorHandler.DO_NOTHING, documentIds
+		);
+	}
+
+	static OkHttpClient createClient(OkHttpProperties okHttpProperties) {
+		return OkHttpUtil.createBuilder(okHttpProperties)
+				.callTimeout(0, TimeUnit.MILLISECONDS)
+				.build();
+	}
+	static HttpUrl createDatabaseUrl(CouchProperties couchProperties, String databaseName) {
+		return couchProperties.getHttpUrl().newBuilder().addPathSegment(databaseName).build();
+	}
+	static @Nullable String createAuthorization(CouchProperties couchProperties) {
+		String username = couchProperties.getUsername();
+		String password = couchProperties.getPassword();
+		if (username == null) {
+			return null;
+		}
+		if (password == null) {
+			throw new IllegalArgumentException("If username isn't null, then password cannot be null!");
+		}
+		// CouchDB always accepts basic authentication, so we don't bother with cookie authentication here
+		return Credentials.basic(username, password);
+	}
+
+	private Request.Builder createRequestBuilder(HttpUrl url) {
+		Request.Builder requestBuilder = new Request.Builder().url(url).get();
+		if (authorization != null) {
+			requestBuilder.header("Authorization", authorization);
+		}
+		return requestBuilder;
+	}
+
+	@Override
+	public String getCurrentSequence() throws SolarThingDatabaseException {
+		final JsonNode jsonNode;
+		try (Response response = client.newCall(createRequestBuilder(databaseUrl).build()).execute()) {
+			ResponseBody body = response.body();
+			if (!response.isSuccessful() || body == null) {
+				throw new SolarThingDatabaseException("Unsuccessful response while getting update_seq. code: " + response.code());
+			}
+			jsonNode = mapper.readTree(body.byteStream());
+		} catch (IOException e) {
+			throw new SolarThingDatabaseException("Could not get update_seq", e);
+		}
+		JsonNode updateSequenceNode = jsonNode.get("update_seq");
+		if (updateSequenceNode == null) {
+			throw new SolarThingDatabaseException("Unexpected database information! jsonNode=" + jsonNode);
+		}
+		return updateSequenceNode.asText();
+	}
+
+	@Override
+	public ChangesResult waitForChanges(@Nullable String since, long timeoutMillis) throws SolarThingDatabaseException {
+		HttpUrl.Builder urlBuilder = changesUrl.newBuilder()
+				.addQueryParameter("feed", "longpoll")
+				.addQueryParameter("timeout", Long.toString(timeoutMillis))
+				.addQueryParameter("since", since == null ? "now" : since)
+				.addQueryParameter("limit", Integer.toString(CHANGES_LIMIT));
+		if (documentIdsJson == null) {
+			urlBuilder.addQueryParameter("include_docs", "true");
+		} else {
+			urlBuilder.addQueryParameter("filter", "_doc_ids")
+					.addQueryParameter("doc_ids", documentIdsJson);
+		}
+		Request.Builder requestBuilder = createRequestBuilder(urlBuilder.build());
+		OkHttpClient client = this.client.newBuilder()
+				.readTimeout(timeoutMillis + READ_TIMEOUT_MARGIN_MILLIS, TimeUnit.MILLISECONDS)
+				.build();
+		final JsonNode jsonNode;
+		try (Response response = client.newCall(requestBuilder.build()).execute()) {
+			ResponseBody body = response.body();
+			if (!response.isSuccessful() || body == null) {
+				throw new SolarThingDatabaseException("Unsuccessful response from _changes. code: " + response.code());
+			}
+			jsonNode = mapper.readTree(body.byteStream());
+		} catch (IOException e) {
+			throw new SolarThingDatabaseException("Could not get changes", e);
+		}
+		JsonNode lastSequenceNode = jsonNode.get("last_seq");
+		JsonNode resultsNode = jsonNode.get("results");
+		if (lastSequenceNode == null || resultsNode == null || !resultsNode.isArray()) {
+			throw new SolarThingDatabaseException("Unexpected response from _changes! jsonNode=" + jsonNode);
+		}
+		List<PacketGroup> packetGroups = new ArrayList<>(resultsNode.size());
+		List<String> documentIds = new ArrayList<>(resultsNode.size());
+		for (JsonNode result : resultsNode) {
+			String id = result.path("id").asText();
+			documentIds.add(id);
+			JsonNode doc = result.get("doc");
+			if (id.startsWith("_design/") || result.path("deleted").asBoolean(false) || doc == null || !doc.isObject()) {
+				continue;
+			}
+			try {
+				packetGroups.add(parser.parse((ObjectNode) doc));
+			} catch (PacketParseException e) {
+				// If we threw an exception here, the same document would be retrieved every time, so skip it unless the error handler says otherwise
+				try {
+					errorHandler.handleError(new PacketParseException("Could not parse document with id: " + id, e));
+				} catch (PacketParseException handlerException) {
+					throw new SolarThingDatabaseException(handlerException);
+				}
+			}
+		}
+		return new ChangesResult(packetGroups, documentIds, lastSequenceNode.asText());
+	}
+}
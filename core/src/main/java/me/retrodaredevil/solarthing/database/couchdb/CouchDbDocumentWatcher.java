@@ -0,0 +1,54 @@
+package me.retrodaredevil.solarthing.database.couchdb;
+
+import me.retrodaredevil.couchdb.CouchProperties;
+import me.retrodaredevil.okhttp3.OkHttpProperties;
+import me.retrodaredevil.solarthing.database.ChangesSubscriber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.function.Consumer;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Uses a {@link ChangesSubscriber} with a {@link CouchDbChangesFeed#createDocumentFeed document changes feed} to tell a listener when specific documents change.
+ * Documents are not downloaded, so this is useful for invalidating a cache of those documents. The listener is also called when a document is deleted.
+ */
+public class CouchDbDocumentWatcher implements AutoCloseable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(CouchDbDocumentWatcher.class);
+
+	private final ChangesSubscriber subscriber;
+
+	/**
+	 * @param couchProperties The properties of the CouchDB instance
+	 * @param okHttpProperties The properties for OkHttp. Note that the call timeout is ignored and the read timeout is changed, since requests wait for changes
+	 * @param databaseName The name of the database, such as {@link me.retrodaredevil.solarthing.SolarThingConstants#CLOSED_DATABASE}
+	 * @param documentIds The IDs of the documents to watch
+	 * @param listener Called with the ID of a document each time it changes. This is called on a separate thread
+	 * @param name The name of the thread
+	 */
+	public CouchDbDocumentWatcher(CouchProperties couchProperties, OkHttpProperties okHttpProperties, String databaseName, Collection<String> documentIds, Consumer<String> listener, String name) {
+		requireNonNull(listener);
+		subscriber = ChangesSubscriber.createResultSubscriber(
+				CouchDbChangesFeed.createDocumentFeed(couchProperties, okHttpProperties, databaseName, documentIds),
+				null,
+				result -> {
+					for (String id : result.getDocumentIds()) {
+						LOGGER.debug("Document with id: " + id + " changed");
+						listener.accept(id);
+					}
+				},
+				name
+		);
+	}
+
+	public void start() {
+		subscriber.start();
+	}
+
+	@Override
+	public void close() {
+		subscriber.close();
+	}
+}
@@ -1,16 +1,16 @@
 package me.retrodaredevil.solarthing.database.couchdb;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import me.retrodaredevil.couchdbjava.CouchDbDatabase;
 import me.retrodaredevil.couchdbjava.exception.CouchDbException;
 import me.retrodaredevil.couchdbjava.json.JsonData;
 import me.retrodaredevil.couchdbjava.json.StringJsonData;
-import me.retrodaredevil.couchdbjava.json.jackson.CouchDbJacksonUtil;
 import me.retrodaredevil.couchdbjava.response.DocumentResponse;
 import me.retrodaredevil.couchdbjava.response.ViewResponse;
+import me.retrodaredevil.solarthing.annotations.Nullable;
+import me.retrodaredevil.solarthing.database.ChangesFeed;
 import me.retrodaredevil.solarthing.database.MillisDatabase;
 import me.retrodaredevil.solarthing.database.MillisQuery;
 import me.retrodaredevil.solarthing.database.UpdateToken;
@@ -21,6 +21,7 @@ import me.retrodaredevil.solarthing.packets.collection.parsing.PacketParseExcept
 import me.retrodaredevil.solarthing.packets.collection.parsing.PacketParsingErrorHandler;
 import me.retrodaredevil.solarthing.packets.collection.parsing.SimplePacketGroupParser;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -29,11 +30,20 @@ public class CouchDbMillisDatabase implements MillisDatabase {
 	private final CouchDbDatabase database;
 	private final ObjectMapper mapper;
 	private final SimplePacketGroupParser parser;
+	private final @Nullable ChangesFeed changesFeed;
 
 	public CouchDbMillisDatabase(CouchDbDatabase database, ObjectMapper mapper, PacketParsingErrorHandler errorHandler) {
+		this(database, mapper, errorHandler, null);
+	}
+
+	/**
+	 * @param changesFeed The changes feed of {@code database}, or null if it should not be available from {@link #getChangesFeed()}
+	 */
+	public CouchDbMillisDatabase(CouchDbDatabase database, ObjectMapper mapper, PacketParsingErrorHandler errorHandler, @Nullable ChangesFeed changesFeed) {
 		this.database = database;
 		this.mapper = mapper;
 		this.parser = new SimplePacketGroupParser(mapper, errorHandler);
+		this.changesFeed = changesFeed;
 	}
 
 	@Override
@@ -48,21 +58,14 @@ public class CouchDbMillisDatabase implements MillisDatabase {
 		List<PacketGroup> r = new ArrayList<>(rows.size());
 		for (ViewResponse.DocumentEntry row : rows) {
 			JsonData jsonData = row.getValue();
-			final JsonNode jsonNode;
-			try {
-				jsonNode = CouchDbJacksonUtil.getNodeFrom(jsonData);
-			} catch (JsonProcessingException e) {
-				throw new SolarThingDatabaseException("We couldn't parse some of the data into JSON. This should never happen", e);
-			}
-			if (!jsonNode.isObject()) {
-				throw new SolarThingDatabaseException("Something must be wrong with the packet millis view because we got this jsonNode: " + jsonNode);
-			}
-			ObjectNode objectNode = (ObjectNode) jsonNode;
 			final PacketGroup packetGroup;
-			try {
-				packetGroup = parser.parse(objectNode);
+			// We parse directly from the JSON text so we don't have to create a JsonNode tree, then convert it to packets
+			try (JsonParser jsonParser = mapper.getFactory().createParser(jsonData.getJson())) {
+				packetGroup = parser.parse(jsonParser);
+			} catch (IOException e) {
+				throw new SolarThingDatabaseException("We couldn't parse some of the data into JSON. This should never happen", e);
 			} catch (PacketParseException e) {
-				throw new SolarThingDatabaseException(e);
+				throw new SolarThingDatabaseException("Something must be wrong with the packet millis view or the packets themselves", e);
 			}
 			r.add(packetGroup);
 		}
@@ -99,4 +102,9 @@ public class CouchDbMillisDatabase implements MillisDatabase {
 			throw new SolarThingDatabaseException("Couldn't get revision", e);
 		}
 	}
+
+	@Override
+	public @Nullable ChangesFeed getChangesFeed() {
+		return changesFeed;
+	}
 }
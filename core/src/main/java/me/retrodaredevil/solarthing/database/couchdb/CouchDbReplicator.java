@@ -0,0 +1,338 @@
+package me.retrodaredevil.solarthing.database.couchdb;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import me.retrodaredevil.couchdbjava.CouchDbDatabase;
+import me.retrodaredevil.couchdbjava.exception.CouchDbException;
+import me.retrodaredevil.couchdbjava.json.JsonData;
+import me.retrodaredevil.couchdbjava.json.StringJsonData;
+import me.retrodaredevil.couchdbjava.json.jackson.CouchDbJacksonUtil;
+import me.retrodaredevil.couchdbjava.request.BulkGetRequest;
+import me.retrodaredevil.couchdbjava.request.BulkPostRequest;
+import me.retrodaredevil.couchdbjava.response.BulkDocumentResponse;
+import me.retrodaredevil.couchdbjava.response.BulkGetResponse;
+import me.retrodaredevil.solarthing.database.exception.SolarThingDatabaseException;
+import me.retrodaredevil.solarthing.database.local.LocalDocument;
+import me.retrodaredevil.solarthing.database.local.LocalMillisDatabase;
+import me.retrodaredevil.solarthing.util.AdaptiveBatchSize;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Replicates documents from a {@link LocalMillisDatabase} to a CouchDB database in batches using {@code _bulk_docs}, so packets can be saved locally
+ * at full rate and uploaded whenever CouchDB can be reached.
+ * <p>
+ * The update sequence of the last replicated document is saved to a checkpoint file, so replication continues where it left off after a restart.
+ * The checkpoint is added as a retention hold of the source, so documents that have not been replicated are not deleted by the source's retention.
+ * While there is a backlog, batches are sent one after another and the size of each batch is adjusted by an {@link AdaptiveBatchSize}.
+ * <p>
+ * Documents are sent without a revision. Documents that already exist in CouchDB have their current revision retrieved in a single
+ * {@code _bulk_get} request and are sent again in a single request. Documents that are identical to the ones in CouchDB are not sent again.
+ */
+public class CouchDbReplicator implements AutoCloseable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(CouchDbReplicator.class);
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+	private static final String CONFLICT_ERROR = "conflict";
+	private static final long MIN_RETRY_DELAY_MILLIS = 1000;
+	private static final long MAX_RETRY_DELAY_MILLIS = 60 * 1000;
+
+	private final LocalMillisDatabase source;
+	private final CouchDbDatabase target;
+	private final Path checkpointPath;
+	private final AdaptiveBatchSize batchSize;
+	private final long idleDelayMillis;
+	private final Thread thread;
+
+	/** Only changed while holding the lock on this. The update sequence of the last document that was replicated*/
+	private volatile long checkpoint;
+	/** Only changed while holding the lock on this*/
+	private volatile long replicatedCount = 0;
+	/** Only changed while holding the lock on this*/
+	private volatile int nextBatchSize;
+
+	/**
+	 * @param source The database to replicate documents from
+	 * @param target The database to replicate documents to
+	 * @param checkpointPath The file to store the checkpoint in. This should be deleted if the target is changed to a different database
+	 * @param batchSize Determines the number of documents to send in each request
+	 * @param idleDelayMillis The number of milliseconds to wait before checking for new documents once every document has been replicated
+	 * @param name The name of the thread
+	 * @throws IOException If the checkpoint could not be read
+	 */
+	public CouchDbReplicator(LocalMillisDatabase source, CouchDbDatabase target, Path checkpointPath, AdaptiveBatchSize batchSize, long idleDelayMillis, String name) throws IOException {
+		requireNonNull(this.source = source);
+		requireNonNull(this.target = target);
+		requireNonNull(this.checkpointPath = checkpointPath);
+		requireNonNull(this.batchSize = batchSize);
+		this.idleDelayMillis = idleDelayMillis;
+		checkpoint = readCheckpoint();
+		long updateSequence = source.getUpdateSequence();
+		if (checkpoint > updateSequence) {
+			LOGGER.warn("The checkpoint at " + checkpointPath + " is " + checkpoint + ", but the local database's update sequence is only " + updateSequence + ". Was the local database replaced? Replicating every document.");
+			checkpoint = 0;
+		}
+		source.addRetentionHold(() -> checkpoint);
+		nextBatchSize = batchSize.getSize();
+		thread = new Thread(this::run, name);
+		thread.setDaemon(true);
+	}
+
+	private long readCheckpoint() throws IOException {
+		if (!Files.exists(checkpointPath)) {
+			return 0;
+		}
+		byte[] data = Files.readAllBytes(checkpointPath);
+		if (data.length != Long.BYTES) {
+			LOGGER.warn("Checkpoint file at " + checkpointPath + " is corrupt. Replicating every document.");
+			return 0;
+		}
+		return ByteBuffer.wrap(data).getLong();
+	}
+	private void writeCheckpoint(long checkpoint) throws IOException {
+		Path parent = checkpointPath.toAbsolutePath().getParent();
+		if (parent != null) {
+			Files.createDirectories(parent);
+		}
+		Path temp = checkpointPath.resolveSibling(checkpointPath.getFileName() + ".tmp");
+		ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+		buffer.putLong(checkpoint);
+		buffer.flip();
+		// This is not synced. If an older checkpoint is read after power is lost, documents are sent again and are skipped because they are identical
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+		try {
+			Files.move(temp, checkpointPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp, checkpointPath, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	public void start() {
+		thread.start();
+	}
+
+	private void run() {
+		long retryDelayMillis = MIN_RETRY_DELAY_MILLIS;
+		while (!Thread.currentThread().isInterrupted()) {
+			final long delayMillis;
+			try {
+				delayMillis = replicateBatch() == 0 ? idleDelayMillis : 0;
+				retryDelayMillis = MIN_RETRY_DELAY_MILLIS;
+			} catch (SolarThingDatabaseException e) {
+				LOGGER.error("Could not replicate documents. Will try again in " + retryDelayMillis + "ms", e);
+				try {
+					Thread.sleep(retryDelayMillis);
+				} catch (InterruptedException ex) {
+					break;
+				}
+				retryDelayMillis = Math.min(retryDelayMillis * 2, MAX_RETRY_DELAY_MILLIS);
+				continue;
+			}
+			if (delayMillis > 0) {
+				try {
+					Thread.sleep(delayMillis);
+				} catch (InterruptedException ex) {
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Replicates the next batch of documents and updates the checkpoint.
+	 * @return The number of documents whose replication is complete. If this is 0, every document has been replicated or the next document could not be replicated
+	 * @throws SolarThingDatabaseException If the local database could not be read, if CouchDB could not be reached, or if the checkpoint could not be saved
+	 */
+	public synchronized int replicateBatch() throws SolarThingDatabaseException {
+		List<LocalDocument> documents = source.readChanges(checkpoint, batchSize.getSize());
+		if (documents.isEmpty()) {
+			return 0;
+		}
+		// Each document ID is only returned once, since only the current version of each document is returned
+		Map<String, ObjectNode> documentIdNodeMap = new LinkedHashMap<>();
+		for (LocalDocument document : documents) {
+			final JsonNode jsonNode;
+			try {
+				jsonNode = MAPPER.readTree(document.getJson());
+			} catch (IOException e) {
+				throw new SolarThingDatabaseException("Could not parse local document: " + document.getDocumentId(), e);
+			}
+			if (!jsonNode.isObject()) {
+				throw new SolarThingDatabaseException("Local document: " + document.getDocumentId() + " is not an object!");
+			}
+			ObjectNode objectNode = (ObjectNode) jsonNode;
+			objectNode.put("_id", document.getDocumentId());
+			documentIdNodeMap.put(document.getDocumentId(), objectNode);
+		}
+		long startNanos = System.nanoTime();
+		final Map<String, String> documentIdErrorMap;
+		try {
+			documentIdErrorMap = postDocuments(documentIdNodeMap.values());
+			resolveConflicts(documentIdNodeMap, documentIdErrorMap);
+		} catch (CouchDbException e) {
+			batchSize.onFailure();
+			nextBatchSize = batchSize.getSize();
+			throw new SolarThingDatabaseException("Could not replicate " + documents.size() + " documents", e);
+		}
+		batchSize.onSuccess(documents.size(), (System.nanoTime() - startNanos) / 1_000_000);
+		nextBatchSize = batchSize.getSize();
+
+		long newCheckpoint = checkpoint;
+		int count = 0;
+		for (LocalDocument document : documents) {
+			String error = documentIdErrorMap.get(document.getDocumentId());
+			if (CONFLICT_ERROR.equals(error)) {
+				// The document was changed in CouchDB while we were resolving conflicts. We'll try again starting at this document next time
+				LOGGER.info("Could not resolve conflict for id: " + document.getDocumentId() + ". Will try again.");
+				break;
+			}
+			if (error != null) {
+				// Errors such as forbidden may be fixed by changing CouchDB's configuration, so we never skip a document.
+				//   The documents after this one were saved, so they will be skipped because they are identical when we try again
+				LOGGER.warn("Could not replicate document with id: " + document.getDocumentId() + " because of error: " + error + ". Will try again.");
+				break;
+			}
+			newCheckpoint = document.getSequence();
+			count++;
+		}
+		if (newCheckpoint != checkpoint) {
+			try {
+				writeCheckpoint(newCheckpoint);
+			} catch (IOException e) {
+				throw new SolarThingDatabaseException("Could not save checkpoint to " + checkpointPath, e);
+			}
+			checkpoint = newCheckpoint;
+			replicatedCount += count;
+		}
+		LOGGER.debug("Replicated " + count + " documents. Checkpoint: " + checkpoint + " next batch size: " + nextBatchSize);
+		return count;
+	}
+
+	/**
+	 * @return A map of the ID of each document that could not be saved to its error
+	 */
+	private Map<String, String> postDocuments(Collection<ObjectNode> nodes) throws CouchDbException {
+		List<JsonData> jsonDataList = new ArrayList<>(nodes.size());
+		for (ObjectNode node : nodes) {
+			try {
+				jsonDataList.add(new StringJsonData(MAPPER.writeValueAsString(node)));
+			} catch (JsonProcessingException e) {
+				throw new RuntimeException("Should be able to serialize!", e);
+			}
+		}
+		Map<String, String> r = new HashMap<>();
+		for (BulkDocumentResponse response : target.postDocumentsBulk(new BulkPostRequest(jsonDataList))) {
+			if (!response.isOk()) {
+				r.put(response.getId(), response.getError());
+				if (!CONFLICT_ERROR.equals(response.getError())) {
+					LOGGER.warn("Error: " + response.getError() + " reason: " + response.getReason() + " on id: " + response.getId());
+				}
+			}
+		}
+		return r;
+	}
+
+	/**
+	 * Sends every conflicting document again with the current revision of the document in CouchDB. {@code documentIdErrorMap} is updated with the result.
+	 */
+	private void resolveConflicts(Map<String, ObjectNode> documentIdNodeMap, Map<String, String> documentIdErrorMap) throws CouchDbException {
+		List<String> conflictDocumentIds = new ArrayList<>();
+		for (Map.Entry<String, String> entry : documentIdErrorMap.entrySet()) {
+			if (CONFLICT_ERROR.equals(entry.getValue())) {
+				conflictDocumentIds.add(entry.getKey());
+			}
+		}
+		if (conflictDocumentIds.isEmpty()) {
+			return;
+		}
+		List<ObjectNode> retryNodes = new ArrayList<>();
+		for (BulkGetResponse.Result result : target.getDocumentsBulk(BulkGetRequest.from(conflictDocumentIds)).getResults()) {
+			String documentId = result.getDocumentId();
+			ObjectNode node = documentIdNodeMap.get(documentId);
+			if (node == null || result.isError()) {
+				// If the document doesn't exist anymore, we'll try again next time
+				continue;
+			}
+			if (result.hasConflicts()) {
+				LOGGER.warn("Document with id: " + documentId + " has conflicts in CouchDB. It will not be replicated until the conflicts are resolved in CouchDB.");
+				documentIdErrorMap.put(documentId, "has_conflicts");
+				continue;
+			}
+			final JsonNode existingNode;
+			try {
+				existingNode = CouchDbJacksonUtil.getNodeFrom(result.getJsonDataAssertNotConflicted());
+			} catch (JsonProcessingException e) {
+				LOGGER.warn("Could not parse document with id: " + documentId + " from CouchDB. It will be replaced.", e);
+				continue;
+			}
+			JsonNode revisionNode = existingNode.get("_rev");
+			if (revisionNode == null || !revisionNode.isTextual()) {
+				continue;
+			}
+			ObjectNode existingCopy = ((ObjectNode) existingNode).deepCopy();
+			existingCopy.remove("_rev");
+			if (existingCopy.equals(node)) {
+				// This document was replicated before the checkpoint was saved, or it was uploaded by something else
+				documentIdErrorMap.remove(documentId);
+				continue;
+			}
+			node.put("_rev", revisionNode.asText());
+			retryNodes.add(node);
+		}
+		if (retryNodes.isEmpty()) {
+			return;
+		}
+		for (ObjectNode node : retryNodes) {
+			documentIdErrorMap.remove(node.get("_id").asText());
+		}
+		documentIdErrorMap.putAll(postDocuments(retryNodes));
+	}
+
+	/**
+	 * @return The update sequence of the last document that was replicated
+	 */
+	public long getCheckpoint() {
+		return checkpoint;
+	}
+
+	/**
+	 * @return The number of documents that have been replicated since this was created
+	 */
+	public long getReplicatedCount() {
+		return replicatedCount;
+	}
+
+	/**
+	 * @return The number of documents that will be sent in the next request
+	 */
+	public int getBatchSize() {
+		return nextBatchSize;
+	}
+
+	@Override
+	public void close() {
+		thread.interrupt();
+	}
+}
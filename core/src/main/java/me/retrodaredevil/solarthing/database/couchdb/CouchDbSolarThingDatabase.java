@@ -2,79 +2,89 @@ package me.retrodaredevil.solarthing.database.couchdb;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import me.retrodaredevil.couchdb.CouchDbUtil;
+import me.retrodaredevil.couchdb.CouchProperties;
 import me.retrodaredevil.couchdbjava.CouchDbDatabase;
 import me.retrodaredevil.couchdbjava.CouchDbInstance;
 import me.retrodaredevil.couchdbjava.exception.CouchDbException;
+import me.retrodaredevil.couchdbjava.exception.CouchDbNotFoundException;
 import me.retrodaredevil.couchdbjava.exception.CouchDbNotModifiedException;
 import me.retrodaredevil.couchdbjava.json.JsonData;
 import me.retrodaredevil.couchdbjava.json.jackson.CouchDbJacksonUtil;
 import me.retrodaredevil.couchdbjava.response.DocumentData;
+import me.retrodaredevil.okhttp3.OkHttpProperties;
 import me.retrodaredevil.solarthing.SolarThingConstants;
 import me.retrodaredevil.solarthing.annotations.Nullable;
 import me.retrodaredevil.solarthing.closed.authorization.AuthorizationPacket;
-import me.retrodaredevil.solarthing.commands.packets.status.CommandStatusPacket;
+import me.retrodaredevil.solarthing.database.ChangesFeed;
+import me.retrodaredevil.solarthing.database.InstrumentedMillisDatabase;
 import me.retrodaredevil.solarthing.database.MillisDatabase;
 import me.retrodaredevil.solarthing.database.SolarThingDatabase;
 import me.retrodaredevil.solarthing.database.UpdateToken;
 import me.retrodaredevil.solarthing.database.VersionedPacket;
+import me.retrodaredevil.solarthing.database.exception.NotFoundSolarThingDatabaseException;
 import me.retrodaredevil.solarthing.database.exception.SolarThingDatabaseException;
-import me.retrodaredevil.solarthing.meta.DeviceInfoPacket;
 import me.retrodaredevil.solarthing.meta.RootMetaPacket;
-import me.retrodaredevil.solarthing.meta.TargetMetaPacket;
-import me.retrodaredevil.solarthing.misc.common.meta.DataMetaPacket;
-import me.retrodaredevil.solarthing.misc.device.DevicePacket;
-import me.retrodaredevil.solarthing.misc.error.ErrorPacket;
-import me.retrodaredevil.solarthing.misc.weather.WeatherPacket;
+import me.retrodaredevil.solarthing.metrics.MetricsRegistry;
+import me.retrodaredevil.solarthing.packets.collection.parsing.PacketMapperUtil;
 import me.retrodaredevil.solarthing.packets.collection.parsing.PacketParsingErrorHandler;
-import me.retrodaredevil.solarthing.packets.instance.InstancePacket;
-import me.retrodaredevil.solarthing.packets.security.SecurityPacket;
-import me.retrodaredevil.solarthing.solar.SolarStatusPacket;
-import me.retrodaredevil.solarthing.solar.event.SolarEventPacket;
-import me.retrodaredevil.solarthing.solar.extra.SolarExtraPacket;
-import me.retrodaredevil.solarthing.solar.outback.command.packets.MateCommandFeedbackPacket;
-import me.retrodaredevil.solarthing.solar.outback.fx.meta.FXChargingSettingsPacket;
-import me.retrodaredevil.solarthing.solar.outback.fx.meta.FXChargingTemperatureAdjustPacket;
 import me.retrodaredevil.solarthing.util.JacksonUtil;
 import org.jetbrains.annotations.NotNull;
 
+import static java.util.Objects.requireNonNull;
+
 public class CouchDbSolarThingDatabase implements SolarThingDatabase {
 
 	private final CouchDbDatabase closedDatabase;
 	private final ObjectMapper metaObjectMapper;
 	private final ObjectMapper simpleObjectMapper;
 
-	private final CouchDbMillisDatabase statusDatabase;
-	private final CouchDbMillisDatabase eventDatabase;
-	private final CouchDbMillisDatabase openDatabase;
+	private final MillisDatabase statusDatabase;
+	private final MillisDatabase eventDatabase;
+	private final MillisDatabase openDatabase;
 
 	/**
-	 *
+	 * Creates a database whose {@link MillisDatabase}s do not have a {@link MillisDatabase#getChangesFeed() changes feed}
 	 * @param instance
 	 * @param errorHandler
 	 * @param mapper The object mapper. "Lenient" settings should have already been applied to this
 	 */
 	public CouchDbSolarThingDatabase(CouchDbInstance instance, PacketParsingErrorHandler errorHandler, ObjectMapper mapper) {
+		this(instance, null, null, errorHandler, mapper);
+	}
+
+	/**
+	 * @param instance
+	 * @param couchProperties The properties of {@code instance}, or null if the {@link MillisDatabase}s should not have a {@link MillisDatabase#getChangesFeed() changes feed}
+	 * @param okHttpProperties The properties used to create {@code instance}. Must be non-null if {@code couchProperties} is non-null
+	 * @param errorHandler
+	 * @param mapper The object mapper. "Lenient" settings should have already been applied to this
+	 */
+	public CouchDbSolarThingDatabase(CouchDbInstance instance, @Nullable CouchProperties couchProperties, @Nullable OkHttpProperties okHttpProperties, PacketParsingErrorHandler errorHandler, ObjectMapper mapper) {
 		closedDatabase = instance.getDatabase(SolarThingConstants.CLOSED_DATABASE);
-		metaObjectMapper = JacksonUtil.lenientSubTypeMapper(mapper.copy());
-		metaObjectMapper.getSubtypeResolver().registerSubtypes(TargetMetaPacket.class, DeviceInfoPacket.class, DataMetaPacket.class, FXChargingSettingsPacket.class, FXChargingTemperatureAdjustPacket.class);
+		metaObjectMapper = PacketMapperUtil.createMetaMapper(mapper);
 		simpleObjectMapper = mapper.copy();
 
-		ObjectMapper statusMapper = mapper.copy();
-		statusMapper.getSubtypeResolver().registerSubtypes(SolarStatusPacket.class, SolarExtraPacket.class, DevicePacket.class, ErrorPacket.class, WeatherPacket.class, InstancePacket.class, CommandStatusPacket.class);
-		statusDatabase = new CouchDbMillisDatabase(instance.getDatabase(SolarThingConstants.STATUS_DATABASE), statusMapper, errorHandler);
-
-		ObjectMapper eventMapper = mapper.copy();
-		eventMapper.getSubtypeResolver().registerSubtypes(SolarEventPacket.class, MateCommandFeedbackPacket.class, InstancePacket.class, InstancePacket.class);
-		eventDatabase = new CouchDbMillisDatabase(instance.getDatabase(SolarThingConstants.EVENT_DATABASE), eventMapper, errorHandler);
-
-		ObjectMapper openMapper = mapper.copy();
-		openMapper.getSubtypeResolver().registerSubtypes(SecurityPacket.class, InstancePacket.class);
-		openDatabase = new CouchDbMillisDatabase(instance.getDatabase(SolarThingConstants.OPEN_DATABASE), openMapper, errorHandler);
+		statusDatabase = createMillisDatabase(instance, couchProperties, okHttpProperties, SolarThingConstants.STATUS_DATABASE, PacketMapperUtil.createStatusMapper(mapper), errorHandler);
+		eventDatabase = createMillisDatabase(instance, couchProperties, okHttpProperties, SolarThingConstants.EVENT_DATABASE, PacketMapperUtil.createEventMapper(mapper), errorHandler);
+		openDatabase = createMillisDatabase(instance, couchProperties, okHttpProperties, SolarThingConstants.OPEN_DATABASE, PacketMapperUtil.createOpenMapper(mapper), errorHandler);
+	}
+	private static MillisDatabase createMillisDatabase(CouchDbInstance instance, @Nullable CouchProperties couchProperties, @Nullable OkHttpProperties okHttpProperties, String databaseName, ObjectMapper mapper, PacketParsingErrorHandler errorHandler) {
+		ChangesFeed changesFeed = couchProperties == null ? null : CouchDbChangesFeed.create(couchProperties, requireNonNull(okHttpProperties), databaseName, mapper, errorHandler);
+		return new InstrumentedMillisDatabase(new CouchDbMillisDatabase(instance.getDatabase(databaseName), mapper, errorHandler, changesFeed), MetricsRegistry.GLOBAL, "couchdb." + databaseName);
 	}
 	public static CouchDbSolarThingDatabase create(CouchDbInstance instance) {
 		return new CouchDbSolarThingDatabase(instance, PacketParsingErrorHandler.DO_NOTHING, JacksonUtil.lenientMapper(JacksonUtil.defaultMapper()));
 	}
 
+	/**
+	 * Creates a database whose {@link MillisDatabase}s have a {@link MillisDatabase#getChangesFeed() changes feed}
+	 */
+	public static CouchDbSolarThingDatabase create(CouchProperties couchProperties, OkHttpProperties okHttpProperties) {
+		CouchDbInstance instance = CouchDbUtil.createInstance(couchProperties, okHttpProperties);
+		return new CouchDbSolarThingDatabase(instance, couchProperties, okHttpProperties, PacketParsingErrorHandler.DO_NOTHING, JacksonUtil.lenientMapper(JacksonUtil.defaultMapper()));
+	}
+
 
 	@Override
 	public @NotNull MillisDatabase getStatusDatabase() { return statusDatabase; }
@@ -124,6 +134,8 @@ public class CouchDbSolarThingDatabase implements SolarThingDatabase {
 			return database.getDocumentIfUpdated(name, revision);
 		} catch (CouchDbNotModifiedException e) {
 			return null;
+		} catch (CouchDbNotFoundException e) {
+			throw new NotFoundSolarThingDatabaseException("No document with id: " + name, e);
 		} catch (CouchDbException e) {
 			throw new SolarThingDatabaseException(e);
 		}
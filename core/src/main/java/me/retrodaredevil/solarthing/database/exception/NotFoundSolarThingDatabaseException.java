@@ -0,0 +1,21 @@
+package me.retrodaredevil.solarthing.database.exception;
+
+/**
+ * Thrown when a document does not exist, including when it has been deleted.
+ */
+public class NotFoundSolarThingDatabaseException extends SolarThingDatabaseException {
+	public NotFoundSolarThingDatabaseException() {
+	}
+
+	public NotFoundSolarThingDatabaseException(String message) {
+		super(message);
+	}
+
+	public NotFoundSolarThingDatabaseException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+	public NotFoundSolarThingDatabaseException(Throwable cause) {
+		super(cause);
+	}
+}
@@ -0,0 +1,42 @@
+package me.retrodaredevil.solarthing.database.local;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A version of a document read from a {@link LocalMillisDatabase}
+ */
+public final class LocalDocument {
+	private final String documentId;
+	private final long sequence;
+	private final long dateMillis;
+	private final byte[] json;
+
+	public LocalDocument(String documentId, long sequence, long dateMillis, byte[] json) {
+		requireNonNull(this.documentId = documentId);
+		this.sequence = sequence;
+		this.dateMillis = dateMillis;
+		requireNonNull(this.json = json);
+	}
+
+	public String getDocumentId() {
+		return documentId;
+	}
+
+	/**
+	 * @return The update sequence of this version of the document
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	public long getDateMillis() {
+		return dateMillis;
+	}
+
+	/**
+	 * @return The JSON of the packet collection encoded as UTF-8. This does not contain the document's ID. This should not be modified.
+	 */
+	public byte[] getJson() {
+		return json;
+	}
+}
@@ -0,0 +1,845 @@
+package me.retrodaredevil.solarthing.database.local;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import me.retrodaredevil.solarthing.annotations.Nullable;
+import me.retrodaredevil.solarthing.database.ChangesFeed;
+import me.retrodaredevil.solarthing.database.ChangesResult;
+import me.retrodaredevil.solarthing.database.MillisDatabase;
+import me.retrodaredevil.solarthing.database.MillisQuery;
+import me.retrodaredevil.solarthing.database.UpdateToken;
+import me.retrodaredevil.solarthing.database.exception.SolarThingDatabaseException;
+import me.retrodaredevil.solarthing.packets.collection.PacketCollection;
+import me.retrodaredevil.solarthing.packets.collection.PacketGroup;
+import me.retrodaredevil.solarthing.packets.collection.parsing.PacketParseException;
+import me.retrodaredevil.solarthing.packets.collection.parsing.PacketParsingErrorHandler;
+import me.retrodaredevil.solarthing.packets.collection.parsing.SimplePacketGroupParser;
+import me.retrodaredevil.solarthing.util.queue.FsyncPolicy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongSupplier;
+import java.util.zip.CRC32;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A {@link MillisDatabase} that is stored in a directory of append only segment files.
+ * <p>
+ * Each upload appends a record containing the document's update sequence, its date millis, its ID and its JSON. Records are never changed after they are written,
+ * so the storage device only sees sequential writes, which is best for SD cards. An index of each document's date and position is kept in memory
+ * and is rebuilt when the database is opened, so a range query only reads the records in that range.
+ * <p>
+ * Each record is stored as its length, the CRC32 of its data, then its data. When the database is opened, a partially written record at the end
+ * of a segment is truncated. A corrupt record in the middle of a segment is skipped and the next valid record is found, so a single bad record never causes
+ * the records after it to be lost.
+ * <p>
+ * Once the newest segment reaches its maximum size, a new segment is started. When a document is updated, the new version is appended and the old version
+ * is no longer used. Older segments that are mostly old versions are compacted by writing the current versions to a new file that replaces it.
+ * If a retention is set, segments whose documents are all older than the retention are deleted, which keeps the size of the files and of the index bounded.
+ * Segments are not deleted while they contain documents that a retention hold needs, such as documents that have not been replicated yet. See {@link #addRetentionHold(LongSupplier)}.
+ * <p>
+ * Like CouchDB, updating a document that already exists requires the {@link UpdateToken} of its current version.
+ * Also like CouchDB, each version of a document is given an update sequence, which is greater than the update sequence of every version
+ * written before it. This allows changes to be read in the order they were written by {@link #readChanges(long, int)}, or waited for using this as a {@link ChangesFeed}.
+ * <p>
+ * This class is thread safe. Queries do not wait for records to be read by other queries.
+ */
+public class LocalMillisDatabase implements MillisDatabase, ChangesFeed, Closeable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(LocalMillisDatabase.class);
+	public static final long DEFAULT_MAX_SEGMENT_BYTES = 16 * 1024 * 1024;
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".dat";
+	private static final String COMPACT_SUFFIX = ".compact";
+	private static final String CORRUPT_SUFFIX = ".corrupt";
+	private static final int HEADER_BYTES = 8;
+	/** The number of bytes in a record's data before its ID*/
+	private static final int PREFIX_BYTES = Long.BYTES + Long.BYTES + Short.BYTES;
+	/** A record longer than this is assumed to be corrupt*/
+	private static final int MAX_RECORD_BYTES = 64 * 1024 * 1024;
+	/** The number of bytes read at a time while looking for the next valid record after a corrupt record*/
+	private static final int SCAN_CHUNK_BYTES = 64 * 1024;
+	/** The maximum number of documents returned by {@link #waitForChanges(String, long)}*/
+	private static final int CHANGES_LIMIT = 1000;
+	private static final Comparator<Entry> DATE_COMPARATOR = Comparator.<Entry>comparingLong(entry -> entry.dateMillis).thenComparingLong(entry -> entry.sequence);
+
+	private final Path directory;
+	private final ObjectMapper mapper;
+	private final PacketParsingErrorHandler errorHandler;
+	private final SimplePacketGroupParser parser;
+	private final FsyncPolicy fsyncPolicy;
+	private final long maxSegmentBytes;
+	private final @Nullable Duration retention;
+	private final LongSupplier clock;
+
+	/**
+	 * Queries hold the read lock while they read records. Deleting or compacting a segment requires the write lock.
+	 * If this lock is needed, it must be acquired before the lock on this.
+	 */
+	private final ReadWriteLock segmentLock = new ReentrantReadWriteLock();
+	/** Guarded by this. A map of each segment's index to the segment*/
+	private final NavigableMap<Long, Segment> segmentMap = new TreeMap<>();
+	/** Guarded by this. The segment that records are appended to. This is always the last segment*/
+	private Segment writeSegment;
+	/** Guarded by this. A map of each document ID to its current version*/
+	private final Map<String, Entry> documentMap = new HashMap<>();
+	/** Guarded by this. The current version of every document ordered by date*/
+	private final NavigableSet<Entry> dateIndex = new TreeSet<>(DATE_COMPARATOR);
+	/** Guarded by this. A map of each update sequence to the current version of a document*/
+	private final NavigableMap<Long, Entry> sequenceIndex = new TreeMap<>();
+	/** Guarded by this. The update sequence of the most recently written version of any document*/
+	private long updateSequence = 0;
+	/** Guarded by this. Each supplies the greatest update sequence that may be deleted*/
+	private final List<LongSupplier> retentionHolds = new ArrayList<>();
+	/** Guarded by this*/
+	private boolean closed = false;
+
+	/**
+	 * Opens or creates a database stored in {@code directory} that uses {@link #DEFAULT_MAX_SEGMENT_BYTES} and keeps documents forever.
+	 * @see #LocalMillisDatabase(Path, ObjectMapper, PacketParsingErrorHandler, FsyncPolicy, long, Duration, LongSupplier)
+	 */
+	public LocalMillisDatabase(Path directory, ObjectMapper mapper, PacketParsingErrorHandler errorHandler, FsyncPolicy fsyncPolicy) throws IOException {
+		this(directory, mapper, errorHandler, fsyncPolicy, DEFAULT_MAX_SEGMENT_BYTES, null, System::currentTimeMillis);
+	}
+
+	/**
+	 * Opens or creates a database stored in {@code directory}.
+	 * @param directory The directory to store the segments of the database in
+	 * @param mapper The mapper to serialize and deserialize packets. This should be able to deserialize {@link me.retrodaredevil.solarthing.packets.DocumentedPacket}s
+	 * @param errorHandler Handles packets that cannot be deserialized
+	 * @param fsyncPolicy Determines how often data is synced to the storage device
+	 * @param maxSegmentBytes Once the newest segment is at least this large, a new segment is started
+	 * @param retention Segments whose documents are all older than this are deleted, or null to keep documents forever.
+	 *                  Expired segments are not deleted until {@link #maintain()} is called or a new segment is started, so retention holds can be added first.
+	 * @param clock Supplies the current time in milliseconds. Used to determine which documents are older than {@code retention}
+	 * @throws IOException If the directory could not be created or if existing data could not be read
+	 */
+	public LocalMillisDatabase(Path directory, ObjectMapper mapper, PacketParsingErrorHandler errorHandler, FsyncPolicy fsyncPolicy, long maxSegmentBytes, @Nullable Duration retention, LongSupplier clock) throws IOException {
+		requireNonNull(this.directory = directory);
+		requireNonNull(this.mapper = mapper);
+		requireNonNull(this.errorHandler = errorHandler);
+		parser = new SimplePacketGroupParser(mapper, errorHandler);
+		requireNonNull(this.fsyncPolicy = fsyncPolicy);
+		if (maxSegmentBytes <= 0) {
+			throw new IllegalArgumentException("maxSegmentBytes must be positive! maxSegmentBytes=" + maxSegmentBytes);
+		}
+		this.maxSegmentBytes = maxSegmentBytes;
+		if (retention != null && (retention.isZero() || retention.isNegative())) {
+			throw new IllegalArgumentException("retention must be positive! retention=" + retention);
+		}
+		this.retention = retention;
+		requireNonNull(this.clock = clock);
+		Files.createDirectories(directory);
+		synchronized (this) {
+			open();
+			compactSegments();
+		}
+	}
+
+	/** Must be called while holding the lock on this*/
+	private void open() throws IOException {
+		List<Long> indices = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+			for (Path file : stream) {
+				String name = file.getFileName().toString();
+				if (name.endsWith(COMPACT_SUFFIX)) {
+					Files.delete(file); // compaction did not finish, so the original segment is still there
+				} else if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+					try {
+						indices.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+					} catch (NumberFormatException e) {
+						LOGGER.warn("Ignoring file: " + file + " in local database directory");
+					}
+				}
+			}
+		}
+		indices.sort(null);
+		if (indices.isEmpty()) {
+			indices.add(1L);
+		}
+		for (long index : indices) {
+			Segment segment = new Segment(index, getSegmentPath(index), FileChannel.open(getSegmentPath(index), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE));
+			segmentMap.put(index, segment);
+			scan(segment);
+		}
+		writeSegment = segmentMap.lastEntry().getValue();
+		writeSegment.channel.position(writeSegment.size);
+	}
+
+	private Path getSegmentPath(long index) {
+		return directory.resolve(String.format("%s%019d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+	}
+
+	/**
+	 * Indexes every record in {@code segment}. Corrupt records are skipped and a partially written record at the end is truncated.
+	 * Must be called while holding the lock on this
+	 */
+	private void scan(Segment segment) throws IOException {
+		FileChannel channel = segment.channel;
+		long fileSize = channel.size();
+		long position = 0;
+		while (position < fileSize) {
+			byte[] data = readRecord(channel, position, fileSize);
+			Entry entry = data == null ? null : createEntry(segment, data, position);
+			if (entry != null) {
+				index(entry);
+				position += HEADER_BYTES + data.length;
+				continue;
+			}
+			long next = findNextRecord(segment, position + 1, fileSize);
+			if (next >= 0) {
+				LOGGER.error("Skipping " + (next - position) + " corrupt bytes at position " + position + " in " + segment.path + ". Only the records in those bytes are lost.");
+				segment.unusedBytes += next - position;
+				position = next;
+				continue;
+			}
+			if (!isTornRecord(channel, position, fileSize)) {
+				// The bytes are in the file, but they are not valid. Keep a copy in case someone wants to recover them
+				Path corruptPath = segment.path.resolveSibling(segment.path.getFileName() + "." + position + CORRUPT_SUFFIX);
+				try (FileChannel output = FileChannel.open(corruptPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+					channel.transferTo(position, fileSize - position, output);
+				}
+				LOGGER.error("Moved " + (fileSize - position) + " corrupt bytes from the end of " + segment.path + " to " + corruptPath);
+			} else {
+				LOGGER.warn("Truncating " + (fileSize - position) + " bytes from the end of " + segment.path + " because they were not completely written.");
+			}
+			channel.truncate(position);
+			channel.force(false);
+			break;
+		}
+		segment.size = position;
+	}
+
+	/**
+	 * @return true if the record at {@code position} is incomplete because its header or data extends past the end of the file
+	 */
+	private static boolean isTornRecord(FileChannel channel, long position, long fileSize) throws IOException {
+		if (position + HEADER_BYTES > fileSize) {
+			return true;
+		}
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		readFully(channel, header, position);
+		int length = header.getInt(0);
+		return length >= 0 && position + HEADER_BYTES + length > fileSize;
+	}
+
+	/**
+	 * @return The position of the next valid record at or after {@code start}, or -1 if there are no valid records after it
+	 */
+	private long findNextRecord(Segment segment, long start, long fileSize) throws IOException {
+		ByteBuffer chunk = ByteBuffer.allocate(SCAN_CHUNK_BYTES);
+		long chunkStart = start;
+		while (chunkStart + HEADER_BYTES <= fileSize) {
+			chunk.clear();
+			chunk.limit((int) Math.min(SCAN_CHUNK_BYTES, fileSize - chunkStart));
+			readFully(segment.channel, chunk, chunkStart);
+			int chunkLength = chunk.limit();
+			for (int offset = 0; offset + HEADER_BYTES <= chunkLength; offset++) {
+				int length = chunk.getInt(offset);
+				long candidate = chunkStart + offset;
+				// most positions can be ruled out by their length, so we only read the data of plausible records
+				if (length < PREFIX_BYTES || length > MAX_RECORD_BYTES || candidate + HEADER_BYTES + length > fileSize) {
+					continue;
+				}
+				byte[] data = readRecord(segment.channel, candidate, fileSize);
+				if (data != null && createEntry(segment, data, candidate) != null) {
+					return candidate;
+				}
+			}
+			chunkStart += chunkLength - HEADER_BYTES + 1;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return The entry for the record, or null if the record is not valid
+	 */
+	private @Nullable Entry createEntry(Segment segment, byte[] data, long position) {
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+		if (buffer.remaining() < PREFIX_BYTES) {
+			return null;
+		}
+		long sequence = buffer.getLong();
+		long dateMillis = buffer.getLong();
+		int idLength = buffer.getShort() & 0xFFFF;
+		if (sequence <= 0 || buffer.remaining() < idLength) {
+			return null;
+		}
+		String documentId = new String(data, buffer.position(), idLength, StandardCharsets.UTF_8);
+		int jsonOffset = buffer.position() + idLength;
+		return new Entry(documentId, sequence, dateMillis, segment, position, data.length, jsonOffset);
+	}
+
+	/** Must be called while holding the lock on this*/
+	private void index(Entry entry) {
+		Entry previous = documentMap.get(entry.documentId);
+		if (previous != null && previous.sequence > entry.sequence) {
+			// A newer version was written to an older segment. This can happen after a corrupt segment is skipped
+			entry.segment.unusedBytes += HEADER_BYTES + entry.dataLength;
+		} else {
+			if (previous != null) {
+				removeFromIndex(previous);
+				previous.segment.unusedBytes += HEADER_BYTES + previous.dataLength;
+			}
+			documentMap.put(entry.documentId, entry);
+			dateIndex.add(entry);
+			sequenceIndex.put(entry.sequence, entry);
+		}
+		entry.segment.maxDateMillis = Math.max(entry.segment.maxDateMillis, entry.dateMillis);
+		entry.segment.maxSequence = Math.max(entry.segment.maxSequence, entry.sequence);
+		updateSequence = Math.max(updateSequence, entry.sequence);
+	}
+	/** Must be called while holding the lock on this*/
+	private void removeFromIndex(Entry entry) {
+		documentMap.remove(entry.documentId);
+		dateIndex.remove(entry);
+		sequenceIndex.remove(entry.sequence);
+	}
+
+	/**
+	 * @return The data of the record at {@code position} or null if the record is incomplete or corrupt
+	 */
+	private static @Nullable byte[] readRecord(FileChannel channel, long position, long fileSize) throws IOException {
+		if (position + HEADER_BYTES > fileSize) {
+			return null;
+		}
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		readFully(channel, header, position);
+		int length = header.getInt(0);
+		int crc = header.getInt(4);
+		if (length < 0 || length > MAX_RECORD_BYTES || position + HEADER_BYTES + length > fileSize) {
+			return null;
+		}
+		ByteBuffer data = ByteBuffer.allocate(length);
+		readFully(channel, data, position + HEADER_BYTES);
+		CRC32 crc32 = new CRC32();
+		crc32.update(data.array(), 0, length);
+		if ((int) crc32.getValue() != crc) {
+			return null;
+		}
+		return data.array();
+	}
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		int start = buffer.position();
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position + buffer.position() - start);
+			if (read < 0) {
+				throw new IOException("Unexpected end of file");
+			}
+		}
+	}
+
+	/**
+	 * Adds a retention hold. A segment is never deleted because of the retention while it contains a document whose update sequence is greater than
+	 * the value {@code maxDeletableSequence} supplies. For instance, a replicator can supply its checkpoint so documents are not deleted before they are replicated.
+	 * <p>
+	 * {@code maxDeletableSequence} is called while holding the lock on this, so it should be fast and must not use this database.
+	 * @param maxDeletableSequence Supplies the greatest update sequence that may be deleted
+	 */
+	public synchronized void addRetentionHold(LongSupplier maxDeletableSequence) {
+		retentionHolds.add(requireNonNull(maxDeletableSequence));
+	}
+
+	/**
+	 * Deletes segments whose documents are all older than the retention and are not needed by a retention hold. The write segment is never deleted.
+	 * Must be called while holding the write lock of {@link #segmentLock} and the lock on this
+	 */
+	private void deleteExpiredSegments() throws IOException {
+		if (retention == null) {
+			return;
+		}
+		long cutoffMillis = clock.getAsLong() - retention.toMillis();
+		long maxDeletableSequence = Long.MAX_VALUE;
+		for (LongSupplier retentionHold : retentionHolds) {
+			maxDeletableSequence = Math.min(maxDeletableSequence, retentionHold.getAsLong());
+		}
+		List<Segment> expired = new ArrayList<>();
+		for (Segment segment : segmentMap.values()) {
+			if (segment != writeSegment && segment.maxDateMillis < cutoffMillis) {
+				if (segment.maxSequence > maxDeletableSequence) {
+					LOGGER.warn("Not deleting " + segment.path + " even though its documents are older than the retention of " + retention + " because it has documents that are still needed. (Have they been replicated?)");
+				} else {
+					expired.add(segment);
+				}
+			}
+		}
+		for (Segment segment : expired) {
+			LOGGER.info("Deleting " + segment.path + " because its documents are older than the retention of " + retention);
+			deleteSegment(segment);
+		}
+	}
+
+	/**
+	 * Compacts segments that are mostly old versions of documents. The write segment is never compacted.
+	 * Must be called while holding the write lock of {@link #segmentLock} (unless called from the constructor) and the lock on this
+	 */
+	private void compactSegments() throws IOException {
+		for (Segment segment : new ArrayList<>(segmentMap.values())) {
+			if (segment == writeSegment || segment.unusedBytes == 0) {
+				continue;
+			}
+			if (segment.unusedBytes >= segment.size) {
+				deleteSegment(segment); // nothing in this segment is used
+			} else if (segment.unusedBytes > segment.size / 2) {
+				compactSegment(segment);
+			}
+		}
+	}
+
+	private List<Entry> getEntries(Segment segment) {
+		List<Entry> entries = new ArrayList<>();
+		for (Entry entry : documentMap.values()) {
+			if (entry.segment == segment) {
+				entries.add(entry);
+			}
+		}
+		entries.sort(Comparator.comparingLong(entry -> entry.position)); // keep the same order so the file is read sequentially
+		return entries;
+	}
+
+	private void deleteSegment(Segment segment) throws IOException {
+		for (Entry entry : getEntries(segment)) {
+			removeFromIndex(entry);
+		}
+		segmentMap.remove(segment.index);
+		segment.channel.close();
+		Files.deleteIfExists(segment.path);
+	}
+
+	private void compactSegment(Segment segment) throws IOException {
+		LOGGER.info("Compacting " + segment.path + " which has " + segment.unusedBytes + " unused bytes out of " + segment.size + " bytes");
+		Path temporaryPath = segment.path.resolveSibling(segment.path.getFileName() + COMPACT_SUFFIX);
+		List<Entry> entries = getEntries(segment);
+		try (FileChannel output = FileChannel.open(temporaryPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			for (Entry entry : entries) {
+				ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + entry.dataLength);
+				readFully(segment.channel, buffer, entry.position);
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					output.write(buffer);
+				}
+			}
+			output.force(false);
+		}
+		segment.channel.close();
+		try {
+			Files.move(temporaryPath, segment.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temporaryPath, segment.path, StandardCopyOption.REPLACE_EXISTING);
+		}
+		Segment compacted = new Segment(segment.index, segment.path, FileChannel.open(segment.path, StandardOpenOption.READ, StandardOpenOption.WRITE));
+		segmentMap.put(compacted.index, compacted);
+		long position = 0;
+		for (Entry entry : entries) {
+			removeFromIndex(entry);
+			index(new Entry(entry.documentId, entry.sequence, entry.dateMillis, compacted, position, entry.dataLength, entry.jsonOffset));
+			position += HEADER_BYTES + entry.dataLength;
+		}
+		compacted.size = position;
+	}
+
+	@Override
+	public List<PacketGroup> query(MillisQuery query) throws SolarThingDatabaseException {
+		segmentLock.readLock().lock();
+		try {
+			List<Entry> entries = new ArrayList<>();
+			synchronized (this) {
+				if (closed) {
+					throw new SolarThingDatabaseException("This database has been closed!");
+				}
+				NavigableSet<Entry> range = dateIndex;
+				Long startKey = query.getStartKey();
+				Long endKey = query.getEndKey();
+				if (startKey != null) {
+					range = range.tailSet(Entry.createKey(startKey, Long.MIN_VALUE), true);
+				}
+				if (endKey != null) {
+					range = range.headSet(Entry.createKey(endKey, query.isInclusiveEnd() ? Long.MAX_VALUE : Long.MIN_VALUE), query.isInclusiveEnd());
+				}
+				if (query.isDescending()) {
+					range = range.descendingSet();
+				}
+				Integer limit = query.getLimit();
+				for (Entry entry : range) {
+					if (limit != null && entries.size() >= limit) {
+						break;
+					}
+					entries.add(entry);
+				}
+			}
+			// Records are never changed once they are written and segments are not removed while we hold the read lock, so we can read them without holding the lock on this
+			List<PacketGroup> r = new ArrayList<>(entries.size());
+			for (Entry entry : entries) {
+				byte[] data = readData(entry);
+				try (JsonParser jsonParser = mapper.getFactory().createParser(data, entry.jsonOffset, entry.dataLength - entry.jsonOffset)) {
+					r.add(parser.parse(jsonParser));
+				} catch (IOException e) {
+					throw new SolarThingDatabaseException("We couldn't parse some of the data into JSON. This should never happen", e);
+				} catch (PacketParseException e) {
+					throw new SolarThingDatabaseException("The document " + entry.documentId + " is not a valid packet group", e);
+				}
+			}
+			return r;
+		} finally {
+			segmentLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Reads the current version of each document that was written after {@code sinceSequence}. Documents are returned in the order they were written.
+	 * @param sinceSequence Only documents with an update sequence greater than this are returned. 0 returns every document
+	 * @param limit The maximum number of documents to return
+	 * @return The changed documents, ordered by their update sequence. This is empty if there are no changes
+	 * @throws SolarThingDatabaseException If the database is closed or if a document could not be read
+	 */
+	public List<LocalDocument> readChanges(long sinceSequence, int limit) throws SolarThingDatabaseException {
+		segmentLock.readLock().lock();
+		try {
+			List<Entry> entries = new ArrayList<>();
+			synchronized (this) {
+				if (closed) {
+					throw new SolarThingDatabaseException("This database has been closed!");
+				}
+				for (Entry entry : sequenceIndex.tailMap(sinceSequence, false).values()) {
+					if (entries.size() >= limit) {
+						break;
+					}
+					entries.add(entry);
+				}
+			}
+			List<LocalDocument> r = new ArrayList<>(entries.size());
+			for (Entry entry : entries) {
+				byte[] data = readData(entry);
+				r.add(new LocalDocument(entry.documentId, entry.sequence, entry.dateMillis, Arrays.copyOfRange(data, entry.jsonOffset, data.length)));
+			}
+			return r;
+		} finally {
+			segmentLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return The update sequence of the most recently written document, or 0 if no documents have been written
+	 */
+	public synchronized long getUpdateSequence() {
+		return updateSequence;
+	}
+
+	@Override
+	public String getCurrentSequence() {
+		return Long.toString(getUpdateSequence());
+	}
+
+	@Override
+	public ChangesResult waitForChanges(@Nullable String since, long timeoutMillis) throws SolarThingDatabaseException {
+		final long sinceSequence;
+		synchronized (this) {
+			if (since == null) {
+				sinceSequence = updateSequence;
+			} else {
+				try {
+					sinceSequence = Long.parseLong(since);
+				} catch (NumberFormatException e) {
+					throw new SolarThingDatabaseException("Invalid sequence: " + since, e);
+				}
+			}
+			long deadline = System.currentTimeMillis() + timeoutMillis;
+			long remaining;
+			while (!closed && updateSequence <= sinceSequence && (remaining = deadline - System.currentTimeMillis()) > 0) {
+				try {
+					wait(remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return new ChangesResult(new ArrayList<>(), Long.toString(sinceSequence));
+				}
+			}
+		}
+		List<LocalDocument> documents = readChanges(sinceSequence, CHANGES_LIMIT);
+		List<PacketGroup> packetGroups = new ArrayList<>(documents.size());
+		for (LocalDocument document : documents) {
+			try (JsonParser jsonParser = mapper.getFactory().createParser(document.getJson())) {
+				packetGroups.add(parser.parse(jsonParser));
+			} catch (IOException e) {
+				throw new SolarThingDatabaseException("We couldn't parse some of the data into JSON. This should never happen", e);
+			} catch (PacketParseException e) {
+				// If we threw an exception here, the same document would be retrieved every time, so skip it unless the error handler says otherwise
+				try {
+					errorHandler.handleError(new PacketParseException("Could not parse document with id: " + document.getDocumentId(), e));
+				} catch (PacketParseException handlerException) {
+					throw new SolarThingDatabaseException(handlerException);
+				}
+			}
+		}
+		long lastSequence = documents.isEmpty() ? sinceSequence : documents.get(documents.size() - 1).getSequence();
+		return new ChangesResult(packetGroups, Long.toString(lastSequence));
+	}
+
+	@Override
+	public ChangesFeed getChangesFeed() {
+		return this;
+	}
+
+	/** Must be called while holding the read lock of {@link #segmentLock}*/
+	private byte[] readData(Entry entry) throws SolarThingDatabaseException {
+		ByteBuffer buffer = ByteBuffer.allocate(entry.dataLength);
+		try {
+			readFully(entry.segment.channel, buffer, entry.position + HEADER_BYTES);
+		} catch (IOException e) {
+			throw new SolarThingDatabaseException("Could not read document: " + entry.documentId, e);
+		}
+		return buffer.array();
+	}
+
+	@Override
+	public UpdateToken uploadPacketCollection(PacketCollection packetCollection, UpdateToken updateToken) throws SolarThingDatabaseException {
+		String documentId = packetCollection.getDbId();
+		byte[] idBytes = documentId.getBytes(StandardCharsets.UTF_8);
+		if (idBytes.length > 0xFFFF) {
+			throw new IllegalArgumentException("The document ID is too long! documentId=" + documentId);
+		}
+		ByteArrayOutputStream dataStream = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(dataStream);
+		int jsonOffset = PREFIX_BYTES + idBytes.length;
+		try {
+			output.writeLong(0); // the update sequence is not known until we hold the lock
+			output.writeLong(packetCollection.getDateMillis());
+			output.writeShort(idBytes.length);
+			output.write(idBytes);
+			mapper.writeValue(dataStream, packetCollection);
+		} catch (JsonProcessingException e) {
+			throw new RuntimeException("Couldn't serialize the packet collection", e);
+		} catch (IOException e) {
+			throw new AssertionError("ByteArrayOutputStream does not throw IOExceptions", e);
+		}
+		byte[] data = dataStream.toByteArray();
+
+		final UpdateToken r;
+		final boolean rotated;
+		synchronized (this) {
+			if (closed) {
+				throw new SolarThingDatabaseException("This database has been closed!");
+			}
+			Entry current = documentMap.get(documentId);
+			if (current == null ? updateToken != null : !current.getUpdateToken().equals(updateToken)) {
+				throw new SolarThingDatabaseException("Update conflict for document: " + documentId + ". updateToken=" + updateToken + " current=" + (current == null ? null : current.getUpdateToken()));
+			}
+			long sequence = updateSequence + 1;
+			ByteBuffer.wrap(data).putLong(0, sequence);
+			CRC32 crc32 = new CRC32();
+			crc32.update(data, 0, data.length);
+			ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + data.length);
+			buffer.putInt(data.length);
+			buffer.putInt((int) crc32.getValue());
+			buffer.put(data);
+			buffer.flip();
+			Segment segment = writeSegment;
+			long position = segment.size;
+			try {
+				while (buffer.hasRemaining()) {
+					segment.channel.write(buffer);
+				}
+				if (fsyncPolicy == FsyncPolicy.EVERY_WRITE) {
+					segment.channel.force(false);
+				}
+			} catch (IOException e) {
+				try {
+					// don't leave a partially written record in the middle of the segment
+					segment.channel.truncate(position);
+					segment.channel.position(position);
+				} catch (IOException truncateException) {
+					e.addSuppressed(truncateException);
+				}
+				throw new SolarThingDatabaseException("Could not write document: " + documentId, e);
+			}
+			segment.size = position + HEADER_BYTES + data.length;
+			Entry entry = new Entry(documentId, sequence, packetCollection.getDateMillis(), segment, position, data.length, jsonOffset);
+			index(entry);
+			notifyAll(); // wake up threads waiting for changes
+			r = entry.getUpdateToken();
+			rotated = segment.size >= maxSegmentBytes && rotate();
+		}
+		if (rotated) {
+			maintain();
+		}
+		return r;
+	}
+
+	/**
+	 * Starts a new write segment. Must be called while holding the lock on this
+	 * @return true if a new segment was started
+	 */
+	private boolean rotate() {
+		long index = writeSegment.index + 1;
+		Path path = getSegmentPath(index);
+		try {
+			if (fsyncPolicy != FsyncPolicy.NEVER) {
+				writeSegment.channel.force(false);
+			}
+			Segment segment = new Segment(index, path, FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE));
+			segmentMap.put(index, segment);
+			writeSegment = segment;
+			return true;
+		} catch (IOException e) {
+			// The document was saved, so we'll try again on the next write
+			LOGGER.error("Could not start new segment at " + path, e);
+			return false;
+		}
+	}
+
+	/**
+	 * Deletes expired segments and compacts segments that are mostly old versions of documents. This is done each time a new segment is started,
+	 * so this only needs to be called once after the database is opened and its retention holds are added.
+	 */
+	public void maintain() {
+		segmentLock.writeLock().lock();
+		try {
+			synchronized (this) {
+				if (closed) {
+					return;
+				}
+				deleteExpiredSegments();
+				compactSegments();
+			}
+		} catch (IOException e) {
+			LOGGER.error("Could not delete or compact segments in " + directory, e);
+		} finally {
+			segmentLock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public synchronized UpdateToken getCurrentUpdateToken(String documentId) throws SolarThingDatabaseException {
+		Entry entry = documentMap.get(documentId);
+		if (entry == null) {
+			throw new SolarThingDatabaseException("No document with id: " + documentId);
+		}
+		return entry.getUpdateToken();
+	}
+
+	/**
+	 * @return The number of documents in this database
+	 */
+	public synchronized int getDocumentCount() {
+		return documentMap.size();
+	}
+
+	/**
+	 * @return The number of segment files in this database
+	 */
+	public synchronized int getSegmentCount() {
+		return segmentMap.size();
+	}
+
+	@Override
+	public void close() throws IOException {
+		segmentLock.writeLock().lock();
+		try {
+			synchronized (this) {
+				if (closed) {
+					return;
+				}
+				closed = true;
+				notifyAll();
+				IOException exception = null;
+				for (Iterator<Segment> iterator = segmentMap.values().iterator(); iterator.hasNext(); ) {
+					Segment segment = iterator.next();
+					try {
+						if (segment == writeSegment && fsyncPolicy != FsyncPolicy.NEVER) {
+							segment.channel.force(false);
+						}
+						segment.channel.close();
+					} catch (IOException e) {
+						if (exception == null) {
+							exception = e;
+						} else {
+							exception.addSuppressed(e);
+						}
+					}
+				}
+				if (exception != null) {
+					throw exception;
+				}
+			}
+		} finally {
+			segmentLock.writeLock().unlock();
+		}
+	}
+
+	private static final class Segment {
+		private final long index;
+		private final Path path;
+		private final FileChannel channel;
+		/** Guarded by the database. The number of bytes of valid records*/
+		private long size;
+		/** Guarded by the database. The number of bytes used by old versions of documents or corrupt records*/
+		private long unusedBytes;
+		/** Guarded by the database. The greatest date millis of any record in this segment*/
+		private long maxDateMillis = Long.MIN_VALUE;
+		/** Guarded by the database. The greatest update sequence of any record in this segment*/
+		private long maxSequence = 0;
+
+		private Segment(long index, Path path, FileChannel channel) {
+			this.index = index;
+			this.path = path;
+			this.channel = channel;
+		}
+	}
+
+	private static final class Entry {
+		private final String documentId;
+		private final long sequence;
+		private final long dateMillis;
+		private final Segment segment;
+		/** The position of the record's header in its segment*/
+		private final long position;
+		private final int dataLength;
+		/** The offset of the JSON in the record's data*/
+		private final int jsonOffset;
+
+		private Entry(String documentId, long sequence, long dateMillis, Segment segment, long position, int dataLength, int jsonOffset) {
+			this.documentId = documentId;
+			this.sequence = sequence;
+			this.dateMillis = dateMillis;
+			this.segment = segment;
+			this.position = position;
+			this.dataLength = dataLength;
+			this.jsonOffset = jsonOffset;
+		}
+		private static Entry createKey(long dateMillis, long sequence) {
+			return new Entry("", sequence, dateMillis, null, 0, 0, 0);
+		}
+
+		private UpdateToken getUpdateToken() {
+			// unlike positions, update sequences are kept when a segment is compacted
+			return new LocalUpdateToken(sequence);
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package me.retrodaredevil.solarthing.database.local;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import me.retrodaredevil.solarthing.SolarThingConstants;
+import me.retrodaredevil.solarthing.annotations.NotNull;
+import me.retrodaredevil.solarthing.annotations.Nullable;
+import me.retrodaredevil.solarthing.closed.authorization.AuthorizationPacket;
+import me.retrodaredevil.solarthing.database.InstrumentedMillisDatabase;
+import me.retrodaredevil.solarthing.database.MillisDatabase;
+import me.retrodaredevil.solarthing.database.SolarThingDatabase;
+import me.retrodaredevil.solarthing.database.UpdateToken;
+import me.retrodaredevil.solarthing.database.VersionedPacket;
+import me.retrodaredevil.solarthing.database.exception.NotFoundSolarThingDatabaseException;
+import me.retrodaredevil.solarthing.database.exception.SolarThingDatabaseException;
+import me.retrodaredevil.solarthing.meta.RootMetaPacket;
+import me.retrodaredevil.solarthing.metrics.MetricsRegistry;
+import me.retrodaredevil.solarthing.packets.collection.parsing.PacketMapperUtil;
+import me.retrodaredevil.solarthing.packets.collection.parsing.PacketParsingErrorHandler;
+import me.retrodaredevil.solarthing.util.queue.FsyncPolicy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * A {@link SolarThingDatabase} stored in a directory on disk, so it can be used without any network connectivity.
+ * <p>
+ * The status, event and open databases are each stored in a {@link LocalMillisDatabase} directory.
+ * Documents that would be in the closed database, such as {@link RootMetaPacket#DOCUMENT_ID}, are read from JSON files in the "closed" directory, which can be edited by hand.
+ */
+public class LocalSolarThingDatabase implements SolarThingDatabase, Closeable {
+	private static final String CLOSED_DIRECTORY = "closed";
+
+	private final Path closedDirectory;
+	private final ObjectMapper metaObjectMapper;
+	private final ObjectMapper simpleObjectMapper;
+
+	private final LocalMillisDatabase localStatusDatabase;
+	private final LocalMillisDatabase localEventDatabase;
+	private final LocalMillisDatabase localOpenDatabase;
+	private final MillisDatabase statusDatabase;
+	private final MillisDatabase eventDatabase;
+	private final MillisDatabase openDatabase;
+
+	/**
+	 * @param directory The directory to store the databases in
+	 * @param errorHandler Handles packets that cannot be deserialized
+	 * @param mapper The object mapper. "Lenient" settings should have already been applied to this
+	 * @param fsyncPolicy Determines how often data is synced to the storage device
+	 * @param maxSegmentBytes The maximum size of each segment file
+	 * @param retention Documents older than this are deleted, or null to keep documents forever. Nothing is deleted until {@link #maintain()} is called or a new segment is started
+	 * @throws IOException If a database could not be opened
+	 */
+	public LocalSolarThingDatabase(Path directory, PacketParsingErrorHandler errorHandler, ObjectMapper mapper, FsyncPolicy fsyncPolicy, long maxSegmentBytes, @Nullable Duration retention) throws IOException {
+		closedDirectory = directory.resolve(CLOSED_DIRECTORY);
+		metaObjectMapper = PacketMapperUtil.createMetaMapper(mapper);
+		simpleObjectMapper = mapper.copy();
+
+		localStatusDatabase = new LocalMillisDatabase(directory.resolve(SolarThingConstants.STATUS_DATABASE), PacketMapperUtil.createStatusMapper(mapper), errorHandler, fsyncPolicy, maxSegmentBytes, retention, System::currentTimeMillis);
+		localEventDatabase = new LocalMillisDatabase(directory.resolve(SolarThingConstants.EVENT_DATABASE), PacketMapperUtil.createEventMapper(mapper), errorHandler, fsyncPolicy, maxSegmentBytes, retention, System::currentTimeMillis);
+		localOpenDatabase = new LocalMillisDatabase(directory.resolve(SolarThingConstants.OPEN_DATABASE), PacketMapperUtil.createOpenMapper(mapper), errorHandler, fsyncPolicy, maxSegmentBytes, retention, System::currentTimeMillis);
+		statusDatabase = new InstrumentedMillisDatabase(localStatusDatabase, MetricsRegistry.GLOBAL, "local." + SolarThingConstants.STATUS_DATABASE);
+		eventDatabase = new InstrumentedMillisDatabase(localEventDatabase, MetricsRegistry.GLOBAL, "local." + SolarThingConstants.EVENT_DATABASE);
+		openDatabase = new InstrumentedMillisDatabase(localOpenDatabase, MetricsRegistry.GLOBAL, "local." + SolarThingConstants.OPEN_DATABASE);
+	}
+
+	@Override
+	public @NotNull MillisDatabase getStatusDatabase() { return statusDatabase; }
+	@Override
+	public @NotNull MillisDatabase getEventDatabase() { return eventDatabase; }
+	@Override
+	public @NotNull MillisDatabase getOpenDatabase() { return openDatabase; }
+
+	public LocalMillisDatabase getLocalStatusDatabase() { return localStatusDatabase; }
+	public LocalMillisDatabase getLocalEventDatabase() { return localEventDatabase; }
+	public LocalMillisDatabase getLocalOpenDatabase() { return localOpenDatabase; }
+
+	/**
+	 * Calls {@link LocalMillisDatabase#maintain()} on each database. This should be called once retention holds have been added.
+	 */
+	public void maintain() {
+		localStatusDatabase.maintain();
+		localEventDatabase.maintain();
+		localOpenDatabase.maintain();
+	}
+
+	@Override
+	public @Nullable VersionedPacket<RootMetaPacket> queryMetadata(UpdateToken updateToken) throws SolarThingDatabaseException {
+		return queryDocument(metaObjectMapper, RootMetaPacket.DOCUMENT_ID, RootMetaPacket.class, updateToken);
+	}
+
+	@Override
+	public @Nullable VersionedPacket<AuthorizationPacket> queryAuthorized(UpdateToken updateToken) throws SolarThingDatabaseException {
+		return queryDocument(simpleObjectMapper, AuthorizationPacket.DOCUMENT_ID, AuthorizationPacket.class, updateToken);
+	}
+
+	private <T> @Nullable VersionedPacket<T> queryDocument(ObjectMapper mapper, String documentId, Class<T> clazz, UpdateToken updateToken) throws SolarThingDatabaseException {
+		Path path = closedDirectory.resolve(documentId + ".json");
+		final byte[] data;
+		final UpdateToken currentUpdateToken;
+		try {
+			// The last modified time is read first. If the file changes after that, the next query will see a different time
+			currentUpdateToken = new LocalUpdateToken(Files.getLastModifiedTime(path).toMillis());
+			if (currentUpdateToken.equals(updateToken)) {
+				return null;
+			}
+			data = Files.readAllBytes(path);
+		} catch (NoSuchFileException e) {
+			throw new NotFoundSolarThingDatabaseException("No document with id: " + documentId + ". Expected it at " + path, e);
+		} catch (IOException e) {
+			throw new SolarThingDatabaseException("Could not read " + path, e);
+		}
+		try {
+			return new VersionedPacket<>(mapper.readValue(data, clazz), currentUpdateToken);
+		} catch (IOException e) {
+			throw new SolarThingDatabaseException("Invalid document at " + path + "! Failed to parse!", e);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			localStatusDatabase.close();
+			localEventDatabase.close();
+		} finally {
+			localOpenDatabase.close();
+		}
+	}
+}
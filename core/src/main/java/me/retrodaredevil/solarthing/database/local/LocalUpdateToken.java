@@ -0,0 +1,38 @@
+package me.retrodaredevil.solarthing.database.local;
+
+import me.retrodaredevil.solarthing.database.UpdateToken;
+
+/**
+ * An {@link UpdateToken} for documents stored by {@link LocalSolarThingDatabase}. Each version of a document has a different version number.
+ */
+public class LocalUpdateToken implements UpdateToken {
+	private final long version;
+
+	public LocalUpdateToken(long version) {
+		this.version = version;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+		LocalUpdateToken that = (LocalUpdateToken) o;
+		return version == that.version;
+	}
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(version);
+	}
+
+	@Override
+	public String toString() {
+		return "LocalUpdateToken(" +
+				"version=" + version +
+				')';
+	}
+}
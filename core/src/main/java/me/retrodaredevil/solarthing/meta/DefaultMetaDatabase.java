@@ -1,40 +1,100 @@
 package me.retrodaredevil.solarthing.meta;
 
+import me.retrodaredevil.solarthing.util.TimeRange;
+
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * A {@link MetaDatabase} backed by a {@link RootMetaPacket}.
+ * <p>
+ * The start and end times of every {@link TimedMetaCollection} split time into segments where the same collections apply.
+ * These segments are calculated once, so a lookup is a binary search, and results for each fragment are remembered for each segment.
+ * The returned lists are unmodifiable.
+ */
 public class DefaultMetaDatabase implements MetaDatabase {
 	private final RootMetaPacket rootMetaPacket;
 
+	/** The sorted start and end times of every collection. Segment i starts at {@code boundaries[i - 1]} and ends before {@code boundaries[i]}*/
+	private final long[] boundaries;
+	private final Segment[] segments;
+
 	public DefaultMetaDatabase(RootMetaPacket rootMetaPacket) {
 		this.rootMetaPacket = rootMetaPacket;
-	}
-	@Override
-	public List<TargetedMetaPacket> getMeta(long dateMillis, int fragmentId) {
-		List<TargetedMetaPacket> r = new ArrayList<>();
-		for (TimedMetaCollection timedMetaCollection : rootMetaPacket.getMeta()) {
-			if (timedMetaCollection.getTimeRange().contains(dateMillis)) {
-				for (BasicMetaPacket basicMetaPacket : timedMetaCollection.getPackets()) {
-					if (basicMetaPacket instanceof TargetMetaPacket) {
-						TargetMetaPacket targetMetaPacket = (TargetMetaPacket) basicMetaPacket;
-						if (targetMetaPacket.getFragmentIds().contains(fragmentId)) {
-							r.addAll(targetMetaPacket.getPackets());
-						}
-					}
+
+		List<TimedMetaCollection> collections = rootMetaPacket.getMeta();
+		TreeSet<Long> boundarySet = new TreeSet<>();
+		for (TimedMetaCollection timedMetaCollection : collections) {
+			TimeRange timeRange = timedMetaCollection.getTimeRange();
+			if (timeRange.getStartTime() != null) {
+				boundarySet.add(timeRange.getStartTime());
+			}
+			if (timeRange.getEndTime() != null) {
+				boundarySet.add(timeRange.getEndTime());
+			}
+		}
+		boundaries = new long[boundarySet.size()];
+		int index = 0;
+		for (long boundary : boundarySet) {
+			boundaries[index++] = boundary;
+		}
+		segments = new Segment[boundaries.length + 1];
+		for (int i = 0; i < segments.length; i++) {
+			// every time in a segment is contained by the same collections, so we only have to check one of them
+			long segmentStart = i == 0 ? Long.MIN_VALUE : boundaries[i - 1];
+			List<BasicMetaPacket> packets = new ArrayList<>();
+			for (TimedMetaCollection timedMetaCollection : collections) {
+				if (timedMetaCollection.getTimeRange().contains(segmentStart)) {
+					packets.addAll(timedMetaCollection.getPackets());
 				}
 			}
+			segments[i] = new Segment(Collections.unmodifiableList(packets));
 		}
-		return r;
+	}
+
+	private Segment getSegment(long dateMillis) {
+		int index = Arrays.binarySearch(boundaries, dateMillis);
+		// a time equal to a boundary is the start of the next segment
+		return segments[index >= 0 ? index + 1 : -(index + 1)];
+	}
+
+	@Override
+	public List<TargetedMetaPacket> getMeta(long dateMillis, int fragmentId) {
+		return getSegment(dateMillis).getTargetedPackets(fragmentId);
 	}
 
 	@Override
 	public List<BasicMetaPacket> getMeta(long dateMillis) {
-		List<BasicMetaPacket> r = new ArrayList<>();
-		for (TimedMetaCollection timedMetaCollection : rootMetaPacket.getMeta()) {
-			if (timedMetaCollection.getTimeRange().contains(dateMillis)) {
-				r.addAll(timedMetaCollection.getPackets());
+		return getSegment(dateMillis).packets;
+	}
+
+	private static final class Segment {
+		private final List<BasicMetaPacket> packets;
+		private final Map<Integer, List<TargetedMetaPacket>> fragmentCache = new ConcurrentHashMap<>();
+
+		private Segment(List<BasicMetaPacket> packets) {
+			this.packets = packets;
+		}
+
+		private List<TargetedMetaPacket> getTargetedPackets(int fragmentId) {
+			return fragmentCache.computeIfAbsent(fragmentId, this::createTargetedPackets);
+		}
+		private List<TargetedMetaPacket> createTargetedPackets(int fragmentId) {
+			List<TargetedMetaPacket> r = new ArrayList<>();
+			for (BasicMetaPacket basicMetaPacket : packets) {
+				if (basicMetaPacket instanceof TargetMetaPacket) {
+					TargetMetaPacket targetMetaPacket = (TargetMetaPacket) basicMetaPacket;
+					if (targetMetaPacket.getFragmentIds().contains(fragmentId)) {
+						r.addAll(targetMetaPacket.getPackets());
+					}
+				}
 			}
+			return Collections.unmodifiableList(r);
 		}
-		return r;
 	}
 }
@@ -0,0 +1,24 @@
+package me.retrodaredevil.solarthing.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread safe count that only increases
+ */
+public final class Counter {
+	private final LongAdder adder = new LongAdder();
+
+	Counter() {
+	}
+
+	public void increment() {
+		adder.increment();
+	}
+	public void add(long amount) {
+		adder.add(amount);
+	}
+
+	public long getCount() {
+		return adder.sum();
+	}
+}
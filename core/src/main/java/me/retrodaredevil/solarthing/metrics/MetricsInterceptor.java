@@ -0,0 +1,49 @@
+package me.retrodaredevil.solarthing.metrics;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * An OkHttp network interceptor that records the number of requests, request bytes, failures and round trip time for each host.
+ */
+public class MetricsInterceptor implements Interceptor {
+	private final MetricsRegistry registry;
+
+	public MetricsInterceptor(MetricsRegistry registry) {
+		requireNonNull(this.registry = registry);
+	}
+
+	@NotNull
+	@Override
+	public Response intercept(@NotNull Chain chain) throws IOException {
+		Request request = chain.request();
+		String prefix = "http." + request.url().host() + ":" + request.url().port();
+		RequestBody body = request.body();
+		if (body != null) {
+			long length = body.contentLength();
+			if (length >= 0) { // -1 if unknown
+				registry.counter(prefix + ".bytes_written").add(length);
+			}
+		}
+		long startNanos = System.nanoTime();
+		try {
+			Response response = chain.proceed(request);
+			if (!response.isSuccessful()) {
+				registry.counter(prefix + ".unsuccessful").increment();
+			}
+			return response;
+		} catch (IOException e) {
+			registry.counter(prefix + ".failures").increment();
+			throw e;
+		} finally {
+			registry.timer(prefix + ".request").recordSince(startNanos);
+		}
+	}
+}
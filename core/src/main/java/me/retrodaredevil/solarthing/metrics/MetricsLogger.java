@@ -0,0 +1,52 @@
+package me.retrodaredevil.solarthing.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Periodically logs a snapshot of a {@link MetricsRegistry} on a single line
+ */
+public class MetricsLogger implements AutoCloseable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(MetricsLogger.class);
+
+	private final MetricsRegistry registry;
+	private final Duration period;
+	private final ScheduledExecutorService executor;
+
+	public MetricsLogger(MetricsRegistry registry, Duration period) {
+		requireNonNull(this.registry = registry);
+		requireNonNull(this.period = period);
+		if (period.isNegative() || period.isZero()) {
+			throw new IllegalArgumentException("period must be positive! period=" + period);
+		}
+		executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "metrics-logger");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public void start() {
+		executor.scheduleAtFixedRate(this::log, period.toMillis(), period.toMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	private void log() {
+		try {
+			LOGGER.info("metrics " + registry.formatSnapshot());
+		} catch (RuntimeException e) {
+			LOGGER.error("Could not log metrics", e);
+		}
+	}
+
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,90 @@
+package me.retrodaredevil.solarthing.metrics;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Keeps track of {@link Counter}s, {@link Timer}s and gauges by name.
+ * <p>
+ * Names are usually made of parts separated by dots, such as "couchdb.status.upload". The first part should say what the metric belongs to.
+ * <p>
+ * This class is thread safe.
+ */
+public final class MetricsRegistry {
+	/** The registry used by SolarThing's packet handlers and databases */
+	public static final MetricsRegistry GLOBAL = new MetricsRegistry();
+
+	private final Map<String, Counter> counterMap = new ConcurrentHashMap<>();
+	private final Map<String, Timer> timerMap = new ConcurrentHashMap<>();
+	private final Map<String, LongSupplier> gaugeMap = new ConcurrentHashMap<>();
+
+	/**
+	 * @return The counter with the given name. It is created if it does not exist
+	 */
+	public Counter counter(String name) {
+		return counterMap.computeIfAbsent(name, key -> new Counter());
+	}
+
+	/**
+	 * @return The timer with the given name. It is created if it does not exist
+	 */
+	public Timer timer(String name) {
+		return timerMap.computeIfAbsent(name, key -> new Timer());
+	}
+
+	/**
+	 * Registers a gauge, which is a value that is read when a snapshot is created. If a gauge with the same name was already registered, it is replaced.
+	 * @param name The name of the gauge
+	 * @param valueSupplier Supplies the current value. This must be thread safe.
+	 */
+	public void gauge(String name, LongSupplier valueSupplier) {
+		gaugeMap.put(name, requireNonNull(valueSupplier));
+	}
+
+	/**
+	 * Creates a snapshot of every metric. Timers are represented as multiple values: name.count, name.avg_ms and name.max_ms
+	 * @return A map sorted by name
+	 */
+	public SortedMap<String, Number> createSnapshot() {
+		SortedMap<String, Number> r = new TreeMap<>();
+		for (Map.Entry<String, Counter> entry : counterMap.entrySet()) {
+			r.put(entry.getKey(), entry.getValue().getCount());
+		}
+		for (Map.Entry<String, Timer> entry : timerMap.entrySet()) {
+			Timer timer = entry.getValue();
+			long count = timer.getCount();
+			r.put(entry.getKey() + ".count", count);
+			r.put(entry.getKey() + ".avg_ms", count == 0 ? 0.0 : timer.getTotalNanos() / (count * 1_000_000.0));
+			r.put(entry.getKey() + ".max_ms", timer.getMaxNanos() / 1_000_000.0);
+		}
+		for (Map.Entry<String, LongSupplier> entry : gaugeMap.entrySet()) {
+			r.put(entry.getKey(), entry.getValue().getAsLong());
+		}
+		return r;
+	}
+
+	/**
+	 * @return A single line in the format "name=value name=value ..." that represents a snapshot of every metric
+	 */
+	public String formatSnapshot() {
+		StringBuilder builder = new StringBuilder();
+		for (Map.Entry<String, Number> entry : createSnapshot().entrySet()) {
+			if (builder.length() > 0) {
+				builder.append(' ');
+			}
+			builder.append(entry.getKey()).append('=');
+			Number value = entry.getValue();
+			if (value instanceof Double) {
+				builder.append(String.format("%.1f", value.doubleValue()));
+			} else {
+				builder.append(value);
+			}
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,42 @@
+package me.retrodaredevil.solarthing.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread safe record of how long something takes
+ */
+public final class Timer {
+	private final LongAdder count = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+	Timer() {
+	}
+
+	/**
+	 * @param startNanos The value of {@link System#nanoTime()} when the timed operation started
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+	public void record(long nanos) {
+		count.increment();
+		totalNanos.add(nanos);
+		maxNanos.accumulate(nanos);
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+	public long getTotalNanos() {
+		return totalNanos.sum();
+	}
+
+	/**
+	 * @return The longest amount of time that was recorded
+	 */
+	public long getMaxNanos() {
+		return maxNanos.get();
+	}
+}
@@ -17,4 +17,7 @@ public final class PacketCollections {
 		String id = idGenerator.generateId(instant.atZone(zoneId));
 		return new ImmutablePacketCollection(packets, dateMillis, id);
 	}
+	public static PacketCollection create(Collection<? extends Packet> packets, long dateMillis, String id) {
+		return new ImmutablePacketCollection(packets, dateMillis, id);
+	}
 }
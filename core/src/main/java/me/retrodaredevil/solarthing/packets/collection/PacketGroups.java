@@ -120,12 +120,38 @@ public final class PacketGroups {
 	public static Map<String, List<FragmentedPacketGroup>> sortPackets(Collection<? extends PacketGroup> groups, DefaultInstanceOptions defaultInstanceOptions, long maxTimeDistance, Long masterIdIgnoreDistance){
 		return sortPackets(groups, defaultInstanceOptions, maxTimeDistance, masterIdIgnoreDistance, FragmentUtil.DEFAULT_FRAGMENT_ID_COMPARATOR);
 	}
+	/**
+	 * Parses {@code groups} and merges the packet groups of each source ID using {@link #mergePackets(List, long, Long, Comparator)}.
+	 * <p>
+	 * Each packet group is parsed and put into a list for its source ID and fragment ID in a single pass. Consecutive packet groups usually have the same
+	 * source ID and fragment ID, so the list of the previous packet group is reused without a map lookup when possible.
+	 * @param groups The packet groups. Should be ordered oldest to newest
+	 * @return A map of each source ID to its merged packet groups
+	 */
 	@Contract(pure = true)
 	public static Map<String, List<FragmentedPacketGroup>> sortPackets(Collection<? extends PacketGroup> groups, DefaultInstanceOptions defaultInstanceOptions, long maxTimeDistance, Long masterIdIgnoreDistance, Comparator<Integer> fragmentIdComparator){
-		Map<String, List<InstancePacketGroup>> map = parsePackets(groups, defaultInstanceOptions);
+		Map<String, Map<Integer, List<InstancePacketGroup>>> sourceMap = new HashMap<>();
+		String lastSourceId = null;
+		int lastFragmentId = 0;
+		Map<Integer, List<InstancePacketGroup>> lastFragmentMap = null;
+		List<InstancePacketGroup> lastList = null;
+		for (PacketGroup group : groups) {
+			InstancePacketGroup instancePacketGroup = parseToInstancePacketGroup(group, defaultInstanceOptions);
+			String sourceId = instancePacketGroup.getSourceId();
+			int fragmentId = instancePacketGroup.getFragmentId();
+			if (lastList == null || !sourceId.equals(lastSourceId) || fragmentId != lastFragmentId) {
+				if (lastFragmentMap == null || !sourceId.equals(lastSourceId)) {
+					lastFragmentMap = sourceMap.computeIfAbsent(sourceId, k -> new HashMap<>());
+					lastSourceId = sourceId;
+				}
+				lastList = lastFragmentMap.computeIfAbsent(fragmentId, k -> new ArrayList<>());
+				lastFragmentId = fragmentId;
+			}
+			lastList.add(instancePacketGroup);
+		}
 		Map<String, List<FragmentedPacketGroup>> r = new HashMap<>();
-		for(Map.Entry<String, List<InstancePacketGroup>> entry : map.entrySet()) {
-			r.put(entry.getKey(), mergePackets(entry.getValue(), maxTimeDistance, masterIdIgnoreDistance, fragmentIdComparator));
+		for (Map.Entry<String, Map<Integer, List<InstancePacketGroup>>> entry : sourceMap.entrySet()) {
+			r.put(entry.getKey(), mergeFragments(entry.getValue(), maxTimeDistance, masterIdIgnoreDistance, fragmentIdComparator));
 		}
 		return r;
 	}
@@ -136,7 +162,10 @@ public final class PacketGroups {
 	/**
 	 * This method takes a list of {@link InstancePacketGroup}s and then merges them together. It does this by using the lowest fragment ID as the "master" ID and then it finds
 	 * other fragments closest to it for each {@link InstancePacketGroup} with a master fragment ID. If there's a time gap for a certain master fragment ID, the next
-	 * lowest fragment ID will be used for the time where the lowest is absent. This is recursive for all fragment IDs, so if there are many gaps, it will use the next lowest fragment ID.
+	 * lowest fragment ID will be used for the time where the lowest is absent. This is repeated for all fragment IDs, so if there are many gaps, it will use the next lowest fragment ID.
+	 * <p>
+	 * A fragment ID is only used as the master where every fragment ID before it is absent. Each fragment ID is handled once, in order, so this takes
+	 * O(n log n) time and only allocates memory for the result.
 	 * @param instancePacketGroups The instance packet groups. Should be ordered oldest to newest
 	 * @param maxTimeDistance The maximum amount of time in milliseconds between a master packet and a packet of another fragment ID
 	 * @param masterIdIgnoreDistance The amount of time in milliseconds to allow no master ID packet until it falls through to the next ID, or null. If null, it's the same as being infinite.
@@ -147,152 +176,159 @@ public final class PacketGroups {
 		if (instancePacketGroups.isEmpty()) {
 			throw new IllegalArgumentException("instancePacketGroups cannot be empty!");
 		}
-		Map<Integer, List<InstancePacketGroup>> fragmentMap = new HashMap<>();
-		for(InstancePacketGroup packetGroup : instancePacketGroups){ // this for loop initializes fragmentMap
-			final int fragmentId = packetGroup.getFragmentId();
-			List<InstancePacketGroup> fragmentList = fragmentMap.get(packetGroup.getFragmentId());
-			if(fragmentList == null){
-				fragmentList = new ArrayList<>();
-				fragmentMap.put(fragmentId, fragmentList);
+		return mergeFragments(mapFragments(instancePacketGroups), maxTimeDistance, masterIdIgnoreDistance, fragmentIdComparator);
+	}
+
+	/**
+	 * @param fragmentMap A non-empty map of each fragment ID to its packet groups in order
+	 * @see #mergePackets(List, long, Long, Comparator)
+	 */
+	private static List<FragmentedPacketGroup> mergeFragments(Map<Integer, ? extends List<InstancePacketGroup>> fragmentMap, long maxTimeDistance, Long masterIdIgnoreDistance, Comparator<Integer> fragmentIdComparator) {
+		List<Integer> fragmentIds = new ArrayList<>(fragmentMap.keySet());
+		fragmentIds.sort(fragmentIdComparator);
+
+		// If masterIdIgnoreDistance is null, the first fragment ID is always the master
+		int levelCount = masterIdIgnoreDistance == null ? 1 : fragmentIds.size();
+		List<List<FragmentedPacketGroup>> levels = new ArrayList<>(levelCount);
+		// pairs of inclusive start and end times where no fragment ID before the current one is present
+		long[] allowedTimes = { Long.MIN_VALUE, Long.MAX_VALUE };
+		for (int level = 0; level < levelCount; level++) {
+			List<InstancePacketGroup> masterList = fragmentMap.get(fragmentIds.get(level));
+			List<Integer> subFragmentIds = fragmentIds.subList(level + 1, fragmentIds.size());
+			levels.add(createMasterGroups(maxTimeDistance, masterList, allowedTimes, subFragmentIds, fragmentMap));
+			if (level + 1 < levelCount) {
+				allowedTimes = removePresentTimes(allowedTimes, masterList, masterIdIgnoreDistance);
 			}
-			fragmentList.add(packetGroup);
-		}
-		final List<Integer> fragmentIds;
-		{ // initialize fragmentIds
-			SortedSet<Integer> fragmentIdsSet = new TreeSet<>(fragmentIdComparator);
-			fragmentIdsSet.addAll(fragmentMap.keySet());
-			fragmentIds = new ArrayList<>(fragmentIdsSet); // now this is sorted
 		}
-		// Create an ordered set so that whenever something is added to it, it gets ordered correctly
-		TreeSet<FragmentedPacketGroup> packetGroups = new TreeSet<>(Comparator.comparingLong(PacketGroup::getDateMillis));
-		addToPacketGroups(
-				maxTimeDistance, masterIdIgnoreDistance,
-				Long.MIN_VALUE, Long.MAX_VALUE,
-				fragmentIds,
-				fragmentMap,
-				packetGroups
-		);
-		return new ArrayList<>(packetGroups);
+		return mergeLevels(levels);
 	}
 
 	/**
-	 * A recursive function to add packets to {@code packetGroupsOut}
-	 *
-	 * @param packetGroupsOut The collection to put packets in. Note that packets may not be inserted in order.
+	 * @param masterList The packet groups with the master fragment ID in order
+	 * @param allowedTimes Pairs of inclusive start and end times where packet groups in {@code masterList} may be used as the master
+	 * @param subFragmentIds The fragment IDs that may be added to each packet group
+	 * @return The merged packet groups in order
 	 */
-	private static void addToPacketGroups(
-			long maxTimeDistance, Long masterIdIgnoreDistance,
-			long minTime, long maxTime,
-			List<Integer> fragmentIds,
-			Map<Integer, ? extends List<? extends InstancePacketGroup>> fragmentMap,
-			Collection<? super FragmentedPacketGroup> packetGroupsOut
-	){
-		/*
-		Yeah, I didn't comment this when I wrote this, so good luck understanding it.
-		It does some recursive stuff if there's a gap in the master fragment, so it might call
-		itself and use the next most important fragment ID as the master fragment
-		 */
-		if(minTime > maxTime){
-			return;
-		}
-		if (fragmentIds.isEmpty()) {
-			throw new IllegalArgumentException("Fragment IDs is empty!");
-		}
-		int masterFragmentId = fragmentIds.get(0);
-		List<Integer> subFragmentIds = fragmentIds.subList(1, fragmentIds.size()); // List of fragment IDs not including the master
-		List<? extends InstancePacketGroup> masterList = requireNonNull(fragmentMap.get(masterFragmentId));
-		if(masterIdIgnoreDistance != null && fragmentIds.size() > 1){ // see if we need to check for gaps in the master list
-			List<Integer> splitIndexes = new ArrayList<>();
-			{
-				InstancePacketGroup lastMaster = null;
-				for (int i = 0; i < masterList.size(); i++) {
-					InstancePacketGroup currentMaster = masterList.get(i);
-					// We multiply masterIdIgnoreDistance by 2 because each master packet has a distance going away from it in both directions.
-					//   So we want to check if there's a gap in the middle
-					assert lastMaster == null || currentMaster.getDateMillis() >= lastMaster.getDateMillis();
-					if (lastMaster != null && currentMaster.getDateMillis() - lastMaster.getDateMillis() > masterIdIgnoreDistance * 2) {
-						splitIndexes.add(i);
-					}
-					lastMaster = currentMaster;
-				}
+	private static List<FragmentedPacketGroup> createMasterGroups(
+			long maxTimeDistance,
+			List<? extends InstancePacketGroup> masterList, long[] allowedTimes,
+			List<Integer> subFragmentIds, Map<Integer, ? extends List<? extends InstancePacketGroup>> fragmentMap
+	) {
+		List<FragmentedPacketGroup> r = new ArrayList<>();
+		int allowedIndex = 0;
+		for (InstancePacketGroup masterGroup : masterList) {
+			long dateMillis = masterGroup.getDateMillis();
+			while (allowedIndex < allowedTimes.length && allowedTimes[allowedIndex + 1] < dateMillis) {
+				allowedIndex += 2;
 			}
-
-			// subListList is a list of list of master packets, where each list of master packets represents
-			//   a period where there are no gaps
-			List<List<? extends InstancePacketGroup>> subListList = new ArrayList<>();
-			{
-				int lastIndex = 0;
-				for (int index : splitIndexes) {
-					subListList.add(masterList.subList(lastIndex, index));
-					lastIndex = index;
+			if (allowedIndex >= allowedTimes.length) {
+				break;
+			}
+			if (dateMillis < allowedTimes[allowedIndex]) {
+				continue;
+			}
+			List<InstancePacketGroup> instancePacketGroupList = new ArrayList<>(1 + subFragmentIds.size());
+			instancePacketGroupList.add(masterGroup);
+			for (int fragmentId : subFragmentIds) { // iterate over non-master fragment IDs
+				// now we want to find the closest packet group
+				InstancePacketGroup closest = getClosest(fragmentMap.get(fragmentId), dateMillis);
+				if (Math.abs(closest.getDateMillis() - dateMillis) < maxTimeDistance) {
+					instancePacketGroupList.add(closest);
 				}
-				subListList.add(masterList.subList(lastIndex, masterList.size()));
 			}
+			r.add(createFragmentedPacketGroup(instancePacketGroupList, dateMillis));
+		}
+		return r;
+	}
 
-			// The first master packet (also the earliest master packet)
-			InstancePacketGroup firstPacket = subListList
-					.get(0) // we know this won't fail because we added at least one element above
-					.get(0); // we're going to infer that this won't fail because it should never be empty
+	/**
+	 * A fragment ID is present from {@code masterIdIgnoreDistance} before a packet until {@code masterIdIgnoreDistance} after it, exclusive.
+	 * Packets that are closer than {@code masterIdIgnoreDistance * 2} to each other make a single present range.
+	 * @param allowedTimes Pairs of inclusive start and end times
+	 * @param masterList The packet groups in order
+	 * @return Pairs of inclusive start and end times that are in {@code allowedTimes}, but where {@code masterList} is not present
+	 */
+	private static long[] removePresentTimes(long[] allowedTimes, List<? extends InstancePacketGroup> masterList, long masterIdIgnoreDistance) {
+		// Pairs of exclusive start and end times where masterList is present
+		long[] presentTimes = new long[2 * masterList.size()];
+		int presentLength = 0;
+		long runStart = masterList.get(0).getDateMillis();
+		long last = runStart;
+		for (InstancePacketGroup packetGroup : masterList) {
+			long dateMillis = packetGroup.getDateMillis();
+			assert dateMillis >= last;
+			// We multiply masterIdIgnoreDistance by 2 because each master packet has a distance going away from it in both directions.
+			//   So we want to check if there's a gap in the middle
+			if (dateMillis - last > masterIdIgnoreDistance * 2) {
+				presentTimes[presentLength++] = runStart - masterIdIgnoreDistance;
+				presentTimes[presentLength++] = last + masterIdIgnoreDistance;
+				runStart = dateMillis;
+			}
+			last = dateMillis;
+		}
+		presentTimes[presentLength++] = runStart - masterIdIgnoreDistance;
+		presentTimes[presentLength++] = last + masterIdIgnoreDistance;
 
-			// Add non-master packets before the first master packet
-			addToPacketGroups(
-					maxTimeDistance, masterIdIgnoreDistance,
-					Long.MIN_VALUE, firstPacket.getDateMillis() - masterIdIgnoreDistance,
-					subFragmentIds, fragmentMap, packetGroupsOut
-			);
-			Long lastTime = null;
-			for(List<? extends InstancePacketGroup> subList : subListList){
-				if(lastTime != null){
-					// This deals with our first gap
-					addToPacketGroups(
-							maxTimeDistance, masterIdIgnoreDistance,
-							lastTime + masterIdIgnoreDistance, subList.get(0).getDateMillis() - masterIdIgnoreDistance,
-							subFragmentIds, fragmentMap, packetGroupsOut
-					);
+		long[] r = new long[allowedTimes.length + presentLength];
+		int length = 0;
+		int presentIndex = 0;
+		for (int i = 0; i < allowedTimes.length; i += 2) {
+			long current = allowedTimes[i];
+			long end = allowedTimes[i + 1];
+			while (presentIndex < presentLength && presentTimes[presentIndex + 1] <= current) {
+				presentIndex += 2;
+			}
+			int index = presentIndex;
+			while (current <= end) {
+				if (index >= presentLength || presentTimes[index] >= end) {
+					r[length++] = current;
+					r[length++] = end;
+					break;
 				}
-				// Copy fragmentMap
-				Map<Integer, List<? extends InstancePacketGroup>> subFragmentMap = new HashMap<>(fragmentMap);
-				// But then make the master fragment ID entry this sublist, so we only do stuff with this smaller set of master packets
-				subFragmentMap.put(masterFragmentId, subList);
-
-				// This gets us to not go in this if statement and just add nearby packets
-				addToPacketGroups(
-						maxTimeDistance, null,
-						minTime, maxTime, // we don't have to limit the time more because we limited the selection with subFragmentMap
-						fragmentIds, subFragmentMap, packetGroupsOut
-				);
-				lastTime = subList.get(subList.size() - 1).getDateMillis();
+				long presentStart = presentTimes[index];
+				if (presentStart >= current) {
+					r[length++] = current;
+					r[length++] = presentStart;
+				}
+				current = presentTimes[index + 1];
+				index += 2;
 			}
-			List<? extends InstancePacketGroup> lastSubList = subListList.get(subListList.size() - 1);
-			// Add non-master packets after the last master packet
-			addToPacketGroups(
-					maxTimeDistance, masterIdIgnoreDistance,
-					lastSubList.get(lastSubList.size() - 1).getDateMillis() + masterIdIgnoreDistance, Long.MAX_VALUE,
-					subFragmentIds, fragmentMap, packetGroupsOut
-			);
-			return;
 		}
+		return Arrays.copyOf(r, length);
+	}
 
-		// This is the basic part of the method. Go over each master packet, and grab non-master packets that are close to it
-		for(InstancePacketGroup masterGroup : masterList){
-			if(masterGroup.getDateMillis() < minTime){
-				continue;
+	/**
+	 * Merges the packet groups of each level in order. If multiple packet groups have the same date, only the one from the earliest level is kept.
+	 */
+	private static List<FragmentedPacketGroup> mergeLevels(List<? extends List<FragmentedPacketGroup>> levels) {
+		int size = 0;
+		for (List<FragmentedPacketGroup> level : levels) {
+			size += level.size();
+		}
+		List<FragmentedPacketGroup> r = new ArrayList<>(size);
+		int[] indexes = new int[levels.size()];
+		Long lastDateMillis = null;
+		while (true) {
+			int bestLevel = -1;
+			long bestDateMillis = 0;
+			for (int level = 0; level < indexes.length; level++) {
+				List<FragmentedPacketGroup> packetGroups = levels.get(level);
+				if (indexes[level] < packetGroups.size()) {
+					long dateMillis = packetGroups.get(indexes[level]).getDateMillis();
+					if (bestLevel == -1 || dateMillis < bestDateMillis) {
+						bestLevel = level;
+						bestDateMillis = dateMillis;
+					}
+				}
 			}
-			if(masterGroup.getDateMillis() > maxTime){
-				break;
+			if (bestLevel == -1) {
+				return r;
 			}
-			List<InstancePacketGroup> instancePacketGroupList = new ArrayList<>();
-			instancePacketGroupList.add(masterGroup);
-			for(int fragmentId : subFragmentIds) { // iterate over non-master fragment IDs
-				List<? extends InstancePacketGroup> packetGroupList = requireNonNull(fragmentMap.get(fragmentId));
-				// now we want to find the closest packet group
-				InstancePacketGroup closest = getClosest(packetGroupList, masterGroup.getDateMillis());
-				long smallestTime = Math.abs(closest.getDateMillis() - masterGroup.getDateMillis());
-				if(smallestTime < maxTimeDistance){
-					instancePacketGroupList.add(closest);
-				}
+			FragmentedPacketGroup packetGroup = levels.get(bestLevel).get(indexes[bestLevel]++);
+			if (lastDateMillis == null || bestDateMillis != lastDateMillis) {
+				r.add(packetGroup);
+				lastDateMillis = bestDateMillis;
 			}
-			packetGroupsOut.add(createFragmentedPacketGroup(instancePacketGroupList, masterGroup.getDateMillis()));
 		}
 	}
 
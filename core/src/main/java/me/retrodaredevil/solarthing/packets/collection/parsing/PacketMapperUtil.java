@@ -0,0 +1,50 @@
+package me.retrodaredevil.solarthing.packets.collection.parsing;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import me.retrodaredevil.solarthing.annotations.UtilityClass;
+import me.retrodaredevil.solarthing.commands.packets.status.CommandStatusPacket;
+import me.retrodaredevil.solarthing.meta.DeviceInfoPacket;
+import me.retrodaredevil.solarthing.meta.TargetMetaPacket;
+import me.retrodaredevil.solarthing.misc.common.meta.DataMetaPacket;
+import me.retrodaredevil.solarthing.misc.device.DevicePacket;
+import me.retrodaredevil.solarthing.misc.error.ErrorPacket;
+import me.retrodaredevil.solarthing.misc.weather.WeatherPacket;
+import me.retrodaredevil.solarthing.packets.instance.InstancePacket;
+import me.retrodaredevil.solarthing.packets.security.SecurityPacket;
+import me.retrodaredevil.solarthing.solar.SolarStatusPacket;
+import me.retrodaredevil.solarthing.solar.event.SolarEventPacket;
+import me.retrodaredevil.solarthing.solar.extra.SolarExtraPacket;
+import me.retrodaredevil.solarthing.solar.outback.command.packets.MateCommandFeedbackPacket;
+import me.retrodaredevil.solarthing.solar.outback.fx.meta.FXChargingSettingsPacket;
+import me.retrodaredevil.solarthing.solar.outback.fx.meta.FXChargingTemperatureAdjustPacket;
+import me.retrodaredevil.solarthing.util.JacksonUtil;
+
+/**
+ * Contains methods to create {@link ObjectMapper}s that are able to deserialize {@link me.retrodaredevil.solarthing.packets.DocumentedPacket}s
+ * that are stored in each type of database. Each method copies the given mapper, so the given mapper is not altered.
+ */
+@UtilityClass
+public final class PacketMapperUtil {
+	private PacketMapperUtil() { throw new UnsupportedOperationException(); }
+
+	public static ObjectMapper createStatusMapper(ObjectMapper mapper) {
+		ObjectMapper statusMapper = mapper.copy();
+		statusMapper.getSubtypeResolver().registerSubtypes(SolarStatusPacket.class, SolarExtraPacket.class, DevicePacket.class, ErrorPacket.class, WeatherPacket.class, InstancePacket.class, CommandStatusPacket.class);
+		return statusMapper;
+	}
+	public static ObjectMapper createEventMapper(ObjectMapper mapper) {
+		ObjectMapper eventMapper = mapper.copy();
+		eventMapper.getSubtypeResolver().registerSubtypes(SolarEventPacket.class, MateCommandFeedbackPacket.class, InstancePacket.class);
+		return eventMapper;
+	}
+	public static ObjectMapper createOpenMapper(ObjectMapper mapper) {
+		ObjectMapper openMapper = mapper.copy();
+		openMapper.getSubtypeResolver().registerSubtypes(SecurityPacket.class, InstancePacket.class);
+		return openMapper;
+	}
+	public static ObjectMapper createMetaMapper(ObjectMapper mapper) {
+		ObjectMapper metaMapper = JacksonUtil.lenientSubTypeMapper(mapper.copy());
+		metaMapper.getSubtypeResolver().registerSubtypes(TargetMetaPacket.class, DeviceInfoPacket.class, DataMetaPacket.class, FXChargingSettingsPacket.class, FXChargingTemperatureAdjustPacket.class);
+		return metaMapper;
+	}
+}
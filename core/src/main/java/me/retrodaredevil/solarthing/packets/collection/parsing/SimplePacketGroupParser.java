@@ -1,14 +1,18 @@
 package me.retrodaredevil.solarthing.packets.collection.parsing;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 import me.retrodaredevil.solarthing.packets.DocumentedPacket;
 import me.retrodaredevil.solarthing.packets.Packet;
 import me.retrodaredevil.solarthing.packets.collection.PacketGroup;
 import me.retrodaredevil.solarthing.packets.collection.PacketGroups;
 
 import me.retrodaredevil.solarthing.annotations.NotNull;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -53,4 +57,75 @@ public class SimplePacketGroupParser {
 		}
 		return PacketGroups.createPacketGroup(packetList, dateMillis);
 	}
+
+	/**
+	 * Parses a packet group directly from {@code parser} without creating a {@link JsonNode} tree for the entire group.
+	 * Each packet is buffered separately so that a single packet that cannot be deserialized is given to the error handler
+	 * without affecting the parsing of the rest of the packets.
+	 * @param parser The parser. Its current token should be {@link JsonToken#START_OBJECT}, or it should not have a current token yet. When this method returns, the current token will be the matching {@link JsonToken#END_OBJECT}
+	 * @return The parsed packet group
+	 * @throws PacketParseException If the JSON is not a valid packet group or if thrown by the error handler
+	 */
+	public @NotNull PacketGroup parse(JsonParser parser) throws PacketParseException {
+		try {
+			return parseUnchecked(parser);
+		} catch (IOException e) {
+			throw new PacketParseException("Could not parse JSON", e);
+		}
+	}
+	private PacketGroup parseUnchecked(JsonParser parser) throws IOException, PacketParseException {
+		JsonToken token = parser.currentToken();
+		if (token == null) {
+			token = parser.nextToken();
+		}
+		if (token != JsonToken.START_OBJECT) {
+			throw new PacketParseException("Expected an object! token=" + token);
+		}
+		Long dateMillis = null;
+		List<Packet> packetList = null;
+		while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+			String fieldName = parser.getCurrentName();
+			token = parser.nextToken();
+			if ("dateMillis".equals(fieldName)) {
+				if (!token.isNumeric()) {
+					throw new PacketParseException("'dateMillis' is not a number! token=" + token);
+				}
+				dateMillis = parser.getLongValue();
+			} else if ("packets".equals(fieldName)) {
+				if (token != JsonToken.START_ARRAY) {
+					throw new PacketParseException("'packets' is not an array! token=" + token);
+				}
+				packetList = parsePackets(parser);
+			} else {
+				parser.skipChildren();
+			}
+		}
+		if (token != JsonToken.END_OBJECT) {
+			throw new PacketParseException("Unexpected token: " + token);
+		}
+		if (dateMillis == null) {
+			throw new PacketParseException("'dateMillis' does not exist!");
+		}
+		if (packetList == null) {
+			throw new PacketParseException("'packets' does not exist!");
+		}
+		return PacketGroups.createPacketGroup(packetList, dateMillis);
+	}
+	private List<Packet> parsePackets(JsonParser parser) throws IOException, PacketParseException {
+		List<Packet> packetList = new ArrayList<>();
+		while (parser.nextToken() != JsonToken.END_ARRAY) {
+			TokenBuffer buffer = new TokenBuffer(parser);
+			buffer.copyCurrentStructure(parser);
+			DocumentedPacket packet = null;
+			try (JsonParser packetParser = buffer.asParser(parser.getCodec())) {
+				packet = mapper.readValue(packetParser, DocumentedPacket.class);
+			} catch (IOException ex) {
+				errorHandler.handleError(ex);
+			}
+			if (packet != null) {
+				packetList.add(packet);
+			}
+		}
+		return packetList;
+	}
 }
@@ -30,15 +30,21 @@ public abstract class StartEndTextPacketCreator implements TextPacketCreator {
 
 	@Override
 	public Collection<Packet> add(char[] chars) throws PacketCreationException{
-		if(chars.length == 0){
+		return add(chars, 0, chars.length);
+	}
+
+	@Override
+	public Collection<Packet> add(char[] chars, int offset, int length) throws PacketCreationException{
+		if(length == 0){
 			return Collections.emptySet();
 		}
-		char first = chars[0];
+		char first = chars[offset];
 		if(amount == 0 && first != start){
 			return Collections.emptySet(); // gotta wait for the start char
 		}
 		List<Packet> r = null;
-		for(char c : chars){
+		for(int i = offset; i < offset + length; i++){
+			char c = chars[i];
 			if(amount >= bytes.length) {
 				try {
 					throw new PacketTooBigException("The packet will be longer than the maximum size!");
@@ -57,7 +63,8 @@ public abstract class StartEndTextPacketCreator implements TextPacketCreator {
 					}
 				}
 				try{
-					final Collection<Packet> packetsToAdd = create(new String(bytes, 0, amount).toCharArray()); // resets bytes array and amount
+					// when the packet fills the buffer (always the case when maxPacketSize == assertSizeAtLeast), we don't need a copy
+					final Collection<Packet> packetsToAdd = create(amount == bytes.length ? bytes : Arrays.copyOf(bytes, amount));
 
 					if(r == null){
 						r = new ArrayList<>();
@@ -82,15 +89,14 @@ public abstract class StartEndTextPacketCreator implements TextPacketCreator {
 	}
 
 	/**
-	 * @param bytes The bytes to create the packet(s) with
+	 * Note that {@code bytes} may be reused after this method returns, so it should not be stored.
+	 * @param bytes The bytes to create the packet(s) with. The length of this array is the length of the packet
 	 * @return A Collection usually with a size of 1 representing the packets to add.
 	 * @throws PacketCreationException Should be thrown if something unexpected happens where the program should not crash
 	 */
 	protected abstract Collection<Packet> create(char[] bytes) throws PacketCreationException;
 
 	private void reset(){
-		amount = 0;
-		// reset bytes array
-		Arrays.fill(bytes, (char) 0);
+		amount = 0; // no need to clear bytes because we never read past amount
 	}
 }
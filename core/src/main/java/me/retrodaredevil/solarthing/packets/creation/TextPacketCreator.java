@@ -15,6 +15,18 @@ public interface TextPacketCreator {
 	 * @param bytes the characters to read from
 	 * @return An empty collection, or if it can be read, a collection of {@link Packet}s
 	 */
-	Collection<? extends Packet> add(char[] bytes) throws PacketCreationException;
+	default Collection<? extends Packet> add(char[] bytes) throws PacketCreationException {
+		return add(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Reads characters from part of an array. This allows a buffer to be reused. The characters are copied or used
+	 * before this returns, so the caller may reuse {@code bytes} afterwards.
+	 * @param bytes The array containing the characters to read from
+	 * @param offset The index of the first character to read
+	 * @param length The number of characters to read
+	 * @return An empty collection, or if it can be read, a collection of {@link Packet}s
+	 */
+	Collection<? extends Packet> add(char[] bytes, int offset, int length) throws PacketCreationException;
 	
 }
@@ -0,0 +1,39 @@
+package me.retrodaredevil.solarthing.packets.handling;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+/**
+ * Determines what an {@link AsyncPacketHandlerWrapper} does when its queue is full
+ */
+public enum AsyncOverflowPolicy {
+	/** Wait until there is space in the queue. This slows down whatever is handling packets, but nothing is lost */
+	BLOCK("block"),
+	/** Remove the oldest packet collection in the queue to make space for the new one */
+	DROP_OLDEST("drop_oldest"),
+	/** Remove every packet collection in the queue so that only the newest one will be handled */
+	COALESCE_LATEST("coalesce_latest"),
+	/** Store packet collections on disk until the queue has caught up. Nothing is lost unless the disk queue gets too large */
+	SPILL("spill"),
+	;
+	private final String shortName;
+
+	AsyncOverflowPolicy(String shortName) {
+		this.shortName = shortName;
+	}
+
+	@JsonValue
+	public String getShortName() {
+		return shortName;
+	}
+
+	@JsonCreator
+	public static AsyncOverflowPolicy forValue(String shortName) {
+		for (AsyncOverflowPolicy policy : values()) {
+			if (policy.shortName.equals(shortName)) {
+				return policy;
+			}
+		}
+		throw new IllegalArgumentException("shortName=" + shortName + " is not valid!");
+	}
+}
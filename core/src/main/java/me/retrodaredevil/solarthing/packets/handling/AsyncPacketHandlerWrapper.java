@@ -1,34 +1,283 @@
 package me.retrodaredevil.solarthing.packets.handling;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import me.retrodaredevil.solarthing.InstantType;
+import me.retrodaredevil.solarthing.SolarThingConstants;
+import me.retrodaredevil.solarthing.annotations.Nullable;
 import me.retrodaredevil.solarthing.packets.collection.PacketCollection;
+import me.retrodaredevil.solarthing.packets.collection.parsing.PacketParseException;
+import me.retrodaredevil.solarthing.util.queue.SegmentedFileQueue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class AsyncPacketHandlerWrapper implements PacketHandler {
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Handles packet collections on a separate thread. Packet collections wait in a queue with a maximum size, and
+ * an {@link AsyncOverflowPolicy} determines what happens when that queue is full.
+ * <p>
+ * When packet collections are dropped because the queue is full, a warning is logged the first time and {@link #getDroppedCount()} is increased.
+ * Packet collections are never silently dropped.
+ * <p>
+ * {@link #start()} must be called before packet collections are handled.
+ */
+public class AsyncPacketHandlerWrapper implements PacketHandler, AutoCloseable {
 	private static final Logger LOGGER = LoggerFactory.getLogger(AsyncPacketHandlerWrapper.class);
+	public static final int DEFAULT_CAPACITY = 500;
 
 	private final PacketHandler packetHandler;
+	private final int capacity;
+	private final AsyncOverflowPolicy overflowPolicy;
+	private final @Nullable SegmentedFileQueue spillQueue;
+	private final @Nullable PacketCollectionCodec codec;
+	private final Thread thread;
+
+	/** The lock for every field below it. Also used to wait for changes to the queue */
+	private final Object lock = new Object();
+	private final Deque<QueuedPacketCollection> queue = new ArrayDeque<>();
+	/** true if the queue overflowed and packet collections are being added to {@link #spillQueue} */
+	private boolean spilling;
+	/** true if the queue has overflowed and we have not yet caught up. Used so we don't log a warning each time*/
+	private boolean overflowing = false;
+	private int handlingCount = 0;
 
-	private final ExecutorService executorService;
+	private final AtomicLong droppedCount = new AtomicLong();
 
 	public AsyncPacketHandlerWrapper(PacketHandler packetHandler) {
-		this.packetHandler = packetHandler;
+		this(packetHandler, DEFAULT_CAPACITY, AsyncOverflowPolicy.BLOCK);
+	}
+
+	/**
+	 * @param packetHandler The packet handler to handle packet collections with on a separate thread
+	 * @param capacity The maximum number of packet collections waiting to be handled
+	 * @param overflowPolicy The overflow policy. Cannot be {@link AsyncOverflowPolicy#SPILL}
+	 */
+	public AsyncPacketHandlerWrapper(PacketHandler packetHandler, int capacity, AsyncOverflowPolicy overflowPolicy) {
+		this(packetHandler, capacity, requireNotSpill(overflowPolicy), null, null);
+	}
+	private static AsyncOverflowPolicy requireNotSpill(AsyncOverflowPolicy overflowPolicy) {
+		if (overflowPolicy == AsyncOverflowPolicy.SPILL) {
+			throw new IllegalArgumentException("Use the constructor with a SegmentedFileQueue to spill to disk!");
+		}
+		return overflowPolicy;
+	}
+
+	/**
+	 * Creates an {@link AsyncPacketHandlerWrapper} that uses {@link AsyncOverflowPolicy#SPILL}
+	 * @param packetHandler The packet handler to handle packet collections with on a separate thread
+	 * @param capacity The maximum number of packet collections waiting to be handled in memory
+	 * @param spillQueue The queue to store packet collections in when the in memory queue is full
+	 * @param mapper The object mapper that is able to deserialize each type of packet that may be stored in {@code spillQueue}
+	 */
+	public AsyncPacketHandlerWrapper(PacketHandler packetHandler, int capacity, SegmentedFileQueue spillQueue, ObjectMapper mapper) {
+		this(packetHandler, capacity, AsyncOverflowPolicy.SPILL, requireNonNull(spillQueue), new PacketCollectionCodec(mapper));
+	}
+
+	private AsyncPacketHandlerWrapper(PacketHandler packetHandler, int capacity, AsyncOverflowPolicy overflowPolicy, @Nullable SegmentedFileQueue spillQueue, @Nullable PacketCollectionCodec codec) {
+		requireNonNull(this.packetHandler = packetHandler);
+		requireNonNull(this.overflowPolicy = overflowPolicy);
+		this.capacity = capacity;
+		this.spillQueue = spillQueue;
+		this.codec = codec;
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be > 0! capacity=" + capacity);
+		}
+		spilling = spillQueue != null && !isSpillQueueEmpty(spillQueue);
 
-		executorService = Executors.newSingleThreadExecutor();
+		thread = new Thread(this::run, "async-packet-handler");
+		thread.setDaemon(true);
+	}
+	private static boolean isSpillQueueEmpty(SegmentedFileQueue spillQueue) {
+		try {
+			return spillQueue.isEmpty();
+		} catch (IOException e) {
+			LOGGER.error(SolarThingConstants.SUMMARY_MARKER, "Could not read from the spill queue!", e);
+			return true;
+		}
+	}
+
+	/**
+	 * Starts the thread that handles packet collections
+	 */
+	public void start() {
+		thread.start();
 	}
 
 	@Override
 	public void handle(PacketCollection packetCollection, InstantType instantType) throws PacketHandleException {
-		executorService.execute(() -> {
+		synchronized (lock) {
+			if (spilling || queue.size() >= capacity) {
+				switch (overflowPolicy) {
+					case BLOCK:
+						onOverflow("Waiting for space in the queue.");
+						while (queue.size() >= capacity) {
+							try {
+								lock.wait();
+							} catch (InterruptedException e) {
+								Thread.currentThread().interrupt();
+								throw new PacketHandleException("Interrupted while waiting for space in the queue! id: " + packetCollection.getDbId(), e);
+							}
+						}
+						break;
+					case DROP_OLDEST:
+						onOverflow("Dropping the oldest packet collections.");
+						queue.removeFirst();
+						droppedCount.incrementAndGet();
+						break;
+					case COALESCE_LATEST:
+						onOverflow("Dropping every queued packet collection except for the latest.");
+						droppedCount.addAndGet(queue.size());
+						queue.clear();
+						break;
+					case SPILL:
+						if (!spilling) {
+							onOverflow("Storing packet collections on disk until we catch up.");
+						}
+						spill(packetCollection);
+						return;
+					default:
+						throw new AssertionError("Unknown overflow policy: " + overflowPolicy);
+				}
+			}
+			queue.addLast(new QueuedPacketCollection(packetCollection, instantType));
+			lock.notifyAll();
+		}
+	}
+	private void onOverflow(String action) {
+		if (!overflowing) {
+			overflowing = true;
+			LOGGER.warn(SolarThingConstants.SUMMARY_MARKER, "The queue of packet collections to handle is full (capacity=" + capacity + "). " + action + " The database is probably slow or unreachable.");
+		}
+	}
+	private void spill(PacketCollection packetCollection) {
+		// must be called while holding lock
+		requireNonNull(spillQueue);
+		requireNonNull(codec);
+		try {
+			spillQueue.append(codec.encode(packetCollection));
+			spilling = true;
+			lock.notifyAll();
+		} catch (IOException e) {
+			LOGGER.error(SolarThingConstants.SUMMARY_MARKER, "Could not store packet collection id: " + packetCollection.getDbId() + " on disk! It will never be handled.", e);
+			droppedCount.incrementAndGet();
+		}
+	}
+
+	private void run() {
+		try {
+			while (true) {
+				QueuedPacketCollection next;
+				synchronized (lock) {
+					while (queue.isEmpty() && !spilling) {
+						if (overflowing) {
+							overflowing = false;
+							LOGGER.info("Caught up with the queue of packet collections to handle.");
+						}
+						lock.wait();
+					}
+					next = queue.pollFirst();
+					handlingCount++;
+					lock.notifyAll(); // there is now space in the queue
+				}
+				try {
+					if (next != null) {
+						handleNow(next.packetCollection, next.instantType);
+					} else {
+						handleSpilled();
+					}
+				} finally {
+					synchronized (lock) {
+						handlingCount--;
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			LOGGER.info("Interrupted. No more packet collections will be handled.");
+		}
+	}
+	private void handleNow(PacketCollection packetCollection, InstantType instantType) {
+		try {
+			packetHandler.handle(packetCollection, instantType);
+		} catch (PacketHandleException e) {
+			LOGGER.error("Got PacketHandleException while executing in separate thread.", e);
+		} catch (RuntimeException e) {
+			// If we let this propagate, this thread would stop and nothing would ever be handled again
+			LOGGER.error(SolarThingConstants.SUMMARY_MARKER, "Got unexpected exception while executing in separate thread.", e);
+		}
+	}
+
+	/**
+	 * Handles the oldest packet collection on disk
+	 */
+	private void handleSpilled() {
+		requireNonNull(spillQueue);
+		requireNonNull(codec);
+		final byte[] record;
+		try {
+			synchronized (lock) {
+				record = spillQueue.peek();
+				if (record == null) {
+					spilling = false; // we're caught up, so packet collections can go back to the in memory queue
+					return;
+				}
+			}
 			try {
-				packetHandler.handle(packetCollection, instantType);
-			} catch (PacketHandleException e) {
-				LOGGER.error("Got PacketHandleException while executing in separate thread.", e);
+				handleNow(codec.decode(record), InstantType.NOT_INSTANT);
+			} catch (IOException | PacketParseException e) {
+				LOGGER.error("Could not decode a packet collection that was stored on disk. It will be skipped.", e);
+			}
+			spillQueue.remove();
+		} catch (IOException e) {
+			LOGGER.error(SolarThingConstants.SUMMARY_MARKER, "Could not read from the spill queue! Packet collections on disk will not be handled.", e);
+			synchronized (lock) {
+				spilling = false;
 			}
-		});
+		}
+	}
+
+	/**
+	 * Stops handling packet collections. Packet collections that are in memory will not be handled.
+	 */
+	@Override
+	public void close() {
+		thread.interrupt();
+	}
+
+	/**
+	 * @return The number of packet collections in memory that are waiting to be handled or are currently being handled
+	 */
+	public int getQueueSize() {
+		synchronized (lock) {
+			return queue.size() + handlingCount;
+		}
+	}
+
+	/**
+	 * @return The number of packet collections that were dropped because the queue was full
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * @return The number of bytes used by packet collections on disk, or 0 if this does not spill to disk
+	 */
+	public long getSpilledBytes() {
+		return spillQueue == null ? 0 : spillQueue.getTotalBytes();
+	}
+
+	private static final class QueuedPacketCollection {
+		private final PacketCollection packetCollection;
+		private final InstantType instantType;
+
+		private QueuedPacketCollection(PacketCollection packetCollection, InstantType instantType) {
+			this.packetCollection = packetCollection;
+			this.instantType = instantType;
+		}
 	}
 }
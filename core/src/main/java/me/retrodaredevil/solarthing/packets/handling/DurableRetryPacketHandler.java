@@ -0,0 +1,184 @@
+package me.retrodaredevil.solarthing.packets.handling;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import me.retrodaredevil.solarthing.InstantType;
+import me.retrodaredevil.solarthing.SolarThingConstants;
+import me.retrodaredevil.solarthing.packets.collection.PacketCollection;
+import me.retrodaredevil.solarthing.packets.collection.parsing.PacketParseException;
+import me.retrodaredevil.solarthing.util.queue.SegmentedFileQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A class used to retry handling a packet at a later time if it fails. Unlike {@link RetryFailedPacketHandler}, packet collections
+ * that fail to be handled are stored in a {@link SegmentedFileQueue}, so they are not lost when the program restarts.
+ * <p>
+ * Once a packet collection fails to be handled, every packet collection after it is added to the queue so that packet collections
+ * are always handled in order. Each time a packet collection is handled, the queue is replayed until it is empty or until handling fails again.
+ * The queue is also replayed periodically on a separate thread once {@link #start()} is called, so stored packet collections are handled even if no new packet collections are handled.
+ * <p>
+ * Note that this will never throw a {@link PacketHandleException}. It will log the error, though
+ */
+public class DurableRetryPacketHandler implements PacketHandler, AutoCloseable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(DurableRetryPacketHandler.class);
+	public static final long DEFAULT_REPLAY_PERIOD_MILLIS = 60_000;
+	private final PacketHandler packetHandler;
+	private final SegmentedFileQueue queue;
+	private final PacketCollectionCodec codec;
+	private final long replayPeriodMillis;
+	private final Thread thread;
+	private final AtomicLong spillCount = new AtomicLong();
+	private final AtomicLong replayCount = new AtomicLong();
+
+	/**
+	 * @param packetHandler The packet handler to handle packet collections with
+	 * @param queue The queue to store packet collections in when they fail to be handled
+	 * @param mapper The object mapper that is able to deserialize each type of packet that may be stored in the queue
+	 */
+	public DurableRetryPacketHandler(PacketHandler packetHandler, SegmentedFileQueue queue, ObjectMapper mapper) {
+		this(packetHandler, queue, mapper, DEFAULT_REPLAY_PERIOD_MILLIS);
+	}
+
+	/**
+	 * @param packetHandler The packet handler to handle packet collections with
+	 * @param queue The queue to store packet collections in when they fail to be handled
+	 * @param mapper The object mapper that is able to deserialize each type of packet that may be stored in the queue
+	 * @param replayPeriodMillis How often to replay the queue when no packet collections are handled
+	 */
+	public DurableRetryPacketHandler(PacketHandler packetHandler, SegmentedFileQueue queue, ObjectMapper mapper, long replayPeriodMillis) {
+		requireNonNull(this.packetHandler = packetHandler);
+		requireNonNull(this.queue = queue);
+		codec = new PacketCollectionCodec(mapper);
+		if (replayPeriodMillis <= 0) {
+			throw new IllegalArgumentException("replayPeriodMillis must be > 0! replayPeriodMillis=" + replayPeriodMillis);
+		}
+		this.replayPeriodMillis = replayPeriodMillis;
+
+		thread = new Thread(this::run, "durable-retry-replay");
+		thread.setDaemon(true);
+	}
+
+	/**
+	 * Starts the thread that periodically replays the queue
+	 */
+	public void start() {
+		thread.start();
+	}
+
+	private void run() {
+		try {
+			while (true) {
+				Thread.sleep(replayPeriodMillis);
+				synchronized (this) {
+					replay();
+				}
+			}
+		} catch (InterruptedException e) {
+			LOGGER.debug("Interrupted. The retry queue will no longer be replayed periodically.");
+		}
+	}
+
+	@Override
+	public synchronized void handle(PacketCollection packetCollection, InstantType instantType) {
+		final boolean queueEmpty;
+		try {
+			queueEmpty = queue.isEmpty();
+		} catch (IOException e) {
+			LOGGER.error(SolarThingConstants.SUMMARY_MARKER, "Could not read from the retry queue! Will try to handle the packet collection anyway.", e);
+			handleWithoutQueue(packetCollection, instantType);
+			return;
+		}
+		if (queueEmpty) {
+			try {
+				packetHandler.handle(packetCollection, instantType);
+				return;
+			} catch (PacketHandleException e) {
+				LOGGER.error("Couldn't handle packet collection id: " + packetCollection.getDbId() + " dateMillis: " + packetCollection.getDateMillis() + ". Storing it to try again later.", e);
+			}
+			spill(packetCollection);
+		} else {
+			spill(packetCollection);
+			replay();
+		}
+	}
+	private void handleWithoutQueue(PacketCollection packetCollection, InstantType instantType) {
+		try {
+			packetHandler.handle(packetCollection, instantType);
+		} catch (PacketHandleException e) {
+			LOGGER.error("Couldn't handle packet collection id: " + packetCollection.getDbId() + " dateMillis: " + packetCollection.getDateMillis() + ". It will not be retried.", e);
+		}
+	}
+
+	private void spill(PacketCollection packetCollection) {
+		try {
+			queue.append(codec.encode(packetCollection));
+			spillCount.incrementAndGet();
+		} catch (IOException e) {
+			LOGGER.error(SolarThingConstants.SUMMARY_MARKER, "Could not store packet collection id: " + packetCollection.getDbId() + " dateMillis: " + packetCollection.getDateMillis() + " in the retry queue! It will never be handled.", e);
+		}
+	}
+
+	/**
+	 * Handles packet collections in the queue, oldest first, until the queue is empty or handling fails
+	 */
+	private void replay() {
+		int handledCount = 0;
+		try {
+			byte[] record;
+			while ((record = queue.peek()) != null) {
+				final PacketCollection packetCollection;
+				try {
+					packetCollection = codec.decode(record);
+				} catch (IOException | PacketParseException e) {
+					LOGGER.error("Could not decode a packet collection that was stored in the retry queue. It will be skipped.", e);
+					queue.remove();
+					continue;
+				}
+				try {
+					packetHandler.handle(packetCollection, InstantType.NOT_INSTANT);
+				} catch (PacketHandleException e) {
+					LOGGER.debug("Still unable to handle stored packet collection id: " + packetCollection.getDbId() + ". Will try again later.", e);
+					break;
+				}
+				queue.remove();
+				handledCount++;
+				replayCount.incrementAndGet();
+			}
+		} catch (IOException e) {
+			LOGGER.error(SolarThingConstants.SUMMARY_MARKER, "Could not replay packet collections from the retry queue!", e);
+		}
+		if (handledCount > 0) {
+			LOGGER.info("Handled " + handledCount + " packet collection(s) from the retry queue.");
+		}
+	}
+
+	/**
+	 * Stops replaying the queue periodically. The queue is not closed.
+	 */
+	@Override
+	public void close() {
+		thread.interrupt();
+	}
+
+	/** @return The number of packet collections that have been stored in the queue */
+	public long getSpillCount() {
+		return spillCount.get();
+	}
+	/** @return The number of packet collections from the queue that have been successfully handled */
+	public long getReplayCount() {
+		return replayCount.get();
+	}
+	/** @return The number of bytes the queue is using on disk */
+	public long getQueueBytes() {
+		return queue.getTotalBytes();
+	}
+	/** @return The number of bytes of packet collections that were dropped because the queue got too large */
+	public long getDroppedBytes() {
+		return queue.getDroppedBytes();
+	}
+}
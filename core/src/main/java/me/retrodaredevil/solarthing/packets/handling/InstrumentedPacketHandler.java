@@ -0,0 +1,45 @@
+package me.retrodaredevil.solarthing.packets.handling;
+
+import me.retrodaredevil.solarthing.InstantType;
+import me.retrodaredevil.solarthing.metrics.Counter;
+import me.retrodaredevil.solarthing.metrics.MetricsRegistry;
+import me.retrodaredevil.solarthing.metrics.Timer;
+import me.retrodaredevil.solarthing.packets.collection.PacketCollection;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Wraps a {@link PacketHandler} and records how long it takes to handle each packet collection, how many packets it handles, and how many times it fails.
+ * <p>
+ * Metrics are recorded as name.handle (timer), name.packets (counter) and name.failures (counter)
+ */
+public class InstrumentedPacketHandler implements PacketHandler {
+	private final PacketHandler packetHandler;
+	private final Timer handleTimer;
+	private final Counter packetCounter;
+	private final Counter failureCounter;
+
+	public InstrumentedPacketHandler(PacketHandler packetHandler, MetricsRegistry registry, String name) {
+		requireNonNull(this.packetHandler = packetHandler);
+		handleTimer = registry.timer(name + ".handle");
+		packetCounter = registry.counter(name + ".packets");
+		failureCounter = registry.counter(name + ".failures");
+	}
+
+	@Override
+	public void handle(PacketCollection packetCollection, InstantType instantType) throws PacketHandleException {
+		long startNanos = System.nanoTime();
+		boolean success = false;
+		try {
+			packetHandler.handle(packetCollection, instantType);
+			success = true;
+		} finally {
+			handleTimer.recordSince(startNanos);
+			if (success) {
+				packetCounter.add(packetCollection.getPackets().size());
+			} else {
+				failureCounter.increment();
+			}
+		}
+	}
+}
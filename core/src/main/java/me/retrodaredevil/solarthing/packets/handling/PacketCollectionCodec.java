@@ -0,0 +1,55 @@
+package me.retrodaredevil.solarthing.packets.handling;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import me.retrodaredevil.solarthing.packets.collection.PacketCollection;
+import me.retrodaredevil.solarthing.packets.collection.PacketCollections;
+import me.retrodaredevil.solarthing.packets.collection.PacketGroup;
+import me.retrodaredevil.solarthing.packets.collection.parsing.PacketParseException;
+import me.retrodaredevil.solarthing.packets.collection.parsing.SimplePacketGroupParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Converts {@link PacketCollection}s to and from bytes so they can be stored in a {@link me.retrodaredevil.solarthing.util.queue.SegmentedFileQueue}
+ */
+final class PacketCollectionCodec {
+	private static final Logger LOGGER = LoggerFactory.getLogger(PacketCollectionCodec.class);
+	private static final String ID_FIELD = "_id";
+
+	private final ObjectMapper mapper;
+	private final SimplePacketGroupParser parser;
+
+	/**
+	 * @param mapper The object mapper that is able to deserialize each type of packet that may be stored
+	 */
+	PacketCollectionCodec(ObjectMapper mapper) {
+		requireNonNull(this.mapper = mapper);
+		parser = new SimplePacketGroupParser(mapper, ex -> LOGGER.error("Could not parse a packet that was stored on disk. It will be skipped.", ex));
+	}
+
+	public byte[] encode(PacketCollection packetCollection) throws JsonProcessingException {
+		ObjectNode objectNode = mapper.valueToTree(packetCollection);
+		objectNode.put(ID_FIELD, packetCollection.getDbId());
+		return mapper.writeValueAsBytes(objectNode);
+	}
+
+	public PacketCollection decode(byte[] record) throws IOException, PacketParseException {
+		JsonNode jsonNode = mapper.readTree(record);
+		if (!jsonNode.isObject()) {
+			throw new PacketParseException("Stored record is not an object! jsonNode=" + jsonNode);
+		}
+		JsonNode idNode = jsonNode.get(ID_FIELD);
+		if (idNode == null || !idNode.isTextual()) {
+			throw new PacketParseException("Stored record has no '" + ID_FIELD + "'!");
+		}
+		PacketGroup packetGroup = parser.parse((ObjectNode) jsonNode);
+		return PacketCollections.create(packetGroup.getPackets(), packetGroup.getDateMillis(), idNode.asText());
+	}
+}
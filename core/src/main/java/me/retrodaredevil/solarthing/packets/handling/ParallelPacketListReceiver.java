@@ -0,0 +1,147 @@
+package me.retrodaredevil.solarthing.packets.handling;
+
+import me.retrodaredevil.solarthing.InstantType;
+import me.retrodaredevil.solarthing.packets.Packet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Calls several {@link PacketListReceiver}s at the same time, each on its own thread. This is useful when each {@link PacketListReceiver}
+ * requests data from a different device, such as a different serial port.
+ * <p>
+ * Each {@link PacketListReceiver} is given an empty list, and the packets it adds are added to the list passed to {@link #receive(List, InstantType)}
+ * in the same order as the given entries, no matter which one finishes first.
+ * <p>
+ * If an entry takes longer than its timeout, the packets it adds are not used, and it is skipped until it has finished.
+ * Because of this, anything else that uses the same device as an entry must synchronize with that entry's {@link PacketListReceiver}.
+ */
+public class ParallelPacketListReceiver implements PacketListReceiver, AutoCloseable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ParallelPacketListReceiver.class);
+
+	private final List<Worker> workers;
+
+	public ParallelPacketListReceiver(Collection<? extends Entry> entries) {
+		List<Worker> workers = new ArrayList<>();
+		for (Entry entry : entries) {
+			workers.add(new Worker(entry));
+		}
+		this.workers = Collections.unmodifiableList(workers);
+	}
+
+	@Override
+	public void receive(List<Packet> packets, InstantType instantType) {
+		long startNanos = System.nanoTime();
+		for (Worker worker : workers) {
+			worker.start(instantType);
+		}
+		for (Worker worker : workers) {
+			Future<List<Packet>> future = worker.current;
+			if (future == null) {
+				continue;
+			}
+			long remainingNanos = worker.entry.timeout.toNanos() - (System.nanoTime() - startNanos);
+			try {
+				packets.addAll(future.get(Math.max(0, remainingNanos), TimeUnit.NANOSECONDS));
+			} catch (TimeoutException e) {
+				LOGGER.warn("{} took longer than {} seconds. Its packets will not be used this time.", worker.entry.name, worker.entry.timeout.toMillis() / 1000.0);
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				}
+				if (cause instanceof Error) {
+					throw (Error) cause;
+				}
+				throw new AssertionError("PacketListReceivers cannot throw checked exceptions!", cause);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Stops the threads. Entries that are running are given up to their timeout to finish before they are interrupted.
+	 */
+	@Override
+	public void close() {
+		for (Worker worker : workers) {
+			worker.executor.shutdown();
+		}
+		for (Worker worker : workers) {
+			try {
+				if (!worker.executor.awaitTermination(worker.entry.timeout.toNanos(), TimeUnit.NANOSECONDS)) {
+					LOGGER.warn("{} did not finish within {} seconds. Interrupting it.", worker.entry.name, worker.entry.timeout.toMillis() / 1000.0);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			worker.executor.shutdownNow();
+		}
+	}
+
+	public static final class Entry {
+		private final String name;
+		private final PacketListReceiver packetListReceiver;
+		private final Duration timeout;
+
+		/**
+		 * @param name The name used for the thread and in log messages
+		 * @param packetListReceiver The {@link PacketListReceiver} to call on its own thread
+		 * @param timeout The maximum amount of time to wait for {@code packetListReceiver} each time. Must be positive
+		 */
+		public Entry(String name, PacketListReceiver packetListReceiver, Duration timeout) {
+			requireNonNull(this.name = name);
+			requireNonNull(this.packetListReceiver = packetListReceiver);
+			requireNonNull(this.timeout = timeout);
+			if (timeout.isNegative() || timeout.isZero()) {
+				throw new IllegalArgumentException("timeout must be positive! timeout=" + timeout + " name=" + name);
+			}
+		}
+	}
+
+	private static final class Worker {
+		private final Entry entry;
+		private final ExecutorService executor;
+		/** The most recently submitted task. This may still be running from a previous call to {@link #receive(List, InstantType)}*/
+		private Future<List<Packet>> pending = null;
+		/** The task submitted during the current call to {@link #receive(List, InstantType)} or null*/
+		private Future<List<Packet>> current = null;
+
+		private Worker(Entry entry) {
+			this.entry = entry;
+			executor = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "parallel-receiver-" + entry.name);
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		private void start(InstantType instantType) {
+			if (pending != null && !pending.isDone()) {
+				LOGGER.warn("{} is still running from last time. Skipping it.", entry.name);
+				current = null;
+				return;
+			}
+			current = executor.submit(() -> {
+				List<Packet> packets = new ArrayList<>();
+				entry.packetListReceiver.receive(packets, instantType);
+				return packets;
+			});
+			pending = current;
+		}
+	}
+}
@@ -8,6 +8,7 @@ import org.slf4j.LoggerFactory;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A class used to retry handling a packet at a later time if it fails
@@ -20,6 +21,9 @@ public class RetryFailedPacketHandler implements PacketHandler {
 	private final PacketHandler packetHandler;
 	private final int packetCollectionsToKeepOnFail;
 	private final List<PacketCollection> packetCollectionList = new ArrayList<>();
+	private final AtomicLong retryCount = new AtomicLong();
+	private final AtomicLong dropCount = new AtomicLong();
+	private volatile int pendingCount = 0;
 
 	public RetryFailedPacketHandler(PacketHandler packetHandler, int packetCollectionsToKeepOnFail) {
 		this.packetHandler = packetHandler;
@@ -34,6 +38,9 @@ public class RetryFailedPacketHandler implements PacketHandler {
 		packetCollectionList.add(packetCollection);
 		for (Iterator<PacketCollection> iterator = packetCollectionList.iterator(); iterator.hasNext(); ) {
 			PacketCollection element = iterator.next();
+			if (element != packetCollection) {
+				retryCount.incrementAndGet();
+			}
 			try {
 				packetHandler.handle(element, instantType);
 				iterator.remove();
@@ -44,6 +51,21 @@ public class RetryFailedPacketHandler implements PacketHandler {
 		while(packetCollectionList.size() > packetCollectionsToKeepOnFail){
 			PacketCollection element = packetCollectionList.remove(0); // remove the first few
 			LOGGER.warn("Because packetCollectionsToKeepOnFail=" + packetCollectionsToKeepOnFail + ", we have to remove id: " + element.getDbId() + " dateMillis: " + element.getDateMillis() + ". We will never try to handle is again. It contained " + element.getPackets().size() + " packets");
+			dropCount.incrementAndGet();
 		}
+		pendingCount = packetCollectionList.size();
+	}
+
+	/** @return The number of packet collections that failed to be handled and will be retried */
+	public int getPendingCount() {
+		return pendingCount;
+	}
+	/** @return The number of times a packet collection that previously failed has been retried */
+	public long getRetryCount() {
+		return retryCount.get();
+	}
+	/** @return The number of packet collections that will never be handled because too many failed */
+	public long getDropCount() {
+		return dropCount.get();
 	}
 }
@@ -30,12 +30,21 @@ public final class Decrypt {
 		requireNonNull(cipher);
 		requireNonNull(key);
 		requireNonNull(base64EncryptedData);
-		byte[] encryptedData = Base64.getDecoder().decode(base64EncryptedData);
 		try {
 			cipher.init(Cipher.DECRYPT_MODE, key);
 		} catch (java.security.InvalidKeyException e) {
 			throw new InvalidKeyException("invalid key!", e);
 		}
+		return decryptInitialized(cipher, base64EncryptedData);
+	}
+
+	/**
+	 * @param cipher A cipher that has already been initialized with {@link Cipher#DECRYPT_MODE}
+	 */
+	public static String decryptInitialized(Cipher cipher, String base64EncryptedData) throws DecryptException {
+		requireNonNull(cipher);
+		requireNonNull(base64EncryptedData);
+		byte[] encryptedData = Base64.getDecoder().decode(base64EncryptedData);
 		final byte[] characterByteArray;
 		try {
 			characterByteArray = cipher.doFinal(encryptedData);
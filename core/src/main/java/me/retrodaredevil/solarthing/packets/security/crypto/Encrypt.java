@@ -24,6 +24,15 @@ public final class Encrypt {
 		} catch (java.security.InvalidKeyException e) {
 			throw new InvalidKeyException(e);
 		}
+		return encryptInitialized(cipher, dataToEncrypt);
+	}
+
+	/**
+	 * @param cipher A cipher that has already been initialized with {@link Cipher#ENCRYPT_MODE}
+	 */
+	public static String encryptInitialized(Cipher cipher, String dataToEncrypt) throws EncryptException {
+		requireNonNull(cipher);
+		requireNonNull(dataToEncrypt);
 		final byte[] encryptedData;
 		try {
 			encryptedData = cipher.doFinal(dataToEncrypt.getBytes(StandardCharsets.UTF_8));
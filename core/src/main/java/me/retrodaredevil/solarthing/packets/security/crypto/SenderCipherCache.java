@@ -0,0 +1,69 @@
+package me.retrodaredevil.solarthing.packets.security.crypto;
+
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Decrypts data from senders while keeping a {@link Cipher} initialized with each sender's public key.
+ * <p>
+ * A sender's cipher is only initialized again when the {@link PublicKeyLookUp} gives a different {@link PublicKey} for that sender,
+ * which happens when the document containing the public keys has changed.
+ * <p>
+ * This is not thread safe.
+ */
+public final class SenderCipherCache {
+	private final PublicKeyLookUp publicKeyLookUp;
+	private final Map<String, InitializedCipher> senderCipherMap = new HashMap<>();
+
+	public SenderCipherCache(PublicKeyLookUp publicKeyLookUp) {
+		requireNonNull(this.publicKeyLookUp = publicKeyLookUp);
+	}
+
+	/**
+	 * Does the same thing as {@link Decrypt#decrypt(Cipher, PublicKeyLookUp, String, String)}
+	 */
+	public String decrypt(String sender, String base64EncryptedData) throws NotAuthorizedException, DecryptException, InvalidKeyException {
+		PublicKey key = publicKeyLookUp.getKey(sender);
+		if (key == null) {
+			senderCipherMap.remove(sender);
+			throw new NotAuthorizedException(sender + " is not authenticated");
+		}
+		InitializedCipher initializedCipher = senderCipherMap.get(sender);
+		if (initializedCipher == null || initializedCipher.key != key) { // if the key is a different object, the document containing it has been updated
+			initializedCipher = new InitializedCipher(key);
+			senderCipherMap.put(sender, initializedCipher);
+		}
+		try {
+			return Decrypt.decryptInitialized(initializedCipher.cipher, base64EncryptedData);
+		} catch (DecryptException e) {
+			// We don't want to rely on the state of a cipher that has thrown an exception
+			senderCipherMap.remove(sender);
+			throw e;
+		}
+	}
+
+	private static final class InitializedCipher {
+		private final PublicKey key;
+		private final Cipher cipher;
+
+		private InitializedCipher(PublicKey key) throws InvalidKeyException {
+			this.key = key;
+			try {
+				cipher = Cipher.getInstance(KeyUtil.CIPHER_TRANSFORMATION);
+			} catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+				throw new RuntimeException(e);
+			}
+			try {
+				cipher.init(Cipher.DECRYPT_MODE, key);
+			} catch (java.security.InvalidKeyException e) {
+				throw new InvalidKeyException("invalid key!", e);
+			}
+		}
+	}
+}
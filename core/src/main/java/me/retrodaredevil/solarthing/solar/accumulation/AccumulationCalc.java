@@ -32,22 +32,27 @@ public final class AccumulationCalc {
 			AccumulationValueFactory<U> accumulationValueFactory) {
 		U total = accumulationValueFactory.getZero();
 		for (AccumulationPair<? extends T> accumulationPair : accumulationPairs) {
-			final U addAmount;
-			if (accumulationPair.getStartPacketType() == AccumulationPair.StartPacketType.CUT_OFF) {
-				addAmount = totalGetter.getTotal(accumulationPair.getLatestPacket().getPacket()).minus(totalGetter.getTotal(accumulationPair.getStartPacket().getPacket()));
-			} else {
-				addAmount = totalGetter.getTotal(accumulationPair.getLatestPacket().getPacket());
-			}
-			total = total.plus(addAmount);
+			total = total.plus(getTotal(accumulationPair, totalGetter));
 		}
 		return total;
 	}
+	@Contract(pure = true)
+	static <T extends DailyData, U extends AccumulationValue<U>> U getTotal(AccumulationPair<? extends T> accumulationPair, TotalGetter<T, U> totalGetter) {
+		return getTotal(accumulationPair.getStartPacketType(), accumulationPair.getStartPacket().getPacket(), accumulationPair.getLatestPacket().getPacket(), totalGetter);
+	}
+	@Contract(pure = true)
+	static <T extends DailyData, U extends AccumulationValue<U>> U getTotal(AccumulationPair.StartPacketType startPacketType, T startPacket, T latestPacket, TotalGetter<T, U> totalGetter) {
+		if (startPacketType == AccumulationPair.StartPacketType.CUT_OFF) {
+			return totalGetter.getTotal(latestPacket).minus(totalGetter.getTotal(startPacket));
+		}
+		return totalGetter.getTotal(latestPacket);
+	}
 
 	/**
 	 *
 	 * @param accumulationPairs The list of accumulation pairs
 	 * @param totalGetter The getter function that gives the desired data point to be summed
-	 * @param packets For each packet, an associated {@link SumNode} is present in the returned list
+	 * @param packets For each packet, an associated {@link SumNode} is present in the returned list. This should be sorted by date for this to run in linear time.
 	 * @param <T> The type of the packet that is being used to calculate the total
 	 * @return
 	 */
@@ -58,22 +63,25 @@ public final class AccumulationCalc {
 		if (accumulationPairs.isEmpty()) {
 			throw new IllegalArgumentException("dailyPairs is empty!");
 		}
-		List<SumNode<U>> r = new ArrayList<>();
+		List<SumNode<U>> r = new ArrayList<>(packets.size());
+		// The total of every pair before the pair at index. Pairs before index are never changed, so they only need to be added once
+		U previousTotal = accumulationValueFactory.getZero();
+		int index = 0;
+		long lastDateMillis = Long.MIN_VALUE;
 		for (TimestampedPacket<T> packet : packets) {
 			long dateMillis = packet.getDateMillis();
-			List<AccumulationPair<T>> previousAccumulationPairs = new ArrayList<>();
-			for (AccumulationPair<T> element : accumulationPairs) {
-				previousAccumulationPairs.add(element);
-				if (dateMillis <= element.getLatestPacket().getDateMillis()) {
-					break;
-				}
+			if (dateMillis < lastDateMillis) {
+				// packets are usually sorted, but if they aren't, start over from the first pair
+				previousTotal = accumulationValueFactory.getZero();
+				index = 0;
 			}
-			if (previousAccumulationPairs.isEmpty()) {
-				throw new AssertionError("We checked to make sure dailyPairs is not empty, so why is previousDailyPairs empty?");
+			lastDateMillis = dateMillis;
+			while (index < accumulationPairs.size() - 1 && dateMillis > accumulationPairs.get(index).getLatestPacket().getDateMillis()) {
+				previousTotal = previousTotal.plus(getTotal(accumulationPairs.get(index), totalGetter));
+				index++;
 			}
-			AccumulationPair<T> lastAccumulationPair = previousAccumulationPairs.get(previousAccumulationPairs.size() - 1);
-			previousAccumulationPairs.set(previousAccumulationPairs.size() - 1, new AccumulationPair<>(lastAccumulationPair.getStartPacket(), packet, lastAccumulationPair.getStartPacketType()));
-			U sum = getTotal(previousAccumulationPairs, totalGetter, accumulationValueFactory);
+			AccumulationPair<T> accumulationPair = accumulationPairs.get(index);
+			U sum = previousTotal.plus(getTotal(accumulationPair.getStartPacketType(), accumulationPair.getStartPacket().getPacket(), packet.getPacket(), totalGetter));
 			r.add(new SumNode<>(sum, dateMillis));
 		}
 		return r;
@@ -24,18 +24,18 @@ public final class AccumulationUtil {
 	 *                Helps determine if the first packet needs to be interpreted as data from today or from yesterday.
 	 */
 	@Contract(pure = true)
-	private static <T extends DailyData> AccumulationPair<T> createAccumulationPair(boolean isFirst, TimestampedPacket<T> firstPacket, TimestampedPacket<T> endPacket, AccumulationConfig accumulationConfig) {
-		final AccumulationPair.StartPacketType startPacketType;
+	static AccumulationPair.StartPacketType getStartPacketType(boolean isFirst, TimestampedPacket<?> firstPacket, TimestampedPacket<?> endPacket, AccumulationConfig accumulationConfig) {
 		if (isFirst) {
 			if (firstPacket.getDateMillis() < accumulationConfig.getCutOffIfStartBeforeDateMillis() || endPacket.getDateMillis() < accumulationConfig.getCutOffIfEndBeforeDateMillis()) {
-				startPacketType = AccumulationPair.StartPacketType.CUT_OFF;
-			} else {
-				startPacketType = AccumulationPair.StartPacketType.MIDDLE_OF_DAY_CONNECT;
+				return AccumulationPair.StartPacketType.CUT_OFF;
 			}
-		} else {
-			startPacketType = AccumulationPair.StartPacketType.FIRST_AFTER_RESET;
+			return AccumulationPair.StartPacketType.MIDDLE_OF_DAY_CONNECT;
 		}
-		return new AccumulationPair<>(firstPacket, endPacket, startPacketType);
+		return AccumulationPair.StartPacketType.FIRST_AFTER_RESET;
+	}
+	@Contract(pure = true)
+	private static <T extends DailyData> AccumulationPair<T> createAccumulationPair(boolean isFirst, TimestampedPacket<T> firstPacket, TimestampedPacket<T> endPacket, AccumulationConfig accumulationConfig) {
+		return new AccumulationPair<>(firstPacket, endPacket, getStartPacketType(isFirst, firstPacket, endPacket, accumulationConfig));
 	}
 	@Contract(pure = true)
 	public static <T extends DailyData> List<AccumulationPair<T>> getAccumulationPairs(List<? extends TimestampedPacket<T>> packets, AccumulationConfig accumulationConfig) {
@@ -0,0 +1,166 @@
+package me.retrodaredevil.solarthing.solar.accumulation;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import me.retrodaredevil.solarthing.annotations.Nullable;
+import me.retrodaredevil.solarthing.packets.TimestampedPacket;
+import me.retrodaredevil.solarthing.solar.accumulation.value.AccumulationValue;
+import me.retrodaredevil.solarthing.solar.accumulation.value.AccumulationValueFactory;
+import me.retrodaredevil.solarthing.solar.common.DailyData;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Keeps a running total for packets from a single device (a single {@link me.retrodaredevil.solarthing.packets.identification.IdentifierFragment}).
+ * Packets are given one at a time in order, and counter resets are detected as they are given, so the total is calculated in a single pass.
+ * <p>
+ * The value returned by {@link #getTotal()} is the same as the value {@link AccumulationCalc#getTotal(java.util.List, TotalGetter, AccumulationValueFactory)}
+ * would give for the accumulation pairs of every packet that has been given, but this does not need every packet to be in memory.
+ * Use {@link #getCheckpoint()} to store the state, so that accumulation can continue later without the packets that have already been given.
+ * @param <T> The type of the packet
+ * @param <U> The type of the accumulated value
+ */
+public final class IncrementalAccumulator<T extends DailyData, U extends AccumulationValue<U>> {
+	private final TotalGetter<T, U> totalGetter;
+	private final AccumulationValueFactory<U> accumulationValueFactory;
+	private final AccumulationConfig accumulationConfig;
+
+	/** The total of every day (or reset) before the current one */
+	private U previousTotal;
+	private boolean first;
+	private @Nullable TimestampedPacket<T> startPacket;
+	private @Nullable TimestampedPacket<T> latestPacket;
+
+	public IncrementalAccumulator(TotalGetter<T, U> totalGetter, AccumulationValueFactory<U> accumulationValueFactory, AccumulationConfig accumulationConfig) {
+		requireNonNull(this.totalGetter = totalGetter);
+		requireNonNull(this.accumulationValueFactory = accumulationValueFactory);
+		requireNonNull(this.accumulationConfig = accumulationConfig);
+		previousTotal = accumulationValueFactory.getZero();
+		first = true;
+	}
+	public IncrementalAccumulator(TotalGetter<T, U> totalGetter, AccumulationValueFactory<U> accumulationValueFactory, AccumulationConfig accumulationConfig, Checkpoint<T, U> checkpoint) {
+		this(totalGetter, accumulationValueFactory, accumulationConfig);
+		previousTotal = checkpoint.previousTotal;
+		first = checkpoint.first;
+		startPacket = checkpoint.startPacket;
+		latestPacket = checkpoint.latestPacket;
+	}
+
+	/**
+	 * @param packet The next packet. Its date should not be before the date of the last packet that was given
+	 * @return The total including the given packet
+	 */
+	public U add(TimestampedPacket<T> packet) {
+		TimestampedPacket<T> latestPacket = this.latestPacket;
+		if (latestPacket == null) {
+			startPacket = packet;
+		} else if (packet.getPacket().isNewDay(latestPacket.getPacket())) {
+			previousTotal = previousTotal.plus(getCurrentTotal(latestPacket));
+			first = false;
+			startPacket = packet;
+		}
+		this.latestPacket = packet;
+		return previousTotal.plus(getCurrentTotal(packet));
+	}
+
+	/**
+	 * @return The total of every packet that has been given
+	 */
+	public U getTotal() {
+		TimestampedPacket<T> latestPacket = this.latestPacket;
+		if (latestPacket == null) {
+			return previousTotal;
+		}
+		return previousTotal.plus(getCurrentTotal(latestPacket));
+	}
+
+	private U getCurrentTotal(TimestampedPacket<T> latestPacket) {
+		TimestampedPacket<T> startPacket = requireNonNull(this.startPacket);
+		AccumulationPair.StartPacketType startPacketType = AccumulationUtil.getStartPacketType(first, startPacket, latestPacket, accumulationConfig);
+		return AccumulationCalc.getTotal(startPacketType, startPacket.getPacket(), latestPacket.getPacket(), totalGetter);
+	}
+
+	/**
+	 * @return An immutable object representing the current state, which can be passed to {@link #IncrementalAccumulator(TotalGetter, AccumulationValueFactory, AccumulationConfig, Checkpoint)}
+	 */
+	public Checkpoint<T, U> getCheckpoint() {
+		return new Checkpoint<>(previousTotal, first, startPacket, latestPacket);
+	}
+
+	/**
+	 * An immutable state of an {@link IncrementalAccumulator}. This can be serialized with Jackson so it can be stored.
+	 * Use {@link #createType(TypeFactory, Class, Class)} to deserialize it.
+	 * <p>
+	 * Packets are serialized the same way they are normally serialized, so {@code T} must be a packet type that can be deserialized by the {@link com.fasterxml.jackson.databind.ObjectMapper} being used.
+	 */
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	public static final class Checkpoint<T extends DailyData, U extends AccumulationValue<U>> {
+		private final U previousTotal;
+		private final boolean first;
+		private final @Nullable TimestampedPacket<T> startPacket;
+		private final @Nullable TimestampedPacket<T> latestPacket;
+
+		private Checkpoint(U previousTotal, boolean first, @Nullable TimestampedPacket<T> startPacket, @Nullable TimestampedPacket<T> latestPacket) {
+			requireNonNull(this.previousTotal = previousTotal);
+			this.first = first;
+			this.startPacket = startPacket;
+			this.latestPacket = latestPacket;
+		}
+		@JsonCreator
+		private Checkpoint(
+				@JsonProperty(value = "previousTotal", required = true) U previousTotal,
+				@JsonProperty(value = "first", required = true) boolean first,
+				@JsonProperty("startPacket") @Nullable T startPacket, @JsonProperty("startDateMillis") @Nullable Long startDateMillis,
+				@JsonProperty("latestPacket") @Nullable T latestPacket, @JsonProperty("latestDateMillis") @Nullable Long latestDateMillis) {
+			this(previousTotal, first, createTimestampedPacket(startPacket, startDateMillis), createTimestampedPacket(latestPacket, latestDateMillis));
+		}
+		private static <T> @Nullable TimestampedPacket<T> createTimestampedPacket(@Nullable T packet, @Nullable Long dateMillis) {
+			if (packet == null) {
+				return null;
+			}
+			return new TimestampedPacket<>(packet, requireNonNull(dateMillis, "The date of a packet is required!"));
+		}
+
+		/**
+		 * @param typeFactory The type factory of the {@link com.fasterxml.jackson.databind.ObjectMapper} being used
+		 * @param packetType The type of the packet
+		 * @param valueType The type of the accumulated value
+		 * @return The type to give to {@link com.fasterxml.jackson.databind.ObjectMapper#readValue(String, JavaType)} to deserialize a {@link Checkpoint}
+		 */
+		public static JavaType createType(TypeFactory typeFactory, Class<? extends DailyData> packetType, Class<? extends AccumulationValue<?>> valueType) {
+			return typeFactory.constructParametricType(Checkpoint.class, packetType, valueType);
+		}
+
+		@JsonProperty("previousTotal")
+		private U getPreviousTotal() {
+			return previousTotal;
+		}
+		@JsonProperty("first")
+		private boolean isFirst() {
+			return first;
+		}
+		@JsonProperty("startPacket")
+		private @Nullable T getStartPacket() {
+			return startPacket == null ? null : startPacket.getPacket();
+		}
+		@JsonProperty("startDateMillis")
+		private @Nullable Long getStartDateMillis() {
+			return startPacket == null ? null : startPacket.getDateMillis();
+		}
+		@JsonProperty("latestPacket")
+		private @Nullable T getLatestPacket() {
+			return latestPacket == null ? null : latestPacket.getPacket();
+		}
+
+		/**
+		 * @return The date of the last packet that was given, or null if no packets were given
+		 */
+		@JsonProperty("latestDateMillis")
+		public @Nullable Long getLatestDateMillis() {
+			return latestPacket == null ? null : latestPacket.getDateMillis();
+		}
+	}
+}
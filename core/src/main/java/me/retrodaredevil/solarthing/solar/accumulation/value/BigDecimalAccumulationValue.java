@@ -1,5 +1,7 @@
 package me.retrodaredevil.solarthing.solar.accumulation.value;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
 import me.retrodaredevil.solarthing.solar.accumulation.TotalGetter;
 
 import java.math.BigDecimal;
@@ -10,6 +12,7 @@ import static java.util.Objects.requireNonNull;
 public class BigDecimalAccumulationValue implements AccumulationValue<BigDecimalAccumulationValue> {
 	private final BigDecimal value;
 
+	@JsonCreator(mode = JsonCreator.Mode.DELEGATING)
 	public BigDecimalAccumulationValue(BigDecimal value) {
 		requireNonNull(this.value = value);
 	}
@@ -20,6 +23,7 @@ public class BigDecimalAccumulationValue implements AccumulationValue<BigDecimal
 		return packet -> new BigDecimalAccumulationValue(totalGetter.getTotal(packet).toBigDecimal());
 	}
 
+	@JsonValue
 	public BigDecimal getValue() {
 		return value;
 	}
@@ -1,5 +1,7 @@
 package me.retrodaredevil.solarthing.solar.accumulation.value;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
 import me.retrodaredevil.solarthing.solar.accumulation.TotalGetter;
 
 import java.math.BigDecimal;
@@ -10,6 +12,7 @@ import java.util.function.Function;
 public final class FloatAccumulationValue implements AccumulationValue<FloatAccumulationValue> {
 	private final float value;
 
+	@JsonCreator(mode = JsonCreator.Mode.DELEGATING)
 	public FloatAccumulationValue(float value) {
 		this.value = value;
 		if (!Float.isFinite(value)) {
@@ -20,6 +23,7 @@ public final class FloatAccumulationValue implements AccumulationValue<FloatAccu
 	public static <T> TotalGetter<T, FloatAccumulationValue> convert(Function<T, Float> totalGetter) {
 		return packet -> new FloatAccumulationValue(totalGetter.apply(packet));
 	}
+	@JsonValue
 	public float getValue() {
 		return value;
 	}
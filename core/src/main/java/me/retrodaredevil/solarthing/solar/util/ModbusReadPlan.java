@@ -0,0 +1,81 @@
+package me.retrodaredevil.solarthing.solar.util;
+
+import me.retrodaredevil.solarthing.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * An immutable, ordered list of contiguous register blocks that should be read in bulk. Usually created by a {@link ModbusReadPlanner}.
+ */
+public final class ModbusReadPlan {
+	private final List<Block> blocks;
+
+	public ModbusReadPlan(List<Block> blocks) {
+		this.blocks = Collections.unmodifiableList(new ArrayList<>(blocks));
+	}
+
+	public @NotNull List<@NotNull Block> getBlocks() {
+		return blocks;
+	}
+
+	/**
+	 * @return The total number of registers that are read by this plan
+	 */
+	public int getTotalNumberOfRegisters() {
+		int total = 0;
+		for (Block block : blocks) {
+			total += block.getNumberOfRegisters();
+		}
+		return total;
+	}
+
+	@Override
+	public String toString() {
+		return "ModbusReadPlan(" + blocks + ")";
+	}
+
+	public enum RegisterType {
+		HOLDING,
+		INPUT
+	}
+
+	public static final class Block {
+		private final RegisterType registerType;
+		private final int startRegister;
+		private final int numberOfRegisters;
+
+		public Block(RegisterType registerType, int startRegister, int numberOfRegisters) {
+			requireNonNull(this.registerType = registerType);
+			this.startRegister = startRegister;
+			this.numberOfRegisters = numberOfRegisters;
+			if (numberOfRegisters <= 0) {
+				throw new IllegalArgumentException("numberOfRegisters must be positive! numberOfRegisters=" + numberOfRegisters);
+			}
+		}
+
+		public @NotNull RegisterType getRegisterType() {
+			return registerType;
+		}
+
+		public int getStartRegister() {
+			return startRegister;
+		}
+
+		public int getNumberOfRegisters() {
+			return numberOfRegisters;
+		}
+
+		public int getEndRegisterInclusive() {
+			return startRegister + numberOfRegisters - 1;
+		}
+
+		@Override
+		public String toString() {
+			return registerType + "[" + String.format("0x%04X", startRegister) + "-" + String.format("0x%04X", getEndRegisterInclusive()) + "]";
+		}
+	}
+}
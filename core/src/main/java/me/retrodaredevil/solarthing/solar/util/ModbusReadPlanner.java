@@ -0,0 +1,155 @@
+package me.retrodaredevil.solarthing.solar.util;
+
+import me.retrodaredevil.io.modbus.handling.BaseReadRegisters;
+import me.retrodaredevil.io.modbus.handling.ReadHoldingRegisters;
+import me.retrodaredevil.io.modbus.handling.ReadInputRegisters;
+import me.retrodaredevil.solarthing.solar.util.ModbusReadPlan.Block;
+import me.retrodaredevil.solarthing.solar.util.ModbusReadPlan.RegisterType;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Creates a {@link ModbusReadPlan} from a set of registers that should be read.
+ * <p>
+ * Registers can be added individually, or by using {@link #addDeclaredReads(Class)}, which finds every static
+ * {@link ReadHoldingRegisters} or {@link ReadInputRegisters} constant declared on a given class. Registers that
+ * cannot be read in bulk should be excluded. An excluded register will never be part of a block, and a block
+ * will never span over an excluded register.
+ * <p>
+ * Note that the registers in this class are the data addresses, which range from 0 to 0xFFFF
+ */
+public final class ModbusReadPlanner {
+	private static final int REGISTER_COUNT = 0x10000;
+
+	private final int maxSpan;
+	private final int maxGap;
+	private final Map<RegisterType, BitSet> registersMap = new EnumMap<>(RegisterType.class);
+	private final Map<RegisterType, BitSet> excludedMap = new EnumMap<>(RegisterType.class);
+
+	/**
+	 * @param maxSpan The maximum number of registers a single block may contain. This should be no greater than the number of registers a device allows to be read at once
+	 * @param maxGap The maximum number of unused registers that a block may contain to join two separate ranges of registers. Usually 0 unless a device allows reads of undefined registers
+	 */
+	public ModbusReadPlanner(int maxSpan, int maxGap) {
+		if (maxSpan <= 0) {
+			throw new IllegalArgumentException("maxSpan must be positive! maxSpan=" + maxSpan);
+		}
+		if (maxGap < 0) {
+			throw new IllegalArgumentException("maxGap cannot be negative! maxGap=" + maxGap);
+		}
+		this.maxSpan = maxSpan;
+		this.maxGap = maxGap;
+		for (RegisterType registerType : RegisterType.values()) {
+			registersMap.put(registerType, new BitSet(REGISTER_COUNT));
+			excludedMap.put(registerType, new BitSet(REGISTER_COUNT));
+		}
+	}
+
+	private static void checkRange(int startRegister, int numberOfRegisters) {
+		if (startRegister < 0 || numberOfRegisters <= 0 || startRegister + numberOfRegisters > REGISTER_COUNT) {
+			throw new IllegalArgumentException("Invalid register range! startRegister=" + startRegister + " numberOfRegisters=" + numberOfRegisters);
+		}
+	}
+
+	public ModbusReadPlanner add(RegisterType registerType, int startRegister, int numberOfRegisters) {
+		checkRange(startRegister, numberOfRegisters);
+		registersMap.get(registerType).set(startRegister, startRegister + numberOfRegisters);
+		return this;
+	}
+	public ModbusReadPlanner addHolding(int startRegister, int numberOfRegisters) {
+		return add(RegisterType.HOLDING, startRegister, numberOfRegisters);
+	}
+	public ModbusReadPlanner addInput(int startRegister, int numberOfRegisters) {
+		return add(RegisterType.INPUT, startRegister, numberOfRegisters);
+	}
+
+	/**
+	 * Adds the registers from the given read handler. Read handlers other than {@link ReadHoldingRegisters} and {@link ReadInputRegisters} are ignored.
+	 * @param read The read handler
+	 * @return this
+	 */
+	public ModbusReadPlanner add(Object read) {
+		if (read instanceof ReadHoldingRegisters) {
+			BaseReadRegisters registers = (BaseReadRegisters) read;
+			return addHolding(registers.getStartingDataAddress(), registers.getNumberOfRegisters());
+		} else if (read instanceof ReadInputRegisters) {
+			BaseReadRegisters registers = (BaseReadRegisters) read;
+			return addInput(registers.getStartingDataAddress(), registers.getNumberOfRegisters());
+		}
+		return this;
+	}
+
+	/**
+	 * Adds the registers from every static {@link ReadHoldingRegisters} and {@link ReadInputRegisters} constant declared on {@code clazz}
+	 * @param clazz The class such as a {@link AbstractModbusRead} subclass that declares its registers as static constants
+	 * @return this
+	 */
+	public ModbusReadPlanner addDeclaredReads(Class<?> clazz) {
+		for (Field field : clazz.getDeclaredFields()) {
+			if (!Modifier.isStatic(field.getModifiers())) {
+				continue;
+			}
+			final Object value;
+			try {
+				field.setAccessible(true);
+				value = field.get(null);
+			} catch (IllegalAccessException | RuntimeException e) {
+				throw new IllegalStateException("Could not access field: " + field, e);
+			}
+			add(value);
+		}
+		return this;
+	}
+
+	public ModbusReadPlanner exclude(RegisterType registerType, int startRegister, int numberOfRegisters) {
+		checkRange(startRegister, numberOfRegisters);
+		excludedMap.get(registerType).set(startRegister, startRegister + numberOfRegisters);
+		return this;
+	}
+	public ModbusReadPlanner excludeHoldingRangeInclusive(int startRegister, int endRegister) {
+		return exclude(RegisterType.HOLDING, startRegister, endRegister - startRegister + 1);
+	}
+	public ModbusReadPlanner excludeInputRangeInclusive(int startRegister, int endRegister) {
+		return exclude(RegisterType.INPUT, startRegister, endRegister - startRegister + 1);
+	}
+
+	/**
+	 * @return true if {@code bitSet} has a bit set in the range [{@code fromIndex}, {@code toIndex})
+	 */
+	private static boolean containsSetBit(BitSet bitSet, int fromIndex, int toIndex) {
+		int index = bitSet.nextSetBit(fromIndex);
+		return index >= 0 && index < toIndex;
+	}
+
+	public ModbusReadPlan build() {
+		List<Block> blocks = new ArrayList<>();
+		for (RegisterType registerType : RegisterType.values()) {
+			BitSet excluded = excludedMap.get(registerType);
+			BitSet registers = (BitSet) registersMap.get(registerType).clone();
+			registers.andNot(excluded);
+
+			int blockStart = registers.nextSetBit(0);
+			while (blockStart >= 0) {
+				int blockEnd = blockStart; // inclusive
+				int next = registers.nextSetBit(blockEnd + 1);
+				while (next >= 0
+						&& next - blockStart < maxSpan
+						&& next - blockEnd - 1 <= maxGap
+						&& !containsSetBit(excluded, blockEnd + 1, next)
+				) {
+					blockEnd = next;
+					next = registers.nextSetBit(blockEnd + 1);
+				}
+				blocks.add(new Block(registerType, blockStart, blockEnd - blockStart + 1));
+				blockStart = next;
+			}
+		}
+		return new ModbusReadPlan(blocks);
+	}
+}
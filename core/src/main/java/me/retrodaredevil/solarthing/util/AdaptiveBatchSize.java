@@ -0,0 +1,54 @@
+package me.retrodaredevil.solarthing.util;
+
+/**
+ * Keeps track of how many items should be sent in each request so that a request takes about as long as a target latency.
+ * <p>
+ * While full batches are faster than half the target latency, the batch size is doubled. When a batch is slower than the target latency,
+ * the batch size is decreased in proportion to how slow it was. When a request fails, the batch size is halved.
+ * <p>
+ * This class is not thread safe.
+ */
+public final class AdaptiveBatchSize {
+	private final int minSize;
+	private final int maxSize;
+	private final long targetLatencyMillis;
+
+	private int size;
+
+	public AdaptiveBatchSize(int minSize, int initialSize, int maxSize, long targetLatencyMillis) {
+		if (minSize <= 0 || minSize > initialSize || initialSize > maxSize) {
+			throw new IllegalArgumentException("Must have 0 < minSize <= initialSize <= maxSize! minSize=" + minSize + " initialSize=" + initialSize + " maxSize=" + maxSize);
+		}
+		if (targetLatencyMillis <= 0) {
+			throw new IllegalArgumentException("targetLatencyMillis must be positive! targetLatencyMillis=" + targetLatencyMillis);
+		}
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.targetLatencyMillis = targetLatencyMillis;
+		size = initialSize;
+	}
+
+	/**
+	 * @return The number of items that should be sent in the next request
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * @param count The number of items that were sent
+	 * @param latencyMillis How long the request took
+	 */
+	public void onSuccess(int count, long latencyMillis) {
+		if (latencyMillis > targetLatencyMillis) {
+			size = Math.max(minSize, (int) (size * targetLatencyMillis / latencyMillis));
+		} else if (count >= size && latencyMillis <= targetLatencyMillis / 2) {
+			// only grow when the batch was full, otherwise we don't know how a larger batch would perform
+			size = (int) Math.min(maxSize, 2L * size);
+		}
+	}
+
+	public void onFailure() {
+		size = Math.max(minSize, size / 2);
+	}
+}
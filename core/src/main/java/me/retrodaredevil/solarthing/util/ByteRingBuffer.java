@@ -0,0 +1,96 @@
+package me.retrodaredevil.solarthing.util;
+
+import me.retrodaredevil.solarthing.annotations.Nullable;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * A fixed size buffer that passes bytes from a single producer thread to a single consumer thread without allocating after it is created.
+ * <p>
+ * The producer blocks when the buffer is full, and the consumer is able to wait for data with a timeout.
+ */
+public final class ByteRingBuffer {
+	private final byte[] buffer;
+
+	private int readIndex = 0;
+	private int size = 0;
+	private boolean finished = false;
+	private @Nullable IOException finishCause = null;
+
+	public ByteRingBuffer(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be > 0! capacity=" + capacity);
+		}
+		buffer = new byte[capacity];
+	}
+
+	/**
+	 * Writes all the given bytes, blocking while the buffer is full.
+	 */
+	public synchronized void write(byte[] source, int offset, int length) throws InterruptedException {
+		if (finished) {
+			throw new IllegalStateException("Cannot write after finish() has been called!");
+		}
+		while (length > 0) {
+			while (size == buffer.length) {
+				wait();
+			}
+			int writeIndex = (readIndex + size) % buffer.length;
+			int amount = Math.min(length, Math.min(buffer.length - size, buffer.length - writeIndex));
+			System.arraycopy(source, offset, buffer, writeIndex, amount);
+			size += amount;
+			offset += amount;
+			length -= amount;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Indicates that no more bytes will be written. Once the consumer has read all the remaining bytes, {@link #readChars(char[], int, int, long)}
+	 * will throw an {@link IOException}
+	 * @param cause The reason that no more bytes will be written, or null if the end of the stream was reached
+	 */
+	public synchronized void finish(@Nullable IOException cause) {
+		finished = true;
+		finishCause = cause;
+		notifyAll();
+	}
+
+	/**
+	 * Reads bytes as ASCII characters into {@code destination}. If no bytes are available, this waits up to {@code timeoutMillis} for bytes to become available.
+	 * @return The number of characters that were read, or 0 if the timeout elapsed before any bytes were available
+	 * @throws EOFException If the end of the stream has been reached and there are no bytes remaining
+	 * @throws IOException If the producer finished because of an exception and there are no bytes remaining
+	 */
+	public synchronized int readChars(char[] destination, int offset, int length, long timeoutMillis) throws IOException, InterruptedException {
+		if (size == 0 && !finished && timeoutMillis > 0) {
+			long deadlineNanos = System.nanoTime() + timeoutMillis * 1_000_000L;
+			long remainingNanos = timeoutMillis * 1_000_000L;
+			while (size == 0 && !finished && remainingNanos > 0) {
+				wait(remainingNanos / 1_000_000L, (int) (remainingNanos % 1_000_000L));
+				remainingNanos = deadlineNanos - System.nanoTime();
+			}
+		}
+		if (size == 0) {
+			if (finished) {
+				if (finishCause != null) {
+					throw finishCause;
+				}
+				throw new EOFException();
+			}
+			return 0;
+		}
+		int amount = Math.min(length, size);
+		for (int i = 0; i < amount; i++) {
+			destination[offset + i] = (char) (buffer[readIndex] & 0xFF);
+			readIndex++;
+			if (readIndex == buffer.length) {
+				readIndex = 0;
+			}
+		}
+		size -= amount;
+		notifyAll();
+		return amount;
+	}
+}
@@ -0,0 +1,40 @@
+package me.retrodaredevil.solarthing.util.queue;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+/**
+ * Determines how often a {@link SegmentedFileQueue} or a {@link me.retrodaredevil.solarthing.database.local.LocalMillisDatabase} forces its data to be written to the storage device.
+ * <p>
+ * On devices such as SD cards, syncing often is slow and wears the card more, but syncing less often
+ * means more data may be lost if power is lost.
+ */
+public enum FsyncPolicy {
+	/** Sync after every record that is appended. Safest, but slowest */
+	EVERY_WRITE("every_write"),
+	/** Sync when a segment is rotated or when the queue or database is closed. Records in the current segment may be lost if power is lost */
+	SEGMENT("segment"),
+	/** Never explicitly sync. The operating system decides when data is written */
+	NEVER("never"),
+	;
+	private final String shortName;
+
+	FsyncPolicy(String shortName) {
+		this.shortName = shortName;
+	}
+
+	@JsonValue
+	public String getShortName() {
+		return shortName;
+	}
+
+	@JsonCreator
+	public static FsyncPolicy forValue(String shortName) {
+		for (FsyncPolicy fsyncPolicy : values()) {
+			if (fsyncPolicy.shortName.equals(shortName)) {
+				return fsyncPolicy;
+			}
+		}
+		throw new IllegalArgumentException("shortName=" + shortName + " is not valid!");
+	}
+}
@@ -0,0 +1,463 @@
+package me.retrodaredevil.solarthing.util.queue;
+
+import me.retrodaredevil.solarthing.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A durable, append only, first in first out queue of byte records that is stored in a directory.
+ * <p>
+ * Records are appended to the newest segment file. Once a segment reaches {@code maxSegmentBytes}, a new segment is started.
+ * Records are read starting at the oldest segment and a checkpoint file remembers the position of the oldest record that has not been removed.
+ * To avoid writing the checkpoint after every record, the checkpoint is written after {@link #CHECKPOINT_INTERVAL_RECORDS} records have been removed,
+ * after {@link #CHECKPOINT_INTERVAL_MILLIS} milliseconds, when the queue becomes empty and when the queue is closed. If the program stops before the checkpoint
+ * is written, up to {@link #CHECKPOINT_INTERVAL_RECORDS} records that were removed are read again once the queue is opened again.
+ * Segments that have been completely read are deleted. If the total size of all segments exceeds {@code maxTotalBytes},
+ * the oldest segments are deleted even if they have not been read.
+ * <p>
+ * Each record is stored as its length, the CRC32 of its data, then its data. When a queue is opened, a partially written
+ * record at the end of the newest segment is truncated. A corrupt record in an older segment causes the rest of that segment to be skipped.
+ * <p>
+ * While a queue is open, it holds a lock on a file in its directory, so a directory cannot be used by two queues at once, even by different processes.
+ * <p>
+ * This class is thread safe.
+ */
+public class SegmentedFileQueue implements Closeable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(SegmentedFileQueue.class);
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".dat";
+	private static final String CHECKPOINT_NAME = "checkpoint";
+	private static final String CHECKPOINT_TEMP_NAME = "checkpoint.tmp";
+	private static final String LOCK_NAME = "lock";
+	private static final int HEADER_BYTES = 8;
+	/** The maximum number of removed records that may be read again after the program stops unexpectedly*/
+	public static final int CHECKPOINT_INTERVAL_RECORDS = 100;
+	public static final long CHECKPOINT_INTERVAL_MILLIS = 1000;
+
+	private final Path directory;
+	private final long maxSegmentBytes;
+	private final long maxTotalBytes;
+	private final FsyncPolicy fsyncPolicy;
+	private final FileChannel lockChannel;
+
+	/** A map of each existing segment's index to its size in bytes */
+	private final TreeMap<Long, Long> segmentSizeMap = new TreeMap<>();
+	private long totalBytes = 0;
+	private long droppedBytes = 0;
+
+	private long writeSegment;
+	private FileChannel writeChannel;
+
+	private long readSegment;
+	private long readPosition;
+	private FileChannel readChannel = null;
+	private long readChannelSegment = -1;
+
+	private byte[] peeked = null;
+	private long peekedNextPosition;
+
+	/** The number of records that have been removed since the checkpoint was last written*/
+	private int uncheckpointedRecords = 0;
+	private long lastCheckpointNanos = System.nanoTime();
+
+	private boolean closed = false;
+
+	/**
+	 * Opens or creates a queue in {@code directory}.
+	 * @param directory The directory to store the queue in. This directory should not be used for anything else
+	 * @param maxSegmentBytes The size that a segment can grow to before a new segment is started
+	 * @param maxTotalBytes The maximum number of bytes the queue may use. Must be at least double {@code maxSegmentBytes}
+	 * @param fsyncPolicy Determines how often data is synced to the storage device
+	 * @throws IOException If the directory could not be created, if existing data could not be read, or if another queue is using the directory
+	 */
+	public SegmentedFileQueue(Path directory, long maxSegmentBytes, long maxTotalBytes, FsyncPolicy fsyncPolicy) throws IOException {
+		requireNonNull(this.directory = directory);
+		requireNonNull(this.fsyncPolicy = fsyncPolicy);
+		this.maxSegmentBytes = maxSegmentBytes;
+		this.maxTotalBytes = maxTotalBytes;
+		if (maxSegmentBytes <= HEADER_BYTES) {
+			throw new IllegalArgumentException("maxSegmentBytes is too small! maxSegmentBytes=" + maxSegmentBytes);
+		}
+		if (maxTotalBytes < 2 * maxSegmentBytes) {
+			throw new IllegalArgumentException("maxTotalBytes must be at least double maxSegmentBytes! maxTotalBytes=" + maxTotalBytes + " maxSegmentBytes=" + maxSegmentBytes);
+		}
+		Files.createDirectories(directory);
+		lockChannel = lock(directory);
+		try {
+			open();
+		} catch (IOException | RuntimeException e) {
+			closeLockChannel(e);
+			throw e;
+		}
+	}
+
+	private static FileChannel lock(Path directory) throws IOException {
+		Path lockPath = directory.resolve(LOCK_NAME);
+		FileChannel channel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		final FileLock lock;
+		try {
+			lock = channel.tryLock();
+		} catch (OverlappingFileLockException e) {
+			channel.close();
+			throw new IOException("The queue in " + directory + " is already open in this program!", e);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		if (lock == null) {
+			channel.close();
+			throw new IOException("The queue in " + directory + " is being used by another program! Lock file: " + lockPath);
+		}
+		return channel; // closing the channel releases the lock
+	}
+	private void closeLockChannel(Exception cause) {
+		try {
+			lockChannel.close();
+		} catch (IOException e) {
+			cause.addSuppressed(e);
+		}
+	}
+
+	private void open() throws IOException {
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+			for (Path path : stream) {
+				String name = path.getFileName().toString();
+				final long index;
+				try {
+					index = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+				} catch (NumberFormatException e) {
+					LOGGER.warn("Ignoring unknown file: " + path);
+					continue;
+				}
+				long size = Files.size(path);
+				segmentSizeMap.put(index, size);
+				totalBytes += size;
+			}
+		}
+		long checkpointSegment = 0;
+		long checkpointPosition = 0;
+		Path checkpointPath = directory.resolve(CHECKPOINT_NAME);
+		if (Files.exists(checkpointPath)) {
+			byte[] checkpoint = Files.readAllBytes(checkpointPath);
+			if (checkpoint.length == 16) {
+				ByteBuffer buffer = ByteBuffer.wrap(checkpoint);
+				checkpointSegment = buffer.getLong();
+				checkpointPosition = buffer.getLong();
+			} else {
+				LOGGER.warn("Checkpoint file is corrupt. Reading from the oldest segment.");
+			}
+		}
+		if (segmentSizeMap.isEmpty()) {
+			writeSegment = Math.max(1, checkpointSegment);
+			segmentSizeMap.put(writeSegment, 0L);
+			writeChannel = FileChannel.open(getSegmentPath(writeSegment), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			readSegment = writeSegment;
+			readPosition = 0;
+		} else {
+			writeSegment = segmentSizeMap.lastKey();
+			writeChannel = FileChannel.open(getSegmentPath(writeSegment), StandardOpenOption.WRITE);
+			recoverWriteSegment();
+
+			Long segment = segmentSizeMap.ceilingKey(checkpointSegment);
+			requireNonNull(segment); // the write segment always exists
+			readSegment = segment;
+			readPosition = segment == checkpointSegment ? Math.min(checkpointPosition, segmentSizeMap.get(segment)) : 0;
+			while (segmentSizeMap.firstKey() < readSegment) { // delete segments that were completely read, but not deleted
+				deleteSegment(segmentSizeMap.firstKey());
+			}
+		}
+		writeChannel.position(segmentSizeMap.get(writeSegment));
+	}
+
+	private Path getSegmentPath(long index) {
+		return directory.resolve(String.format("%s%019d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+	}
+
+	/**
+	 * Truncates a partially written or corrupt record from the end of the write segment
+	 */
+	private void recoverWriteSegment() throws IOException {
+		long size = segmentSizeMap.get(writeSegment);
+		long position = 0;
+		try (FileChannel channel = FileChannel.open(getSegmentPath(writeSegment), StandardOpenOption.READ)) {
+			while (position < size) {
+				byte[] data = readRecord(channel, position, size);
+				if (data == null) {
+					break;
+				}
+				position += HEADER_BYTES + data.length;
+			}
+		}
+		if (position < size) {
+			LOGGER.warn("Truncating " + (size - position) + " bytes from the end of segment " + writeSegment + " because they were not completely written.");
+			writeChannel.truncate(position);
+			segmentSizeMap.put(writeSegment, position);
+			totalBytes -= size - position;
+		}
+	}
+
+	/**
+	 * @return The data of the record at {@code position} or null if the record is incomplete or corrupt
+	 */
+	private static @Nullable byte[] readRecord(FileChannel channel, long position, long size) throws IOException {
+		if (position + HEADER_BYTES > size) {
+			return null;
+		}
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		readFully(channel, header, position);
+		int length = header.getInt(0);
+		int crc = header.getInt(4);
+		if (length < 0 || position + HEADER_BYTES + length > size) {
+			return null;
+		}
+		ByteBuffer data = ByteBuffer.allocate(length);
+		readFully(channel, data, position + HEADER_BYTES);
+		CRC32 crc32 = new CRC32();
+		crc32.update(data.array(), 0, length);
+		if ((int) crc32.getValue() != crc) {
+			return null;
+		}
+		return data.array();
+	}
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position + buffer.position());
+			if (read < 0) {
+				throw new IOException("Unexpected end of file");
+			}
+		}
+	}
+
+	private void checkOpen() {
+		if (closed) {
+			throw new IllegalStateException("This queue has been closed!");
+		}
+	}
+
+	/**
+	 * Appends a record to the end of the queue. If the queue would use more than its maximum number of bytes, the oldest segments are deleted.
+	 * @param data The data of the record
+	 * @throws IOException If the record could not be written
+	 */
+	public synchronized void append(byte[] data) throws IOException {
+		checkOpen();
+		long recordBytes = HEADER_BYTES + data.length;
+		long writeSegmentSize = segmentSizeMap.get(writeSegment);
+		if (writeSegmentSize > 0 && writeSegmentSize + recordBytes > maxSegmentBytes) {
+			rotate();
+			writeSegmentSize = 0;
+		}
+		CRC32 crc32 = new CRC32();
+		crc32.update(data, 0, data.length);
+		ByteBuffer buffer = ByteBuffer.allocate((int) recordBytes);
+		buffer.putInt(data.length);
+		buffer.putInt((int) crc32.getValue());
+		buffer.put(data);
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			writeChannel.write(buffer);
+		}
+		if (fsyncPolicy == FsyncPolicy.EVERY_WRITE) {
+			writeChannel.force(false);
+		}
+		segmentSizeMap.put(writeSegment, writeSegmentSize + recordBytes);
+		totalBytes += recordBytes;
+		enforceMaxTotalBytes();
+	}
+
+	private void rotate() throws IOException {
+		if (fsyncPolicy != FsyncPolicy.NEVER) {
+			writeChannel.force(false);
+		}
+		writeChannel.close();
+		writeSegment++;
+		writeChannel = FileChannel.open(getSegmentPath(writeSegment), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		segmentSizeMap.put(writeSegment, 0L);
+	}
+
+	private void enforceMaxTotalBytes() throws IOException {
+		while (totalBytes > maxTotalBytes && segmentSizeMap.firstKey() != writeSegment) {
+			long oldest = segmentSizeMap.firstKey();
+			if (oldest >= readSegment) {
+				LOGGER.warn("The queue in " + directory + " is larger than " + maxTotalBytes + " bytes. Dropping segment " + oldest + " with " + segmentSizeMap.get(oldest) + " bytes of unread data.");
+				droppedBytes += segmentSizeMap.get(oldest);
+				closeReadChannel();
+				peeked = null;
+				readSegment = segmentSizeMap.higherKey(oldest);
+				readPosition = 0;
+				writeCheckpoint();
+			}
+			deleteSegment(oldest);
+		}
+	}
+
+	private void deleteSegment(long index) throws IOException {
+		if (readChannelSegment == index) {
+			closeReadChannel();
+		}
+		Long size = segmentSizeMap.remove(index);
+		if (size != null) {
+			totalBytes -= size;
+		}
+		Files.deleteIfExists(getSegmentPath(index));
+	}
+
+	private void closeReadChannel() throws IOException {
+		if (readChannel != null) {
+			readChannel.close();
+			readChannel = null;
+			readChannelSegment = -1;
+		}
+	}
+
+	/**
+	 * Moves on from the current read segment, which must not be the write segment.
+	 */
+	private void finishReadSegment() throws IOException {
+		long finished = readSegment;
+		readSegment = segmentSizeMap.higherKey(finished);
+		readPosition = 0;
+		writeCheckpoint();
+		deleteSegment(finished);
+	}
+
+	private void writeCheckpoint() throws IOException {
+		uncheckpointedRecords = 0;
+		lastCheckpointNanos = System.nanoTime();
+		ByteBuffer buffer = ByteBuffer.allocate(16);
+		buffer.putLong(readSegment);
+		buffer.putLong(readPosition);
+		Path temp = directory.resolve(CHECKPOINT_TEMP_NAME);
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			if (fsyncPolicy == FsyncPolicy.EVERY_WRITE) {
+				channel.force(false);
+			}
+		}
+		Path checkpoint = directory.resolve(CHECKPOINT_NAME);
+		try {
+			Files.move(temp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp, checkpoint, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * @return The data of the oldest record in the queue, or null if the queue is empty. This does not remove the record.
+	 * @throws IOException If the record could not be read
+	 */
+	public synchronized @Nullable byte[] peek() throws IOException {
+		checkOpen();
+		while (peeked == null) {
+			long size = segmentSizeMap.get(readSegment);
+			if (readPosition >= size) {
+				if (readSegment == writeSegment) {
+					if (uncheckpointedRecords > 0) {
+						writeCheckpoint(); // the queue is empty, so now is a good time to save that
+					}
+					return null;
+				}
+				finishReadSegment();
+				continue;
+			}
+			if (readChannelSegment != readSegment) {
+				closeReadChannel();
+				readChannel = FileChannel.open(getSegmentPath(readSegment), StandardOpenOption.READ);
+				readChannelSegment = readSegment;
+			}
+			byte[] data = readRecord(readChannel, readPosition, size);
+			if (data == null) {
+				LOGGER.warn("Found a corrupt record in segment " + readSegment + " at position " + readPosition + ". Skipping the rest of the segment.");
+				if (readSegment == writeSegment) {
+					// the segment is still being written to, so skip what has been written so far
+					readPosition = size;
+					writeCheckpoint();
+					return null;
+				}
+				finishReadSegment();
+				continue;
+			}
+			peeked = data;
+			peekedNextPosition = readPosition + HEADER_BYTES + data.length;
+		}
+		return peeked;
+	}
+
+	/**
+	 * Removes the oldest record from the queue. The record is permanently removed once the checkpoint is written, which may not happen right away.
+	 * @throws NoSuchElementException If the queue is empty
+	 * @throws IOException If the checkpoint could not be written
+	 */
+	public synchronized void remove() throws IOException {
+		if (peek() == null) {
+			throw new NoSuchElementException("The queue is empty!");
+		}
+		peeked = null;
+		readPosition = peekedNextPosition;
+		uncheckpointedRecords++;
+		if (readSegment != writeSegment && readPosition >= segmentSizeMap.get(readSegment)) {
+			finishReadSegment();
+		} else if (uncheckpointedRecords >= CHECKPOINT_INTERVAL_RECORDS || System.nanoTime() - lastCheckpointNanos >= CHECKPOINT_INTERVAL_MILLIS * 1_000_000) {
+			writeCheckpoint();
+		}
+	}
+
+	public synchronized boolean isEmpty() throws IOException {
+		return peek() == null;
+	}
+
+	/**
+	 * @return The number of bytes used by every segment, including records that have been removed but whose segment has not been deleted yet
+	 */
+	public synchronized long getTotalBytes() {
+		return totalBytes;
+	}
+
+	/**
+	 * @return The number of bytes in segments that were dropped since this was opened because the queue got too large
+	 */
+	public synchronized long getDroppedBytes() {
+		return droppedBytes;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			if (uncheckpointedRecords > 0) {
+				writeCheckpoint();
+			}
+			closeReadChannel();
+			if (fsyncPolicy != FsyncPolicy.NEVER) {
+				writeChannel.force(false);
+			}
+			writeChannel.close();
+		} finally {
+			lockChannel.close();
+		}
+	}
+}
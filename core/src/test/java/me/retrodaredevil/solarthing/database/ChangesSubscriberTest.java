@@ -0,0 +1,41 @@
+package me.retrodaredevil.solarthing.database;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChangesSubscriberTest {
+
+	@Test
+	void testListenerExceptionDoesNotStopSubscriber() throws InterruptedException {
+		AtomicInteger sequence = new AtomicInteger();
+		ChangesFeed changesFeed = new ChangesFeed() {
+			@Override
+			public ChangesResult waitForChanges(String since, long timeoutMillis) {
+				int next = sequence.incrementAndGet();
+				return new ChangesResult(Collections.emptyList(), Collections.singletonList("doc-" + next), "" + next);
+			}
+
+			@Override
+			public String getCurrentSequence() {
+				return "0";
+			}
+		};
+		CountDownLatch secondCall = new CountDownLatch(1);
+		AtomicInteger calls = new AtomicInteger();
+		try (ChangesSubscriber subscriber = ChangesSubscriber.createResultSubscriber(changesFeed, "0", result -> {
+			if (calls.incrementAndGet() == 1) {
+				throw new RuntimeException("Listener failure");
+			}
+			secondCall.countDown();
+		}, "changes-test")) {
+			subscriber.start();
+			assertTrue(secondCall.await(5, TimeUnit.SECONDS));
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package me.retrodaredevil.solarthing.database;
+
+import me.retrodaredevil.solarthing.database.exception.NotFoundSolarThingDatabaseException;
+import me.retrodaredevil.solarthing.database.exception.SolarThingDatabaseException;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VersionedPacketCacheTest {
+
+	@Test
+	void testRevalidatesWithUpdateToken() throws SolarThingDatabaseException {
+		UpdateToken firstToken = new UpdateToken() {};
+		UpdateToken secondToken = new UpdateToken() {};
+		List<UpdateToken> queriedTokens = new ArrayList<>();
+		String[] document = { "a" };
+		UpdateToken[] currentToken = { firstToken };
+		VersionedPacketCache<String> cache = new VersionedPacketCache<>(updateToken -> {
+			queriedTokens.add(updateToken);
+			if (updateToken == currentToken[0]) {
+				return null;
+			}
+			return new VersionedPacket<>(document[0], currentToken[0]);
+		}, Duration.ofHours(1));
+
+		assertEquals("a", cache.get());
+		assertEquals("a", cache.get());
+		assertEquals(1, queriedTokens.size()); // the second call was cached
+		assertNull(queriedTokens.get(0));
+
+		cache.invalidate();
+		assertEquals("a", cache.get());
+		assertEquals(2, queriedTokens.size());
+		assertSame(firstToken, queriedTokens.get(1));
+
+		document[0] = "b";
+		currentToken[0] = secondToken;
+		assertEquals("a", cache.get()); // not invalidated yet
+		cache.invalidate();
+		assertEquals("b", cache.get());
+		assertEquals(3, queriedTokens.size());
+	}
+
+	@Test
+	void testRemembersException() {
+		int[] queryCount = { 0 };
+		VersionedPacketCache<String> cache = new VersionedPacketCache<>(updateToken -> {
+			queryCount[0]++;
+			throw new SolarThingDatabaseException("not found");
+		}, Duration.ofHours(1));
+		assertThrows(SolarThingDatabaseException.class, cache::get);
+		assertThrows(SolarThingDatabaseException.class, cache::get);
+		assertEquals(1, queryCount[0]);
+
+		cache.invalidate();
+		assertThrows(SolarThingDatabaseException.class, cache::get);
+		assertEquals(2, queryCount[0]);
+	}
+
+	@Test
+	void testDeletedDocument() throws SolarThingDatabaseException {
+		UpdateToken token = new UpdateToken() {};
+		boolean[] exists = { true };
+		VersionedPacketCache<String> cache = new VersionedPacketCache<>(updateToken -> {
+			if (!exists[0]) {
+				throw new NotFoundSolarThingDatabaseException("deleted");
+			}
+			return updateToken == token ? null : new VersionedPacket<>("a", token);
+		}, Duration.ofHours(1), "missing");
+		VersionedPacketCache<String> cacheWithoutMissingValue = new VersionedPacketCache<>(updateToken -> {
+			if (!exists[0]) {
+				throw new NotFoundSolarThingDatabaseException("deleted");
+			}
+			return updateToken == token ? null : new VersionedPacket<>("a", token);
+		}, Duration.ofHours(1));
+
+		assertEquals("a", cache.get());
+		assertEquals("a", cacheWithoutMissingValue.get());
+
+		exists[0] = false;
+		cache.invalidate();
+		cacheWithoutMissingValue.invalidate();
+		assertEquals("missing", cache.get());
+		assertThrows(NotFoundSolarThingDatabaseException.class, cacheWithoutMissingValue::get);
+
+		exists[0] = true;
+		cache.invalidate();
+		assertEquals("a", cache.get());
+	}
+}
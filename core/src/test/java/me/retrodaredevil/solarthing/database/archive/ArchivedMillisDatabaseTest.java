@@ -0,0 +1,186 @@
+package me.retrodaredevil.solarthing.database.archive;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import me.retrodaredevil.solarthing.database.ChangesFeed;
+import me.retrodaredevil.solarthing.database.ChangesResult;
+import me.retrodaredevil.solarthing.database.MillisDatabase;
+import me.retrodaredevil.solarthing.database.MillisQuery;
+import me.retrodaredevil.solarthing.database.MillisQueryBuilder;
+import me.retrodaredevil.solarthing.database.UpdateToken;
+import me.retrodaredevil.solarthing.database.exception.SolarThingDatabaseException;
+import me.retrodaredevil.solarthing.misc.device.CelsiusCpuTemperaturePacket;
+import me.retrodaredevil.solarthing.misc.source.W1Source;
+import me.retrodaredevil.solarthing.misc.weather.CelsiusTemperaturePacket;
+import me.retrodaredevil.solarthing.packets.Packet;
+import me.retrodaredevil.solarthing.packets.collection.PacketCollection;
+import me.retrodaredevil.solarthing.packets.collection.PacketGroup;
+import me.retrodaredevil.solarthing.packets.collection.PacketGroups;
+import me.retrodaredevil.solarthing.packets.collection.parsing.PacketMapperUtil;
+import me.retrodaredevil.solarthing.packets.instance.InstanceFragmentIndicatorPackets;
+import me.retrodaredevil.solarthing.packets.instance.InstanceSourcePackets;
+import me.retrodaredevil.solarthing.util.JacksonUtil;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ArchivedMillisDatabaseTest {
+	private static final long DAY = Duration.ofDays(1).toMillis();
+	private static final ObjectMapper MAPPER = PacketMapperUtil.createStatusMapper(JacksonUtil.defaultMapper());
+
+	@Test
+	void testArchiveRoundTrip(@TempDir Path directory) throws Exception {
+		ColumnarDayArchive archive = new ColumnarDayArchive(directory, MAPPER, e -> { throw new AssertionError(e); });
+		List<PacketGroup> packetGroups = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			packetGroups.add(PacketGroups.createPacketGroup(Arrays.asList(
+					InstanceSourcePackets.create("default"),
+					InstanceFragmentIndicatorPackets.create(i % 2 + 1),
+					new CelsiusCpuTemperaturePacket(40.5f + i),
+					new CelsiusTemperaturePacket(i % 3, new W1Source("28-301a279ffb2"), 20.25f - i)
+			), 5000 + i * 1000L));
+		}
+		assertNull(archive.read(3));
+		archive.write(3, packetGroups);
+		List<PacketGroup> read = archive.read(3);
+		assertNotNull(read);
+		assertEquals(packetGroups.size(), read.size());
+		for (int i = 0; i < packetGroups.size(); i++) {
+			assertEquals(packetGroups.get(i).getDateMillis(), read.get(i).getDateMillis());
+			assertEquals(MAPPER.writeValueAsString(packetGroups.get(i).getPackets()), MAPPER.writeValueAsString(read.get(i).getPackets()));
+		}
+	}
+
+	@Test
+	void testClosedDaysQueriedOnce(@TempDir Path directory) throws Exception {
+		FakeDatabase database = new FakeDatabase();
+		for (long time = 0; time < 10 * DAY; time += DAY / 4) {
+			database.add(time);
+		}
+		ColumnarDayArchive archive = new ColumnarDayArchive(directory, MAPPER, e -> { throw new AssertionError(e); });
+		ArchivedMillisDatabase archivedDatabase = new ArchivedMillisDatabase(database, archive, Duration.ofDays(2), () -> 10 * DAY + 1);
+
+		MillisQuery closedQuery = new MillisQueryBuilder().startKey(2 * DAY + 1).endKey(5 * DAY).build();
+		assertEquals(dates(database.query(closedQuery)), dates(archivedDatabase.query(closedQuery)));
+		assertEquals(2, database.queries.size()); // the second query was only for the test
+		assertEquals(2 * DAY, database.queries.get(1).getStartKey()); // whole days are archived
+		assertEquals(6 * DAY, database.queries.get(1).getEndKey());
+
+		assertEquals(dates(database.query(closedQuery)), dates(archivedDatabase.query(closedQuery)));
+		assertEquals(3, database.queries.size());
+
+		// day 8 is in the hot window, so only it is queried
+		MillisQuery mixedQuery = new MillisQueryBuilder().startKey(4 * DAY).endKey(9 * DAY).inclusiveEnd(false).build();
+		assertEquals(dates(database.query(mixedQuery)), dates(archivedDatabase.query(mixedQuery)));
+		assertEquals(6, database.queries.size());
+		assertEquals(6 * DAY, database.queries.get(4).getStartKey());
+		assertEquals(8 * DAY, database.queries.get(4).getEndKey());
+		assertEquals(8 * DAY, database.queries.get(5).getStartKey());
+		assertEquals(9 * DAY, database.queries.get(5).getEndKey());
+	}
+
+	@Test
+	void testInvalidatedDayIsQueriedAgain(@TempDir Path directory) throws Exception {
+		FakeDatabase database = new FakeDatabase();
+		for (long time = 0; time < 10 * DAY; time += DAY / 4) {
+			database.add(time);
+		}
+		ColumnarDayArchive archive = new ColumnarDayArchive(directory, MAPPER, e -> { throw new AssertionError(e); });
+		ArchivedMillisDatabase archivedDatabase = new ArchivedMillisDatabase(database, archive, Duration.ofDays(2), () -> 10 * DAY + 1);
+		MillisQuery closedQuery = new MillisQueryBuilder().startKey(2 * DAY).endKey(4 * DAY).inclusiveEnd(false).build();
+		archivedDatabase.query(closedQuery);
+		assertNotNull(archive.read(3));
+
+		PacketGroup latePacketGroup = database.add(3 * DAY + 1);
+		PacketGroup hotPacketGroup = database.add(10 * DAY);
+		archive.writeSequence("0");
+		long invalidationCount = archive.getInvalidationCount();
+		ChangesFeed changesFeed = new ChangesFeed() {
+			private boolean gaveChanges = false;
+			@Override
+			public ChangesResult waitForChanges(String since, long timeoutMillis) throws SolarThingDatabaseException {
+				if (!gaveChanges) {
+					gaveChanges = true;
+					return new ChangesResult(Arrays.asList(latePacketGroup, hotPacketGroup), "1");
+				}
+				try {
+					Thread.sleep(timeoutMillis);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return new ChangesResult(new ArrayList<>(), since);
+			}
+
+			@Override
+			public String getCurrentSequence() {
+				return "0";
+			}
+		};
+		try (ArchiveInvalidator invalidator = new ArchiveInvalidator(archive, changesFeed, Duration.ofDays(2), () -> 10 * DAY + 1, "test")) {
+			invalidator.start();
+			long deadline = System.currentTimeMillis() + 5000;
+			while (!"1".equals(archive.readSequence()) && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+		}
+		assertEquals("1", archive.readSequence());
+		assertNull(archive.read(3));
+		assertNotNull(archive.read(2)); // a sequence was stored, so other days were kept
+		assertFalse(archive.write(3, new ArrayList<>(), invalidationCount)); // a day that was queried before the invalidation is not archived
+
+		int queryCount = database.queries.size();
+		assertEquals(dates(database.query(closedQuery)), dates(archivedDatabase.query(closedQuery)));
+		assertEquals(queryCount + 2, database.queries.size()); // only day 3 is queried again
+		assertEquals(3 * DAY, database.queries.get(queryCount + 1).getStartKey());
+	}
+
+	private static List<Long> dates(List<? extends PacketGroup> packetGroups) {
+		List<Long> r = new ArrayList<>();
+		for (PacketGroup packetGroup : packetGroups) {
+			r.add(packetGroup.getDateMillis());
+		}
+		return r;
+	}
+
+	private static class FakeDatabase implements MillisDatabase {
+		private final List<PacketGroup> packetGroups = new ArrayList<>();
+		private final List<MillisQuery> queries = new ArrayList<>();
+
+		PacketGroup add(long dateMillis) {
+			List<Packet> packets = Arrays.asList(InstanceSourcePackets.create("default"), new CelsiusCpuTemperaturePacket(dateMillis % 50));
+			PacketGroup packetGroup = PacketGroups.createPacketGroup(packets, dateMillis);
+			packetGroups.add(packetGroup);
+			packetGroups.sort((a, b) -> Long.compare(a.getDateMillis(), b.getDateMillis()));
+			return packetGroup;
+		}
+
+		@Override
+		public List<PacketGroup> query(MillisQuery query) {
+			queries.add(query);
+			List<PacketGroup> r = new ArrayList<>();
+			for (PacketGroup packetGroup : packetGroups) {
+				long dateMillis = packetGroup.getDateMillis();
+				if (dateMillis >= query.getStartKey() && (query.isInclusiveEnd() ? dateMillis <= query.getEndKey() : dateMillis < query.getEndKey())) {
+					r.add(packetGroup);
+				}
+			}
+			return r;
+		}
+
+		@Override
+		public UpdateToken uploadPacketCollection(PacketCollection packetCollection, UpdateToken updateToken) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public UpdateToken getCurrentUpdateToken(String documentId) {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
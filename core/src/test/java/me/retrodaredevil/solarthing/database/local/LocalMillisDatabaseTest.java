@@ -0,0 +1,270 @@
+package me.retrodaredevil.solarthing.database.local;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import me.retrodaredevil.solarthing.database.ChangesResult;
+import me.retrodaredevil.solarthing.database.ChangesSubscriber;
+import me.retrodaredevil.solarthing.database.MillisQueryBuilder;
+import me.retrodaredevil.solarthing.database.UpdateToken;
+import me.retrodaredevil.solarthing.database.exception.SolarThingDatabaseException;
+import me.retrodaredevil.solarthing.misc.device.CelsiusCpuTemperaturePacket;
+import me.retrodaredevil.solarthing.packets.collection.PacketCollection;
+import me.retrodaredevil.solarthing.packets.collection.PacketCollections;
+import me.retrodaredevil.solarthing.packets.collection.PacketGroup;
+import me.retrodaredevil.solarthing.packets.collection.parsing.PacketMapperUtil;
+import me.retrodaredevil.solarthing.packets.instance.InstanceSourcePackets;
+import me.retrodaredevil.solarthing.util.JacksonUtil;
+import me.retrodaredevil.solarthing.util.queue.FsyncPolicy;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalMillisDatabaseTest {
+	private static final ObjectMapper MAPPER = PacketMapperUtil.createStatusMapper(JacksonUtil.defaultMapper());
+
+	private static LocalMillisDatabase open(Path directory) throws IOException {
+		return new LocalMillisDatabase(directory, MAPPER, e -> { throw new AssertionError(e); }, FsyncPolicy.NEVER);
+	}
+	private static Path getOnlySegment(Path directory) throws IOException {
+		try (Stream<Path> stream = Files.list(directory)) {
+			List<Path> segments = stream.filter(path -> path.getFileName().toString().endsWith(".dat")).collect(Collectors.toList());
+			assertEquals(1, segments.size());
+			return segments.get(0);
+		}
+	}
+	private static PacketCollection create(long dateMillis, float temperature) {
+		return PacketCollections.create(Arrays.asList(InstanceSourcePackets.create("default"), new CelsiusCpuTemperaturePacket(temperature)), dateMillis, "id-" + dateMillis);
+	}
+	private static List<Long> dates(List<? extends PacketGroup> packetGroups) {
+		List<Long> r = new ArrayList<>();
+		for (PacketGroup packetGroup : packetGroups) {
+			r.add(packetGroup.getDateMillis());
+		}
+		return r;
+	}
+
+	@Test
+	void testQuery(@TempDir Path directory) throws Exception {
+		try (LocalMillisDatabase database = open(directory.resolve("test"))) {
+			for (long time = 1000; time <= 10000; time += 1000) {
+				database.uploadPacketCollection(create(time, 40), null);
+			}
+			assertEquals(Arrays.asList(3000L, 4000L, 5000L), dates(database.query(new MillisQueryBuilder().startKey(3000L).endKey(5000L).build())));
+			assertEquals(Arrays.asList(3000L, 4000L), dates(database.query(new MillisQueryBuilder().startKey(3000L).endKey(5000L).inclusiveEnd(false).build())));
+			assertEquals(Arrays.asList(10000L, 9000L), dates(database.query(new MillisQueryBuilder().descending(true).limit(2).build())));
+			assertEquals(10, database.query(new MillisQueryBuilder().build()).size());
+		}
+	}
+
+	@Test
+	void testUpdateConflict(@TempDir Path directory) throws Exception {
+		try (LocalMillisDatabase database = open(directory.resolve("test"))) {
+			UpdateToken updateToken = database.uploadPacketCollection(create(1000, 40), null);
+			assertThrows(SolarThingDatabaseException.class, () -> database.uploadPacketCollection(create(1000, 41), null));
+			UpdateToken newUpdateToken = database.uploadPacketCollection(create(1000, 42), updateToken);
+			assertNotEquals(updateToken, newUpdateToken);
+			assertEquals(newUpdateToken, database.getCurrentUpdateToken("id-1000"));
+			assertThrows(SolarThingDatabaseException.class, () -> database.uploadPacketCollection(create(1000, 43), updateToken));
+			assertEquals(1, database.getDocumentCount());
+
+			PacketGroup packetGroup = database.query(new MillisQueryBuilder().build()).get(0);
+			CelsiusCpuTemperaturePacket packet = (CelsiusCpuTemperaturePacket) packetGroup.getPackets().get(1);
+			assertEquals(42, packet.getCpuTemperatureCelsius(), .001);
+		}
+	}
+
+	@Test
+	void testReadChanges(@TempDir Path directory) throws Exception {
+		Path databaseDirectory = directory.resolve("test");
+		try (LocalMillisDatabase database = open(databaseDirectory)) {
+			UpdateToken updateToken = database.uploadPacketCollection(create(1000, 40), null);
+			database.uploadPacketCollection(create(2000, 40), null);
+			database.uploadPacketCollection(create(3000, 40), null);
+			database.uploadPacketCollection(create(1000, 41), updateToken);
+			assertEquals(4, database.getUpdateSequence());
+
+			List<LocalDocument> changes = database.readChanges(0, 10);
+			assertEquals(Arrays.asList("id-2000", "id-3000", "id-1000"), documentIds(changes));
+			assertEquals(4, changes.get(2).getSequence());
+			assertEquals(Arrays.asList("id-2000", "id-3000"), documentIds(database.readChanges(0, 2)));
+			assertEquals(Arrays.asList("id-3000", "id-1000"), documentIds(database.readChanges(changes.get(0).getSequence(), 10)));
+			assertTrue(database.readChanges(4, 10).isEmpty());
+		}
+		try (LocalMillisDatabase database = open(databaseDirectory)) {
+			assertEquals(4, database.getUpdateSequence());
+			assertEquals(Arrays.asList("id-1000"), documentIds(database.readChanges(3, 10)));
+		}
+	}
+	@Test
+	void testChangesFeed(@TempDir Path directory) throws Exception {
+		try (LocalMillisDatabase database = open(directory.resolve("test"))) {
+			database.uploadPacketCollection(create(1000, 40), null);
+			String since = database.getCurrentSequence();
+			assertTrue(database.waitForChanges(since, 10).getPacketGroups().isEmpty());
+
+			List<PacketGroup> received = Collections.synchronizedList(new ArrayList<>());
+			try (ChangesSubscriber subscriber = new ChangesSubscriber(database, since, received::addAll, "test-changes")) {
+				subscriber.start();
+				database.uploadPacketCollection(create(2000, 40), null);
+				database.uploadPacketCollection(create(3000, 40), null);
+				long deadline = System.currentTimeMillis() + 5000;
+				while (received.size() < 2 && System.currentTimeMillis() < deadline) {
+					Thread.sleep(10);
+				}
+			}
+			assertEquals(Arrays.asList(2000L, 3000L), dates(received));
+			ChangesResult result = database.waitForChanges("0", 10);
+			assertEquals(Arrays.asList(1000L, 2000L, 3000L), dates(result.getPacketGroups()));
+			assertEquals(database.getCurrentSequence(), result.getLastSequence());
+		}
+	}
+
+	private static List<String> documentIds(List<LocalDocument> documents) {
+		List<String> r = new ArrayList<>();
+		for (LocalDocument document : documents) {
+			r.add(document.getDocumentId());
+		}
+		return r;
+	}
+
+	@Test
+	void testReopen(@TempDir Path directory) throws Exception {
+		Path databaseDirectory = directory.resolve("test");
+		UpdateToken updateToken;
+		try (LocalMillisDatabase database = open(databaseDirectory)) {
+			database.uploadPacketCollection(create(1000, 40), null);
+			updateToken = database.uploadPacketCollection(create(2000, 40), null);
+		}
+		Path file = getOnlySegment(databaseDirectory);
+		long size = Files.size(file);
+		// a partially written record at the end of the file
+		Files.write(file, new byte[] { 0, 0, 1, 0, 5, 6, 7 }, StandardOpenOption.APPEND);
+		try (LocalMillisDatabase database = open(databaseDirectory)) {
+			assertEquals(size, Files.size(file));
+			assertEquals(Arrays.asList(1000L, 2000L), dates(database.query(new MillisQueryBuilder().build())));
+			assertEquals(updateToken, database.getCurrentUpdateToken("id-2000"));
+			database.uploadPacketCollection(create(2000, 41), updateToken);
+			database.uploadPacketCollection(create(3000, 40), null);
+		}
+		try (LocalMillisDatabase database = open(databaseDirectory)) {
+			assertEquals(Arrays.asList(1000L, 2000L, 3000L), dates(database.query(new MillisQueryBuilder().build())));
+		}
+	}
+
+	@Test
+	void testCorruptRecord(@TempDir Path directory) throws Exception {
+		Path databaseDirectory = directory.resolve("test");
+		try (LocalMillisDatabase database = open(databaseDirectory)) {
+			for (long time = 1000; time <= 5000; time += 1000) {
+				database.uploadPacketCollection(create(time, 40), null);
+			}
+		}
+		Path file = getOnlySegment(databaseDirectory);
+		byte[] data = Files.readAllBytes(file);
+		int recordLength = data.length / 5;
+		data[recordLength + recordLength / 2] ^= 0x55; // corrupt the second record
+		Files.write(file, data);
+		try (LocalMillisDatabase database = open(databaseDirectory)) {
+			// the records after the corrupt record are not lost
+			assertEquals(Arrays.asList(1000L, 3000L, 4000L, 5000L), dates(database.query(new MillisQueryBuilder().build())));
+			database.uploadPacketCollection(create(6000, 40), null);
+		}
+		try (LocalMillisDatabase database = open(databaseDirectory)) {
+			assertEquals(Arrays.asList(1000L, 3000L, 4000L, 5000L, 6000L), dates(database.query(new MillisQueryBuilder().build())));
+		}
+	}
+
+	@Test
+	void testCorruptEnd(@TempDir Path directory) throws Exception {
+		Path databaseDirectory = directory.resolve("test");
+		try (LocalMillisDatabase database = open(databaseDirectory)) {
+			database.uploadPacketCollection(create(1000, 40), null);
+			database.uploadPacketCollection(create(2000, 40), null);
+		}
+		Path file = getOnlySegment(databaseDirectory);
+		byte[] data = Files.readAllBytes(file);
+		data[data.length - 2] ^= 0x55; // corrupt the last record, which was completely written
+		Files.write(file, data);
+		try (LocalMillisDatabase database = open(databaseDirectory)) {
+			assertEquals(Arrays.asList(1000L), dates(database.query(new MillisQueryBuilder().build())));
+		}
+		try (Stream<Path> stream = Files.list(databaseDirectory)) {
+			// the corrupt bytes are kept in another file
+			assertEquals(1, stream.filter(path -> path.getFileName().toString().endsWith(".corrupt")).count());
+		}
+	}
+
+	@Test
+	void testRetention(@TempDir Path directory) throws Exception {
+		AtomicLong clock = new AtomicLong(10_000);
+		Path databaseDirectory = directory.resolve("test");
+		// each segment has one record
+		try (LocalMillisDatabase database = new LocalMillisDatabase(databaseDirectory, MAPPER, e -> { throw new AssertionError(e); }, FsyncPolicy.NEVER, 1, Duration.ofMillis(5000), clock::get)) {
+			for (long time = 1000; time <= 10000; time += 1000) {
+				database.uploadPacketCollection(create(time, 40), null);
+			}
+			assertEquals(Arrays.asList(5000L, 6000L, 7000L, 8000L, 9000L, 10000L), dates(database.query(new MillisQueryBuilder().build())));
+			assertEquals(6, database.getDocumentCount());
+			assertEquals(7, database.getSegmentCount()); // the last segment is empty
+			assertEquals(Arrays.asList("id-5000", "id-6000"), documentIds(database.readChanges(0, 2)));
+		}
+		clock.set(13_000);
+		try (LocalMillisDatabase database = new LocalMillisDatabase(databaseDirectory, MAPPER, e -> { throw new AssertionError(e); }, FsyncPolicy.NEVER, 1, Duration.ofMillis(5000), clock::get)) {
+			// nothing is deleted until retention holds have had a chance to be added
+			assertEquals(Arrays.asList(5000L, 6000L, 7000L, 8000L, 9000L, 10000L), dates(database.query(new MillisQueryBuilder().build())));
+			database.maintain();
+			assertEquals(Arrays.asList(8000L, 9000L, 10000L), dates(database.query(new MillisQueryBuilder().build())));
+			assertEquals(10, database.getUpdateSequence());
+		}
+	}
+
+	@Test
+	void testRetentionHold(@TempDir Path directory) throws Exception {
+		AtomicLong clock = new AtomicLong(10_000);
+		AtomicLong replicatedSequence = new AtomicLong(3);
+		Path databaseDirectory = directory.resolve("test");
+		try (LocalMillisDatabase database = new LocalMillisDatabase(databaseDirectory, MAPPER, e -> { throw new AssertionError(e); }, FsyncPolicy.NEVER, 1, Duration.ofMillis(5000), clock::get)) {
+			database.addRetentionHold(replicatedSequence::get);
+			for (long time = 1000; time <= 10000; time += 1000) {
+				database.uploadPacketCollection(create(time, 40), null);
+			}
+			// id-4000 is expired, but it has not been replicated
+			assertEquals(Arrays.asList(4000L, 5000L, 6000L, 7000L, 8000L, 9000L, 10000L), dates(database.query(new MillisQueryBuilder().build())));
+			assertEquals(Arrays.asList("id-4000", "id-5000"), documentIds(database.readChanges(3, 2)));
+
+			replicatedSequence.set(10);
+			database.maintain();
+			assertEquals(Arrays.asList(5000L, 6000L, 7000L, 8000L, 9000L, 10000L), dates(database.query(new MillisQueryBuilder().build())));
+		}
+	}
+
+	@Test
+	void testCompact(@TempDir Path directory) throws Exception {
+		Path databaseDirectory = directory.resolve("test");
+		try (LocalMillisDatabase database = new LocalMillisDatabase(databaseDirectory, MAPPER, e -> { throw new AssertionError(e); }, FsyncPolicy.NEVER, 2048, null, System::currentTimeMillis)) {
+			UpdateToken updateToken = database.uploadPacketCollection(create(1000, 40), null);
+			for (int i = 0; i < 100; i++) {
+				updateToken = database.uploadPacketCollection(create(1000, 40 + i), updateToken);
+			}
+			// segments that only contain old versions are deleted
+			assertTrue(database.getSegmentCount() <= 2);
+			assertEquals(1, database.getDocumentCount());
+			CelsiusCpuTemperaturePacket packet = (CelsiusCpuTemperaturePacket) database.query(new MillisQueryBuilder().build()).get(0).getPackets().get(1);
+			assertEquals(139, packet.getCpuTemperatureCelsius(), .001);
+			assertEquals(updateToken, database.getCurrentUpdateToken("id-1000"));
+		}
+	}
+}
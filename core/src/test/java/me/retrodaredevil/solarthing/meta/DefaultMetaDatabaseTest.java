@@ -0,0 +1,51 @@
+package me.retrodaredevil.solarthing.meta;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DefaultMetaDatabaseTest {
+
+	@Test
+	void testMatchesLinearScan() {
+		DeviceInfoPacket always = new DeviceInfoPacket("always", "", "");
+		DeviceInfoPacket early = new DeviceInfoPacket("early", "", "");
+		DeviceInfoPacket late = new DeviceInfoPacket("late", "", "");
+		List<TimedMetaCollection> collections = Arrays.asList(
+				new TimedMetaCollection(null, null, Collections.singletonList(new TargetMetaPacket(Arrays.asList(1, 2), Collections.singletonList(always)))),
+				new TimedMetaCollection(null, 100L, Collections.singletonList(new TargetMetaPacket(Collections.singletonList(1), Collections.singletonList(early)))),
+				new TimedMetaCollection(50L, 200L, Collections.singletonList(new TargetMetaPacket(Collections.singletonList(2), Collections.singletonList(late)))),
+				new TimedMetaCollection(200L, null, Collections.singletonList(new TargetMetaPacket(Collections.singletonList(1), Collections.singletonList(late))))
+		);
+		RootMetaPacket root = new RootMetaPacket(collections);
+		MetaDatabase metaDatabase = new DefaultMetaDatabase(root);
+		for (long dateMillis : new long[] { Long.MIN_VALUE, -1, 0, 49, 50, 51, 99, 100, 101, 199, 200, 201, Long.MAX_VALUE }) {
+			for (int fragmentId : new int[] { 1, 2, 3 }) {
+				assertEquals(linearScan(root, dateMillis, fragmentId), metaDatabase.getMeta(dateMillis, fragmentId), "dateMillis=" + dateMillis + " fragmentId=" + fragmentId);
+			}
+		}
+		assertEquals(Arrays.asList(always, early), metaDatabase.getMeta(0, 1));
+		assertEquals(Arrays.asList(always, late), metaDatabase.getMeta(100, 2));
+		assertEquals(Collections.singletonList(always), metaDatabase.getMeta(150, 1));
+		assertEquals(Arrays.asList(always, late), metaDatabase.getMeta(200, 1));
+	}
+
+	private static List<TargetedMetaPacket> linearScan(RootMetaPacket root, long dateMillis, int fragmentId) {
+		List<TargetedMetaPacket> r = new ArrayList<>();
+		for (TimedMetaCollection timedMetaCollection : root.getMeta()) {
+			if (timedMetaCollection.getTimeRange().contains(dateMillis)) {
+				for (BasicMetaPacket basicMetaPacket : timedMetaCollection.getPackets()) {
+					if (basicMetaPacket instanceof TargetMetaPacket && ((TargetMetaPacket) basicMetaPacket).getFragmentIds().contains(fragmentId)) {
+						r.addAll(((TargetMetaPacket) basicMetaPacket).getPackets());
+					}
+				}
+			}
+		}
+		return r;
+	}
+}
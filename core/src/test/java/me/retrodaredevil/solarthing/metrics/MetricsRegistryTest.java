@@ -0,0 +1,35 @@
+package me.retrodaredevil.solarthing.metrics;
+
+import me.retrodaredevil.solarthing.packets.collection.PacketCollections;
+import me.retrodaredevil.solarthing.packets.handling.InstrumentedPacketHandler;
+import me.retrodaredevil.solarthing.packets.handling.PacketHandleException;
+import me.retrodaredevil.solarthing.packets.handling.PacketHandler;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.SortedMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsRegistryTest {
+
+	@Test
+	void testInstrumentedPacketHandler() {
+		MetricsRegistry registry = new MetricsRegistry();
+		PacketHandler failing = new InstrumentedPacketHandler((packetCollection, instantType) -> { throw new PacketHandleException("fail"); }, registry, "test");
+		assertThrows(PacketHandleException.class, () -> failing.handle(PacketCollections.create(Collections.emptyList(), 0L, "id"), null));
+
+		SortedMap<String, Number> snapshot = registry.createSnapshot();
+		assertEquals(1L, snapshot.get("test.failures"));
+		assertEquals(0L, snapshot.get("test.packets"));
+		assertEquals(1L, snapshot.get("test.handle.count"));
+	}
+
+	@Test
+	void testGaugeAndFormat() {
+		MetricsRegistry registry = new MetricsRegistry();
+		registry.gauge("b.queue_size", () -> 3);
+		registry.counter("a.bytes_written").add(10);
+		assertEquals("a.bytes_written=10 b.queue_size=3", registry.formatSnapshot());
+	}
+}
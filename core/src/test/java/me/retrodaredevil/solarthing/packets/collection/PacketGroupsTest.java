@@ -3,9 +3,11 @@ package me.retrodaredevil.solarthing.packets.collection;
 import me.retrodaredevil.solarthing.packets.Packet;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -122,4 +124,46 @@ class PacketGroupsTest {
 		assertEquals(3, fragmentedPacketGroup1.getPackets().size());
 		assertEquals(0L, fragmentedPacketGroup1.getDateMillis());
 	}
+
+	@Test
+	void testMergePackets_lower_priority_master_only_where_higher_priority_absent() {
+		List<InstancePacketGroup> packetGroups = new ArrayList<>();
+		for (long dateMillis = 0; dateMillis <= 100; dateMillis += 10) {
+			packetGroups.add(create(dateMillis, 1));
+		}
+		packetGroups.add(create(1000L, 2));
+		packetGroups.add(create(55L, 3)); // fragment 1 is present here, so this should never be a master
+		packetGroups.add(create(500L, 3)); // neither fragment 1 nor 2 are present here
+		List<FragmentedPacketGroup> fragmentedPacketGroups = PacketGroups.mergePackets(packetGroups, 10L, 10L);
+		List<Long> dates = new ArrayList<>();
+		for (FragmentedPacketGroup fragmentedPacketGroup : fragmentedPacketGroups) {
+			dates.add(fragmentedPacketGroup.getDateMillis());
+		}
+		assertEquals(Arrays.asList(0L, 10L, 20L, 30L, 40L, 50L, 60L, 70L, 80L, 90L, 100L, 500L, 1000L), dates);
+		assertEquals(2, fragmentedPacketGroups.get(5).getPackets().size()); // 55 is close to 50
+		assertEquals(3, fragmentedPacketGroups.get(11).getFragmentId(fragmentedPacketGroups.get(11).getPackets().get(0)));
+	}
+
+	@Test
+	void testSortPackets_matches_mergePackets_for_each_source() {
+		List<InstancePacketGroup> packetGroups = new ArrayList<>();
+		for (long dateMillis = 0; dateMillis <= 100; dateMillis += 10) {
+			for (String sourceId : Arrays.asList("default", "other")) {
+				packetGroups.add(PacketGroups.createInstancePacketGroup(Collections.singleton(new Packet() {}), dateMillis, sourceId, 1));
+				packetGroups.add(PacketGroups.createInstancePacketGroup(Collections.singleton(new Packet() {}), dateMillis + 1, sourceId, 2));
+			}
+		}
+		Map<String, List<FragmentedPacketGroup>> sorted = PacketGroups.sortPackets(packetGroups, DefaultInstanceOptions.REQUIRE_NO_DEFAULTS, 10L, 10L);
+		Map<String, List<InstancePacketGroup>> parsed = PacketGroups.parsePackets(packetGroups, DefaultInstanceOptions.REQUIRE_NO_DEFAULTS);
+		assertEquals(parsed.keySet(), sorted.keySet());
+		for (Map.Entry<String, List<InstancePacketGroup>> entry : parsed.entrySet()) {
+			List<FragmentedPacketGroup> expected = PacketGroups.mergePackets(entry.getValue(), 10L, 10L);
+			List<FragmentedPacketGroup> actual = sorted.get(entry.getKey());
+			assertEquals(expected.size(), actual.size());
+			for (int i = 0; i < expected.size(); i++) {
+				assertEquals(expected.get(i).getDateMillis(), actual.get(i).getDateMillis());
+				assertEquals(expected.get(i).getPackets(), actual.get(i).getPackets());
+			}
+		}
+	}
 }
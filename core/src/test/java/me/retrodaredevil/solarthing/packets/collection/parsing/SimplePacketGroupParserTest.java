@@ -0,0 +1,45 @@
+package me.retrodaredevil.solarthing.packets.collection.parsing;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import me.retrodaredevil.solarthing.misc.device.CpuTemperaturePacket;
+import me.retrodaredevil.solarthing.misc.device.DevicePacket;
+import me.retrodaredevil.solarthing.packets.collection.PacketGroup;
+import me.retrodaredevil.solarthing.util.JacksonUtil;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SimplePacketGroupParserTest {
+
+	@Test
+	void testStreamingMatchesTree() throws Exception {
+		ObjectMapper mapper = JacksonUtil.defaultMapper();
+		mapper.getSubtypeResolver().registerSubtypes(DevicePacket.class);
+		List<Exception> errors = new ArrayList<>();
+		SimplePacketGroupParser parser = new SimplePacketGroupParser(mapper, errors::add);
+		String json = "{ \"_id\": \"some id\", \"packets\": [" +
+				"{ \"packetType\": \"DEVICE_CPU_TEMPERATURE\", \"cpuTemperatureCelsius\": 20.0 }," +
+				"{ \"packetType\": \"NOT_A_PACKET_TYPE\", \"nested\": { \"a\": [1, 2] } }," +
+				"{ \"packetType\": \"DEVICE_CPU_TEMPERATURE\", \"cpuTemperatureCelsius\": 25.0 }" +
+				"], \"dateMillis\": 1000, \"other\": { \"dateMillis\": 5 } }";
+
+		PacketGroup treeGroup = parser.parse((ObjectNode) mapper.readTree(json));
+		assertEquals(1, errors.size());
+
+		final PacketGroup streamGroup;
+		try (JsonParser jsonParser = mapper.getFactory().createParser(json)) {
+			streamGroup = parser.parse(jsonParser);
+		}
+		assertEquals(2, errors.size());
+		assertEquals(1000, streamGroup.getDateMillis());
+		assertEquals(treeGroup.getDateMillis(), streamGroup.getDateMillis());
+		assertEquals(2, streamGroup.getPackets().size());
+		assertEquals(25.0f, ((CpuTemperaturePacket) streamGroup.getPackets().get(1)).getCpuTemperatureCelsius());
+		assertEquals(mapper.writeValueAsString(treeGroup.getPackets()), mapper.writeValueAsString(streamGroup.getPackets()));
+	}
+}
@@ -0,0 +1,115 @@
+package me.retrodaredevil.solarthing.packets.handling;
+
+import me.retrodaredevil.solarthing.InstantType;
+import me.retrodaredevil.solarthing.packets.collection.PacketCollection;
+import me.retrodaredevil.solarthing.packets.collection.PacketCollections;
+import me.retrodaredevil.solarthing.packets.collection.parsing.PacketMapperUtil;
+import me.retrodaredevil.solarthing.util.JacksonUtil;
+import me.retrodaredevil.solarthing.util.queue.FsyncPolicy;
+import me.retrodaredevil.solarthing.util.queue.SegmentedFileQueue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncPacketHandlerWrapperTest {
+
+	private static PacketCollection create(int number) {
+		return PacketCollections.create(Collections.emptyList(), number, "id-" + number);
+	}
+
+	/**
+	 * A packet handler that waits until {@link #release} is counted down before handling anything
+	 */
+	private static final class BlockedPacketHandler implements PacketHandler {
+		private final CountDownLatch started = new CountDownLatch(1);
+		private final CountDownLatch release = new CountDownLatch(1);
+		private final List<String> handledIds = Collections.synchronizedList(new ArrayList<>());
+
+		@Override
+		public void handle(PacketCollection packetCollection, InstantType instantType) throws PacketHandleException {
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				throw new PacketHandleException(e);
+			}
+			handledIds.add(packetCollection.getDbId());
+		}
+		void waitForHandled(int count) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + 5000;
+			while (handledIds.size() < count && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+		}
+	}
+
+	@Test
+	void testDropOldest() throws Exception {
+		BlockedPacketHandler handler = new BlockedPacketHandler();
+		AsyncPacketHandlerWrapper wrapper = new AsyncPacketHandlerWrapper(handler, 2, AsyncOverflowPolicy.DROP_OLDEST);
+		wrapper.start();
+		wrapper.handle(create(0), InstantType.NOT_INSTANT);
+		assertTrue(handler.started.await(5, TimeUnit.SECONDS)); // id-0 is no longer in the queue
+		for (int i = 1; i <= 4; i++) {
+			wrapper.handle(create(i), InstantType.NOT_INSTANT);
+		}
+		handler.release.countDown();
+		handler.waitForHandled(3);
+		assertEquals(2, wrapper.getDroppedCount());
+		assertEquals(Arrays.asList("id-0", "id-3", "id-4"), handler.handledIds);
+		wrapper.close();
+	}
+
+	@Test
+	void testSpillKeepsOrder(@TempDir Path directory) throws Exception {
+		BlockedPacketHandler handler = new BlockedPacketHandler();
+		SegmentedFileQueue spillQueue = new SegmentedFileQueue(directory, 1024, 64 * 1024, FsyncPolicy.NEVER);
+		AsyncPacketHandlerWrapper wrapper = new AsyncPacketHandlerWrapper(handler, 2, spillQueue, PacketMapperUtil.createStatusMapper(JacksonUtil.defaultMapper()));
+		wrapper.start();
+		for (int i = 0; i < 10; i++) {
+			wrapper.handle(create(i), InstantType.NOT_INSTANT);
+		}
+		assertTrue(wrapper.getSpilledBytes() > 0);
+		handler.release.countDown();
+		handler.waitForHandled(10);
+		List<String> expected = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			expected.add("id-" + i);
+		}
+		assertEquals(expected, handler.handledIds);
+		assertEquals(0, wrapper.getDroppedCount());
+		assertTrue(spillQueue.isEmpty());
+		wrapper.close();
+		spillQueue.close();
+	}
+
+	@Test
+	void testRuntimeExceptionDoesNotStopHandling() throws Exception {
+		List<String> handledIds = Collections.synchronizedList(new ArrayList<>());
+		AsyncPacketHandlerWrapper wrapper = new AsyncPacketHandlerWrapper((packetCollection, instantType) -> {
+			if ("id-0".equals(packetCollection.getDbId())) {
+				throw new RuntimeException("Unexpected failure");
+			}
+			handledIds.add(packetCollection.getDbId());
+		}, 2, AsyncOverflowPolicy.BLOCK);
+		wrapper.start();
+		for (int i = 0; i < 5; i++) {
+			wrapper.handle(create(i), InstantType.NOT_INSTANT);
+		}
+		long deadline = System.currentTimeMillis() + 5000;
+		while (handledIds.size() < 4 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(Arrays.asList("id-1", "id-2", "id-3", "id-4"), handledIds);
+		wrapper.close();
+	}
+}
@@ -0,0 +1,56 @@
+package me.retrodaredevil.solarthing.packets.handling;
+
+import me.retrodaredevil.solarthing.InstantType;
+import me.retrodaredevil.solarthing.packets.collection.PacketCollection;
+import me.retrodaredevil.solarthing.packets.collection.PacketCollections;
+import me.retrodaredevil.solarthing.packets.collection.parsing.PacketMapperUtil;
+import me.retrodaredevil.solarthing.util.JacksonUtil;
+import me.retrodaredevil.solarthing.util.queue.FsyncPolicy;
+import me.retrodaredevil.solarthing.util.queue.SegmentedFileQueue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DurableRetryPacketHandlerTest {
+
+	private static PacketCollection create(int number) {
+		return PacketCollections.create(Collections.emptyList(), number, "id-" + number);
+	}
+
+	@Test
+	void testReplayedWithoutNewPackets(@TempDir Path directory) throws Exception {
+		List<String> handledIds = Collections.synchronizedList(new ArrayList<>());
+		boolean[] available = { false };
+		PacketHandler handler = (packetCollection, instantType) -> {
+			synchronized (available) {
+				if (!available[0]) {
+					throw new PacketHandleException("Not available");
+				}
+			}
+			handledIds.add(packetCollection.getDbId());
+		};
+		try (SegmentedFileQueue queue = new SegmentedFileQueue(directory, 1024, 64 * 1024, FsyncPolicy.NEVER);
+				DurableRetryPacketHandler durable = new DurableRetryPacketHandler(handler, queue, PacketMapperUtil.createStatusMapper(JacksonUtil.defaultMapper()), 20)) {
+			durable.start();
+			durable.handle(create(0), InstantType.NOT_INSTANT);
+			durable.handle(create(1), InstantType.NOT_INSTANT);
+			assertEquals(2, durable.getSpillCount());
+			synchronized (available) {
+				available[0] = true;
+			}
+			long deadline = System.currentTimeMillis() + 5000;
+			while (handledIds.size() < 2 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertEquals(Arrays.asList("id-0", "id-1"), handledIds);
+			assertEquals(2, durable.getReplayCount());
+		}
+	}
+}
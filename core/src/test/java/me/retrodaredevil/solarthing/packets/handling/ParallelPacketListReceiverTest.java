@@ -0,0 +1,106 @@
+package me.retrodaredevil.solarthing.packets.handling;
+
+import me.retrodaredevil.solarthing.InstantType;
+import me.retrodaredevil.solarthing.packets.Packet;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelPacketListReceiverTest {
+	private static final Packet SLOW_PACKET = new Packet() {};
+	private static final Packet FAST_PACKET = new Packet() {};
+
+	@Test
+	void testOrderAndConcurrency() {
+		CountDownLatch bothStarted = new CountDownLatch(2);
+		PacketListReceiver slow = (packets, instantType) -> {
+			bothStarted.countDown();
+			try {
+				bothStarted.await(); // only returns if the other receiver is running at the same time
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			packets.add(SLOW_PACKET);
+		};
+		PacketListReceiver fast = (packets, instantType) -> {
+			bothStarted.countDown();
+			packets.add(FAST_PACKET);
+		};
+		try (ParallelPacketListReceiver receiver = new ParallelPacketListReceiver(Arrays.asList(
+				new ParallelPacketListReceiver.Entry("slow", slow, Duration.ofSeconds(5)),
+				new ParallelPacketListReceiver.Entry("fast", fast, Duration.ofSeconds(5))
+		))) {
+			List<Packet> packets = new ArrayList<>();
+			receiver.receive(packets, InstantType.INSTANT);
+			assertEquals(Arrays.asList(SLOW_PACKET, FAST_PACKET), packets);
+		}
+	}
+
+	@Test
+	void testTimeout() throws InterruptedException {
+		CountDownLatch release = new CountDownLatch(1);
+		PacketListReceiver stuck = (packets, instantType) -> {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			packets.add(SLOW_PACKET);
+		};
+		try (ParallelPacketListReceiver receiver = new ParallelPacketListReceiver(Arrays.asList(
+				new ParallelPacketListReceiver.Entry("stuck", stuck, Duration.ofMillis(20)),
+				new ParallelPacketListReceiver.Entry("fast", (packets, instantType) -> packets.add(FAST_PACKET), Duration.ofSeconds(5))
+		))) {
+			List<Packet> packets = new ArrayList<>();
+			receiver.receive(packets, InstantType.INSTANT);
+			assertEquals(Arrays.asList(FAST_PACKET), packets);
+
+			packets.clear();
+			receiver.receive(packets, InstantType.INSTANT); // stuck is still running, so it is skipped
+			assertEquals(Arrays.asList(FAST_PACKET), packets);
+
+			release.countDown();
+			Thread.sleep(50);
+			packets.clear();
+			receiver.receive(packets, InstantType.INSTANT);
+			assertEquals(Arrays.asList(SLOW_PACKET, FAST_PACKET), packets);
+		}
+	}
+
+	@Test
+	void testNonPositiveTimeout() {
+		PacketListReceiver receiver = (packets, instantType) -> {};
+		assertThrows(IllegalArgumentException.class, () -> new ParallelPacketListReceiver.Entry("zero", receiver, Duration.ZERO));
+		assertThrows(IllegalArgumentException.class, () -> new ParallelPacketListReceiver.Entry("negative", receiver, Duration.ofSeconds(-1)));
+	}
+
+	@Test
+	void testCloseWaitsForRunningTask() throws InterruptedException {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch finished = new CountDownLatch(1);
+		PacketListReceiver slow = (packets, instantType) -> {
+			started.countDown();
+			try {
+				Thread.sleep(300); // longer than the timeout, but shorter than the timeout after close() is called
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			finished.countDown();
+		};
+		ParallelPacketListReceiver receiver = new ParallelPacketListReceiver(Arrays.asList(
+				new ParallelPacketListReceiver.Entry("slow", slow, Duration.ofMillis(200))
+		));
+		receiver.receive(new ArrayList<>(), InstantType.INSTANT);
+		assertTrue(started.await(1, TimeUnit.SECONDS));
+		receiver.close();
+		assertEquals(0, finished.getCount());
+	}
+}
@@ -5,6 +5,8 @@ import org.junit.jupiter.api.Test;
 import javax.crypto.Cipher;
 import javax.crypto.NoSuchPaddingException;
 import java.security.*;
+import java.util.HashMap;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -34,4 +36,25 @@ final class EncryptionTest {
 		
 		assertThrows(DecryptException.class, () -> Decrypt.decrypt(cipher, publicKey, encrypted));
 	}
+	@Test
+	void testSenderCipherCache() throws NoSuchAlgorithmException, NoSuchPaddingException, EncryptException, InvalidKeyException, DecryptException, NotAuthorizedException {
+		KeyPair firstPair = KeyUtil.generateKeyPair();
+		KeyPair secondPair = KeyUtil.generateKeyPair();
+		Map<String, PublicKey> keyMap = new HashMap<>();
+		keyMap.put("sender", firstPair.getPublic());
+		SenderCipherCache cache = new SenderCipherCache(keyMap::get);
+
+		Cipher cipher = Cipher.getInstance(KeyUtil.CIPHER_TRANSFORMATION);
+		String first = Encrypt.encrypt(cipher, firstPair.getPrivate(), "first");
+		assertEquals("first", cache.decrypt("sender", first));
+		assertEquals("first", cache.decrypt("sender", first)); // uses the cached cipher
+
+		keyMap.put("sender", secondPair.getPublic()); // the sender has a new key
+		assertThrows(DecryptException.class, () -> cache.decrypt("sender", first));
+		String second = Encrypt.encrypt(cipher, secondPair.getPrivate(), "second");
+		assertEquals("second", cache.decrypt("sender", second));
+
+		keyMap.remove("sender");
+		assertThrows(NotAuthorizedException.class, () -> cache.decrypt("sender", second));
+	}
 }
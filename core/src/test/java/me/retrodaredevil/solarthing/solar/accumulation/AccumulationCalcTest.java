@@ -0,0 +1,97 @@
+package me.retrodaredevil.solarthing.solar.accumulation;
+
+import me.retrodaredevil.solarthing.packets.TimestampedPacket;
+import me.retrodaredevil.solarthing.solar.accumulation.IncrementalAccumulatorTest.KWHPacket;
+import me.retrodaredevil.solarthing.solar.accumulation.value.FloatAccumulationValue;
+import me.retrodaredevil.solarthing.solar.accumulation.value.FloatAccumulationValueFactory;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AccumulationCalcTest {
+	private static final long MINUTE = 60 * 1000;
+	private static final TotalGetter<KWHPacket, FloatAccumulationValue> TOTAL_GETTER = FloatAccumulationValue.convert(KWHPacket::getKWH);
+
+	/**
+	 * The original implementation of {@link AccumulationCalc#getTotals(List, TotalGetter, List, me.retrodaredevil.solarthing.solar.accumulation.value.AccumulationValueFactory)},
+	 * which sums every previous pair for each packet
+	 */
+	private static List<Float> getTotalsQuadratic(List<AccumulationPair<KWHPacket>> accumulationPairs, List<TimestampedPacket<KWHPacket>> packets) {
+		List<Float> r = new ArrayList<>();
+		for (TimestampedPacket<KWHPacket> packet : packets) {
+			long dateMillis = packet.getDateMillis();
+			List<AccumulationPair<KWHPacket>> previousAccumulationPairs = new ArrayList<>();
+			for (AccumulationPair<KWHPacket> element : accumulationPairs) {
+				previousAccumulationPairs.add(element);
+				if (dateMillis <= element.getLatestPacket().getDateMillis()) {
+					break;
+				}
+			}
+			AccumulationPair<KWHPacket> lastAccumulationPair = previousAccumulationPairs.get(previousAccumulationPairs.size() - 1);
+			previousAccumulationPairs.set(previousAccumulationPairs.size() - 1, new AccumulationPair<>(lastAccumulationPair.getStartPacket(), packet, lastAccumulationPair.getStartPacketType()));
+			r.add(AccumulationCalc.getTotal(previousAccumulationPairs, TOTAL_GETTER, FloatAccumulationValueFactory.getInstance()).getValue());
+		}
+		return r;
+	}
+
+	/**
+	 * @return A month of packets every 5 minutes that reset each day, with some extra resets in the middle of days
+	 */
+	private static List<TimestampedPacket<KWHPacket>> createMonth() {
+		Random random = new Random(5);
+		List<TimestampedPacket<KWHPacket>> packets = new ArrayList<>();
+		float kwh = 3.0f;
+		for (int i = 0; i < 31 * 24 * 12; i++) {
+			if (i % (24 * 12) == 0 || random.nextInt(500) == 0) {
+				kwh = 0.0f;
+			} else {
+				kwh += random.nextInt(5) * 0.1f;
+			}
+			packets.add(new TimestampedPacket<>(new KWHPacket(kwh), i * 5 * MINUTE));
+		}
+		return packets;
+	}
+
+	private static void assertTotalsMatch(List<TimestampedPacket<KWHPacket>> pairPackets, List<TimestampedPacket<KWHPacket>> packets) {
+		List<AccumulationPair<KWHPacket>> accumulationPairs = AccumulationUtil.getAccumulationPairs(pairPackets, AccumulationConfig.createDefault(0));
+		List<Float> expected = getTotalsQuadratic(accumulationPairs, packets);
+		List<AccumulationCalc.SumNode<FloatAccumulationValue>> sumNodes = AccumulationCalc.getTotals(accumulationPairs, TOTAL_GETTER, packets, FloatAccumulationValueFactory.getInstance());
+		assertEquals(packets.size(), sumNodes.size());
+		for (int i = 0; i < packets.size(); i++) {
+			assertEquals(packets.get(i).getDateMillis(), sumNodes.get(i).getDateMillis());
+			// both sum the same values in the same order, so the results are exactly the same
+			assertEquals(expected.get(i), sumNodes.get(i).getSum().getValue(), "index: " + i);
+		}
+	}
+
+	@Test
+	void testGetTotalsMatchesQuadratic() {
+		List<TimestampedPacket<KWHPacket>> packets = createMonth();
+		assertTotalsMatch(packets, packets);
+	}
+
+	@Test
+	void testGetTotalsUnsortedMatchesQuadratic() {
+		List<TimestampedPacket<KWHPacket>> packets = createMonth();
+		List<TimestampedPacket<KWHPacket>> shuffled = new ArrayList<>(packets.subList(0, 2000));
+		Collections.shuffle(shuffled, new Random(7));
+		assertTotalsMatch(packets, shuffled);
+	}
+
+	@Test
+	void testIncrementalAccumulatorMatchesGetTotals() {
+		List<TimestampedPacket<KWHPacket>> packets = createMonth();
+		AccumulationConfig accumulationConfig = AccumulationConfig.createDefault(0);
+		List<AccumulationPair<KWHPacket>> accumulationPairs = AccumulationUtil.getAccumulationPairs(packets, accumulationConfig);
+		List<AccumulationCalc.SumNode<FloatAccumulationValue>> sumNodes = AccumulationCalc.getTotals(accumulationPairs, TOTAL_GETTER, packets, FloatAccumulationValueFactory.getInstance());
+		IncrementalAccumulator<KWHPacket, FloatAccumulationValue> accumulator = new IncrementalAccumulator<>(TOTAL_GETTER, FloatAccumulationValueFactory.getInstance(), accumulationConfig);
+		for (int i = 0; i < packets.size(); i++) {
+			assertEquals(sumNodes.get(i).getSum().getValue(), accumulator.add(packets.get(i)).getValue(), "index: " + i);
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package me.retrodaredevil.solarthing.solar.accumulation;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import me.retrodaredevil.solarthing.packets.TimestampedPacket;
+import me.retrodaredevil.solarthing.packets.identification.Identifier;
+import me.retrodaredevil.solarthing.packets.identification.IdentityInfo;
+import me.retrodaredevil.solarthing.solar.accumulation.value.FloatAccumulationValue;
+import me.retrodaredevil.solarthing.solar.accumulation.value.FloatAccumulationValueFactory;
+import me.retrodaredevil.solarthing.solar.common.DailyData;
+import me.retrodaredevil.solarthing.util.JacksonUtil;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IncrementalAccumulatorTest {
+	private static final long HOUR = 60 * 60 * 1000;
+	private static final TotalGetter<KWHPacket, FloatAccumulationValue> TOTAL_GETTER = FloatAccumulationValue.convert(packet -> packet.kwh);
+
+	static final class KWHPacket implements DailyData {
+		private final float kwh;
+
+		@JsonCreator
+		KWHPacket(@JsonProperty(value = "kwh", required = true) float kwh) {
+			this.kwh = kwh;
+		}
+
+		@JsonProperty("kwh")
+		float getKWH() {
+			return kwh;
+		}
+
+		@Override
+		public boolean isNewDay(DailyData previousDailyData) {
+			return kwh < ((KWHPacket) previousDailyData).kwh;
+		}
+
+		@JsonIgnore
+		@Override
+		public Identifier getIdentifier() {
+			throw new UnsupportedOperationException();
+		}
+
+		@JsonIgnore
+		@Override
+		public IdentityInfo getIdentityInfo() {
+			throw new UnsupportedOperationException();
+		}
+
+		@JsonIgnore
+		@Override
+		public Long getStartDateMillis() {
+			return null;
+		}
+	}
+
+	static List<TimestampedPacket<KWHPacket>> createPackets() {
+		List<TimestampedPacket<KWHPacket>> packets = new ArrayList<>();
+		// starts with 2 kWh from yesterday, then resets twice
+		float[] values = { 2.0f, 2.0f, 2.5f, 3.0f, 0.0f, 1.0f, 1.5f, 0.5f, 2.0f };
+		for (int i = 0; i < values.length; i++) {
+			packets.add(new TimestampedPacket<>(new KWHPacket(values[i]), i * HOUR));
+		}
+		return packets;
+	}
+
+	@Test
+	void testMatchesAccumulationCalc() {
+		List<TimestampedPacket<KWHPacket>> packets = createPackets();
+		AccumulationConfig accumulationConfig = AccumulationConfig.createDefault(0);
+		List<AccumulationPair<KWHPacket>> accumulationPairs = AccumulationUtil.getAccumulationPairs(packets, accumulationConfig);
+		List<AccumulationCalc.SumNode<FloatAccumulationValue>> sumNodes = AccumulationCalc.getTotals(accumulationPairs, TOTAL_GETTER, packets, FloatAccumulationValueFactory.getInstance());
+
+		IncrementalAccumulator<KWHPacket, FloatAccumulationValue> accumulator = new IncrementalAccumulator<>(TOTAL_GETTER, FloatAccumulationValueFactory.getInstance(), accumulationConfig);
+		for (TimestampedPacket<KWHPacket> packet : packets) {
+			accumulator.add(packet);
+		}
+		float expected = AccumulationCalc.getTotal(accumulationPairs, TOTAL_GETTER, FloatAccumulationValueFactory.getInstance()).getValue();
+		assertEquals(1.0f + 1.5f + 2.0f, expected);
+		assertEquals(expected, accumulator.getTotal().getValue());
+		assertEquals(expected, sumNodes.get(sumNodes.size() - 1).getSum().getValue());
+		assertEquals(0.5f, sumNodes.get(2).getSum().getValue());
+	}
+
+	@Test
+	void testResumeFromCheckpoint() {
+		List<TimestampedPacket<KWHPacket>> packets = createPackets();
+		AccumulationConfig accumulationConfig = AccumulationConfig.createDefault(0);
+		IncrementalAccumulator<KWHPacket, FloatAccumulationValue> accumulator = new IncrementalAccumulator<>(TOTAL_GETTER, FloatAccumulationValueFactory.getInstance(), accumulationConfig);
+		for (TimestampedPacket<KWHPacket> packet : packets.subList(0, 5)) {
+			accumulator.add(packet);
+		}
+		IncrementalAccumulator<KWHPacket, FloatAccumulationValue> resumed = new IncrementalAccumulator<>(TOTAL_GETTER, FloatAccumulationValueFactory.getInstance(), accumulationConfig, accumulator.getCheckpoint());
+		for (TimestampedPacket<KWHPacket> packet : packets.subList(5, packets.size())) {
+			accumulator.add(packet);
+			resumed.add(packet);
+		}
+		assertEquals(accumulator.getTotal().getValue(), resumed.getTotal().getValue());
+	}
+
+	@Test
+	void testResumeFromStoredCheckpoint() throws JsonProcessingException {
+		ObjectMapper mapper = JacksonUtil.defaultMapper();
+		List<TimestampedPacket<KWHPacket>> packets = createPackets();
+		AccumulationConfig accumulationConfig = AccumulationConfig.createDefault(0);
+		IncrementalAccumulator<KWHPacket, FloatAccumulationValue> accumulator = new IncrementalAccumulator<>(TOTAL_GETTER, FloatAccumulationValueFactory.getInstance(), accumulationConfig);
+		for (TimestampedPacket<KWHPacket> packet : packets.subList(0, 6)) {
+			accumulator.add(packet);
+		}
+		String json = mapper.writeValueAsString(accumulator.getCheckpoint());
+		IncrementalAccumulator.Checkpoint<KWHPacket, FloatAccumulationValue> checkpoint = mapper.readValue(json, IncrementalAccumulator.Checkpoint.createType(mapper.getTypeFactory(), KWHPacket.class, FloatAccumulationValue.class));
+		assertEquals(5 * HOUR, checkpoint.getLatestDateMillis());
+
+		IncrementalAccumulator<KWHPacket, FloatAccumulationValue> resumed = new IncrementalAccumulator<>(TOTAL_GETTER, FloatAccumulationValueFactory.getInstance(), accumulationConfig, checkpoint);
+		assertEquals(accumulator.getTotal().getValue(), resumed.getTotal().getValue());
+		for (TimestampedPacket<KWHPacket> packet : packets.subList(6, packets.size())) {
+			assertEquals(accumulator.add(packet).getValue(), resumed.add(packet).getValue());
+		}
+	}
+
+	@Test
+	void testEmptyCheckpoint() throws JsonProcessingException {
+		ObjectMapper mapper = JacksonUtil.defaultMapper();
+		IncrementalAccumulator<KWHPacket, FloatAccumulationValue> accumulator = new IncrementalAccumulator<>(TOTAL_GETTER, FloatAccumulationValueFactory.getInstance(), AccumulationConfig.createDefault(0));
+		String json = mapper.writeValueAsString(accumulator.getCheckpoint());
+		IncrementalAccumulator.Checkpoint<KWHPacket, FloatAccumulationValue> checkpoint = mapper.readValue(json, IncrementalAccumulator.Checkpoint.createType(mapper.getTypeFactory(), KWHPacket.class, FloatAccumulationValue.class));
+		assertNull(checkpoint.getLatestDateMillis());
+	}
+}
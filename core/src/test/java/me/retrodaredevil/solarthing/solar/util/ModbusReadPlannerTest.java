@@ -0,0 +1,60 @@
+package me.retrodaredevil.solarthing.solar.util;
+
+import me.retrodaredevil.solarthing.solar.tracer.modbus.TracerModbusSlaveRead;
+import me.retrodaredevil.solarthing.solar.util.ModbusReadPlan.Block;
+import me.retrodaredevil.solarthing.solar.util.ModbusReadPlan.RegisterType;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ModbusReadPlannerTest {
+
+	private static void assertBlock(Block block, RegisterType registerType, int startRegister, int endRegisterInclusive) {
+		assertEquals(registerType, block.getRegisterType());
+		assertEquals(startRegister, block.getStartRegister());
+		assertEquals(endRegisterInclusive, block.getEndRegisterInclusive());
+	}
+
+	@Test
+	void testSpanAndGap() {
+		List<Block> blocks = new ModbusReadPlanner(4, 1)
+				.addHolding(0, 2)
+				.addHolding(3, 1) // gap of 1 is joined
+				.addHolding(4, 3) // max span of 4 starts a new block
+				.addHolding(10, 1) // gap of 3 is not joined
+				.addInput(0, 1)
+				.build().getBlocks();
+		assertEquals(4, blocks.size());
+		assertBlock(blocks.get(0), RegisterType.HOLDING, 0, 3);
+		assertBlock(blocks.get(1), RegisterType.HOLDING, 4, 6);
+		assertBlock(blocks.get(2), RegisterType.HOLDING, 10, 10);
+		assertBlock(blocks.get(3), RegisterType.INPUT, 0, 0);
+	}
+
+	@Test
+	void testExcluded() {
+		List<Block> blocks = new ModbusReadPlanner(100, 2)
+				.addHolding(0, 10)
+				.addHolding(12, 2)
+				.excludeHoldingRangeInclusive(4, 5)
+				.excludeHoldingRangeInclusive(11, 11) // an excluded register cannot be part of a gap
+				.build().getBlocks();
+		assertEquals(3, blocks.size());
+		assertBlock(blocks.get(0), RegisterType.HOLDING, 0, 3);
+		assertBlock(blocks.get(1), RegisterType.HOLDING, 6, 9);
+		assertBlock(blocks.get(2), RegisterType.HOLDING, 12, 13);
+	}
+
+	@Test
+	void testDeclaredReads() {
+		ModbusReadPlan plan = new ModbusReadPlanner(32, 0)
+				.addDeclaredReads(TracerModbusSlaveRead.class)
+				.build();
+		List<Block> blocks = plan.getBlocks();
+		assertBlock(blocks.get(0), RegisterType.HOLDING, 0x9000, 0x900E);
+		assertBlock(blocks.get(1), RegisterType.HOLDING, 0x9013, 0x9021);
+		assertBlock(blocks.get(blocks.size() - 1), RegisterType.INPUT, 0x331B, 0x331E);
+	}
+}
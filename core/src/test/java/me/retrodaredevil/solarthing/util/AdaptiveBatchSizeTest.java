@@ -0,0 +1,29 @@
+package me.retrodaredevil.solarthing.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveBatchSizeTest {
+
+	@Test
+	void testAdjust() {
+		AdaptiveBatchSize batchSize = new AdaptiveBatchSize(10, 100, 1000, 2000);
+		batchSize.onSuccess(50, 100);
+		assertEquals(100, batchSize.getSize()); // the batch wasn't full, so we don't know if a larger batch would be fast
+		batchSize.onSuccess(100, 100);
+		assertEquals(200, batchSize.getSize());
+		batchSize.onSuccess(200, 1500);
+		assertEquals(200, batchSize.getSize());
+		batchSize.onSuccess(200, 4000);
+		assertEquals(100, batchSize.getSize());
+		for (int i = 0; i < 10; i++) {
+			batchSize.onSuccess(batchSize.getSize(), 0);
+		}
+		assertEquals(1000, batchSize.getSize());
+		for (int i = 0; i < 10; i++) {
+			batchSize.onFailure();
+		}
+		assertEquals(10, batchSize.getSize());
+	}
+}
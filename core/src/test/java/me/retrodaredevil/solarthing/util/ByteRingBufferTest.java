@@ -0,0 +1,68 @@
+package me.retrodaredevil.solarthing.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ByteRingBufferTest {
+
+	@Test
+	void testWrapAround() throws IOException, InterruptedException {
+		ByteRingBuffer ringBuffer = new ByteRingBuffer(8);
+		char[] chars = new char[8];
+		byte[] first = "abcdef".getBytes(StandardCharsets.US_ASCII);
+		ringBuffer.write(first, 0, first.length);
+		assertEquals(4, ringBuffer.readChars(chars, 0, 4, 0));
+		assertEquals("abcd", new String(chars, 0, 4));
+
+		byte[] second = "ghijkl".getBytes(StandardCharsets.US_ASCII); // this wraps around the end of the buffer
+		ringBuffer.write(second, 0, second.length);
+		assertEquals(8, ringBuffer.readChars(chars, 0, 8, 0));
+		assertEquals("efghijkl", new String(chars, 0, 8));
+
+		assertEquals(0, ringBuffer.readChars(chars, 0, 8, 1));
+	}
+
+	@Test
+	void testProducerBlocksUntilRead() throws Exception {
+		ByteRingBuffer ringBuffer = new ByteRingBuffer(4);
+		byte[] data = "0123456789".getBytes(StandardCharsets.US_ASCII);
+		Thread producer = new Thread(() -> {
+			try {
+				ringBuffer.write(data, 0, data.length);
+				ringBuffer.finish(null);
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		});
+		producer.start();
+
+		StringBuilder result = new StringBuilder();
+		char[] chars = new char[3];
+		try {
+			while (true) {
+				int len = ringBuffer.readChars(chars, 0, chars.length, 1000);
+				result.append(chars, 0, len);
+			}
+		} catch (EOFException expected) {
+		}
+		producer.join();
+		assertEquals("0123456789", result.toString());
+	}
+
+	@Test
+	void testFinishCause() throws InterruptedException {
+		ByteRingBuffer ringBuffer = new ByteRingBuffer(4);
+		ringBuffer.write(new byte[] { 'a' }, 0, 1);
+		IOException cause = new IOException("disconnected");
+		ringBuffer.finish(cause);
+		char[] chars = new char[4];
+		assertDoesNotThrow(() -> assertEquals(1, ringBuffer.readChars(chars, 0, 4, 0))); // remaining data is still read
+		IOException thrown = assertThrows(IOException.class, () -> ringBuffer.readChars(chars, 0, 4, 0));
+		assertSame(cause, thrown);
+	}
+}
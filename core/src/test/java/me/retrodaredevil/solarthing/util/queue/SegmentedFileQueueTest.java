@@ -0,0 +1,110 @@
+package me.retrodaredevil.solarthing.util.queue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentedFileQueueTest {
+
+	private static byte[] bytes(String string) {
+		return string.getBytes(StandardCharsets.UTF_8);
+	}
+	private static String string(byte[] bytes) {
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	/** Copies the files of a queue that is still open, which is what would be left if the program stopped unexpectedly*/
+	private static void copyQueue(Path source, Path destination) throws IOException {
+		Files.createDirectories(destination);
+		try (Stream<Path> stream = Files.list(source)) {
+			List<Path> files = stream.filter(path -> !path.getFileName().toString().equals("lock")).collect(Collectors.toList());
+			for (Path file : files) {
+				Files.copy(file, destination.resolve(file.getFileName()));
+			}
+		}
+	}
+
+	@Test
+	void testOrderSurvivesReopen(@TempDir Path directory) throws IOException {
+		try (SegmentedFileQueue queue = new SegmentedFileQueue(directory, 64, 1024, FsyncPolicy.NEVER)) {
+			assertTrue(queue.isEmpty());
+			for (int i = 0; i < 10; i++) {
+				queue.append(bytes("record " + i));
+			}
+			assertEquals("record 0", string(queue.peek()));
+			queue.remove();
+		}
+		try (SegmentedFileQueue queue = new SegmentedFileQueue(directory, 64, 1024, FsyncPolicy.NEVER)) {
+			for (int i = 1; i < 10; i++) {
+				assertEquals("record " + i, string(queue.peek()));
+				queue.remove();
+			}
+			assertTrue(queue.isEmpty());
+			assertNull(queue.peek());
+		}
+	}
+
+	@Test
+	void testCheckpointBatched(@TempDir Path directory) throws IOException {
+		Path queueDirectory = directory.resolve("queue");
+		try (SegmentedFileQueue queue = new SegmentedFileQueue(queueDirectory, 1024 * 1024, 4 * 1024 * 1024, FsyncPolicy.NEVER)) {
+			for (int i = 0; i < 2 * SegmentedFileQueue.CHECKPOINT_INTERVAL_RECORDS; i++) {
+				queue.append(bytes("record " + i));
+			}
+			queue.peek();
+			queue.remove();
+			copyQueue(queueDirectory, directory.resolve("copy1"));
+			for (int i = 1; i < SegmentedFileQueue.CHECKPOINT_INTERVAL_RECORDS + 5; i++) {
+				queue.peek();
+				queue.remove();
+			}
+			copyQueue(queueDirectory, directory.resolve("copy2"));
+			while (!queue.isEmpty()) {
+				queue.remove();
+			}
+			copyQueue(queueDirectory, directory.resolve("copy3"));
+		}
+		try (SegmentedFileQueue queue = new SegmentedFileQueue(directory.resolve("copy1"), 1024 * 1024, 4 * 1024 * 1024, FsyncPolicy.NEVER)) {
+			// the removed record is read again because the checkpoint was not written yet
+			assertEquals("record 0", string(queue.peek()));
+		}
+		try (SegmentedFileQueue queue = new SegmentedFileQueue(directory.resolve("copy2"), 1024 * 1024, 4 * 1024 * 1024, FsyncPolicy.NEVER)) {
+			// at most CHECKPOINT_INTERVAL_RECORDS removed records are read again
+			assertEquals("record " + SegmentedFileQueue.CHECKPOINT_INTERVAL_RECORDS, string(queue.peek()));
+		}
+		try (SegmentedFileQueue queue = new SegmentedFileQueue(directory.resolve("copy3"), 1024 * 1024, 4 * 1024 * 1024, FsyncPolicy.NEVER)) {
+			// the checkpoint is written once the queue is empty
+			assertTrue(queue.isEmpty());
+		}
+	}
+
+	@Test
+	void testOldestSegmentsDropped(@TempDir Path directory) throws IOException {
+		try (SegmentedFileQueue queue = new SegmentedFileQueue(directory, 64, 256, FsyncPolicy.NEVER)) {
+			for (int i = 0; i < 100; i++) {
+				queue.append(bytes("record " + i));
+			}
+			assertTrue(queue.getTotalBytes() <= 256);
+			assertNotEquals("record 0", string(queue.peek()));
+		}
+	}
+
+	@Test
+	void testDirectoryLocked(@TempDir Path directory) throws IOException {
+		try (SegmentedFileQueue queue = new SegmentedFileQueue(directory, 64, 1024, FsyncPolicy.NEVER)) {
+			queue.append(bytes("record"));
+			assertThrows(IOException.class, () -> new SegmentedFileQueue(directory, 64, 1024, FsyncPolicy.NEVER));
+		}
+		try (SegmentedFileQueue queue = new SegmentedFileQueue(directory, 64, 1024, FsyncPolicy.NEVER)) {
+			assertEquals("record", string(queue.peek()));
+		}
+	}
+}
@@ -1,10 +1,16 @@
 package me.retrodaredevil.solarthing.rest;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import me.retrodaredevil.solarthing.SolarThingConstants;
 import me.retrodaredevil.solarthing.annotations.Nullable;
 import me.retrodaredevil.solarthing.config.databases.DatabaseSettings;
 import me.retrodaredevil.solarthing.config.databases.implementations.CouchDbDatabaseSettings;
+import me.retrodaredevil.solarthing.database.archive.ArchiveInvalidator;
+import me.retrodaredevil.solarthing.database.archive.ColumnarDayArchive;
+import me.retrodaredevil.solarthing.database.couchdb.CouchDbChangesFeed;
 import me.retrodaredevil.solarthing.packets.collection.DefaultInstanceOptions;
+import me.retrodaredevil.solarthing.packets.collection.parsing.PacketMapperUtil;
+import me.retrodaredevil.solarthing.packets.collection.parsing.PacketParsingErrorHandler;
 import me.retrodaredevil.solarthing.packets.instance.InstanceSourcePacket;
 import me.retrodaredevil.solarthing.program.DatabaseConfig;
 import me.retrodaredevil.solarthing.util.JacksonUtil;
@@ -13,10 +19,12 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.time.Duration;
 
 @Component
 public class CommonProvider {
@@ -26,9 +34,15 @@ public class CommonProvider {
 	private @Nullable String defaultSourceId;
 	@Value("${solarthing.config.default_fragment:#{null}}")
 	private @Nullable Integer defaultFragmentId;
+	@Value("${solarthing.config.archive_directory:#{null}}")
+	private @Nullable File archiveDirectory;
+	@Value("${solarthing.config.archive_hot_window:P2D}")
+	private String archiveHotWindow;
 
 	private DefaultInstanceOptions defaultInstanceOptions;
 	private CouchDbDatabaseSettings couchDbDatabaseSettings;
+	private StatusArchive statusArchive;
+	private @Nullable ArchiveInvalidator statusArchiveInvalidator;
 
 
 	private String getDefaultSourceId() {
@@ -77,6 +91,36 @@ public class CommonProvider {
 			throw new UnsupportedOperationException("Only CouchDB is supported right now!");
 		}
 		couchDbDatabaseSettings = (CouchDbDatabaseSettings) databaseSettings;
+
+		File archiveDirectory = this.archiveDirectory;
+		if (archiveDirectory == null) {
+			statusArchive = StatusArchive.createDisabled();
+		} else {
+			Duration hotWindow = Duration.parse(archiveHotWindow);
+			System.out.println("Archiving status packets in " + archiveDirectory.getAbsolutePath() + " with hotWindow=" + hotWindow);
+			ObjectMapper statusMapper = PacketMapperUtil.createStatusMapper(JacksonUtil.defaultMapper());
+			ColumnarDayArchive archive = new ColumnarDayArchive(archiveDirectory.toPath().resolve("status"), statusMapper, PacketParsingErrorHandler.DO_NOTHING);
+			statusArchive = new StatusArchive(archive, hotWindow);
+			ArchiveInvalidator statusArchiveInvalidator = new ArchiveInvalidator(
+					archive,
+					CouchDbChangesFeed.create(couchDbDatabaseSettings.getCouchProperties(), couchDbDatabaseSettings.getOkHttpProperties(), SolarThingConstants.STATUS_DATABASE, statusMapper, PacketParsingErrorHandler.DO_NOTHING),
+					hotWindow,
+					"status-archive-changes"
+			);
+			try {
+				statusArchiveInvalidator.start();
+			} catch (IOException e) {
+				throw new RuntimeException("Could not start watching for changes to archived status packets!", e);
+			}
+			this.statusArchiveInvalidator = statusArchiveInvalidator;
+		}
+	}
+	@PreDestroy
+	public void destroy() {
+		ArchiveInvalidator statusArchiveInvalidator = this.statusArchiveInvalidator;
+		if (statusArchiveInvalidator != null) {
+			statusArchiveInvalidator.close();
+		}
 	}
 
 	@Bean
@@ -89,4 +133,9 @@ public class CommonProvider {
 		return couchDbDatabaseSettings;
 	}
 
+	@Bean
+	public StatusArchive statusArchive() {
+		return statusArchive;
+	}
+
 }
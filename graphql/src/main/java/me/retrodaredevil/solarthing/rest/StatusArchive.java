@@ -0,0 +1,42 @@
+package me.retrodaredevil.solarthing.rest;
+
+import me.retrodaredevil.solarthing.annotations.Nullable;
+import me.retrodaredevil.solarthing.database.MillisDatabase;
+import me.retrodaredevil.solarthing.database.archive.ArchivedMillisDatabase;
+import me.retrodaredevil.solarthing.database.archive.ColumnarDayArchive;
+
+import java.time.Duration;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * The archive of closed days of status packets, which is shared by everything that queries status packets. The archive is optional.
+ */
+public final class StatusArchive {
+	private final @Nullable ColumnarDayArchive archive;
+	private final Duration hotWindow;
+
+	/**
+	 * @param archive The archive, or null if status packets should not be archived
+	 * @param hotWindow The amount of time after the end of a day until that day can be archived
+	 */
+	public StatusArchive(@Nullable ColumnarDayArchive archive, Duration hotWindow) {
+		this.archive = archive;
+		requireNonNull(this.hotWindow = hotWindow);
+	}
+	public static StatusArchive createDisabled() {
+		return new StatusArchive(null, ArchivedMillisDatabase.DEFAULT_HOT_WINDOW);
+	}
+
+	/**
+	 * @param statusDatabase The status database
+	 * @return A database that queries closed days from the archive, or {@code statusDatabase} if there is no archive
+	 */
+	public MillisDatabase wrap(MillisDatabase statusDatabase) {
+		ColumnarDayArchive archive = this.archive;
+		if (archive == null) {
+			return statusDatabase;
+		}
+		return new ArchivedMillisDatabase(statusDatabase, archive, hotWindow, System::currentTimeMillis);
+	}
+}
@@ -26,7 +26,7 @@ public final class CacheCalc {
 	 * types that can be added or subtracted. The 4 generic type parameters have been given meaningful names to prevent confusion.
 	 *
 	 * @param identifierFragment The {@link IdentifierFragment}
-	 * @param timestampedPackets The list of timestamped packets
+	 * @param timestampedPackets The list of timestamped packets, sorted by date
 	 * @param periodStart The start of the period
 	 * @param periodDuration The duration of the period
 	 * @param totalGetter Contains a function to get the desired data from a packet
@@ -45,8 +45,8 @@ public final class CacheCalc {
 			AccumulationValueFactory<VALUE> accumulationValueFactory, Function<VALUE, ACCEPTED_VALUE> converter, DataCreator<DATA, ACCEPTED_VALUE> dataCreator) {
 
 		AccumulationConfig accumulationConfig = AccumulationConfig.createDefault(periodStart.toEpochMilli());
-		List<AccumulationPair<PACKET>> accumulationPairs = AccumulationUtil.getAccumulationPairs(timestampedPackets, accumulationConfig);
-		List<AccumulationCalc.SumNode<VALUE>> sumNodes = AccumulationCalc.getTotals(accumulationPairs, totalGetter, timestampedPackets, accumulationValueFactory);
+		// packets are sorted, so the running total can be calculated as we go, and we can stop once we are past the period
+		IncrementalAccumulator<PACKET, VALUE> accumulator = new IncrementalAccumulator<>(totalGetter, accumulationValueFactory, accumulationConfig);
 		long periodStartDateMillis = periodStart.toEpochMilli();
 		long previousPeriodStartDateMillis = periodStartDateMillis - periodDuration.toMillis();
 		long unknownCutOffDateMillis = periodStartDateMillis - CacheHandler.INFO_DURATION.toMillis();
@@ -55,11 +55,12 @@ public final class CacheCalc {
 		AccumulationCalc.SumNode<VALUE> lastDataBeforePeriodStart = null;
 		AccumulationCalc.SumNode<VALUE> firstDataAfterPeriodStart = null;
 		AccumulationCalc.SumNode<VALUE> lastDataBeforePeriodEnd = null;
-		for (AccumulationCalc.SumNode<VALUE> sumNode : sumNodes) {
-			long dateMillis = sumNode.getDateMillis();
+		for (TimestampedPacket<PACKET> timestampedPacket : timestampedPackets) {
+			long dateMillis = timestampedPacket.getDateMillis();
 			if (dateMillis >= periodEndDateMillis) {
 				break;
 			}
+			AccumulationCalc.SumNode<VALUE> sumNode = new AccumulationCalc.SumNode<>(accumulator.add(timestampedPacket), dateMillis);
 			if (dateMillis < unknownCutOffDateMillis) {
 				// If we have data before this, we need to not use it because using it could yield different results depending on the amount of data
 				//   we have available to use -- We don't want that because the result of calculating a cache should be the same every time.
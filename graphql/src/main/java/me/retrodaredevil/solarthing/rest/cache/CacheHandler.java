@@ -1,7 +1,5 @@
 package me.retrodaredevil.solarthing.rest.cache;
 
-import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.annotation.JsonUnwrapped;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -18,9 +16,9 @@ import me.retrodaredevil.couchdbjava.request.BulkPostRequest;
 import me.retrodaredevil.couchdbjava.response.BulkDocumentResponse;
 import me.retrodaredevil.couchdbjava.response.BulkGetResponse;
 import me.retrodaredevil.solarthing.SolarThingConstants;
-import me.retrodaredevil.solarthing.annotations.JsonExplicit;
 import me.retrodaredevil.solarthing.cache.CacheUtil;
 import me.retrodaredevil.solarthing.cache.packets.CacheDataPacket;
+import me.retrodaredevil.solarthing.database.MillisDatabase;
 import me.retrodaredevil.solarthing.database.MillisQuery;
 import me.retrodaredevil.solarthing.database.MillisQueryBuilder;
 import me.retrodaredevil.solarthing.database.SolarThingDatabase;
@@ -30,21 +28,30 @@ import me.retrodaredevil.solarthing.packets.collection.DefaultInstanceOptions;
 import me.retrodaredevil.solarthing.packets.collection.InstancePacketGroup;
 import me.retrodaredevil.solarthing.packets.collection.PacketGroup;
 import me.retrodaredevil.solarthing.packets.collection.PacketGroups;
+import me.retrodaredevil.solarthing.rest.StatusArchive;
 import me.retrodaredevil.solarthing.rest.cache.creators.CacheCreator;
 import me.retrodaredevil.solarthing.rest.cache.creators.ChargeControllerAccumulationCacheNodeCreator;
 import me.retrodaredevil.solarthing.rest.cache.creators.DefaultIdentificationCacheCreator;
 import me.retrodaredevil.solarthing.rest.cache.creators.FXAccumulationCacheNodeCreator;
 import me.retrodaredevil.solarthing.rest.exceptions.DatabaseException;
 import me.retrodaredevil.solarthing.rest.exceptions.UnexpectedResponseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static java.util.Objects.requireNonNull;
 
+/**
+ * Gives access to cache documents stored in the cache database. Requests only read from the cache database. Cache documents that are missing
+ * are calculated in the background by the {@link CachePrecomputer}.
+ */
 public class CacheHandler {
-	private static final int QUERY_PERIOD_COUNT = 4 * 24; // we can request data a day at a time, but we won't do more than that
+	private static final Logger LOGGER = LoggerFactory.getLogger(CacheHandler.class);
+	static final int QUERY_PERIOD_COUNT = 4 * 24; // we can request data a day at a time, but we won't do more than that
 	/** This duration represents the amount of time to go "backwards" for calculating data for a single given period. If this is 4 and the period is from 10:00 to 11:00, then
 	 * that period actually requires data from 6:00 to 11:00 */
 	public static final Duration INFO_DURATION = Duration.ofHours(4);
@@ -57,14 +64,30 @@ public class CacheHandler {
 	private final ObjectMapper mapper;
 	private final DefaultInstanceOptions defaultInstanceOptions;
 	private final SolarThingDatabase database;
+	private final MillisDatabase statusDatabase;
 	private final CouchDbDatabase cacheDatabase;
+	private final CachePrecomputer precomputer;
+	/** A map of source IDs to the cache names that have been calculated for that source. Used to know which documents should exist for a given period */
+	private final Map<String, Set<String>> knownCacheNames = new ConcurrentHashMap<>();
 
-	public CacheHandler(ObjectMapper mapper, DefaultInstanceOptions defaultInstanceOptions, CouchDbInstance couchDbInstance) {
+	/**
+	 * @param statusArchive The archive that closed days of status packets are queried from
+	 */
+	public CacheHandler(ObjectMapper mapper, DefaultInstanceOptions defaultInstanceOptions, CouchDbInstance couchDbInstance, StatusArchive statusArchive) {
 		this.mapper = mapper;
 		this.defaultInstanceOptions = defaultInstanceOptions;
 		database = CouchDbSolarThingDatabase.create(couchDbInstance);
+		statusDatabase = statusArchive.wrap(database.getStatusDatabase());
 
 		cacheDatabase = couchDbInstance.getDatabase(SolarThingConstants.CACHE_DATABASE);
+		precomputer = new CachePrecomputer(this);
+	}
+
+	/**
+	 * @return The {@link CachePrecomputer} that calculates cache documents that are missing. This must be started for cache documents to be calculated.
+	 */
+	public CachePrecomputer getPrecomputer() {
+		return precomputer;
 	}
 
 	public Duration getDuration() {
@@ -76,9 +99,6 @@ public class CacheHandler {
 	private Instant getPeriodStartFromNumber(long periodNumber) {
 		return Instant.ofEpochMilli(periodNumber * duration.toMillis());
 	}
-	private Instant getPeriodStartFromMillis(long dateMillis) {
-		return Instant.ofEpochMilli(getPeriodNumber(dateMillis) * duration.toMillis());
-	}
 	public long getMaxPeriodNumber() {
 		long currentPeriodNumber = getPeriodNumber(System.currentTimeMillis());
 		return currentPeriodNumber - 2; // We cannot get data from the current period, and we cannot get data from the previous period
@@ -102,7 +122,7 @@ public class CacheHandler {
 		endPeriodNumber = Math.min(endPeriodNumber, maxPeriodNumber);
 
 		if (endPeriodNumber - startPeriodNumber + 1 <= QUERY_PERIOD_COUNT) {
-			return queryOrCalculateCaches(typeReference, cacheName, sourceId, startPeriodNumber, endPeriodNumber);
+			return queryCaches(typeReference, cacheName, sourceId, startPeriodNumber, endPeriodNumber);
 		}
 		List<T> r = new ArrayList<>();
 		for (long periodNumber = startPeriodNumber; periodNumber <= endPeriodNumber; ) {
@@ -110,31 +130,24 @@ public class CacheHandler {
 			periodNumber += QUERY_PERIOD_COUNT;
 			long end = Math.min(endPeriodNumber, periodNumber);
 			periodNumber++; // increment periodNumber because we are going to fetch [start, end], and next time want to get [end + 1, ...]
-			r.addAll(queryOrCalculateCaches(typeReference, cacheName, sourceId, start, end));
+			r.addAll(queryCaches(typeReference, cacheName, sourceId, start, end));
 		}
 		return r;
 	}
-	private String getRevisionFromJsonData(JsonData jsonData) {
-		final JsonNode node;
-		try {
-			node = CouchDbJacksonUtil.getNodeFrom(jsonData);
-		} catch (JsonProcessingException e) {
-			throw new RuntimeException("Couldn't parse to type, so tried parsing to JsonNode. That failed too.", e);
-		}
+	private String getRevisionFromNode(JsonNode node) {
 		if (!node.isObject()) {
-			throw new RuntimeException("The parsed JsonNode is not an object! node: " + node);
+			throw new UnexpectedResponseException("The cache document is not an object! node: " + node);
 		}
-		ObjectNode objectNode = (ObjectNode) node;
-		JsonNode revisionNode = objectNode.get("_rev");
+		JsonNode revisionNode = node.get("_rev");
 		if (revisionNode == null) {
-			throw new RuntimeException("No _rev field on returned JSON!");
+			throw new UnexpectedResponseException("No _rev field on returned JSON!");
 		}
 		if (!revisionNode.isTextual()) {
-			throw new RuntimeException("The _rev field is not a string! revisionNode: " + revisionNode);
+			throw new UnexpectedResponseException("The _rev field is not a string! revisionNode: " + revisionNode);
 		}
 		return revisionNode.asText();
 	}
-	private <T extends CacheDataPacket> List<T> queryOrCalculateCaches(TypeReference<T> typeReference, String cacheName, String sourceId, long startPeriodNumber, long endPeriodNumber) {
+	private <T extends CacheDataPacket> List<T> queryCaches(TypeReference<T> typeReference, String cacheName, String sourceId, long startPeriodNumber, long endPeriodNumber) {
 		List<String> documentIds = new ArrayList<>(); // the document IDs needed to return data
 		Map<String, Long> documentIdPeriodNumberMap = new HashMap<>(); // a map from a document ID to a period number
 
@@ -144,18 +157,9 @@ public class CacheHandler {
 			documentIds.add(documentId);
 			documentIdPeriodNumberMap.put(documentId, periodNumber);
 		}
-		BulkGetRequest request = BulkGetRequest.from(documentIds);
-		final BulkGetResponse response;
-		try {
-			response = cacheDatabase.getDocumentsBulk(request);
-		} catch (CouchDbException e) {
-			throw new DatabaseException("CouchDB exception | message: " + e.getMessage(), e);
-		}
-		Map<String, String> documentIdRevisionMapForUpdate = new HashMap<>(); // map for documents that need to be updated. The value represents the revision that needs to be used to update it
+		BulkGetResponse response = getDocumentsBulk(documentIds);
 		Map<Long, T> periodNumberPacketMap = new TreeMap<>(); // Map for period number -> cached data. This helps us make sure we only return a single piece of data for each period
-		Set<String> doNotUpdateDocumentIdsSet = new HashSet<>(); // Set for document IDs that we already have and do not need to be updated
-		Long queryStartPeriodNumber = null;
-		Long queryEndPeriodNumber = null;
+		List<Long> missingPeriodNumbers = new ArrayList<>();
 		for (BulkGetResponse.Result result : response.getResults()) {
 			if (result.hasConflicts()) {
 				// This could theoretically happen, but it's extremely unlikely and can only happen if someone has some wacky
@@ -174,91 +178,128 @@ public class CacheHandler {
 					if (value.getSourceId().equals(sourceId) && value.getCacheName().equals(cacheName)) {
 						periodNumberPacketMap.put(periodNumber, value);
 					}
-					doNotUpdateDocumentIdsSet.add(value.getDbId());
-				} catch (JsonProcessingException ignored) { // We ignore this exception because getRevisionFromJsonData will throw an exception if the JSON is bad
-					String revision = getRevisionFromJsonData(jsonData);
-					documentIdRevisionMapForUpdate.put(result.getDocumentId(), revision);
+				} catch (JsonProcessingException ignored) { // The document is in an old format. The precomputer will update it
 				}
 			}
 			if (value == null) {
-				if (queryStartPeriodNumber == null) {
-					queryStartPeriodNumber = periodNumber;
-					queryEndPeriodNumber = periodNumber;
-				} else {
-					queryStartPeriodNumber = Math.min(queryStartPeriodNumber, periodNumber);
-					queryEndPeriodNumber = Math.max(queryEndPeriodNumber, periodNumber);
-				}
+				missingPeriodNumbers.add(periodNumber);
 			}
 		}
-		if (queryStartPeriodNumber != null) {
-			List<CacheDataPacket> calculatedPackets = calculatePeriod(queryStartPeriodNumber, queryEndPeriodNumber);
+		if (!missingPeriodNumbers.isEmpty()) {
+			precomputer.request(missingPeriodNumbers);
+		}
 
-			List<JsonData> calculatedPacketsJsonDataList = new ArrayList<>();
-			int updateAttemptCount = 0;
-			for (CacheDataPacket packet : calculatedPackets) {
-				if (doNotUpdateDocumentIdsSet.contains(packet.getDbId())) {
-					continue;
-				}
-				if (!sourceId.equals(packet.getSourceId()) || !cacheName.equals(packet.getCacheName())) {
-					// Although we should be able to update packets from other sources, the logic above only gets
-					//   revisions for documents of sourceId.
-					// Also, the doNotUpdateDocumentIdsSet does not contain docuent IDs from other sources, so
-					//   most of the time we have no idea if we actually need to update a packet from another source ID, which
-					//   leads to conflicts
-					// This is the same with different cache names, we don't know which ones we need to update and which ones we cannot
-					continue;
-				}
-				JsonData json;
-				try {
-					String revision = documentIdRevisionMapForUpdate.get(packet.getDbId());
-					if (revision == null) {
-						json = new StringJsonData(mapper.writeValueAsString(packet));
-					} else {
-						json = new StringJsonData(mapper.writeValueAsString(new DocumentRevisionWrapper(revision, packet)));
-						updateAttemptCount++;
-					}
-				} catch (JsonProcessingException e) {
-					throw new RuntimeException("Should be able to serialize!", e);
+		return new ArrayList<>(periodNumberPacketMap.values());
+	}
+
+	/**
+	 * @return true if every cache document for each known source and cache name exists in the given range of periods, false otherwise.
+	 * If this is false, it does not necessarily mean that calling {@link #calculateAndStore(long, long)} will create new documents.
+	 */
+	boolean isStored(long startPeriodNumber, long endPeriodNumber) {
+		if (knownCacheNames.isEmpty()) {
+			return false;
+		}
+		List<String> documentIds = new ArrayList<>();
+		for (long periodNumber = startPeriodNumber; periodNumber <= endPeriodNumber; periodNumber++) {
+			Instant periodStart = getPeriodStartFromNumber(periodNumber);
+			for (Map.Entry<String, Set<String>> entry : knownCacheNames.entrySet()) {
+				for (String cacheName : entry.getValue()) {
+					documentIds.add(CacheUtil.getDocumentId(periodStart, duration, entry.getKey(), cacheName));
 				}
-				calculatedPacketsJsonDataList.add(json);
 			}
-			final List<BulkDocumentResponse> postResponse;
-			try {
-				postResponse = cacheDatabase.postDocumentsBulk(new BulkPostRequest(calculatedPacketsJsonDataList));
-			} catch (CouchDbException e) {
-				throw new DatabaseException("Could not update cache", e);
+		}
+		for (BulkGetResponse.Result result : getDocumentsBulk(documentIds).getResults()) {
+			if (result.isError()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Calculates the cache documents for every source and cache name in the given range of periods and stores them in the cache database.
+	 * Documents that already exist are only updated if their contents have changed.
+	 * <p>
+	 * This queries the status database, so this should not be called while handling a request.
+	 */
+	void calculateAndStore(long startPeriodNumber, long endPeriodNumber) {
+		List<CacheDataPacket> calculatedPackets = calculatePeriod(startPeriodNumber, endPeriodNumber);
+		if (calculatedPackets.isEmpty()) {
+			LOGGER.debug("No data to calculate for periods " + startPeriodNumber + " to " + endPeriodNumber);
+			return;
+		}
+		Map<String, CacheDataPacket> documentIdPacketMap = new LinkedHashMap<>();
+		for (CacheDataPacket packet : calculatedPackets) {
+			documentIdPacketMap.put(packet.getDbId(), packet);
+			knownCacheNames.computeIfAbsent(packet.getSourceId(), key -> ConcurrentHashMap.newKeySet()).add(packet.getCacheName());
+		}
+		Map<String, JsonNode> documentIdExistingNodeMap = new HashMap<>();
+		for (BulkGetResponse.Result result : getDocumentsBulk(new ArrayList<>(documentIdPacketMap.keySet())).getResults()) {
+			if (result.hasConflicts()) {
+				throw new UnexpectedResponseException("cache document with conflict! doc id: " + result.getDocumentId());
 			}
-			int successCount = 0;
-			int failCount = 0;
-			for (BulkDocumentResponse documentResponse : postResponse) {
-				if (documentResponse.isOk()) {
-					successCount++;
-				} else {
-					failCount++;
-					System.err.println("Error: " + documentResponse.getError() + " reason: " + documentResponse.getReason() + " on id: " + documentResponse.getId());
+			if (!result.isError()) {
+				JsonData jsonData = result.getJsonDataAssertNotConflicted();
+				try {
+					documentIdExistingNodeMap.put(result.getDocumentId(), CouchDbJacksonUtil.getNodeFrom(jsonData));
+				} catch (JsonProcessingException e) {
+					throw new UnexpectedResponseException("Could not parse cache document with id: " + result.getDocumentId(), e);
 				}
 			}
-			System.out.println("Success: " + successCount + " fail: " + failCount + ". Tried to update: " + updateAttemptCount);
+		}
 
-			int numberOfWantedType = 0;
-			for (CacheDataPacket cacheDataPacket : calculatedPackets) {
-				if (cacheDataPacket.getSourceId().equals(sourceId) && cacheDataPacket.getCacheName().equals(cacheName)) {
-					@SuppressWarnings("unchecked")
-					T packet = (T) cacheDataPacket;
-					Long periodNumber = documentIdPeriodNumberMap.get(cacheDataPacket.getDbId());
-					if (periodNumber == null) {
-						throw new NullPointerException("No period number for id: " + cacheDataPacket.getDbId());
+		List<JsonData> jsonDataList = new ArrayList<>();
+		int updateAttemptCount = 0;
+		for (CacheDataPacket packet : documentIdPacketMap.values()) {
+			JsonNode existingNode = documentIdExistingNodeMap.get(packet.getDbId());
+			final ObjectNode packetNode;
+			try {
+				// Serialize and read back so that numbers are represented the same way as they are in existingNode
+				packetNode = (ObjectNode) mapper.readTree(mapper.writeValueAsString(packet));
+				if (existingNode != null) {
+					String revision = getRevisionFromNode(existingNode);
+					ObjectNode existingCopy = ((ObjectNode) existingNode).deepCopy();
+					existingCopy.remove("_rev");
+					if (existingCopy.equals(packetNode)) {
+						continue;
 					}
-					periodNumberPacketMap.put(periodNumber, packet);
-					numberOfWantedType++;
+					packetNode.put("_rev", revision);
+					updateAttemptCount++;
 				}
+				jsonDataList.add(new StringJsonData(mapper.writeValueAsString(packetNode)));
+			} catch (JsonProcessingException e) {
+				throw new RuntimeException("Should be able to serialize!", e);
 			}
-			System.out.println("Calculated " + calculatedPackets.size() + " and " + numberOfWantedType + " were of type " + cacheName);
-		} else {
-			System.out.println("Didn't have to get any data");
 		}
-
-		return new ArrayList<>(periodNumberPacketMap.values());
+		if (jsonDataList.isEmpty()) {
+			LOGGER.debug("All " + calculatedPackets.size() + " calculated cache documents were already up to date");
+			return;
+		}
+		final List<BulkDocumentResponse> postResponse;
+		try {
+			postResponse = cacheDatabase.postDocumentsBulk(new BulkPostRequest(jsonDataList));
+		} catch (CouchDbException e) {
+			throw new DatabaseException("Could not update cache", e);
+		}
+		int successCount = 0;
+		int failCount = 0;
+		for (BulkDocumentResponse documentResponse : postResponse) {
+			if (documentResponse.isOk()) {
+				successCount++;
+			} else {
+				failCount++;
+				LOGGER.warn("Error: " + documentResponse.getError() + " reason: " + documentResponse.getReason() + " on id: " + documentResponse.getId());
+			}
+		}
+		LOGGER.info("Calculated " + calculatedPackets.size() + " cache documents for periods " + startPeriodNumber + " to " + endPeriodNumber + ". Success: " + successCount + " fail: " + failCount + ". Tried to update: " + updateAttemptCount);
+	}
+	private BulkGetResponse getDocumentsBulk(List<String> documentIds) {
+		try {
+			return cacheDatabase.getDocumentsBulk(BulkGetRequest.from(documentIds));
+		} catch (CouchDbException e) {
+			throw new DatabaseException("CouchDB exception | message: " + e.getMessage(), e);
+		}
 	}
 	private List<CacheDataPacket> calculatePeriod(long startPeriodNumber, long endPeriodNumber) {
 		Instant firstPeriodStart = getPeriodStartFromNumber(startPeriodNumber);
@@ -272,7 +313,7 @@ public class CacheHandler {
 				.build();
 		final List<PacketGroup> packetGroups;
 		try {
-			packetGroups = database.getStatusDatabase().query(millisQuery);
+			packetGroups = statusDatabase.query(millisQuery);
 		} catch (SolarThingDatabaseException e) {
 			// TODO the consumers of this API may be ok if there are holes in the data rather than getting no data at all, so maybe change this later?
 			throw new DatabaseException("Couldn't query status packets", e);
@@ -292,24 +333,4 @@ public class CacheHandler {
 		}
 		return r;
 	}
-	@JsonExplicit
-	private static class DocumentRevisionWrapper {
-		private final String revision;
-		private final Object data;
-
-		private DocumentRevisionWrapper(String revision, Object data) {
-			requireNonNull(this.revision = revision);
-			requireNonNull(this.data = data);
-		}
-
-		@JsonProperty("_rev")
-		public String getRevision() {
-			return revision;
-		}
-
-		@JsonUnwrapped
-		public Object getData() {
-			return data;
-		}
-	}
 }
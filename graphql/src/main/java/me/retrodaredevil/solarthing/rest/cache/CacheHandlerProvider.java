@@ -4,30 +4,45 @@ import me.retrodaredevil.couchdb.CouchDbUtil;
 import me.retrodaredevil.couchdbjava.CouchDbInstance;
 import me.retrodaredevil.solarthing.config.databases.implementations.CouchDbDatabaseSettings;
 import me.retrodaredevil.solarthing.packets.collection.DefaultInstanceOptions;
+import me.retrodaredevil.solarthing.rest.StatusArchive;
 import me.retrodaredevil.solarthing.util.JacksonUtil;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
 
 @Component
 public class CacheHandlerProvider {
+	@Value("${solarthing.config.cache_backfill_duration:P30D}")
+	private String backfillDuration;
+	@Value("${solarthing.config.cache_backfill_interval:PT1M}")
+	private String backfillInterval;
 
 	private final DefaultInstanceOptions defaultInstanceOptions;
 	private final CouchDbDatabaseSettings couchDbDatabaseSettings;
+	private final StatusArchive statusArchive;
 
 	private CacheHandler cacheHandler;
 
-	public CacheHandlerProvider(DefaultInstanceOptions defaultInstanceOptions, CouchDbDatabaseSettings couchDbDatabaseSettings) {
+	public CacheHandlerProvider(DefaultInstanceOptions defaultInstanceOptions, CouchDbDatabaseSettings couchDbDatabaseSettings, StatusArchive statusArchive) {
 		this.defaultInstanceOptions = defaultInstanceOptions;
 		this.couchDbDatabaseSettings = couchDbDatabaseSettings;
+		this.statusArchive = statusArchive;
 	}
 
 	@PostConstruct
 	public void init() {
 		CouchDbInstance instance = CouchDbUtil.createInstance(couchDbDatabaseSettings.getCouchProperties(), couchDbDatabaseSettings.getOkHttpProperties());
-		cacheHandler = new CacheHandler(JacksonUtil.defaultMapper(), defaultInstanceOptions, instance);
-
+		cacheHandler = new CacheHandler(JacksonUtil.defaultMapper(), defaultInstanceOptions, instance, statusArchive);
+		cacheHandler.getPrecomputer().setBackfill(Duration.parse(backfillDuration), Duration.parse(backfillInterval));
+		cacheHandler.getPrecomputer().start();
+	}
+	@PreDestroy
+	public void destroy() {
+		cacheHandler.getPrecomputer().close();
 	}
 	@Bean
 	public CacheHandler cacheHandler() {
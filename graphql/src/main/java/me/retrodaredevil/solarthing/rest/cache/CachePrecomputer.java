@@ -0,0 +1,210 @@
+package me.retrodaredevil.solarthing.rest.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Calculates cache documents on a background thread so that requests to {@link CacheHandler} never have to.
+ * <p>
+ * This does three things:
+ * <ul>
+ *     <li>Calculates the most recent period as soon as it is able to be calculated</li>
+ *     <li>Calculates periods that were requested but were missing. Multiple requests for the same period only cause it to be calculated once</li>
+ *     <li>Backfills older periods, one day at a time, waiting between each day so that the status database is not overwhelmed.
+ *     Periods that were skipped because the most recent periods could not be calculated for more than a day are also backfilled</li>
+ * </ul>
+ * All calculations are done on a single thread, so the same period is never calculated twice at the same time.
+ */
+public class CachePrecomputer implements AutoCloseable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(CachePrecomputer.class);
+	/** The amount of time to wait after a period becomes able to be calculated before calculating it. */
+	private static final Duration WARM_DELAY = Duration.ofSeconds(15);
+	/** The amount of time to wait before calculating a period again after a request for it. Some periods never have data, so we don't want to calculate those over and over */
+	private static final Duration RECALCULATE_DELAY = Duration.ofMinutes(10);
+	public static final Duration DEFAULT_BACKFILL_DURATION = Duration.ofDays(30);
+	public static final Duration DEFAULT_BACKFILL_INTERVAL = Duration.ofMinutes(1);
+
+	private final CacheHandler cacheHandler;
+	/** Period numbers that have been requested but not yet calculated */
+	private final Set<Long> requestedPeriodNumbers = ConcurrentHashMap.newKeySet();
+	/** Map of period numbers to the time they were last calculated because they were requested */
+	private final Map<Long, Long> calculatedPeriodNumberMap = new ConcurrentHashMap<>();
+	private final ScheduledExecutorService executor;
+
+	private Duration backfillDuration = DEFAULT_BACKFILL_DURATION;
+	private Duration backfillInterval = DEFAULT_BACKFILL_INTERVAL;
+
+	// These are only accessed on the executor's thread
+	private Long latestCalculatedPeriodNumber = null;
+	/** A map of the first period number of each range that needs to be backfilled to the last period number of that range. The newest range is backfilled first */
+	private final NavigableMap<Long, Long> backfillRangeMap = new TreeMap<>();
+
+	CachePrecomputer(CacheHandler cacheHandler) {
+		requireNonNull(this.cacheHandler = cacheHandler);
+		executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "cache-precomputer");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Sets how far back in time older periods should be calculated, and how long to wait between calculating each day.
+	 * This must be called before {@link #start()}
+	 */
+	public void setBackfill(Duration backfillDuration, Duration backfillInterval) {
+		requireNonNull(this.backfillDuration = backfillDuration);
+		requireNonNull(this.backfillInterval = backfillInterval);
+		if (backfillInterval.isZero() || backfillInterval.isNegative()) {
+			throw new IllegalArgumentException("backfillInterval must be positive! backfillInterval=" + backfillInterval);
+		}
+	}
+
+	public void start() {
+		long durationMillis = cacheHandler.getDuration().toMillis();
+		long untilNextPeriodMillis = durationMillis - System.currentTimeMillis() % durationMillis;
+		executor.execute(this::calculateLatest);
+		executor.scheduleAtFixedRate(this::calculateLatest, untilNextPeriodMillis + WARM_DELAY.toMillis(), durationMillis, TimeUnit.MILLISECONDS);
+		executor.scheduleWithFixedDelay(this::backfill, backfillInterval.toMillis(), backfillInterval.toMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Requests that the given periods be calculated in the background. This returns immediately.
+	 * @param periodNumbers The period numbers to calculate
+	 */
+	public void request(Collection<Long> periodNumbers) {
+		long maxPeriodNumber = cacheHandler.getMaxPeriodNumber();
+		long now = System.currentTimeMillis();
+		boolean added = false;
+		for (long periodNumber : periodNumbers) {
+			if (periodNumber > maxPeriodNumber) {
+				continue;
+			}
+			Long lastCalculated = calculatedPeriodNumberMap.get(periodNumber);
+			if (lastCalculated != null && lastCalculated + RECALCULATE_DELAY.toMillis() > now) {
+				continue;
+			}
+			if (requestedPeriodNumbers.add(periodNumber)) {
+				added = true;
+			}
+		}
+		if (added) {
+			try {
+				executor.execute(this::calculateRequested);
+			} catch (RejectedExecutionException e) {
+				LOGGER.debug("Not calculating requested periods because we are shut down", e);
+			}
+		}
+	}
+
+	private void calculateRequested() {
+		long now = System.currentTimeMillis();
+		calculatedPeriodNumberMap.values().removeIf(lastCalculated -> lastCalculated + RECALCULATE_DELAY.toMillis() <= now);
+
+		List<Long> periodNumbers = new ArrayList<>(new TreeSet<>(requestedPeriodNumbers));
+		int i = 0;
+		while (i < periodNumbers.size()) {
+			// Calculate contiguous periods together, but no more than a day at a time
+			long start = periodNumbers.get(i);
+			long end = start;
+			i++;
+			while (i < periodNumbers.size() && periodNumbers.get(i) == end + 1 && end - start + 1 < CacheHandler.QUERY_PERIOD_COUNT) {
+				end++;
+				i++;
+			}
+			calculate(start, end);
+			for (long periodNumber = start; periodNumber <= end; periodNumber++) {
+				calculatedPeriodNumberMap.put(periodNumber, now);
+				// Removed after it is calculated so that requests while calculating don't cause another calculation
+				requestedPeriodNumbers.remove(periodNumber);
+			}
+		}
+	}
+
+	private void calculateLatest() {
+		long maxPeriodNumber = cacheHandler.getMaxPeriodNumber();
+		long firstUncalculated = latestCalculatedPeriodNumber == null ? maxPeriodNumber : latestCalculatedPeriodNumber + 1;
+		// No more than a day is calculated at a time. Older periods are backfilled
+		long start = Math.max(firstUncalculated, maxPeriodNumber - CacheHandler.QUERY_PERIOD_COUNT + 1);
+		if (start > maxPeriodNumber) {
+			return;
+		}
+		if (calculate(start, maxPeriodNumber)) {
+			if (latestCalculatedPeriodNumber == null) {
+				backfillRangeMap.put(Long.MIN_VALUE, start - 1); // backfill everything before the first calculation
+			} else if (firstUncalculated < start) {
+				LOGGER.info("Periods " + firstUncalculated + " to " + (start - 1) + " were skipped and will be backfilled");
+				backfillRangeMap.put(firstUncalculated, start - 1);
+			}
+			latestCalculatedPeriodNumber = maxPeriodNumber;
+		}
+	}
+
+	private void backfill() {
+		Map.Entry<Long, Long> range = backfillRangeMap.lastEntry();
+		if (range == null) {
+			return;
+		}
+		long minPeriodNumber = cacheHandler.getPeriodNumber(System.currentTimeMillis() - backfillDuration.toMillis());
+		long end = range.getValue();
+		if (end < minPeriodNumber) {
+			// every other range is older than this one
+			backfillRangeMap.clear();
+			LOGGER.info("Finished backfilling cache documents");
+			return;
+		}
+		long start = Math.max(Math.max(range.getKey(), minPeriodNumber), end - CacheHandler.QUERY_PERIOD_COUNT + 1);
+		final boolean stored;
+		try {
+			stored = cacheHandler.isStored(start, end);
+		} catch (RuntimeException e) {
+			LOGGER.error("Could not check if periods " + start + " to " + end + " are stored. Will try again later.", e);
+			return;
+		}
+		if (stored || calculate(start, end)) {
+			if (start == range.getKey()) {
+				backfillRangeMap.remove(range.getKey());
+			} else {
+				backfillRangeMap.put(range.getKey(), start - 1);
+			}
+			if (backfillRangeMap.isEmpty()) {
+				LOGGER.info("Finished backfilling cache documents");
+			}
+		}
+	}
+
+	/**
+	 * @return true if the calculation was successful, false otherwise
+	 */
+	private boolean calculate(long startPeriodNumber, long endPeriodNumber) {
+		try {
+			cacheHandler.calculateAndStore(startPeriodNumber, endPeriodNumber);
+			return true;
+		} catch (RuntimeException e) {
+			LOGGER.error("Could not calculate periods " + startPeriodNumber + " to " + endPeriodNumber, e);
+			return false;
+		}
+	}
+}
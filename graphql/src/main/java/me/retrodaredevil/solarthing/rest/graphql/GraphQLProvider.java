@@ -11,6 +11,7 @@ import io.leangen.graphql.metadata.strategy.query.ResolverBuilder;
 import io.leangen.graphql.metadata.strategy.value.jackson.JacksonValueMapperFactory;
 import me.retrodaredevil.solarthing.annotations.NotNull;
 import me.retrodaredevil.solarthing.config.databases.implementations.CouchDbDatabaseSettings;
+import me.retrodaredevil.solarthing.rest.StatusArchive;
 import me.retrodaredevil.solarthing.rest.cache.CacheController;
 import me.retrodaredevil.solarthing.rest.graphql.service.*;
 import me.retrodaredevil.solarthing.rest.graphql.solcast.SolcastConfig;
@@ -21,6 +22,7 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Field;
@@ -35,16 +37,19 @@ public class GraphQLProvider {
 	private final CouchDbDatabaseSettings couchDbDatabaseSettings;
 	private final DefaultInstanceOptions defaultInstanceOptions;
 	private final CacheController cacheController;
+	private final StatusArchive statusArchive;
 
 	@Value("${solarthing.config.solcast_file:config/solcast.json}")
 	private File solcastFile;
 
+	private SimpleQueryHandler simpleQueryHandler;
 	private GraphQL graphQL;
 
-	public GraphQLProvider(CouchDbDatabaseSettings couchDbDatabaseSettings, DefaultInstanceOptions defaultInstanceOptions, CacheController cacheController) {
+	public GraphQLProvider(CouchDbDatabaseSettings couchDbDatabaseSettings, DefaultInstanceOptions defaultInstanceOptions, CacheController cacheController, StatusArchive statusArchive) {
 		this.couchDbDatabaseSettings = couchDbDatabaseSettings;
 		this.defaultInstanceOptions = defaultInstanceOptions;
 		this.cacheController = cacheController;
+		this.statusArchive = statusArchive;
 	}
 
 
@@ -84,17 +89,22 @@ public class GraphQLProvider {
 			solcastConfig = new SolcastConfig(Collections.emptyMap());
 		}
 
-		GraphQLSchema schema = createGraphQLSchemaGenerator(objectMapper, couchDbDatabaseSettings, defaultInstanceOptions, solcastConfig, cacheController).generate();
+		simpleQueryHandler = new SimpleQueryHandler(defaultInstanceOptions, couchDbDatabaseSettings, objectMapper, statusArchive);
+		simpleQueryHandler.start();
+		GraphQLSchema schema = createGraphQLSchemaGenerator(objectMapper, simpleQueryHandler, solcastConfig, cacheController).generate();
 
 		this.graphQL = GraphQL.newGraphQL(schema).build();
 	}
+	@PreDestroy
+	public void destroy() {
+		simpleQueryHandler.close();
+	}
 
-	static GraphQLSchemaGenerator createGraphQLSchemaGenerator(ObjectMapper objectMapper, CouchDbDatabaseSettings couchDbDatabaseSettings, DefaultInstanceOptions defaultInstanceOptions, @NotNull SolcastConfig solcastConfig, CacheController cacheController) {
+	static GraphQLSchemaGenerator createGraphQLSchemaGenerator(ObjectMapper objectMapper, SimpleQueryHandler simpleQueryHandler, @NotNull SolcastConfig solcastConfig, CacheController cacheController) {
 		JacksonValueMapperFactory jacksonValueMapperFactory = JacksonValueMapperFactory.builder()
 				.withPrototype(objectMapper)
 				.build();
 		ResolverBuilder resolverBuilder = new SolarThingAnnotatedResolverBuilder();
-		SimpleQueryHandler simpleQueryHandler = new SimpleQueryHandler(defaultInstanceOptions, couchDbDatabaseSettings, objectMapper);
 		ZoneId zoneId = ZoneId.systemDefault(); // In the future, we could make this customizable, but like, bro just make sure your system time is correct
 		System.out.println("Using timezone: " + zoneId);
 		return new GraphQLSchemaGenerator()
@@ -0,0 +1,300 @@
+package me.retrodaredevil.solarthing.rest.graphql;
+
+import me.retrodaredevil.solarthing.database.MillisDatabase;
+import me.retrodaredevil.solarthing.database.MillisQueryBuilder;
+import me.retrodaredevil.solarthing.database.exception.SolarThingDatabaseException;
+import me.retrodaredevil.solarthing.packets.collection.DefaultInstanceOptions;
+import me.retrodaredevil.solarthing.packets.collection.InstancePacketGroup;
+import me.retrodaredevil.solarthing.packets.collection.PacketGroup;
+import me.retrodaredevil.solarthing.packets.collection.PacketGroups;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Caches parsed {@link InstancePacketGroup}s from a {@link MillisDatabase} in buckets of time.
+ * <p>
+ * A bucket is closed once its end is older than the settle duration. Closed buckets are queried once and are kept until {@link #invalidate(List)} is called.
+ * Packets may be uploaded a little while after they are created, so the most recent buckets are open. When an open bucket is used,
+ * only the packets newer than the settle duration are queried again, and older packets are kept.
+ * <p>
+ * Packets that are uploaded long after they are created, such as packets that were stored while the database was down,
+ * are only seen if {@link #invalidate(List)} is called with them, usually by a {@link me.retrodaredevil.solarthing.database.ChangesSubscriber}.
+ * <p>
+ * The number of packets that are cached is limited. When there are too many, the least recently used buckets are removed.
+ */
+public class PacketGroupBucketCache {
+	private static final Logger LOGGER = LoggerFactory.getLogger(PacketGroupBucketCache.class);
+	/** Requests for an open bucket within this amount of time of each other share the same database query*/
+	private static final long MIN_REFRESH_MILLIS = 1000;
+	/** Queries that span more buckets than this go straight to the database, since they would likely evict everything else*/
+	private static final long MAX_BUCKETS_PER_QUERY = 31 * 24;
+
+	private final MillisDatabase database;
+	private final DefaultInstanceOptions defaultInstanceOptions;
+	private final long bucketMillis;
+	private final long settleMillis;
+	private final long maxCachedPackets;
+	private final LongSupplier currentTimeMillis;
+
+	/** The buckets in least recently used order. Guarded by this*/
+	private final LinkedHashMap<Long, Bucket> buckets = new LinkedHashMap<>(16, 0.75f, true);
+	/** Guarded by this*/
+	private long cachedPackets = 0;
+
+	/**
+	 * @param database The database to query packets from
+	 * @param defaultInstanceOptions The default instance options used to parse packets
+	 * @param bucketDuration The duration of each bucket
+	 * @param settleDuration The amount of time after a packet's date that it may still be uploaded
+	 * @param maxCachedPackets The maximum number of packets to keep in memory
+	 * @param currentTimeMillis Gives the current time
+	 */
+	public PacketGroupBucketCache(MillisDatabase database, DefaultInstanceOptions defaultInstanceOptions, Duration bucketDuration, Duration settleDuration, long maxCachedPackets, LongSupplier currentTimeMillis) {
+		requireNonNull(this.database = database);
+		requireNonNull(this.defaultInstanceOptions = defaultInstanceOptions);
+		bucketMillis = bucketDuration.toMillis();
+		settleMillis = settleDuration.toMillis();
+		this.maxCachedPackets = maxCachedPackets;
+		requireNonNull(this.currentTimeMillis = currentTimeMillis);
+		if (bucketMillis <= 0) {
+			throw new IllegalArgumentException("bucketDuration must be positive! bucketDuration=" + bucketDuration);
+		}
+	}
+	public PacketGroupBucketCache(MillisDatabase database, DefaultInstanceOptions defaultInstanceOptions, Duration bucketDuration, Duration settleDuration, long maxCachedPackets) {
+		this(database, defaultInstanceOptions, bucketDuration, settleDuration, maxCachedPackets, System::currentTimeMillis);
+	}
+
+	/**
+	 * @param from The date millis from (inclusive)
+	 * @param to The date millis to (inclusive)
+	 * @return The parsed packet groups ordered from oldest to newest
+	 * @throws SolarThingDatabaseException Thrown if packets that are not cached could not be queried
+	 */
+	public List<InstancePacketGroup> query(long from, long to) throws SolarThingDatabaseException {
+		if (from > to) {
+			return Collections.emptyList();
+		}
+		long now = currentTimeMillis.getAsLong();
+		long firstBucketStart = Math.floorDiv(from, bucketMillis) * bucketMillis;
+		long lastBucketStart = Math.floorDiv(to, bucketMillis) * bucketMillis;
+		if ((lastBucketStart - firstBucketStart) / bucketMillis >= MAX_BUCKETS_PER_QUERY) {
+			return PacketGroups.parseToInstancePacketGroups(database.query(new MillisQueryBuilder()
+					.startKey(from)
+					.endKey(to)
+					.build()), defaultInstanceOptions);
+		}
+
+		List<Bucket> bucketList = new ArrayList<>();
+		List<Long> missingClosedStarts = new ArrayList<>();
+		synchronized (this) {
+			for (long start = firstBucketStart; start <= lastBucketStart; start += bucketMillis) {
+				Bucket bucket = buckets.get(start);
+				if (bucket == null && !isClosed(start, now)) {
+					bucket = new Bucket(start);
+					buckets.put(start, bucket);
+				}
+				if (bucket == null) {
+					missingClosedStarts.add(start);
+				}
+				bucketList.add(bucket); // this may be null, which will be replaced below
+			}
+		}
+		if (!missingClosedStarts.isEmpty()) {
+			Map<Long, Bucket> queried = queryClosedBuckets(missingClosedStarts);
+			for (int i = 0; i < bucketList.size(); i++) {
+				if (bucketList.get(i) == null) {
+					bucketList.set(i, requireNonNull(queried.get(firstBucketStart + i * bucketMillis)));
+				}
+			}
+		}
+		List<InstancePacketGroup> r = new ArrayList<>();
+		for (Bucket bucket : bucketList) {
+			List<InstancePacketGroup> packetGroups = bucket.getPacketGroups(now);
+			boolean fullyContained = bucket.start >= from && bucket.start + bucketMillis - 1 <= to;
+			if (fullyContained) {
+				r.addAll(packetGroups);
+			} else {
+				for (InstancePacketGroup packetGroup : packetGroups) {
+					long dateMillis = packetGroup.getDateMillis();
+					if (dateMillis >= from && dateMillis <= to) {
+						r.add(packetGroup);
+					}
+				}
+			}
+		}
+		return r;
+	}
+
+	/**
+	 * Removes the buckets that have already settled the dates of {@code packetGroups}, so they are queried again the next time they are used.
+	 * Packet groups that belong to the unsettled part of an open bucket are ignored, since that part is queried again anyway.
+	 * @param packetGroups Packet groups that were added or updated in the database
+	 */
+	public void invalidate(List<? extends PacketGroup> packetGroups) {
+		synchronized (this) {
+			for (PacketGroup packetGroup : packetGroups) {
+				long dateMillis = packetGroup.getDateMillis();
+				long start = Math.floorDiv(dateMillis, bucketMillis) * bucketMillis;
+				Bucket bucket = buckets.get(start);
+				if (bucket != null && dateMillis < bucket.settledUntil) {
+					buckets.remove(start);
+					cachedPackets -= bucket.packetCount;
+					LOGGER.debug("Invalidated bucket starting at " + start);
+				}
+			}
+		}
+	}
+
+	private boolean isClosed(long bucketStart, long now) {
+		return bucketStart + bucketMillis <= now - settleMillis;
+	}
+
+	/**
+	 * Queries closed buckets, using a single query for each run of consecutive buckets, and adds them to the cache
+	 * @param starts The starts of the buckets in order
+	 * @return A map of the start of each bucket to the bucket
+	 */
+	private Map<Long, Bucket> queryClosedBuckets(List<Long> starts) throws SolarThingDatabaseException {
+		Map<Long, Bucket> r = new LinkedHashMap<>();
+		int runStartIndex = 0;
+		for (int i = 1; i <= starts.size(); i++) {
+			if (i == starts.size() || starts.get(i) != starts.get(i - 1) + bucketMillis) {
+				long runStart = starts.get(runStartIndex);
+				long runEnd = starts.get(i - 1) + bucketMillis;
+				Map<Long, List<InstancePacketGroup>> split = new LinkedHashMap<>();
+				for (int j = runStartIndex; j < i; j++) {
+					split.put(starts.get(j), new ArrayList<>());
+				}
+				for (InstancePacketGroup packetGroup : queryParsed(runStart, runEnd)) {
+					long bucketStart = Math.floorDiv(packetGroup.getDateMillis(), bucketMillis) * bucketMillis;
+					requireNonNull(split.get(bucketStart), "The database gave a packet outside of the range we asked for!").add(packetGroup);
+				}
+				for (Map.Entry<Long, List<InstancePacketGroup>> entry : split.entrySet()) {
+					r.put(entry.getKey(), new Bucket(entry.getKey(), entry.getValue()));
+				}
+				runStartIndex = i;
+			}
+		}
+		synchronized (this) {
+			for (Map.Entry<Long, Bucket> entry : r.entrySet()) {
+				Bucket existing = buckets.get(entry.getKey());
+				if (existing != null) {
+					// another thread queried it at the same time
+					entry.setValue(existing);
+				} else {
+					buckets.put(entry.getKey(), entry.getValue());
+					cachedPackets += entry.getValue().packetCount;
+				}
+			}
+			evict();
+		}
+		return r;
+	}
+
+	/**
+	 * @param from The date millis from (inclusive)
+	 * @param to The date millis to (exclusive)
+	 */
+	private List<InstancePacketGroup> queryParsed(long from, long to) throws SolarThingDatabaseException {
+		List<PacketGroup> rawPacketGroups = database.query(new MillisQueryBuilder()
+				.startKey(from)
+				.endKey(to)
+				.inclusiveEnd(false)
+				.build());
+		return PacketGroups.parseToInstancePacketGroups(rawPacketGroups, defaultInstanceOptions);
+	}
+
+	private synchronized void onPacketCountChanged(Bucket bucket, int delta) {
+		bucket.packetCount += delta;
+		if (buckets.get(bucket.start) == bucket) { // make sure it has not been evicted
+			cachedPackets += delta;
+			evict();
+		}
+	}
+
+	/** Must be called while holding the lock on this*/
+	private void evict() {
+		Iterator<Bucket> iterator = buckets.values().iterator();
+		while (cachedPackets > maxCachedPackets && iterator.hasNext()) {
+			Bucket bucket = iterator.next();
+			iterator.remove();
+			cachedPackets -= bucket.packetCount;
+			LOGGER.debug("Evicted bucket starting at " + bucket.start);
+		}
+	}
+
+	private static int countPackets(List<? extends InstancePacketGroup> packetGroups) {
+		int r = 0;
+		for (InstancePacketGroup packetGroup : packetGroups) {
+			r += packetGroup.getPackets().size();
+		}
+		return r;
+	}
+
+	private final class Bucket {
+		private final long start;
+		/** Guarded by this. Only packets before {@link #settledUntil}, which will not change*/
+		private final List<InstancePacketGroup> settled;
+		/** Written while holding the lock on this*/
+		private volatile long settledUntil;
+		/** Guarded by this. Null if this has never been queried*/
+		private Long lastRefreshMillis = null;
+		/** An unmodifiable list of all the packet groups in this bucket*/
+		private volatile List<InstancePacketGroup> packetGroups;
+		/** Guarded by {@link PacketGroupBucketCache}*/
+		private int packetCount;
+
+		/** Creates an open bucket that has not been queried yet */
+		private Bucket(long start) {
+			this.start = start;
+			settled = new ArrayList<>();
+			settledUntil = start;
+			packetGroups = Collections.emptyList();
+			packetCount = 0;
+		}
+		/** Creates a closed bucket */
+		private Bucket(long start, List<InstancePacketGroup> packetGroups) {
+			this.start = start;
+			settled = packetGroups;
+			settledUntil = start + bucketMillis;
+			this.packetGroups = Collections.unmodifiableList(packetGroups);
+			packetCount = countPackets(packetGroups);
+		}
+
+		private List<InstancePacketGroup> getPacketGroups(long now) throws SolarThingDatabaseException {
+			long end = start + bucketMillis;
+			synchronized (this) {
+				if (settledUntil >= end || (lastRefreshMillis != null && now - lastRefreshMillis < MIN_REFRESH_MILLIS)) {
+					return packetGroups;
+				}
+				lastRefreshMillis = now;
+				List<InstancePacketGroup> queried = queryParsed(settledUntil, end);
+				long newSettledUntil = Math.max(settledUntil, Math.min(now - settleMillis, end));
+				List<InstancePacketGroup> all = new ArrayList<>(settled.size() + queried.size());
+				all.addAll(settled);
+				for (InstancePacketGroup packetGroup : queried) {
+					if (packetGroup.getDateMillis() < newSettledUntil) {
+						settled.add(packetGroup);
+					}
+					all.add(packetGroup);
+				}
+				settledUntil = newSettledUntil;
+				List<InstancePacketGroup> oldPacketGroups = packetGroups;
+				packetGroups = Collections.unmodifiableList(all);
+				onPacketCountChanged(this, countPackets(all) - countPackets(oldPacketGroups));
+				return packetGroups;
+			}
+		}
+	}
+}
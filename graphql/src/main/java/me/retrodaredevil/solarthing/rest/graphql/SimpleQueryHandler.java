@@ -5,34 +5,94 @@ import me.retrodaredevil.couchdb.CouchDbUtil;
 import me.retrodaredevil.couchdbjava.CouchDbInstance;
 import me.retrodaredevil.solarthing.SolarThingConstants;
 import me.retrodaredevil.solarthing.config.databases.implementations.CouchDbDatabaseSettings;
+import me.retrodaredevil.solarthing.database.ChangesSubscriber;
 import me.retrodaredevil.solarthing.database.MillisDatabase;
 import me.retrodaredevil.solarthing.database.MillisQueryBuilder;
 import me.retrodaredevil.solarthing.database.SolarThingDatabase;
+import me.retrodaredevil.solarthing.database.VersionedPacket;
+import me.retrodaredevil.solarthing.database.VersionedPacketCache;
+import me.retrodaredevil.solarthing.database.couchdb.CouchDbDocumentWatcher;
 import me.retrodaredevil.solarthing.database.couchdb.CouchDbSolarThingDatabase;
 import me.retrodaredevil.solarthing.database.exception.SolarThingDatabaseException;
 import me.retrodaredevil.solarthing.meta.DefaultMetaDatabase;
 import me.retrodaredevil.solarthing.meta.EmptyMetaDatabase;
 import me.retrodaredevil.solarthing.meta.MetaDatabase;
+import me.retrodaredevil.solarthing.meta.RootMetaPacket;
 import me.retrodaredevil.solarthing.packets.collection.*;
 import me.retrodaredevil.solarthing.packets.collection.parsing.PacketParsingErrorHandler;
+import me.retrodaredevil.solarthing.rest.StatusArchive;
 import me.retrodaredevil.solarthing.rest.exceptions.DatabaseException;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
 
-public class SimpleQueryHandler {
+import static java.util.Objects.requireNonNull;
+
+public class SimpleQueryHandler implements AutoCloseable {
+	/** The changes feed tells us as soon as meta changes, so this is only used in case the changes feed is unavailable*/
+	private static final Duration META_REVALIDATE_PERIOD = Duration.ofMinutes(1);
+	private static final Duration STATUS_CACHE_BUCKET_DURATION = Duration.ofHours(1);
+	/** Status packets older than this are assumed to have been uploaded already*/
+	private static final Duration STATUS_CACHE_SETTLE_DURATION = Duration.ofMinutes(2);
+	private static final long STATUS_CACHE_MAX_PACKETS = 200_000;
 
 	private final DefaultInstanceOptions defaultInstanceOptions;
 
 	private final SolarThingDatabase database;
+	private final VersionedPacketCache<MetaDatabase> metaCache;
+	private final CouchDbDocumentWatcher metaWatcher;
+	private final PacketGroupBucketCache statusCache;
+	private final ChangesSubscriber statusChangesSubscriber;
 
-	public SimpleQueryHandler(DefaultInstanceOptions defaultInstanceOptions, CouchDbDatabaseSettings couchDbDatabaseSettings, ObjectMapper objectMapper) {
+	/**
+	 * @param statusArchive The archive that closed days of status packets are queried from
+	 */
+	public SimpleQueryHandler(DefaultInstanceOptions defaultInstanceOptions, CouchDbDatabaseSettings couchDbDatabaseSettings, ObjectMapper objectMapper, StatusArchive statusArchive) {
 		this.defaultInstanceOptions = defaultInstanceOptions;
 		CouchDbInstance instance = CouchDbUtil.createInstance(couchDbDatabaseSettings.getCouchProperties(), couchDbDatabaseSettings.getOkHttpProperties());
 		// Notice that objectMapper is likely not lenient, but that's OK. We expect the user to keep this program up to date
-		database = new CouchDbSolarThingDatabase(instance, PacketParsingErrorHandler.DO_NOTHING, objectMapper);
+		database = new CouchDbSolarThingDatabase(instance, couchDbDatabaseSettings.getCouchProperties(), couchDbDatabaseSettings.getOkHttpProperties(), PacketParsingErrorHandler.DO_NOTHING, objectMapper);
+		MillisDatabase statusDatabase = statusArchive.wrap(database.getStatusDatabase());
+		statusCache = new PacketGroupBucketCache(
+				statusDatabase, defaultInstanceOptions,
+				STATUS_CACHE_BUCKET_DURATION, STATUS_CACHE_SETTLE_DURATION, STATUS_CACHE_MAX_PACKETS
+		);
+		// Packets uploaded after their bucket has settled, such as ones from a retry queue, would otherwise never be seen
+		statusChangesSubscriber = new ChangesSubscriber(
+				requireNonNull(database.getStatusDatabase().getChangesFeed(), "We gave CouchDbSolarThingDatabase properties, so it should have a changes feed!"),
+				null, statusCache::invalidate, "status-changes"
+		);
+		metaCache = new VersionedPacketCache<>(updateToken -> {
+			VersionedPacket<RootMetaPacket> versionedPacket = database.queryMetadata(updateToken);
+			if (versionedPacket == null) {
+				return null;
+			}
+			// DefaultMetaDatabase indexes the meta when it is created, so we cache it instead of the RootMetaPacket
+			return new VersionedPacket<>(new DefaultMetaDatabase(versionedPacket.getPacket()), versionedPacket.getUpdateToken());
+		}, META_REVALIDATE_PERIOD, EmptyMetaDatabase.getInstance());
+		metaWatcher = new CouchDbDocumentWatcher(
+				couchDbDatabaseSettings.getCouchProperties(), couchDbDatabaseSettings.getOkHttpProperties(), SolarThingConstants.CLOSED_DATABASE,
+				Collections.singleton(RootMetaPacket.DOCUMENT_ID), documentId -> metaCache.invalidate(), "meta-changes"
+		);
+	}
+
+	/**
+	 * Starts watching for changes to the meta and for status packets that are uploaded late, so that cached data does not become outdated
+	 */
+	public void start() {
+		statusChangesSubscriber.start();
+		metaWatcher.start();
+	}
+
+	@Override
+	public void close() {
+		statusChangesSubscriber.close();
+		metaWatcher.close();
 	}
 
 	/**
@@ -73,7 +133,10 @@ public class SimpleQueryHandler {
 		} catch (SolarThingDatabaseException e) {
 			throw new DatabaseException("Exception querying from " + from + " to " + to, e);
 		}
-		if(rawPacketGroups.isEmpty()){
+		return filterSource(PacketGroups.parseToInstancePacketGroups(rawPacketGroups, defaultInstanceOptions), from, to, sourceId);
+	}
+	private List<? extends InstancePacketGroup> filterSource(List<InstancePacketGroup> packetGroups, long from, long to, String sourceId) {
+		if(packetGroups.isEmpty()){
 			if (to - from > 60 * 1000) {
 				// Only debug this message if the requester is actually asking for a decent chunk of data
 				System.out.println("No packets were queried between " + from + " and " + to);
@@ -81,30 +144,41 @@ public class SimpleQueryHandler {
 			return Collections.emptyList();
 		}
 		if (sourceId == null) {
-			return PacketGroups.parseToInstancePacketGroups(rawPacketGroups, defaultInstanceOptions);
+			return packetGroups;
+		}
+		List<InstancePacketGroup> instancePacketGroupList = new ArrayList<>();
+		Set<String> sourceIds = new HashSet<>();
+		for (InstancePacketGroup packetGroup : packetGroups) {
+			if (sourceId.equals(packetGroup.getSourceId())) {
+				instancePacketGroupList.add(packetGroup);
+			} else {
+				sourceIds.add(packetGroup.getSourceId());
+			}
 		}
-		Map<String, List<InstancePacketGroup>> map = PacketGroups.parsePackets(rawPacketGroups, defaultInstanceOptions);
-		if(map.containsKey(sourceId)){
-			List<InstancePacketGroup> instancePacketGroupList = map.get(sourceId);
+		if(!instancePacketGroupList.isEmpty()){
 			return PacketGroups.orderByFragment(instancePacketGroupList);
 		}
-		throw new NoSuchElementException("No element with sourceId: '" + sourceId + "' available keys are: " + map.keySet());
+		throw new NoSuchElementException("No element with sourceId: '" + sourceId + "' available keys are: " + sourceIds);
 	}
 	public List<? extends InstancePacketGroup> queryStatus(long from, long to, String sourceId) {
-		return queryPackets(database.getStatusDatabase(), from, to, sourceId);
+		final List<InstancePacketGroup> packetGroups;
+		try {
+			packetGroups = statusCache.query(from, to);
+		} catch (SolarThingDatabaseException e) {
+			throw new DatabaseException("Exception querying from " + from + " to " + to, e);
+		}
+		return filterSource(packetGroups, from, to, sourceId);
 	}
 	public List<? extends InstancePacketGroup> queryEvent(long from, long to, String sourceId) {
 		return queryPackets(database.getEventDatabase(), from, to, sourceId);
 	}
 
 	public MetaDatabase queryMeta() {
-		// TODO We can have a better caching mechanism for this
 		try {
-			return new DefaultMetaDatabase(database.queryMetadata().getPacket());
+			return metaCache.get();
 		} catch (SolarThingDatabaseException e) {
-			// TODO find a way to tell what kind of error this is. If it's a connection error, throw a DatabaseException
-			//   if it's a not found error, then just return empty
-			return EmptyMetaDatabase.getInstance();
+			// The cache gives us empty meta if the document doesn't exist, so this is a connection error or invalid meta
+			throw new DatabaseException("Could not query meta", e);
 		}
 	}
 
@@ -0,0 +1,71 @@
+package me.retrodaredevil.solarthing.rest.cache;
+
+import me.retrodaredevil.solarthing.cache.packets.IdentificationCacheNode;
+import me.retrodaredevil.solarthing.cache.packets.data.ChargeControllerAccumulationDataCache;
+import me.retrodaredevil.solarthing.packets.TimestampedPacket;
+import me.retrodaredevil.solarthing.packets.identification.Identifier;
+import me.retrodaredevil.solarthing.packets.identification.IdentifierFragment;
+import me.retrodaredevil.solarthing.packets.identification.IdentityInfo;
+import me.retrodaredevil.solarthing.packets.identification.SingleTypeIdentifier;
+import me.retrodaredevil.solarthing.solar.accumulation.value.FloatAccumulationValue;
+import me.retrodaredevil.solarthing.solar.accumulation.value.FloatAccumulationValueFactory;
+import me.retrodaredevil.solarthing.solar.common.DailyData;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CacheCalcTest {
+	private static final long MINUTE = 60 * 1000;
+	private static final Identifier IDENTIFIER = new SingleTypeIdentifier("test");
+
+	private static final class KWHPacket implements DailyData {
+		private final float kwh;
+
+		private KWHPacket(float kwh) {
+			this.kwh = kwh;
+		}
+
+		@Override
+		public boolean isNewDay(DailyData previousDailyData) {
+			return kwh < ((KWHPacket) previousDailyData).kwh;
+		}
+
+		@Override
+		public Identifier getIdentifier() {
+			return IDENTIFIER;
+		}
+
+		@Override
+		public IdentityInfo getIdentityInfo() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	@Test
+	void testCalculateCacheWithReset() {
+		long periodStart = 1000 * 60 * MINUTE;
+		List<TimestampedPacket<KWHPacket>> packets = new ArrayList<>();
+		packets.add(new TimestampedPacket<>(new KWHPacket(1.0f), periodStart - 10 * MINUTE));
+		packets.add(new TimestampedPacket<>(new KWHPacket(1.5f), periodStart));
+		packets.add(new TimestampedPacket<>(new KWHPacket(2.0f), periodStart + 5 * MINUTE));
+		packets.add(new TimestampedPacket<>(new KWHPacket(0.0f), periodStart + 10 * MINUTE)); // reset
+		packets.add(new TimestampedPacket<>(new KWHPacket(0.5f), periodStart + 14 * MINUTE));
+		packets.add(new TimestampedPacket<>(new KWHPacket(3.0f), periodStart + 20 * MINUTE)); // after the period
+
+		IdentificationCacheNode<ChargeControllerAccumulationDataCache> node = CacheCalc.calculateCache(
+				IdentifierFragment.create(0, IDENTIFIER), packets, Instant.ofEpochMilli(periodStart), Duration.ofMinutes(15),
+				FloatAccumulationValue.convert(packet -> packet.kwh), FloatAccumulationValueFactory.getInstance(),
+				FloatAccumulationValue::getValue, ChargeControllerAccumulationDataCache::new
+		);
+		ChargeControllerAccumulationDataCache data = node.getData();
+		assertEquals(1.5f, data.getGenerationKWH());
+		assertEquals(0.0f, data.getUnknownGenerationKWH());
+		assertEquals(periodStart - 10 * MINUTE, data.getFirstDateMillis());
+		assertEquals(periodStart + 14 * MINUTE, data.getLastDateMillis());
+	}
+}
@@ -7,6 +7,7 @@ import me.retrodaredevil.couchdb.CouchDbUtil;
 import me.retrodaredevil.couchdb.CouchPropertiesBuilder;
 import me.retrodaredevil.okhttp3.OkHttpPropertiesBuilder;
 import me.retrodaredevil.solarthing.config.databases.implementations.CouchDbDatabaseSettings;
+import me.retrodaredevil.solarthing.rest.StatusArchive;
 import me.retrodaredevil.solarthing.rest.cache.CacheController;
 import me.retrodaredevil.solarthing.rest.cache.CacheHandler;
 import me.retrodaredevil.solarthing.rest.graphql.solcast.SolcastConfig;
@@ -26,8 +27,9 @@ class GraphQLProviderTest {
 				new OkHttpPropertiesBuilder().build()
 		);
 		ObjectMapper mapper = JacksonUtil.defaultMapper();
-		CacheController cacheController = new CacheController(new CacheHandler(mapper, DefaultInstanceOptions.DEFAULT_DEFAULT_INSTANCE_OPTIONS, CouchDbUtil.createInstance(couchDbDatabaseSettings.getCouchProperties(), couchDbDatabaseSettings.getOkHttpProperties())));
-		GraphQLSchema schema = GraphQLProvider.createGraphQLSchemaGenerator(JacksonUtil.defaultMapper(), couchDbDatabaseSettings, DefaultInstanceOptions.DEFAULT_DEFAULT_INSTANCE_OPTIONS, new SolcastConfig(Collections.emptyMap()), cacheController).generate();
+		CacheController cacheController = new CacheController(new CacheHandler(mapper, DefaultInstanceOptions.DEFAULT_DEFAULT_INSTANCE_OPTIONS, CouchDbUtil.createInstance(couchDbDatabaseSettings.getCouchProperties(), couchDbDatabaseSettings.getOkHttpProperties()), StatusArchive.createDisabled()));
+		SimpleQueryHandler simpleQueryHandler = new SimpleQueryHandler(DefaultInstanceOptions.DEFAULT_DEFAULT_INSTANCE_OPTIONS, couchDbDatabaseSettings, mapper, StatusArchive.createDisabled());
+		GraphQLSchema schema = GraphQLProvider.createGraphQLSchemaGenerator(mapper, simpleQueryHandler, new SolcastConfig(Collections.emptyMap()), cacheController).generate();
 		GraphQL.newGraphQL(schema).build();
 	}
 }
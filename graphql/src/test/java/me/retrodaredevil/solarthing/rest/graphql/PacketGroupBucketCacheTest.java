@@ -0,0 +1,158 @@
+package me.retrodaredevil.solarthing.rest.graphql;
+
+import me.retrodaredevil.solarthing.database.MillisDatabase;
+import me.retrodaredevil.solarthing.database.MillisQuery;
+import me.retrodaredevil.solarthing.database.UpdateToken;
+import me.retrodaredevil.solarthing.packets.Packet;
+import me.retrodaredevil.solarthing.packets.collection.DefaultInstanceOptions;
+import me.retrodaredevil.solarthing.packets.collection.InstancePacketGroup;
+import me.retrodaredevil.solarthing.packets.collection.PacketCollection;
+import me.retrodaredevil.solarthing.packets.collection.PacketGroup;
+import me.retrodaredevil.solarthing.packets.collection.PacketGroups;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PacketGroupBucketCacheTest {
+	private static final Duration BUCKET = Duration.ofSeconds(100);
+	private static final Duration SETTLE = Duration.ofSeconds(20);
+
+	@Test
+	void testClosedBucketsAreQueriedOnce() throws Exception {
+		FakeDatabase database = new FakeDatabase();
+		for (long seconds = 0; seconds < 1000; seconds += 10) {
+			database.add(t(seconds));
+		}
+		PacketGroupBucketCache cache = new PacketGroupBucketCache(database, DefaultInstanceOptions.DEFAULT_DEFAULT_INSTANCE_OPTIONS, BUCKET, SETTLE, 1000, () -> t(2000));
+
+		assertEquals(dates(150, 450), dates(cache.query(t(150), t(450))));
+		assertEquals(1, database.queries.size()); // consecutive buckets use a single query
+
+		assertEquals(dates(200, 300), dates(cache.query(t(200), t(300))));
+		assertEquals(1, database.queries.size());
+
+		assertEquals(dates(50, 650), dates(cache.query(t(50), t(650))));
+		assertEquals(3, database.queries.size()); // one for the bucket before and one for the buckets after
+	}
+
+	@Test
+	void testOpenBucketOnlyQueriesUnsettledPackets() throws Exception {
+		FakeDatabase database = new FakeDatabase();
+		long[] now = { 155 };
+		for (long seconds = 100; seconds <= 150; seconds += 10) {
+			database.add(t(seconds));
+		}
+		PacketGroupBucketCache cache = new PacketGroupBucketCache(database, DefaultInstanceOptions.DEFAULT_DEFAULT_INSTANCE_OPTIONS, BUCKET, SETTLE, 1000, () -> t(now[0]));
+		assertEquals(dates(100, 150), dates(cache.query(t(100), t(199))));
+		assertEquals(t(100), database.queries.get(0).getStartKey());
+
+		database.add(t(145)); // uploaded late, but within the settle duration
+		database.add(t(160));
+		now[0] = 165;
+		assertEquals(Collections.emptyList(), dates(cache.query(t(161), t(199))));
+		assertEquals(t(135), database.queries.get(1).getStartKey());
+
+		List<Long> expected = new ArrayList<>(dates(100, 160));
+		expected.add(5, t(145));
+		assertEquals(expected, dates(cache.query(t(100), t(199))));
+		assertEquals(2, database.queries.size()); // the last query was too recent to query again
+	}
+
+	@Test
+	void testEviction() throws Exception {
+		FakeDatabase database = new FakeDatabase();
+		for (long seconds = 0; seconds < 1000; seconds += 10) {
+			database.add(t(seconds));
+		}
+		// each bucket has 10 packets, so only 2 buckets fit
+		PacketGroupBucketCache cache = new PacketGroupBucketCache(database, DefaultInstanceOptions.DEFAULT_DEFAULT_INSTANCE_OPTIONS, BUCKET, SETTLE, 20, () -> t(2000));
+		cache.query(t(0), t(99));
+		cache.query(t(100), t(199));
+		cache.query(t(0), t(99)); // bucket 0 is now the most recently used
+		assertEquals(2, database.queries.size());
+		cache.query(t(200), t(299)); // evicts bucket 100
+		cache.query(t(0), t(99));
+		assertEquals(3, database.queries.size());
+		cache.query(t(100), t(199));
+		assertEquals(4, database.queries.size());
+	}
+
+	@Test
+	void testInvalidateClosedBucket() throws Exception {
+		FakeDatabase database = new FakeDatabase();
+		for (long seconds = 0; seconds < 200; seconds += 10) {
+			database.add(t(seconds));
+		}
+		PacketGroupBucketCache cache = new PacketGroupBucketCache(database, DefaultInstanceOptions.DEFAULT_DEFAULT_INSTANCE_OPTIONS, BUCKET, SETTLE, 1000, () -> t(2000));
+		assertEquals(dates(0, 190), dates(cache.query(t(0), t(199))));
+		assertEquals(1, database.queries.size());
+
+		database.add(t(105)); // uploaded long after its bucket closed
+		assertEquals(dates(0, 190), dates(cache.query(t(0), t(199))));
+		cache.invalidate(Collections.singletonList(PacketGroups.createPacketGroup(Collections.singletonList(new Packet() {}), t(105))));
+
+		List<Long> expected = new ArrayList<>(dates(0, 190));
+		expected.add(11, t(105));
+		assertEquals(expected, dates(cache.query(t(0), t(199))));
+		assertEquals(2, database.queries.size());
+		assertEquals(t(100), database.queries.get(1).getStartKey()); // only the invalidated bucket is queried again
+	}
+
+	/** Times in these tests are in seconds, since open buckets are only queried once per second */
+	private static long t(long seconds) {
+		return seconds * 1000;
+	}
+	/** @return Every 10 seconds from {@code from} to {@code to} in milliseconds */
+	private static List<Long> dates(long from, long to) {
+		List<Long> r = new ArrayList<>();
+		for (long seconds = from - from % 10 + (from % 10 == 0 ? 0 : 10); seconds <= to; seconds += 10) {
+			r.add(t(seconds));
+		}
+		return r;
+	}
+	private static List<Long> dates(List<? extends InstancePacketGroup> packetGroups) {
+		List<Long> r = new ArrayList<>();
+		for (InstancePacketGroup packetGroup : packetGroups) {
+			r.add(packetGroup.getDateMillis());
+		}
+		return r;
+	}
+
+	private static class FakeDatabase implements MillisDatabase {
+		private final List<PacketGroup> packetGroups = new ArrayList<>();
+		private final List<MillisQuery> queries = new ArrayList<>();
+
+		void add(long dateMillis) {
+			packetGroups.add(PacketGroups.createPacketGroup(Collections.singletonList(new Packet() {}), dateMillis));
+			packetGroups.sort((a, b) -> Long.compare(a.getDateMillis(), b.getDateMillis()));
+		}
+
+		@Override
+		public List<PacketGroup> query(MillisQuery query) {
+			queries.add(query);
+			List<PacketGroup> r = new ArrayList<>();
+			for (PacketGroup packetGroup : packetGroups) {
+				long dateMillis = packetGroup.getDateMillis();
+				if (dateMillis >= query.getStartKey() && (query.isInclusiveEnd() ? dateMillis <= query.getEndKey() : dateMillis < query.getEndKey())) {
+					r.add(packetGroup);
+				}
+			}
+			return r;
+		}
+
+		@Override
+		public UpdateToken uploadPacketCollection(PacketCollection packetCollection, UpdateToken updateToken) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public UpdateToken getCurrentUpdateToken(String documentId) {
+			throw new UnsupportedOperationException();
+		}
+	}
+}